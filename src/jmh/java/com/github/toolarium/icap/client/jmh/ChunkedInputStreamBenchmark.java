@@ -0,0 +1,112 @@
+/*
+ * ChunkedInputStreamBenchmark.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.jmh;
+
+import com.github.toolarium.icap.client.impl.ChunkedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the decoding of an ICAP response by the {@link ChunkedInputStream}.
+ *
+ * @author patrick
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ChunkedInputStreamBenchmark {
+    private static final String NEWLINE = "\r\n";
+
+    /** The length of the content */
+    @Param({"1024", "65536", "1048576"})
+    public int contentLength;
+
+    /** The chunk size of the response */
+    @Param({"8192"})
+    public int chunkSize;
+
+    private byte[] response;
+    private int encapsulatedHeaderLength;
+    private byte[] buffer;
+
+
+    /**
+     * Prepare the response
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Setup
+    public void setup() throws IOException {
+        String httpHeader = "HTTP/1.1 403 Forbidden" + NEWLINE + "Content-Type: text/html" + NEWLINE + "Content-Length: " + contentLength + NEWLINE + NEWLINE;
+        encapsulatedHeaderLength = httpHeader.length();
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        out.write(("ICAP/1.0 200 OK" + NEWLINE
+                   + "Server: C-ICAP/0.5.10" + NEWLINE
+                   + "Connection: keep-alive" + NEWLINE
+                   + "ISTag: \"CI0001-2-clamav-100\"" + NEWLINE
+                   + "X-Infection-Found: Type=0; Resolution=2; Threat=Eicar-Signature;" + NEWLINE
+                   + "X-Violations-Found: 1" + NEWLINE
+                   + "Encapsulated: res-hdr=0, res-body=" + encapsulatedHeaderLength + NEWLINE + NEWLINE
+                   + httpHeader).getBytes(StandardCharsets.US_ASCII));
+
+        byte[] chunk = new byte[chunkSize];
+        for (int i = 0; i < chunk.length; i++) {
+            chunk[i] = (byte) ('a' + (i % 26));
+        }
+
+        for (int offset = 0; offset < contentLength; offset += chunkSize) {
+            int length = Math.min(chunkSize, contentLength - offset);
+            out.write((Integer.toHexString(length) + NEWLINE).getBytes(StandardCharsets.US_ASCII));
+            out.write(chunk, 0, length);
+            out.write(NEWLINE.getBytes(StandardCharsets.US_ASCII));
+        }
+        out.write(("0" + NEWLINE + NEWLINE).getBytes(StandardCharsets.US_ASCII));
+
+        response = out.toByteArray();
+        buffer = new byte[8192];
+    }
+
+
+    /**
+     * Decode the response: read the ICAP header and the content
+     *
+     * @return the length of the decoded content
+     * @throws IOException In case of an I/O error
+     */
+    @Benchmark
+    public long decode() throws IOException {
+        try (ChunkedInputStream is = new ChunkedInputStream("benchmark", new ByteArrayInputStream(response))) {
+            is.readHeader();
+            is.prepareContent(encapsulatedHeaderLength, true);
+
+            long total = 0;
+            int readBytes;
+            while ((readBytes = is.read(buffer)) > 0) {
+                total += readBytes;
+            }
+            return total;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * ICAPParserBenchmark.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.jmh;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.impl.parser.ICAPHeaderParser;
+import com.github.toolarium.icap.client.impl.parser.ICAPParser;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the {@link ICAPParser} against the byte level {@link ICAPHeaderParser}.
+ *
+ * @author patrick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ICAPParserBenchmark {
+    private static final String STATUS_LINE = "ICAP/1.0 200 OK";
+    private static final List<String> HEADER_LINES = Arrays.asList(STATUS_LINE,
+                                                                   "Server: C-ICAP/0.5.10",
+                                                                   "Connection: keep-alive",
+                                                                   "ISTag: \"CI0001-2-clamav-100\"",
+                                                                   "X-Infection-Found: Type=0; Resolution=2; Threat=Eicar-Signature;",
+                                                                   "X-Violations-Found: 1",
+                                                                   "Methods: RESPMOD, REQMOD",
+                                                                   "Allow: 204",
+                                                                   "Encapsulated: res-hdr=0, res-body=108");
+    private static final byte[] HEADER = (String.join("\r\n", HEADER_LINES) + "\r\n").getBytes(StandardCharsets.UTF_8);
+
+
+    /**
+     * Parse the header lines of an ICAP response
+     *
+     * @return the parsed header
+     */
+    @Benchmark
+    public Map<String, List<String>> parseHeader() {
+        return ICAPParser.getInstance().parseHeader(HEADER_LINES);
+    }
+
+
+    /**
+     * Parse the status line of an ICAP response
+     *
+     * @return the parsed status line
+     */
+    @Benchmark
+    public ICAPHeaderInformation parseICAPHeaderInformation() {
+        return ICAPParser.getInstance().parseICAPHeaderInformation(STATUS_LINE);
+    }
+
+
+    /**
+     * Parse the raw header of an ICAP response with the byte level parser
+     *
+     * @return the parsed header
+     */
+    @Benchmark
+    public Map<String, List<String>> parseHeaderBytes() {
+        return ICAPHeaderParser.getInstance().parseHeader(HEADER, 0, HEADER.length);
+    }
+
+
+    /**
+     * Parse the header lines of an ICAP response and read the header values the client evaluates
+     *
+     * @return the read header values
+     */
+    @Benchmark
+    public int parseHeaderAndRead() {
+        return readHeader(ICAPParser.getInstance().parseHeader(HEADER_LINES));
+    }
+
+
+    /**
+     * Parse the raw header of an ICAP response with the byte level parser and read the header values the client evaluates
+     *
+     * @return the read header values
+     */
+    @Benchmark
+    public int parseHeaderBytesAndRead() {
+        return readHeader(ICAPHeaderParser.getInstance().parseHeader(HEADER, 0, HEADER.length));
+    }
+
+
+    /**
+     * Parse the status line of an ICAP response with the {@link ICAPHeaderParser}, it scans the characters of the status line
+     * instead of matching a regular expression
+     *
+     * @return the parsed status line
+     */
+    @Benchmark
+    public ICAPHeaderInformation parseICAPHeaderInformationWithoutRegex() {
+        return ICAPHeaderParser.getInstance().parseICAPHeaderInformation(STATUS_LINE);
+    }
+
+
+    /**
+     * Read the header values the client evaluates
+     *
+     * @param header the header
+     * @return the number of read values
+     */
+    private int readHeader(Map<String, List<String>> header) {
+        return header.get(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE).size() + header.get(ICAPConstants.HEADER_KEY_ENCAPSULATED).size()
+               + header.get(ICAPConstants.HEADER_KEY_CONNECTION).size() + header.get(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND).size();
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * ICAPRequestBenchmark.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.jmh;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.impl.ICAPClientImpl;
+import com.github.toolarium.icap.client.impl.ICAPConnectionManagerImpl;
+import com.github.toolarium.icap.client.impl.dto.ICAPRemoteServiceConfigurationImpl;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the construction of the ICAP request header of a resource.
+ *
+ * @author patrick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ICAPRequestBenchmark {
+    private RequestClient client;
+    private ICAPRequestInformation requestInformation;
+    private ICAPResource resource;
+
+
+    /**
+     * Prepare the client and the resource
+     */
+    @Setup
+    public void setup() {
+        ICAPServiceInformation serviceInformation = new ICAPServiceInformation("localhost", 1344, false, "srv_clamav", 3600);
+        client = new RequestClient(serviceInformation);
+        requestInformation = new ICAPRequestInformation("user", "benchmark");
+        byte[] content = new byte[4096];
+        resource = new ICAPResource("benchmark document.pdf", new ByteArrayInputStream(content), content.length);
+    }
+
+
+    /**
+     * Create the request header of a resource
+     *
+     * @return the request header
+     * @throws IOException In case of an I/O error
+     */
+    @Benchmark
+    public byte[] createResourceRequest() throws IOException {
+        return client.createRequest(requestInformation, resource);
+    }
+
+
+    /**
+     * Exposes the request header construction of the client
+     */
+    static class RequestClient extends ICAPClientImpl {
+
+        /**
+         * Constructor for RequestClient
+         *
+         * @param serviceInformation the service information
+         */
+        RequestClient(ICAPServiceInformation serviceInformation) {
+            super(new ICAPConnectionManagerImpl(), serviceInformation, new ICAPRemoteServiceConfigurationImpl());
+        }
+
+
+        /**
+         * Create the request header
+         *
+         * @param requestInformation the request information
+         * @param resource the resource
+         * @return the request header
+         * @throws IOException In case of an I/O error
+         */
+        byte[] createRequest(ICAPRequestInformation requestInformation, ICAPResource resource) throws IOException {
+            return createResourceRequest("benchmark", ICAPMode.RESPMOD, requestInformation, getRemoteServiceConfiguration(requestInformation), resource, 1024);
+        }
+    }
+}
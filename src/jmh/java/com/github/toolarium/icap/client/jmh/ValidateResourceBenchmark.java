@@ -0,0 +1,122 @@
+/*
+ * ValidateResourceBenchmark.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.jmh;
+
+import com.github.toolarium.icap.client.ICAPClient;
+import com.github.toolarium.icap.client.ICAPConnectionManager;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.exception.ContentBlockedException;
+import com.github.toolarium.icap.client.impl.ICAPClientImpl;
+import com.github.toolarium.icap.client.impl.ICAPConnectionManagerImpl;
+import com.github.toolarium.icap.client.impl.ICAPPooledConnectionManagerImpl;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Benchmarks the validation of a resource end-to-end against the {@link ICAPTestServer}.
+ *
+ * @author patrick
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ValidateResourceBenchmark {
+
+    /** The length of the content */
+    @Param({"1024", "65536", "1048576"})
+    public int contentLength;
+
+    /** The verdict of the server */
+    @Param({"UNMODIFIED", "ECHO"})
+    public ICAPTestServer.Verdict verdict;
+
+    /** The message digest algorithm to compare the content or NONE to skip the comparison */
+    @Param({"NONE", "SHA-256", "CRC32C"})
+    public String messageDigestAlgorithm;
+
+    /** True to keep the connections open */
+    @Param({"false", "true"})
+    public boolean persistentConnection;
+
+    private ICAPTestServer server;
+    private ICAPClient client;
+    private byte[] content;
+
+
+    /**
+     * Start the server and prepare the client
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Setup(Level.Trial)
+    public void setup() throws IOException {
+        server = new ICAPTestServer().setVerdict(verdict).start();
+
+        ICAPConnectionManager connectionManager;
+        if (persistentConnection) {
+            connectionManager = new ICAPPooledConnectionManagerImpl();
+        } else {
+            connectionManager = new ICAPConnectionManagerImpl();
+        }
+
+        client = new ICAPClientImpl(connectionManager, server.createServiceInformation(), null);
+        if (!"NONE".equals(messageDigestAlgorithm)) {
+            client.supportCompareVerifyIdenticalContent(true).messageDigestAlgorithm(messageDigestAlgorithm);
+        }
+        client.options();
+
+        content = new byte[contentLength];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) ('a' + (i % 26));
+        }
+    }
+
+
+    /**
+     * Stop the server
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+
+    /**
+     * Validate a resource
+     *
+     * @return the ICAP header information
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    @Benchmark
+    public ICAPHeaderInformation validateResource() throws IOException, ContentBlockedException {
+        return client.validateResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), new ICAPResource("benchmark", new ByteArrayInputStream(content), content.length));
+    }
+}
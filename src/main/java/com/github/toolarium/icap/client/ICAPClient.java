@@ -10,12 +10,22 @@ import com.github.toolarium.icap.client.dto.ICAPMode;
 import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
 import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
 import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
 import com.github.toolarium.icap.client.exception.ContentBlockedException;
+import com.github.toolarium.icap.client.util.ICAPClientUtil;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 
 /**
- * Defines the ICAP client
+ * Defines the ICAP client. A client is thread-safe and can be shared. The methods which were added after the first release
+ * have a default implementation based on {@link #validateResource(ICAPMode, ICAPRequestInformation, ICAPResource)}, an
+ * implementation overrides them to support all features.
  *
  * @author Patrick Meier
  */
@@ -64,12 +74,212 @@ public interface ICAPClient {
      */
     ICAPHeaderInformation validateResource(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource) throws IOException, ContentBlockedException;
 
+
+    /**
+     * Scan a resource. In contrast to {@link #validateResource(ICAPMode, ICAPResource)} a blocked resource is reported by the
+     * verdict of the scan result and not by a {@link ContentBlockedException}.
+     *
+     * @param mode the ICAP mode
+     * @param resource the ICAP resource
+     * @return the scan result
+     * @throws IOException In case of an I/O error
+     */
+    default ICAPScanResult scanResource(ICAPMode mode, ICAPResource resource) throws IOException {
+        return scanResource(mode, new ICAPRequestInformation(), resource);
+    }
+
+
+    /**
+     * Scan a resource. In contrast to {@link #validateResource(ICAPMode, ICAPRequestInformation, ICAPResource)} a blocked resource 
+     * is reported by the verdict of the scan result and not by a {@link ContentBlockedException}.
+     *
+     * @param mode the ICAP mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @return the scan result
+     * @throws IOException In case of an I/O error
+     */
+    default ICAPScanResult scanResource(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource) throws IOException {
+        try {
+            return new ICAPScanResult(ICAPScanResult.Verdict.CLEAN, null, validateResource(mode, requestInformation, resource), null);
+        } catch (ContentBlockedException e) {
+            return new ICAPScanResult(ICAPScanResult.Verdict.THREAT, ICAPClientUtil.getInstance().readThreatNames(e.getICAPHeaderInformation()), e.getICAPHeaderInformation(), e.getContent());
+        }
+    }
+
+
+    /**
+     * Scan a resource and stream the content which is returned by the server (e.g. the sanitized resource of a 200 response)
+     * into the given output stream as it arrives, the content is neither buffered on the heap nor in a temporary file.
+     * Nothing is written in case the server doesn't modify the resource (204) or in case of a threat, the block page of a threat
+     * is returned by the content of the scan result. The output stream is flushed but not closed.
+     * In case the client doesn't support to stream the returned content (e.g. by the default implementation) the resource is
+     * only scanned and the output stream stays empty.
+     *
+     * @param mode the ICAP mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @param contentOutputStream the output stream of the returned content or null to only scan the resource
+     * @return the scan result
+     * @throws IOException In case of an I/O error
+     */
+    default ICAPScanResult scanResource(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource, OutputStream contentOutputStream) throws IOException {
+        return scanResource(mode, requestInformation, resource);
+    }
+
+
+    /**
+     * Scan a resource and stream the content which is returned by the server (e.g. the sanitized resource of a 200 response)
+     * into the given channel as it arrives, see {@link #scanResource(ICAPMode, ICAPRequestInformation, ICAPResource, OutputStream)}.
+     * The channel is not closed.
+     *
+     * @param mode the ICAP mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @param contentChannel the channel of the returned content or null to only scan the resource
+     * @return the scan result
+     * @throws IOException In case of an I/O error
+     */
+    default ICAPScanResult scanResource(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource, WritableByteChannel contentChannel) throws IOException {
+        OutputStream contentOutputStream = null;
+        if (contentChannel != null) {
+            contentOutputStream = Channels.newOutputStream(contentChannel);
+        }
+
+        return scanResource(mode, requestInformation, resource, contentOutputStream);
+    }
+
+
+    /**
+     * Validate a resource asynchronously. The returned future completes exceptionally with a {@link ContentBlockedException} 
+     * in case the content is blocked or with an {@link IOException} in case of an I/O error.
+     *
+     * @param mode the ICAP mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @return the future of the ICAP header information
+     */
+    default CompletableFuture<ICAPHeaderInformation> validateResourceAsync(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource) {
+        return validateResourceAsync(mode, requestInformation, resource, ICAPClientUtil.getInstance().getDefaultExecutor());
+    }
+
+
+    /**
+     * Validate a resource asynchronously. The returned future completes exceptionally with a {@link ContentBlockedException} 
+     * in case the content is blocked or with an {@link IOException} in case of an I/O error.
+     *
+     * @param mode the ICAP mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @param executor the executor which processes the request
+     * @return the future of the ICAP header information
+     */
+    default CompletableFuture<ICAPHeaderInformation> validateResourceAsync(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource, Executor executor) {
+        final CompletableFuture<ICAPHeaderInformation> result = new CompletableFuture<ICAPHeaderInformation>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(validateResource(mode, requestInformation, resource));
+                } catch (IOException | ContentBlockedException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+
+
+    /**
+     * Scan a resource asynchronously. The returned future completes with the scan result also in case the content is blocked 
+     * and only exceptionally with an {@link IOException} in case of an I/O error.
+     *
+     * @param mode the ICAP mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @return the future of the scan result
+     */
+    default CompletableFuture<ICAPScanResult> scanResourceAsync(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource) {
+        return scanResourceAsync(mode, requestInformation, resource, ICAPClientUtil.getInstance().getDefaultExecutor());
+    }
+
+
+    /**
+     * Scan a resource asynchronously. The returned future completes with the scan result also in case the content is blocked 
+     * and only exceptionally with an {@link IOException} in case of an I/O error.
+     *
+     * @param mode the ICAP mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @param executor the executor which processes the request
+     * @return the future of the scan result
+     */
+    default CompletableFuture<ICAPScanResult> scanResourceAsync(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource, Executor executor) {
+        final CompletableFuture<ICAPScanResult> result = new CompletableFuture<ICAPScanResult>();
+        try {
+            executor.execute(() -> {
+                try {
+                    result.complete(scanResource(mode, requestInformation, resource));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
     
     /**
      * Define if the client support verify and compare input and output content
      *
      * @param supportCompareVerifyIdenticalContent true to support; otherwise false (by default = false)
-     * @return this client
+     * @return the configured client, a configured copy in case the client is shared (e.g. by the ICAPClientFactory)
      */
     ICAPClient supportCompareVerifyIdenticalContent(boolean supportCompareVerifyIdenticalContent);
+
+
+    /**
+     * Define the algorithm of the message digest which is used to compare the sent and the returned content. Besides the 
+     * cryptographic algorithms (e.g. SHA-256) the faster non-cryptographic checksum CRC32C is supported. The message digest
+     * is only computed in case the client compares the content or the request information requests it. The setting is a hint,
+     * a client which doesn't support it (e.g. by the default implementation) ignores it.
+     *
+     * @param messageDigestAlgorithm the algorithm (by default = SHA-256)
+     * @return the configured client, a configured copy in case the client is shared (e.g. by the ICAPClientFactory)
+     * @throws IllegalArgumentException In case of an unsupported algorithm
+     */
+    default ICAPClient messageDigestAlgorithm(String messageDigestAlgorithm) {
+        return this;
+    }
+
+
+    /**
+     * Define the max size of a response content which is kept in memory. Bigger responses are spooled into a temporary file.
+     * The setting is a hint, a client which doesn't support it (e.g. by the default implementation) ignores it.
+     *
+     * @param responseMemoryThreshold the max size in bytes (by default = 262144)
+     * @return the configured client, a configured copy in case the client is shared (e.g. by the ICAPClientFactory)
+     * @throws IllegalArgumentException In case of a negative threshold
+     */
+    default ICAPClient responseMemoryThreshold(int responseMemoryThreshold) {
+        return this;
+    }
+
+
+    /**
+     * Define the block size of the resource upload. Each block is sent as one chunk. The setting is a hint, a client which
+     * doesn't support it (e.g. by the default implementation) ignores it.
+     *
+     * @param blockSize the block size in bytes (by default = 8192)
+     * @return the configured client, a configured copy in case the client is shared (e.g. by the ICAPClientFactory)
+     * @throws IllegalArgumentException In case of an invalid block size
+     */
+    default ICAPClient blockSize(int blockSize) {
+        return this;
+    }
 }
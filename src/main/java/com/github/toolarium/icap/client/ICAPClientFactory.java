@@ -6,28 +6,41 @@
 package com.github.toolarium.icap.client;
 
 import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPServiceGroup;
 import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.impl.ICAPCircuitBreaker;
 import com.github.toolarium.icap.client.impl.ICAPClientImpl;
 import com.github.toolarium.icap.client.impl.ICAPConnectionManagerImpl;
+import com.github.toolarium.icap.client.impl.ICAPLoadBalancingClientImpl;
+import com.github.toolarium.icap.client.impl.ICAPOptionsCache;
+import com.github.toolarium.icap.client.impl.ICAPVerdictCache;
 import java.io.IOException;
 import java.net.MalformedURLException;
-import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 
 /**
- * ICAP client factory
+ * ICAP client factory. The clients are thread-safe and cached per service, the same instance is returned for the same service
+ * information. The settings of a shared client are not changed: e.g. {@link ICAPClient#blockSize(int)} returns a configured copy
+ * which shares the connections, the remote service configuration and the caches with the client of the service.
  *
  * @author Patrick Meier
  */
 public final class ICAPClientFactory {
     private static final int DEFAULT_MAX_CACHE_AGE = 12 * 60 * 60;
     private static final Logger LOG = LoggerFactory.getLogger(ICAPClientFactory.class);
-    private Map<ICAPServiceInformation, ICAPRemoteServiceConfiguration> serviceCache;
+    private ICAPOptionsCache serviceCache;
+    private Map<ICAPServiceInformation, ICAPClient> clientCache;
+    private Map<ICAPServiceGroup, ICAPLoadBalancingClientImpl> serviceGroupClientCache;
     private ICAPConnectionManager connectionManager;
+    private Executor executor;
+    private ICAPVerdictCache verdictCache;
+    private ICAPCircuitBreaker circuitBreaker;
+    private ICAPMetricsListener metricsListener;
     
     
     /**
@@ -44,7 +57,9 @@ public final class ICAPClientFactory {
      * Constructor
      */
     private ICAPClientFactory() {
-        serviceCache = new ConcurrentHashMap<ICAPServiceInformation, ICAPRemoteServiceConfiguration>();
+        serviceCache = new ICAPOptionsCache();
+        clientCache = new ConcurrentHashMap<ICAPServiceInformation, ICAPClient>();
+        serviceGroupClientCache = new ConcurrentHashMap<ICAPServiceGroup, ICAPLoadBalancingClientImpl>();
         connectionManager = new ICAPConnectionManagerImpl();
     }
 
@@ -81,9 +96,101 @@ public final class ICAPClientFactory {
         }
         
         this.connectionManager = connectionManager;
+        clearClientCache();
     }
     
     
+    /**
+     * Gets the executor of the asynchronous requests
+     *
+     * @return the executor or null if the default executor is used
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+
+    /**
+     * Sets the executor of the asynchronous requests, see {@link ICAPClient#validateResourceAsync(com.github.toolarium.icap.client.dto.ICAPMode, 
+     * com.github.toolarium.icap.client.dto.ICAPRequestInformation, com.github.toolarium.icap.client.dto.ICAPResource)}.
+     * In case of an {@link com.github.toolarium.icap.client.impl.nio.ICAPEventLoop} the requests are sent over the non-blocking transport.
+     *
+     * @param executor the executor or null to use the default executor
+     */
+    public void setExecutor(Executor executor) {
+        this.executor = executor;
+        clearClientCache();
+    }
+
+
+    /**
+     * Gets the verdict cache
+     *
+     * @return the verdict cache or null if there is no verdict cache
+     */
+    public ICAPVerdictCache getVerdictCache() {
+        return verdictCache;
+    }
+
+
+    /**
+     * Sets the verdict cache. In case a resource with the same content was already validated by the same service (ISTag),
+     * the cached verdict is returned without a request to the ICAP server.
+     * On a cache miss the resource is read twice, once for the content digest and once for the upload. The verdict cache is
+     * not used in streaming mode, see {@link com.github.toolarium.icap.client.dto.ICAPRequestInformation#setStreaming(boolean)}.
+     *
+     * @param verdictCache the verdict cache or null to disable the cache (default)
+     */
+    public void setVerdictCache(ICAPVerdictCache verdictCache) {
+        this.verdictCache = verdictCache;
+        clearClientCache();
+    }
+
+
+    /**
+     * Gets the circuit breaker
+     *
+     * @return the circuit breaker or null if there is no circuit breaker
+     */
+    public ICAPCircuitBreaker getCircuitBreaker() {
+        return circuitBreaker;
+    }
+
+
+    /**
+     * Sets the circuit breaker. As soon as the failure rate of a service reaches the threshold, the requests to the service
+     * fail fast with a {@link com.github.toolarium.icap.client.exception.CircuitBreakerOpenException} until trial requests succeed again.
+     *
+     * @param circuitBreaker the circuit breaker or null to disable it (default)
+     */
+    public void setCircuitBreaker(ICAPCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        clearClientCache();
+    }
+
+
+    /**
+     * Gets the metrics listener
+     *
+     * @return the metrics listener or null if there is no metrics listener
+     */
+    public ICAPMetricsListener getMetricsListener() {
+        return metricsListener;
+    }
+
+
+    /**
+     * Sets the metrics listener which is called after each request which validated a resource, e.g. an
+     * {@link com.github.toolarium.icap.client.impl.ICAPHistogramMetricsListener}.
+     *
+     * @param metricsListener the metrics listener or null to disable the metrics (default)
+     */
+    public void setMetricsListener(ICAPMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        clearClientCache();
+    }
+
+
     /**
      * Get the ICAP client
      *
@@ -130,7 +237,7 @@ public final class ICAPClientFactory {
      * Get the ICAP client
      *
      * @param icapUrl the icap url, e.g. icap://localhost:1344/srv_clamav or icaps://localhost:1344/srv_clamav
-     * @param cacheMaxAgeInSeconds the max age in seconds of the cache
+     * @param cacheMaxAgeInSeconds the max age in seconds of the cache in case the server doesn't announce the Options-TTL
      * @return the ICAP client
      * @throws MalformedURLException In case of an invalid URL
      * @throws IOException In case of an I/O error
@@ -179,38 +286,76 @@ public final class ICAPClientFactory {
      * @param servicePort the service port
      * @param serviceName the service name
      * @param secureConnection true to use icaps connection (secured SSLSocket connection)
-     * @param cacheMaxAgeInSeconds the max age in seconds of the cache
+     * @param cacheMaxAgeInSeconds the max age in seconds of the cache in case the server doesn't announce the Options-TTL
      * @return the ICAP client
      * @throws IOException In case of an I/O error
      */
     public ICAPClient getICAPClient(String hostName, int servicePort, String serviceName, boolean secureConnection, int cacheMaxAgeInSeconds) throws IOException {
         ICAPServiceInformation serviceInformation = new ICAPServiceInformation(hostName, servicePort, secureConnection, serviceName, cacheMaxAgeInSeconds);
+        ICAPClient client = clientCache.get(serviceInformation);
+        if (client != null) {
+            return client;
+        }
         
-        ICAPRemoteServiceConfiguration remoteServiceConfiguration = serviceCache.get(serviceInformation);
-
-        if (remoteServiceConfiguration == null 
-                || remoteServiceConfiguration.getTimestamp() == null 
-                || ((Instant.now().getEpochSecond() - remoteServiceConfiguration.getTimestamp().getEpochSecond()) > serviceInformation.getCacheMaxAgeInSeconds())) { 
-            try {
-                ICAPClientImpl clientImpl = new ICAPClientImpl(getICAPConnectionManager(), serviceInformation, remoteServiceConfiguration);
-                remoteServiceConfiguration = clientImpl.options();
-                serviceCache.put(serviceInformation, remoteServiceConfiguration);
-                LOG.debug("Set remote service configuration cache: " + serviceInformation);
-            } catch (IOException e) {
-                LOG.debug("Could not get options from remote icap-server: " + e.getMessage(), e);
-                throw e;
-            }
-        } else {
-            String logCacheDuration = "";
-            Long diff = null;
-            if (remoteServiceConfiguration.getTimestamp() != null) {
-                diff = serviceInformation.getCacheMaxAgeInSeconds() + (Instant.now().getEpochSecond() - remoteServiceConfiguration.getTimestamp().getEpochSecond());
-                logCacheDuration = "(valid for " + diff + " seconds)";
-            }
-            
-            LOG.debug("Found remote service configuration in cache " + logCacheDuration + ": " + serviceInformation);
+        ICAPRemoteServiceConfiguration remoteServiceConfiguration;
+        try {
+            remoteServiceConfiguration = serviceCache.get(serviceInformation, this::loadRemoteServiceConfiguration);
+        } catch (IOException e) {
+            LOG.debug("Could not get options from remote icap-server: " + e.getMessage(), e);
+            throw e;
         }
         
-        return new ICAPClientImpl(getICAPConnectionManager(), serviceInformation, remoteServiceConfiguration);
+        return clientCache.computeIfAbsent(serviceInformation, key -> new ICAPClientImpl(getICAPConnectionManager(), key, remoteServiceConfiguration, getExecutor())
+                .setShared(true)
+                .setVerdictCache(getVerdictCache())
+                .setCircuitBreaker(getCircuitBreaker())
+                .setMetricsListener(getMetricsListener())
+                .setOptionsCache(serviceCache));
+    }
+
+
+    /**
+     * Get the ICAP client of a service group. The requests are distributed over the services (endpoints) of the group and fail
+     * over to another endpoint in case of a connection error or timeout. The same instance is returned for an equal service group.
+     *
+     * @param serviceGroup the service group
+     * @return the ICAP client
+     * @throws IllegalArgumentException In case of an invalid service group
+     */
+    public ICAPClient getICAPClient(ICAPServiceGroup serviceGroup) {
+        if (serviceGroup == null || serviceGroup.getServices().isEmpty()) {
+            throw new IllegalArgumentException("Invalid service group!");
+        }
+
+        return serviceGroupClientCache.computeIfAbsent(serviceGroup, key -> new ICAPLoadBalancingClientImpl(getICAPConnectionManager(), key, getExecutor())
+                .setShared(true)
+                .setVerdictCache(getVerdictCache())
+                .setCircuitBreaker(getCircuitBreaker())
+                .setMetricsListener(getMetricsListener())
+                .setOptionsCache(serviceCache));
+    }
+
+
+    /**
+     * Clear the cached clients, the health checks of the service group clients are stopped.
+     */
+    private void clearClientCache() {
+        clientCache.clear();
+        for (ICAPLoadBalancingClientImpl client : serviceGroupClientCache.values()) {
+            client.close();
+        }
+        serviceGroupClientCache.clear();
+    }
+
+
+    /**
+     * Load the remote service configuration by an OPTIONS request
+     *
+     * @param serviceInformation the service information
+     * @return the remote service configuration
+     * @throws IOException In case of an I/O error
+     */
+    private ICAPRemoteServiceConfiguration loadRemoteServiceConfiguration(ICAPServiceInformation serviceInformation) throws IOException {
+        return new ICAPClientImpl(getICAPConnectionManager(), serviceInformation, null, getExecutor()).setVerdictCache(getVerdictCache()).setCircuitBreaker(getCircuitBreaker()).options();
     }
 }
@@ -33,6 +33,32 @@ public interface ICAPConnectionManager {
     Socket createSocket(String hostname, int port, boolean secureConnection, Integer maxConnectionTimeout, Integer maxReadTimeout) throws UnknownHostException, IOException;
 
 
+    /**
+     * Release a socket connection which was created by {@link #createSocket(String, int, boolean, Integer, Integer)}.
+     * By default the socket will be closed.
+     *
+     * @param socket the socket to release
+     * @param hostname the name of the host
+     * @param port the port
+     * @param secureConnection true if it is a secured SSL connection
+     * @param reusable true if the ICAP response was fully consumed and the connection can be used for a further request
+     * @throws IOException In case of an I/O error
+     */
+    default void releaseSocket(Socket socket, String hostname, int port, boolean secureConnection, boolean reusable) throws IOException {
+        socket.close();
+    }
+
+
+    /**
+     * Defines if the connections are kept open after a request (persistent connection). If not the ICAP request is sent with the header Connection: close.
+     *
+     * @return true if the connections are kept open; otherwise false (by default = false)
+     */
+    default boolean isPersistentConnection() {
+        return false;
+    }
+
+
     /**
      * Define the default socket connection timeout in milliseconds or null. A timeout of null or zero are interpreted as an infinite timeout. The connection will then block.
      *
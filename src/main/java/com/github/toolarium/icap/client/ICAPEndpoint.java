@@ -0,0 +1,57 @@
+/*
+ * ICAPEndpoint.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client;
+
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+
+
+/**
+ * Defines an endpoint (ICAP server) of a service group and its current state.
+ *
+ * @author patrick
+ */
+public interface ICAPEndpoint {
+
+    /**
+     * Get the service information of the endpoint
+     *
+     * @return the service information
+     */
+    ICAPServiceInformation getServiceInformation();
+
+
+    /**
+     * Get the weight of the endpoint
+     *
+     * @return the weight
+     */
+    int getWeight();
+
+
+    /**
+     * Get the number of requests which are currently processed by the endpoint
+     *
+     * @return the number of requests in flight
+     */
+    int getInFlight();
+
+
+    /**
+     * Get the number of consecutive failures
+     *
+     * @return the number of consecutive failures
+     */
+    int getFailures();
+
+
+    /**
+     * Check if the endpoint is available. An endpoint is unavailable after a failed health check or too many consecutive
+     * failures until the retry delay is reached.
+     *
+     * @return true if the endpoint is available
+     */
+    boolean isAvailable();
+}
@@ -0,0 +1,27 @@
+/*
+ * ICAPLoadBalancer.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client;
+
+import java.util.List;
+
+
+/**
+ * Defines the strategy which selects the endpoint of a request in a service group, see
+ * {@link com.github.toolarium.icap.client.impl.ICAPRoundRobinLoadBalancer}, {@link com.github.toolarium.icap.client.impl.ICAPLeastInFlightLoadBalancer}
+ * and {@link com.github.toolarium.icap.client.impl.ICAPWeightedLoadBalancer}. An implementation has to be thread-safe.
+ *
+ * @author patrick
+ */
+public interface ICAPLoadBalancer {
+
+    /**
+     * Select the endpoint of a request
+     *
+     * @param endpoints the candidates, not empty. Unavailable endpoints and endpoints which already failed for the request are not part of it.
+     * @return the selected endpoint, one of the candidates
+     */
+    ICAPEndpoint select(List<ICAPEndpoint> endpoints);
+}
@@ -0,0 +1,26 @@
+/*
+ * ICAPMetricsListener.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client;
+
+import com.github.toolarium.icap.client.dto.ICAPRequestMetrics;
+
+
+/**
+ * Defines the listener of the request metrics, see {@link com.github.toolarium.icap.client.impl.ICAPHistogramMetricsListener}.
+ * It is called by the thread which processed the request, therefore an implementation has to be thread-safe and fast.
+ *
+ * @author patrick
+ */
+public interface ICAPMetricsListener {
+
+    /**
+     * Called after a request which validated a resource completed or failed. A verdict which is taken from the verdict cache
+     * is not reported.
+     *
+     * @param metrics the metrics of the request
+     */
+    void onRequest(ICAPRequestMetrics metrics);
+}
@@ -23,6 +23,10 @@ public interface ICAPConstants {
     // ICAP header headers
     String HEADER_KEY_PREVIEW = "Preview";
     String HEADER_KEY_ALLOW = "Allow";
+    String HEADER_KEY_OPTIONS_TTL = "Options-TTL";
+    String HEADER_KEY_TRANSFER_PREVIEW = "Transfer-Preview";
+    String HEADER_KEY_TRANSFER_IGNORE = "Transfer-Ignore";
+    String HEADER_KEY_TRANSFER_COMPLETE = "Transfer-Complete";
     String HEADER_KEY_X_VIOLATIONS_FOUND = "X-Violations-Found";
     String HEADER_KEY_X_INFECTION_FOUND = "X-Infection-Found";    
     String HEADER_KEY_X_BLOCKED = "X-Blocked"; // used by Sophos
@@ -36,6 +40,7 @@ public interface ICAPConstants {
     String HEADER_KEY_X_REQUEST_MESSAGE_DIGEST = "X-Request-Message-Digest";    
     String HEADER_KEY_X_RESPONSE_MESSAGE_DIGEST = "X-Response-Message-Digest";
     String HEADER_KEY_X_IDENTICAL_CONTENT = "X-Resource-Identical-Content";
+    String HEADER_KEY_X_TRANSFER_IGNORED = "X-Resource-Transfer-Ignored";
     
 
     /*
@@ -12,17 +12,17 @@ import java.util.Objects;
 
 
 /**
- * The ICAP header information
+ * The ICAP header information. The headers are case-insensitive, see {@link ICAPHeaderMap}.
  *
  * @author Patrick Meier
  */
 public class ICAPHeaderInformation implements Serializable {
-    private static final long serialVersionUID = -2307425606272132956L;   
+    private static final long serialVersionUID = 5409281316075268914L;   
     private String protocol;
     private String version;
     private int status;
     private String message;
-    private Map<String, List<String>> headers;
+    private ICAPHeaderMap headers;
 
 
     /**
@@ -127,13 +127,18 @@ public class ICAPHeaderInformation implements Serializable {
 
 
     /**
-     * Set the header entries
+     * Set the header entries, the headers are copied into an {@link ICAPHeaderMap} unless they are already one.
      *
      * @param headers the headers
      * @return the ICAPHeaderInformation
      */
     public ICAPHeaderInformation setHeaders(Map<String, List<String>> headers) {
-        this.headers = headers;
+        if (headers == null || headers instanceof ICAPHeaderMap) {
+            this.headers = (ICAPHeaderMap) headers;
+        } else {
+            this.headers = new ICAPHeaderMap(headers);
+        }
+
         return this;
     }
 
@@ -159,6 +164,17 @@ public class ICAPHeaderInformation implements Serializable {
     }
 
 
+    /**
+     * Check if at least one of the given well-known headers exists
+     *
+     * @param headerMask the mask of the headers, see {@link ICAPHeaderMap#toHeaderMask(String...)}
+     * @return true if at least one of them exists
+     */
+    public boolean containsAnyHeader(long headerMask) {
+        return headers != null && headers.containsAny(headerMask);
+    }
+
+
     /**
      * Get the header values
      *
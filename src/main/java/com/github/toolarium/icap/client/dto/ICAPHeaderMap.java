@@ -0,0 +1,423 @@
+/*
+ * ICAPHeaderMap.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.dto;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+
+/**
+ * Implements the headers of an ICAP response: a case-insensitive multimap which keeps the insertion order. The entries are kept
+ * in flat arrays and found by a linear scan, the headers of a response are few. The well-known header names of the {@link ICAPConstants}
+ * are precomputed as bits of a mask, which allows to check the presence of several headers at once, see {@link #containsAny(long)}.
+ *
+ * @author patrick
+ */
+public class ICAPHeaderMap extends AbstractMap<String, List<String>> implements Serializable {
+    private static final long serialVersionUID = -6185217930358830412L;
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final String[] KNOWN_HEADERS = {
+        ICAPConstants.HEADER_KEY_SERVER, ICAPConstants.HEADER_KEY_CONNECTION, ICAPConstants.HEADER_KEY_ISTAG, ICAPConstants.HEADER_KEY_CONTENT_LENGTH,
+        ICAPConstants.HEADER_KEY_TRANSFER_ENCODING, ICAPConstants.HEADER_KEY_ENCAPSULATED, ICAPConstants.HEADER_KEY_PREVIEW, ICAPConstants.HEADER_KEY_ALLOW,
+        ICAPConstants.HEADER_KEY_OPTIONS_TTL, ICAPConstants.HEADER_KEY_TRANSFER_PREVIEW, ICAPConstants.HEADER_KEY_TRANSFER_IGNORE,
+        ICAPConstants.HEADER_KEY_TRANSFER_COMPLETE, ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND, ICAPConstants.HEADER_KEY_X_INFECTION_FOUND,
+        ICAPConstants.HEADER_KEY_X_BLOCKED, ICAPConstants.HEADER_KEY_X_VIRUS_ID, ICAPConstants.HEADER_KEY_X_VIRUS_NAME, ICAPConstants.HEADER_KEY_X_BLOCK_REASON,
+        ICAPConstants.HEADER_KEY_X_BLOCK_RESULT, ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE, ICAPConstants.HEADER_KEY_X_REQUEST_MESSAGE_DIGEST,
+        ICAPConstants.HEADER_KEY_X_RESPONSE_MESSAGE_DIGEST, ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT, ICAPConstants.HEADER_KEY_X_TRANSFER_IGNORED};
+    private String[] keys;
+    private Object[] values;
+    private long[] headerBits;
+    private long headerMask;
+    private int size;
+
+
+    /**
+     * Constructor for ICAPHeaderMap
+     */
+    public ICAPHeaderMap() {
+        this(DEFAULT_CAPACITY);
+    }
+
+
+    /**
+     * Constructor for ICAPHeaderMap
+     *
+     * @param initialCapacity the initial capacity
+     */
+    public ICAPHeaderMap(int initialCapacity) {
+        if (initialCapacity < 0) {
+            throw new IllegalArgumentException("Invalid initial capacity!");
+        }
+
+        keys = new String[initialCapacity];
+        values = new Object[initialCapacity];
+        headerBits = new long[initialCapacity];
+        headerMask = 0;
+        size = 0;
+    }
+
+
+    /**
+     * Constructor for ICAPHeaderMap. The values of headers which only differ in case are merged.
+     *
+     * @param headers the headers to copy
+     */
+    public ICAPHeaderMap(Map<String, List<String>> headers) {
+        this(Math.max(DEFAULT_CAPACITY, headers.size()));
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            int index = indexOf(e.getKey());
+            if (index >= 0 && values[index] != null && e.getValue() != null) {
+                List<String> mergedValues = new ArrayList<String>(getValue(index));
+                mergedValues.addAll(e.getValue());
+                values[index] = mergedValues;
+            } else {
+                put(e.getKey(), e.getValue());
+            }
+        }
+    }
+
+
+    /**
+     * Get the mask of well-known headers, see {@link #containsAny(long)}.
+     *
+     * @param headers the header names of the {@link ICAPConstants}
+     * @return the mask
+     * @throws IllegalArgumentException In case of a header which is not well-known
+     */
+    public static long toHeaderMask(String... headers) {
+        long mask = 0;
+        for (String header : headers) {
+            long headerBit = getHeaderBit(header);
+            if (headerBit == 0) {
+                throw new IllegalArgumentException("Invalid header [" + header + "], only the headers of the ICAPConstants are supported!");
+            }
+
+            mask |= headerBit;
+        }
+
+        return mask;
+    }
+
+
+    /**
+     * Check if at least one of the well-known headers of the mask exists. In difference to a lookup per header it takes one operation.
+     *
+     * @param mask the mask of the well-known headers, see {@link #toHeaderMask(String...)}
+     * @return true if at least one of the headers exists
+     */
+    public boolean containsAny(long mask) {
+        return (headerMask & mask) != 0;
+    }
+
+
+    /**
+     * @see java.util.AbstractMap#size()
+     */
+    @Override
+    public int size() {
+        return size;
+    }
+
+
+    /**
+     * @see java.util.AbstractMap#containsKey(java.lang.Object)
+     */
+    @Override
+    public boolean containsKey(Object key) {
+        return indexOf(key) >= 0;
+    }
+
+
+    /**
+     * @see java.util.AbstractMap#get(java.lang.Object)
+     */
+    @Override
+    public List<String> get(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        return getValue(index);
+    }
+
+
+    /**
+     * @see java.util.AbstractMap#put(java.lang.Object, java.lang.Object)
+     */
+    @Override
+    public List<String> put(String key, List<String> value) {
+        if (key == null) {
+            throw new IllegalArgumentException("Invalid header name!");
+        }
+
+        int index = indexOf(key);
+        if (index >= 0) {
+            List<String> previousValue = getValue(index);
+            values[index] = value;
+            return previousValue;
+        }
+
+        if (size >= keys.length) {
+            int capacity = Math.max(DEFAULT_CAPACITY, keys.length * 2);
+            keys = Arrays.copyOf(keys, capacity);
+            values = Arrays.copyOf(values, capacity);
+            headerBits = Arrays.copyOf(headerBits, capacity);
+        }
+
+        keys[size] = key;
+        values[size] = value;
+        headerBits[size] = getHeaderBit(key);
+        headerMask |= headerBits[size];
+        size++;
+        return null;
+    }
+
+
+    /**
+     * @see java.util.AbstractMap#remove(java.lang.Object)
+     */
+    @Override
+    public List<String> remove(Object key) {
+        int index = indexOf(key);
+        if (index < 0) {
+            return null;
+        }
+
+        List<String> previousValue = getValue(index);
+        removeEntry(index);
+        return previousValue;
+    }
+
+
+    /**
+     * @see java.util.AbstractMap#clear()
+     */
+    @Override
+    public void clear() {
+        Arrays.fill(keys, 0, size, null);
+        Arrays.fill(values, 0, size, null);
+        Arrays.fill(headerBits, 0, size, 0);
+        headerMask = 0;
+        size = 0;
+    }
+
+
+    /**
+     * @see java.util.AbstractMap#entrySet()
+     */
+    @Override
+    public Set<Map.Entry<String, List<String>>> entrySet() {
+        return new EntrySet();
+    }
+
+
+    /**
+     * Find the index of a header. The well-known header names are constants, therefore the identity is checked before
+     * the names are compared case-insensitive.
+     *
+     * @param key the header name
+     * @return the index or -1 if it doesn't exist
+     */
+    private int indexOf(Object key) {
+        if (!(key instanceof String)) {
+            return -1;
+        }
+
+        for (int i = 0; i < size; i++) {
+            if (keys[i] == key) {
+                return i;
+            }
+        }
+
+        String name = (String) key;
+        for (int i = 0; i < size; i++) {
+            if (keys[i].length() == name.length() && keys[i].equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+
+        return -1;
+    }
+
+
+    /**
+     * Get the value of an entry
+     *
+     * @param index the index of the entry
+     * @return the value
+     */
+    @SuppressWarnings("unchecked")
+    private List<String> getValue(int index) {
+        return (List<String>) values[index];
+    }
+
+
+    /**
+     * Remove an entry
+     *
+     * @param index the index of the entry
+     */
+    private void removeEntry(int index) {
+        int moved = size - index - 1;
+        System.arraycopy(keys, index + 1, keys, index, moved);
+        System.arraycopy(values, index + 1, values, index, moved);
+        System.arraycopy(headerBits, index + 1, headerBits, index, moved);
+        size--;
+        keys[size] = null;
+        values[size] = null;
+        headerBits[size] = 0;
+
+        headerMask = 0;
+        for (int i = 0; i < size; i++) {
+            headerMask |= headerBits[i];
+        }
+    }
+
+
+    /**
+     * Get the bit of a well-known header
+     *
+     * @param header the header name
+     * @return the bit or 0 if it is not a well-known header
+     */
+    private static long getHeaderBit(String header) {
+        if (header == null) {
+            return 0;
+        }
+
+        for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+            if (KNOWN_HEADERS[i] == header) {
+                return 1L << i;
+            }
+        }
+
+        for (int i = 0; i < KNOWN_HEADERS.length; i++) {
+            if (KNOWN_HEADERS[i].length() == header.length() && KNOWN_HEADERS[i].equalsIgnoreCase(header)) {
+                return 1L << i;
+            }
+        }
+
+        return 0;
+    }
+
+
+    /**
+     * Implements the entry set, the entries are backed by the map
+     */
+    private class EntrySet extends AbstractSet<Map.Entry<String, List<String>>> {
+
+        /**
+         * @see java.util.AbstractCollection#iterator()
+         */
+        @Override
+        public Iterator<Map.Entry<String, List<String>>> iterator() {
+            return new EntryIterator();
+        }
+
+
+        /**
+         * @see java.util.AbstractCollection#size()
+         */
+        @Override
+        public int size() {
+            return size;
+        }
+
+
+        /**
+         * @see java.util.AbstractCollection#clear()
+         */
+        @Override
+        public void clear() {
+            ICAPHeaderMap.this.clear();
+        }
+    }
+
+
+    /**
+     * Implements the iterator of the entries
+     */
+    private class EntryIterator implements Iterator<Map.Entry<String, List<String>>> {
+        private int nextIndex;
+        private int lastIndex = -1;
+
+
+        /**
+         * @see java.util.Iterator#hasNext()
+         */
+        @Override
+        public boolean hasNext() {
+            return nextIndex < size;
+        }
+
+
+        /**
+         * @see java.util.Iterator#next()
+         */
+        @Override
+        public Map.Entry<String, List<String>> next() {
+            if (nextIndex >= size) {
+                throw new NoSuchElementException();
+            }
+
+            lastIndex = nextIndex++;
+            return new HeaderEntry(keys[lastIndex], getValue(lastIndex));
+        }
+
+
+        /**
+         * @see java.util.Iterator#remove()
+         */
+        @Override
+        public void remove() {
+            if (lastIndex < 0) {
+                throw new IllegalStateException();
+            }
+
+            removeEntry(lastIndex);
+            nextIndex = lastIndex;
+            lastIndex = -1;
+        }
+    }
+
+
+    /**
+     * Implements an entry which writes a new value through to the map
+     */
+    private class HeaderEntry extends AbstractMap.SimpleEntry<String, List<String>> {
+        private static final long serialVersionUID = 2719493125386427513L;
+
+
+        /**
+         * Constructor for HeaderEntry
+         *
+         * @param key the header name
+         * @param value the values
+         */
+        HeaderEntry(String key, List<String> value) {
+            super(key, value);
+        }
+
+
+        /**
+         * @see java.util.AbstractMap.SimpleEntry#setValue(java.lang.Object)
+         */
+        @Override
+        public List<String> setValue(List<String> value) {
+            put(getKey(), value);
+            return super.setValue(value);
+        }
+    }
+}
@@ -6,8 +6,10 @@
 package com.github.toolarium.icap.client.dto;
 
 import java.time.Instant;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 
 /**
@@ -55,4 +57,56 @@ public interface ICAPRemoteServiceConfiguration {
      * @return the header entries
      */
     Map<String, List<String>> getHeaders();
+
+
+    /**
+     * Get the time to live of the options as announced by the server (<code>Options-TTL</code>)
+     *
+     * @return the time to live in seconds or null if the server didn't announce it
+     */
+    default Integer getOptionsTTL() {
+        return null;
+    }
+
+
+    /**
+     * Get the file extensions of which the server wants a preview (<code>Transfer-Preview</code>)
+     *
+     * @return the lower case file extensions, <code>*</code> for all other extensions
+     */
+    default Set<String> getTransferPreview() {
+        return Collections.emptySet();
+    }
+
+
+    /**
+     * Get the file extensions which the server doesn't need to see (<code>Transfer-Ignore</code>)
+     *
+     * @return the lower case file extensions, <code>*</code> for all other extensions
+     */
+    default Set<String> getTransferIgnore() {
+        return Collections.emptySet();
+    }
+
+
+    /**
+     * Get the file extensions which the server wants to see completely without preview (<code>Transfer-Complete</code>)
+     *
+     * @return the lower case file extensions, <code>*</code> for all other extensions
+     */
+    default Set<String> getTransferComplete() {
+        return Collections.emptySet();
+    }
+
+
+    /**
+     * Get the transfer of a resource by the extension of its name. An extension which is not listed gets the transfer of the
+     * list with <code>*</code>, by default the resource is sent with a preview.
+     *
+     * @param resourceName the name of the resource
+     * @return the transfer
+     */
+    default ICAPTransfer getTransfer(String resourceName) {
+        return ICAPTransfer.PREVIEW;
+    }
 }
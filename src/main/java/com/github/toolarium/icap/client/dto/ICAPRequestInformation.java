@@ -31,6 +31,8 @@ public class ICAPRequestInformation implements Serializable {
     private Boolean allow204;
     private Integer maxConnectionTimeout;
     private Integer maxReadTimeout;
+    private Boolean messageDigest;
+    private boolean streaming;
     private Map<String, String> customHeaders;
 
 
@@ -240,6 +242,55 @@ public class ICAPRequestInformation implements Serializable {
     }
     
     
+    /**
+     * Check if the message digest of the sent and the returned content is computed (X-Request-Message-Digest and 
+     * X-Response-Message-Digest). By default (null) it is only computed in case the client compares the content.
+     *
+     * @return true to compute, false to skip the message digest or null to select it by the client
+     */
+    public Boolean isMessageDigest() {
+        return messageDigest;
+    }
+
+    
+    /**
+     * Set if the message digest of the sent and the returned content is computed (X-Request-Message-Digest and 
+     * X-Response-Message-Digest). Without message digest the content can't be compared.
+     *
+     * @param messageDigest true to compute, false to skip the message digest or null to select it by the client
+     * @return the ICAPRequestInformation
+     */
+    public ICAPRequestInformation setMessageDigest(Boolean messageDigest) {
+        this.messageDigest = messageDigest;
+        return this;
+    }
+    
+    
+    /**
+     * Check if the resource is scanned in streaming mode, see {@link #setStreaming(boolean)}.
+     *
+     * @return true in streaming mode
+     */
+    public boolean isStreaming() {
+        return streaming;
+    }
+
+
+    /**
+     * Set the streaming mode: the resource is only read up to the preview boundary until the server continues. In case the
+     * server decides on the preview (204 or 200), the resource body is handed back to the caller: it is replaced by a stream
+     * of the preview followed by the unread remaining part, see {@link ICAPResource#isResourceBodyRestored()}.
+     * A verdict cache is not used in streaming mode, its content digest would read the whole resource.
+     *
+     * @param streaming true to scan the resource in streaming mode
+     * @return the ICAPRequestInformation
+     */
+    public ICAPRequestInformation setStreaming(boolean streaming) {
+        this.streaming = streaming;
+        return this;
+    }
+    
+    
     /**
      * Get the custom headers
      *
@@ -284,7 +335,7 @@ public class ICAPRequestInformation implements Serializable {
      */
     @Override
     public int hashCode() {
-        return Objects.hash(allow204, apiVersion, customHeaders, maxConnectionTimeout, maxReadTimeout, requestSource, userAgent, username);
+        return Objects.hash(allow204, apiVersion, customHeaders, maxConnectionTimeout, maxReadTimeout, messageDigest, requestSource, streaming, userAgent, username);
     }
 
 
@@ -310,6 +361,7 @@ public class ICAPRequestInformation implements Serializable {
                 && Objects.equals(customHeaders, other.customHeaders)
                 && Objects.equals(maxConnectionTimeout, other.maxConnectionTimeout)
                 && Objects.equals(maxReadTimeout, other.maxReadTimeout)
+                && Objects.equals(messageDigest, other.messageDigest) && streaming == other.streaming
                 && Objects.equals(requestSource, other.requestSource) && Objects.equals(userAgent, other.userAgent)
                 && Objects.equals(username, other.username);
     }
@@ -322,7 +374,7 @@ public class ICAPRequestInformation implements Serializable {
     public String toString() {
         return "ICAPRequestInformation [userAgent=" + userAgent + ", apiVersion=" + apiVersion + ", username="
                 + username + ", requestSource=" + requestSource + ", allow204=" + allow204 + ", maxConnectionTimeout="
-                + maxConnectionTimeout + ", maxReadTimeout=" + maxReadTimeout + ", customHeaders=" + customHeaders
+                + maxConnectionTimeout + ", maxReadTimeout=" + maxReadTimeout + ", messageDigest=" + messageDigest + ", streaming=" + streaming + ", customHeaders=" + customHeaders
                 + "]";
     }
 
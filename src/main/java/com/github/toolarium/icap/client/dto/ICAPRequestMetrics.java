@@ -0,0 +1,179 @@
+/*
+ * ICAPRequestMetrics.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.dto;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+
+/**
+ * The metrics of a request which validated a resource: the duration of each phase, the transferred bytes, the ICAP status
+ * and the verdict.
+ *
+ * @author patrick
+ */
+public class ICAPRequestMetrics implements Serializable {
+    private static final long serialVersionUID = -2378101432513930471L;
+    private final ICAPServiceInformation serviceInformation;
+    private final ICAPMode mode;
+    private final long[] phaseDurations;
+    private final long duration;
+    private final long bytesSent;
+    private final long bytesReceived;
+    private final int status;
+    private final ICAPScanResult.Verdict verdict;
+
+
+    /**
+     * Defines the phases of a request
+     */
+    public enum Phase {
+        /** Establish the connection (or take it from the pool) */
+        CONNECT,
+
+        /** Send the header and the preview and wait for the 100 Continue of the server */
+        PREVIEW,
+
+        /** Send the resource or the remaining part after the preview */
+        UPLOAD,
+
+        /** Wait for the ICAP response header while the server processes the resource */
+        PROCESSING,
+
+        /** Receive the returned (modified) content */
+        DOWNLOAD
+    }
+
+
+    /**
+     * Constructor for ICAPRequestMetrics
+     *
+     * @param serviceInformation the service information
+     * @param mode the ICAP mode
+     * @param phaseDurations the duration of each phase in nanoseconds in the order of {@link Phase}
+     * @param duration the total duration in nanoseconds
+     * @param bytesSent the number of sent bytes
+     * @param bytesReceived the number of received bytes
+     * @param status the ICAP status or 0 if there is no response
+     * @param verdict the verdict or null in case the request failed
+     */
+    public ICAPRequestMetrics(ICAPServiceInformation serviceInformation, ICAPMode mode, long[] phaseDurations, long duration, long bytesSent, long bytesReceived, int status, ICAPScanResult.Verdict verdict) {
+        this.serviceInformation = serviceInformation;
+        this.mode = mode;
+        this.phaseDurations = Arrays.copyOf(phaseDurations, Phase.values().length);
+        this.duration = duration;
+        this.bytesSent = bytesSent;
+        this.bytesReceived = bytesReceived;
+        this.status = status;
+        this.verdict = verdict;
+    }
+
+
+    /**
+     * Get the service information
+     *
+     * @return the service information
+     */
+    public ICAPServiceInformation getServiceInformation() {
+        return serviceInformation;
+    }
+
+
+    /**
+     * Get the ICAP mode
+     *
+     * @return the ICAP mode
+     */
+    public ICAPMode getMode() {
+        return mode;
+    }
+
+
+    /**
+     * Get the duration of a phase
+     *
+     * @param phase the phase
+     * @return the duration in nanoseconds, 0 if the phase was not passed
+     */
+    public long getDuration(Phase phase) {
+        return phaseDurations[phase.ordinal()];
+    }
+
+
+    /**
+     * Get the total duration of the request
+     *
+     * @return the duration in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+
+    /**
+     * Get the number of sent bytes
+     *
+     * @return the number of sent bytes
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+
+    /**
+     * Get the number of received bytes
+     *
+     * @return the number of received bytes
+     */
+    public long getBytesReceived() {
+        return bytesReceived;
+    }
+
+
+    /**
+     * Get the final ICAP status
+     *
+     * @return the ICAP status or 0 if there is no response
+     */
+    public int getStatus() {
+        return status;
+    }
+
+
+    /**
+     * Get the verdict
+     *
+     * @return the verdict or null in case the request failed
+     */
+    public ICAPScanResult.Verdict getVerdict() {
+        return verdict;
+    }
+
+
+    /**
+     * Check if the request failed
+     *
+     * @return true if the request failed
+     */
+    public boolean isFailed() {
+        return verdict == null;
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder phases = new StringBuilder();
+        for (Phase phase : Phase.values()) {
+            phases.append(", ").append(phase.name().toLowerCase()).append('=').append(phaseDurations[phase.ordinal()] / 1000).append("us");
+        }
+
+        return "ICAPRequestMetrics [mode=" + mode + ", duration=" + (duration / 1000) + "us" + phases + ", bytesSent=" + bytesSent + ", bytesReceived=" + bytesReceived
+                + ", status=" + status + ", verdict=" + verdict + "]";
+    }
+}
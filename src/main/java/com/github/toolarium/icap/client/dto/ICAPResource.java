@@ -24,6 +24,7 @@ public class ICAPResource implements Serializable {
     private String resourceName;
     private InputStream resourceInputStream;
     private long resourceLength;
+    private boolean resourceBodyRestored;
 
     
     /**
@@ -145,6 +146,29 @@ public class ICAPResource implements Serializable {
     }
 
 
+    /**
+     * Check if the resource body was handed back after a scan in streaming mode: the server decided on the preview and the
+     * resource body starts again at the beginning (the preview followed by the unread remaining part).
+     *
+     * @return true if the resource body can be read again
+     */
+    public boolean isResourceBodyRestored() {
+        return resourceBodyRestored;
+    }
+
+
+    /**
+     * Set if the resource body was handed back after a scan in streaming mode.
+     *
+     * @param resourceBodyRestored true if the resource body can be read again
+     * @return the ICAPResource
+     */
+    public ICAPResource setResourceBodyRestored(boolean resourceBodyRestored) {
+        this.resourceBodyRestored = resourceBodyRestored;
+        return this;
+    }
+
+
     /**
      * @see java.lang.Object#hashCode()
      */
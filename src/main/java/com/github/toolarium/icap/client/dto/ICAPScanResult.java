@@ -0,0 +1,150 @@
+/*
+ * ICAPScanResult.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.dto;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * The result of a scanned resource: the verdict, the names of the found threats and the ICAP header information.
+ * In contrast to {@link com.github.toolarium.icap.client.exception.ContentBlockedException} a blocked resource is
+ * reported without any exception.
+ *
+ * @author patrick
+ */
+public class ICAPScanResult implements Serializable {
+    private static final long serialVersionUID = 6198731580744328610L;
+    private final Verdict verdict;
+    private final List<String> threatNames;
+    private final ICAPHeaderInformation icapHeaderInformation;
+    private final String content;
+
+
+    /**
+     * Defines the verdict of a scanned resource
+     */
+    public enum Verdict {
+        /** The resource is valid */
+        CLEAN,
+
+        /** A threat was found in the resource */
+        THREAT,
+
+        /** The returned content is not identical to the resource (only verified if the client supports it) */
+        NOT_IDENTICAL
+    }
+
+
+    /**
+     * Constructor for ICAPScanResult
+     *
+     * @param verdict the verdict
+     * @param threatNames the names of the found threats or null
+     * @param icapHeaderInformation the ICAP header information
+     * @param content the returned content in case of a threat, e.g. the block page, or null
+     */
+    public ICAPScanResult(Verdict verdict, List<String> threatNames, ICAPHeaderInformation icapHeaderInformation, String content) {
+        this.verdict = verdict;
+        if (threatNames == null) {
+            this.threatNames = Collections.emptyList();
+        } else {
+            this.threatNames = Collections.unmodifiableList(threatNames);
+        }
+        this.icapHeaderInformation = icapHeaderInformation;
+        this.content = content;
+    }
+
+
+    /**
+     * Get the verdict
+     *
+     * @return the verdict
+     */
+    public Verdict getVerdict() {
+        return verdict;
+    }
+
+
+    /**
+     * Check if the resource is blocked
+     *
+     * @return true if the resource is blocked
+     */
+    public boolean isBlocked() {
+        return !Verdict.CLEAN.equals(verdict);
+    }
+
+
+    /**
+     * Get the names of the found threats
+     *
+     * @return the names of the found threats, an empty list if there are none
+     */
+    public List<String> getThreatNames() {
+        return threatNames;
+    }
+
+
+    /**
+     * Get the ICAP header information
+     *
+     * @return the ICAP header information
+     */
+    public ICAPHeaderInformation getICAPHeaderInformation() {
+        return icapHeaderInformation;
+    }
+
+
+    /**
+     * Get the returned content in case of a threat, e.g. the block page
+     *
+     * @return the content or null
+     */
+    public String getContent() {
+        return content;
+    }
+
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return Objects.hash(content, icapHeaderInformation, threatNames, verdict);
+    }
+
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (obj == null) {
+            return false;
+        }
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+        ICAPScanResult other = (ICAPScanResult) obj;
+        return Objects.equals(content, other.content) && Objects.equals(icapHeaderInformation, other.icapHeaderInformation)
+                && Objects.equals(threatNames, other.threatNames) && verdict == other.verdict;
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ICAPScanResult [verdict=" + verdict + ", threatNames=" + threatNames + ", icapHeaderInformation=" + icapHeaderInformation + "]";
+    }
+}
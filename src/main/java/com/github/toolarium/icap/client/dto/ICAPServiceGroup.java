@@ -0,0 +1,267 @@
+/*
+ * ICAPServiceGroup.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.dto;
+
+import com.github.toolarium.icap.client.ICAPLoadBalancer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+
+
+/**
+ * Defines a service which is provided by several ICAP servers (endpoints). The requests are distributed by the load balancer
+ * and fail over to another endpoint in case of a connection error or timeout. The group must not be changed after it was
+ * passed to the {@link com.github.toolarium.icap.client.ICAPClientFactory}.
+ *
+ * @author patrick
+ */
+public class ICAPServiceGroup {
+    /** The default interval of the health check in milliseconds */
+    public static final long DEFAULT_HEALTH_CHECK_INTERVAL = 10_000L;
+
+    /** The default delay in milliseconds until an unavailable endpoint is retried */
+    public static final long DEFAULT_RETRY_DELAY = 30_000L;
+
+    /** The default number of consecutive failures after which an endpoint is unavailable */
+    public static final int DEFAULT_FAILURE_THRESHOLD = 1;
+
+    private final List<ICAPServiceInformation> services;
+    private final List<Integer> weights;
+    private ICAPLoadBalancer loadBalancer;
+    private long healthCheckInterval;
+    private long retryDelay;
+    private int failureThreshold;
+
+
+    /**
+     * Constructor for ICAPServiceGroup
+     */
+    public ICAPServiceGroup() {
+        this.services = new ArrayList<ICAPServiceInformation>();
+        this.weights = new ArrayList<Integer>();
+        this.loadBalancer = null;
+        this.healthCheckInterval = DEFAULT_HEALTH_CHECK_INTERVAL;
+        this.retryDelay = DEFAULT_RETRY_DELAY;
+        this.failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+    }
+
+
+    /**
+     * Add a service (endpoint) with the weight 1
+     *
+     * @param serviceInformation the service information
+     * @return the service group
+     * @throws IllegalArgumentException In case of an invalid service information
+     */
+    public ICAPServiceGroup addService(ICAPServiceInformation serviceInformation) {
+        return addService(serviceInformation, 1);
+    }
+
+
+    /**
+     * Add a service (endpoint)
+     *
+     * @param serviceInformation the service information
+     * @param weight the weight, only used by a weighted load balancer
+     * @return the service group
+     * @throws IllegalArgumentException In case of an invalid service information or weight
+     */
+    public ICAPServiceGroup addService(ICAPServiceInformation serviceInformation, int weight) {
+        if (serviceInformation == null) {
+            throw new IllegalArgumentException("Invalid service information!");
+        }
+
+        if (weight <= 0) {
+            throw new IllegalArgumentException("Invalid weight!");
+        }
+
+        services.add(serviceInformation);
+        weights.add(weight);
+        return this;
+    }
+
+
+    /**
+     * Get the services (endpoints)
+     *
+     * @return the services
+     */
+    public List<ICAPServiceInformation> getServices() {
+        return Collections.unmodifiableList(services);
+    }
+
+
+    /**
+     * Get the weights of the services
+     *
+     * @return the weights in the order of the services
+     */
+    public List<Integer> getWeights() {
+        return Collections.unmodifiableList(weights);
+    }
+
+
+    /**
+     * Get the load balancer
+     *
+     * @return the load balancer or null to use round-robin
+     */
+    public ICAPLoadBalancer getLoadBalancer() {
+        return loadBalancer;
+    }
+
+
+    /**
+     * Set the load balancer
+     *
+     * @param loadBalancer the load balancer or null to use round-robin (default)
+     * @return the service group
+     */
+    public ICAPServiceGroup setLoadBalancer(ICAPLoadBalancer loadBalancer) {
+        this.loadBalancer = loadBalancer;
+        return this;
+    }
+
+
+    /**
+     * Get the interval of the health check (OPTIONS request to each endpoint)
+     *
+     * @return the interval in milliseconds, 0 if there is no health check
+     */
+    public long getHealthCheckInterval() {
+        return healthCheckInterval;
+    }
+
+
+    /**
+     * Set the interval of the health check (OPTIONS request to each endpoint)
+     *
+     * @param healthCheckInterval the interval in milliseconds or 0 to disable the health check (by default = 10000)
+     * @return the service group
+     * @throws IllegalArgumentException In case of a negative interval
+     */
+    public ICAPServiceGroup setHealthCheckInterval(long healthCheckInterval) {
+        if (healthCheckInterval < 0) {
+            throw new IllegalArgumentException("Invalid health check interval!");
+        }
+
+        this.healthCheckInterval = healthCheckInterval;
+        return this;
+    }
+
+
+    /**
+     * Get the delay until an unavailable endpoint is retried by requests
+     *
+     * @return the delay in milliseconds
+     */
+    public long getRetryDelay() {
+        return retryDelay;
+    }
+
+
+    /**
+     * Set the delay until an unavailable endpoint is retried by requests
+     *
+     * @param retryDelay the delay in milliseconds (by default = 30000)
+     * @return the service group
+     * @throws IllegalArgumentException In case of a negative delay
+     */
+    public ICAPServiceGroup setRetryDelay(long retryDelay) {
+        if (retryDelay < 0) {
+            throw new IllegalArgumentException("Invalid retry delay!");
+        }
+
+        this.retryDelay = retryDelay;
+        return this;
+    }
+
+
+    /**
+     * Get the number of consecutive failures after which an endpoint is unavailable
+     *
+     * @return the failure threshold
+     */
+    public int getFailureThreshold() {
+        return failureThreshold;
+    }
+
+
+    /**
+     * Set the number of consecutive failures after which an endpoint is unavailable
+     *
+     * @param failureThreshold the failure threshold (by default = 1)
+     * @return the service group
+     * @throws IllegalArgumentException In case of an invalid threshold
+     */
+    public ICAPServiceGroup setFailureThreshold(int failureThreshold) {
+        if (failureThreshold <= 0) {
+            throw new IllegalArgumentException("Invalid failure threshold!");
+        }
+
+        this.failureThreshold = failureThreshold;
+        return this;
+    }
+
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        Class<?> loadBalancerClass = null;
+        if (loadBalancer != null) {
+            loadBalancerClass = loadBalancer.getClass();
+        }
+
+        return Objects.hash(failureThreshold, healthCheckInterval, loadBalancerClass, retryDelay, services, weights);
+    }
+
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+
+        if (obj == null) {
+            return false;
+        }
+
+        if (getClass() != obj.getClass()) {
+            return false;
+        }
+
+        ICAPServiceGroup other = (ICAPServiceGroup) obj;
+        Class<?> loadBalancerClass = null;
+        if (loadBalancer != null) {
+            loadBalancerClass = loadBalancer.getClass();
+        }
+
+        Class<?> otherLoadBalancerClass = null;
+        if (other.loadBalancer != null) {
+            otherLoadBalancerClass = other.loadBalancer.getClass();
+        }
+
+        return failureThreshold == other.failureThreshold && healthCheckInterval == other.healthCheckInterval
+                && Objects.equals(loadBalancerClass, otherLoadBalancerClass) && retryDelay == other.retryDelay
+                && Objects.equals(services, other.services) && Objects.equals(weights, other.weights);
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ICAPServiceGroup [services=" + services + ", weights=" + weights + ", loadBalancer=" + loadBalancer + ", healthCheckInterval="
+                + healthCheckInterval + ", retryDelay=" + retryDelay + ", failureThreshold=" + failureThreshold + "]";
+    }
+}
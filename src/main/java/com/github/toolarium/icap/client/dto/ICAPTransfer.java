@@ -0,0 +1,25 @@
+/*
+ * ICAPTransfer.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.dto;
+
+
+/**
+ * Defines how a resource is transferred to the server as announced by the OPTIONS response (RFC 3507, 4.10.2): the file
+ * extensions are listed in the <code>Transfer-Preview</code>, <code>Transfer-Ignore</code> and <code>Transfer-Complete</code>
+ * header, a <code>*</code> defines the default of all other extensions.
+ *
+ * @author patrick
+ */
+public enum ICAPTransfer {
+    /** Send a preview first, the remaining part only after a 100 continue */
+    PREVIEW,
+
+    /** The server doesn't need to see the resource, it is not sent */
+    IGNORE,
+
+    /** Send the complete resource without preview */
+    COMPLETE
+}
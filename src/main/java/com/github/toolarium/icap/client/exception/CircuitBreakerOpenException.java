@@ -0,0 +1,55 @@
+/*
+ * CircuitBreakerOpenException.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.exception;
+
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import java.io.IOException;
+
+
+/**
+ * The exception in case a request is rejected without a connection because the circuit breaker of the service is open.
+ *
+ * @author patrick
+ */
+public class CircuitBreakerOpenException extends IOException {
+    private static final long serialVersionUID = -4513226874512683547L;
+    private final ICAPServiceInformation serviceInformation;
+    private final long retryAfter;
+
+
+    /**
+     * Constructor for CircuitBreakerOpenException
+     *
+     * @param message the message
+     * @param serviceInformation the service information
+     * @param retryAfter the time in milliseconds until trial requests are permitted again
+     */
+    public CircuitBreakerOpenException(String message, ICAPServiceInformation serviceInformation, long retryAfter) {
+        super(message);
+        this.serviceInformation = serviceInformation;
+        this.retryAfter = retryAfter;
+    }
+
+
+    /**
+     * Get the service information
+     *
+     * @return the service information
+     */
+    public ICAPServiceInformation getServiceInformation() {
+        return serviceInformation;
+    }
+
+
+    /**
+     * Get the time until trial requests are permitted again
+     *
+     * @return the time in milliseconds, 0 if the trial requests are already in progress
+     */
+    public long getRetryAfter() {
+        return retryAfter;
+    }
+}
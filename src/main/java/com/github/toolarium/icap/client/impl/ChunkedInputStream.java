@@ -5,16 +5,13 @@
  */
 package com.github.toolarium.icap.client.impl;
 
-import com.github.toolarium.icap.client.dto.ICAPConstants;
-import com.github.toolarium.icap.client.impl.parser.ICAPParser;
+import com.github.toolarium.icap.client.impl.parser.ICAPHeaderParser;
 import com.github.toolarium.icap.client.util.HexDump;
 import java.io.BufferedInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.PushbackInputStream;
 import java.nio.charset.Charset;
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import org.slf4j.Logger;
@@ -22,7 +19,8 @@ import org.slf4j.LoggerFactory;
 
 
 /**
- * Implements a chunk input stram
+ * Implements a chunk input stram. After the ICAP header is read by {@link #readHeader()}, the stream returns the decoded body
+ * of the encapsulated message. The encapsulated http headers are skipped and the stream ends with the last chunk.
  *  
  * @author patrick
  */
@@ -31,15 +29,22 @@ public class ChunkedInputStream extends BufferedInputStream {
     private static final Charset StandardCharsetsUTF8 = Charset.forName("UTF-8");
     private static final byte CR = '\r';
     private static final byte LF = '\n';
-    private static final String NEWLINE = "" + (char)CR + (char)LF;
+    private static final int LINE_BUFFER_SIZE = 256;
+    private static final int HEADER_BUFFER_SIZE = 1024;
 
     private String requestIdentifier;
-    private int currentChunkPos;
-    private int currentChunkSize;
+    private long currentChunkPos;
+    private long currentChunkSize;
     private boolean ended;
     private Map<String, List<String>> headers;
-    private long chunkSize;
-    private long maxChunkSize;
+    private long encapsulatedHeaderLength;
+    private boolean encapsulatedBody;
+    private boolean contentStarted;
+    private int lastLineLength;
+    private byte[] lineBuffer;
+    private int lineLength;
+    private byte[] headerBuffer;
+    private int headerLength;
 
     
     /**
@@ -56,11 +61,37 @@ public class ChunkedInputStream extends BufferedInputStream {
         }
         
         this.requestIdentifier = requestIdentifier;
-        currentChunkPos = 0;
-        currentChunkSize = 0;
-        chunkSize = 0;
-        maxChunkSize = -1;
-        ended = false;
+        this.lineBuffer = new byte[LINE_BUFFER_SIZE];
+        this.lineLength = 0;
+        this.headerBuffer = new byte[HEADER_BUFFER_SIZE];
+        this.headerLength = 0;
+        prepareContent(-1, true);
+    }
+
+
+    /**
+     * Prepare the content of the encapsulated message which follows the ICAP header, e.g. Encapsulated: res-hdr=0, res-body=75.
+     *
+     * @param encapsulatedHeaderLength the length of the encapsulated http headers (offset of the body) or -1 if it is unknown
+     * @param encapsulatedBody true if the encapsulated message contains a chunked body; false in case of a null-body
+     */
+    public void prepareContent(final long encapsulatedHeaderLength, final boolean encapsulatedBody) {
+        this.encapsulatedHeaderLength = encapsulatedHeaderLength;
+        this.encapsulatedBody = encapsulatedBody;
+        this.contentStarted = false;
+        this.currentChunkPos = 0;
+        this.currentChunkSize = 0;
+        this.ended = false;
+    }
+
+
+    /**
+     * Check if the content of the encapsulated message was read until the last chunk.
+     *
+     * @return true if the content was fully read
+     */
+    public boolean isContentEnded() {
+        return ended;
     }
     
 
@@ -73,16 +104,18 @@ public class ChunkedInputStream extends BufferedInputStream {
             return -1;
         }
   
-        if (currentChunkPos >= currentChunkSize) {
-            nextChunk();
+        if (currentChunkPos >= currentChunkSize && nextChunk() <= 0) {
+            return -1;
         }
 
-        try {
-            return super.read();
-        } finally {
-            currentChunkPos++;
-            chunkSize++;
+        int b = super.read();
+        if (b < 0) {
+            ended = true;
+            return b;
         }
+
+        currentChunkPos++;
+        return b;
     }
 
     
@@ -104,56 +137,27 @@ public class ChunkedInputStream extends BufferedInputStream {
             return -1;
         }
 
-        if (currentChunkPos >= currentChunkSize) {
-            nextChunk();
+        if (len == 0) {
+            return 0;
         }
 
-        int sizeToRead = Math.min(len, currentChunkSize - currentChunkPos);
-        if (maxChunkSize > 0 && (sizeToRead + chunkSize) > maxChunkSize) {
-            sizeToRead = Long.valueOf(maxChunkSize - chunkSize).intValue();
+        if (currentChunkPos >= currentChunkSize && nextChunk() <= 0) {
+            return -1;
+        }
+
+        int sizeToRead = (int) Math.min(len, currentChunkSize - currentChunkPos);
+        int readBytes = super.read(b, off, sizeToRead);
+        if (readBytes < 0) {
             ended = true;
-        } else {
-            
-            if (headers != null 
-                    && headers.containsKey(ICAPConstants.HEADER_KEY_TRANSFER_ENCODING)
-                    && !headers.get(ICAPConstants.HEADER_KEY_TRANSFER_ENCODING).isEmpty()
-                    && headers.get(ICAPConstants.HEADER_KEY_TRANSFER_ENCODING).get(0).equalsIgnoreCase("chunked")
-                    && headers.containsKey(ICAPConstants.HEADER_KEY_CONTENT_LENGTH)
-                    && !headers.get(ICAPConstants.HEADER_KEY_CONTENT_LENGTH).isEmpty()
-                    && !headers.get(ICAPConstants.HEADER_KEY_CONTENT_LENGTH).get(0).isBlank()) {
-                // NOP
-            } else {                
-                ByteArrayOutputStream buffer = new ByteArrayOutputStream();
-                readLine(buffer);
-                sizeToRead = len;
-                String size = buffer.toString(StandardCharsetsUTF8);
-                if (!size.isBlank()) {
-                    try {
-                        sizeToRead = Integer.parseInt(size, 16);
-                    } catch (NumberFormatException e) {
-                        throw new IOException("Invalid size [" + size + "]:" + e.getMessage());
-                    }
-                }
-            }
+            return readBytes;
         }
         
-        int readBytes = 0;
-        try {
-            readBytes = super.read(b, off, sizeToRead);
-            
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(requestIdentifier + "Raw data\n" + HexDump.getInstance().hexDump(new String(b, off, sizeToRead)));
-            }
-            
-            if (maxChunkSize <= 0) {
-                super.read(new byte[3], 0, 3); // read 0\r\n
-            }
-            
-            return readBytes;
-        } finally {
-            currentChunkPos += readBytes;
-            chunkSize += readBytes;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Raw data\n" + HexDump.getInstance().hexDump(new String(b, off, readBytes)));
         }
+            
+        currentChunkPos += readBytes;
+        return readBytes;
     }
 
     
@@ -183,32 +187,20 @@ public class ChunkedInputStream extends BufferedInputStream {
      * @throws IOException If an IO error occurs.
      */
     public Map<String, List<String>> readHeader() throws IOException {
-        List<String> headerLines = new ArrayList<>();
-        String orgHeader = "";
-        String line = null;
-        do {
-            line = readLine(new ByteArrayOutputStream());
-            if (line != null && line.length() > 0) {
-                headerLines.add(line);
-                orgHeader += line + NEWLINE;
-            }
-        } while (line != null && line.length() > 0);
+        headerLength = 0;
+        boolean hasLine = scanLine();
+        while (hasLine && lineLength > 0) {
+            appendHeaderLine();
+            hasLine = scanLine();
+        }
             
-        if (line == null) {
+        if (!hasLine) {
             ended = true;
         }
 
-        headers = ICAPParser.getInstance().parseHeader(headerLines);       
-        if (headers.containsKey(ICAPConstants.HEADER_KEY_CONTENT_LENGTH) && !headers.get(ICAPConstants.HEADER_KEY_CONTENT_LENGTH).isEmpty()) {
-            try {
-                maxChunkSize = Long.valueOf(headers.get(ICAPConstants.HEADER_KEY_CONTENT_LENGTH).get(0));
-            } catch (NumberFormatException e) {
-                // NOP
-            }
-        }
-        
+        headers = parseHeaderBuffer();
         if (LOG.isDebugEnabled()) {
-            LOG.debug(requestIdentifier + "HTTP headers:\n" + orgHeader);
+            LOG.debug(requestIdentifier + "HTTP headers:\n" + new String(headerBuffer, 0, headerLength, StandardCharsetsUTF8));
         }
         
         return headers;
@@ -218,121 +210,262 @@ public class ChunkedInputStream extends BufferedInputStream {
     /**
      * Read the next chunk.
      * 
-     * @return the chunk size
+     * @return the chunk size, 0 in case of the last chunk or -1 in case the stream has ended
      * @throws IOException If an IO error occurs.
      */
-    protected int nextChunk() throws IOException {
-        if (headers != null && currentChunkSize == 1) {
-            return currentChunkPos; // skip
+    protected long nextChunk() throws IOException {
+        boolean hasLine;
+        if (!contentStarted) {
+            contentStarted = true;
+            hasLine = readEncapsulatedHeader();
+        } else {
+            if (currentChunkSize > 0) {
+                scanLine(); // newline after the chunk data
+            }
+
+            hasLine = scanLine();
         }
 
         currentChunkPos = 0;
         currentChunkSize = 0;
-
-        // skip trailing newlines
-        ByteArrayOutputStream  buffer = new ByteArrayOutputStream();
-
-        int b = readNewline();
-        if (b != LF && b != CR) {
-            buffer.write(b);
-        }
-        
-        // read first line
-        String line = readLine(buffer);
-        if (line == null || line.length() <= 0) {
+        if (ended || !hasLine) {
+            ended = true;
             return -1;
         }
 
-        if (line.toString().startsWith("HTTP")) {
-            readHeader();
-            if (headers == null || !headers.containsKey(ICAPConstants.HEADER_KEY_TRANSFER_ENCODING)
-                    || headers.get(ICAPConstants.HEADER_KEY_TRANSFER_ENCODING).isEmpty()
-                    || !headers.get(ICAPConstants.HEADER_KEY_TRANSFER_ENCODING).get(0).equalsIgnoreCase("chunked")) {
-                currentChunkSize = 1; // ignore not a chunked content
-                return currentChunkSize;
-            }
-            
-            line = readLine(new ByteArrayOutputStream());
-            if (line != null && line.length() == 0) {
-                line = readLine(new ByteArrayOutputStream());
+        currentChunkSize = parseChunkSize();
+        if (currentChunkSize == 0) {
+            // last chunk, read the trailer until the empty line
+            while (scanLine() && lineLength > 0) {
+                // NOP
             }
+            ended = true;
         }
 
-        if (line.toString().startsWith("GET") || line.toString().startsWith("POST")) {
-            readHeader();
-            readHeader();
-            line = readLine(new ByteArrayOutputStream());
-        }
-
-        if (line.endsWith(";")) {
-            line = line.substring(0, line.length() - 1);
-        }
-        
-        try {
-            currentChunkSize = Integer.parseInt(line.trim(), 16);
-            return currentChunkSize;
-        } catch (NumberFormatException e) {
-            throw new IOException("Bad chunk header [" + line + "]:" + e.getMessage());
-        }
+        return currentChunkSize;
     }
     
     
     /**
-     * Read next newline
+     * Read the encapsulated http headers and scans the first line of the encapsulated body.
      *
-     * @return true if a newline was read
-     * @throws IOException In case of an I/O error
+     * @return true if the first line of the body was scanned, false in case there is no body
+     * @throws IOException If an IO error occurs.
      */
-    private int readNewline() throws IOException {
-        int b = super.read();
-        if (b < 0) {
-            return b;
-        }
+    private boolean readEncapsulatedHeader() throws IOException {
+        if (encapsulatedHeaderLength >= 0) {
+            // read the encapsulated headers until the offset of the body
+            headerLength = 0;
+            long readHeaderLength = 0;
+            while (readHeaderLength < encapsulatedHeaderLength) {
+                if (!scanLine()) {
+                    return false;
+                }
 
-        if (b == LF) {
-            return b;
-        } 
+                readHeaderLength += lastLineLength;
+                if (lineLength > 0) {
+                    appendHeaderLine();
+                }
+            }
 
-        if (b == CR) {
-            b = super.read();
-            
-            if (b != LF) {
-                return b;
-            } else {
-                return b;
+            if (headerLength > 0) {
+                headers = parseHeaderBuffer();
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(requestIdentifier + "Encapsulated HTTP headers: " + headers);
+                }
+            }
+
+            if (!encapsulatedBody) {
+                return false;
             }
+
+            return scanLine();
         }
-        
-        return b;
+
+        // the offset is unknown: skip all encapsulated request and response headers
+        String line = readLine();
+        while (line != null && (line.isEmpty() || line.startsWith("HTTP") || line.startsWith("GET") || line.startsWith("POST"))) {
+            if (!line.isEmpty()) {
+                readHeader();
+            }
+            line = readLine();
+        } 
+
+        return line != null;
     }
     
     
     /**
      * Read the next line
      *
-     * @param buffer the buffer
      * @return null in case the stream has ended otherwise the read line. In case there was only \r\n it will return an empty string.
      * @throws IOException In case of an I/O error
      */
-    private String readLine(ByteArrayOutputStream buffer) throws IOException {
-        int b;
-        while (((b = super.read()) != -1) &&  b != CR) {
-            buffer.write(b);
-        }
-
-        if (b == CR) {
-            b = super.read();
-            if (b != LF) {
-                ((PushbackInputStream)in).unread(1);
-            }
-        } else {
+    private String readLine() throws IOException {
+        if (!scanLine()) {
             return null;
         }
-        
-        if (buffer.size() == 0) {
+
+        if (lineLength == 0) {
             return "";
         }
         
-        return new String(buffer.toByteArray(), 0, buffer.size(), StandardCharsetsUTF8);
+        return new String(lineBuffer, 0, lineLength, StandardCharsetsUTF8);
+    }
+
+
+    /**
+     * Scan the next line into the line buffer. The buffer of the stream is searched in bulk for the line separator
+     * (CRLF or a single CR or LF).
+     *
+     * @return false in case the stream has ended otherwise true
+     * @throws IOException In case of an I/O error
+     */
+    private boolean scanLine() throws IOException {
+        lineLength = 0;
+        while (true) {
+            if (pos >= count && !fillBuffer()) {
+                return false;
+            }
+
+            final byte[] data = buf;
+            if (data == null) {
+                throw new IOException("Stream closed");
+            }
+
+            final int end = count;
+            int i = pos;
+            while (i < end && data[i] != CR && data[i] != LF) {
+                i++;
+            }
+
+            appendLine(data, pos, i - pos);
+            pos = i;
+            if (i < end) {
+                pos++;
+                lastLineLength = lineLength + 1;
+                if (data[i] == CR && (pos < count || fillBuffer()) && buf[pos] == LF) {
+                    pos++;
+                    lastLineLength++;
+                }
+
+                return true;
+            }
+        }
+    }
+
+
+    /**
+     * Fill the buffer of the stream in case all buffered data was consumed.
+     *
+     * @return false in case the stream has ended
+     * @throws IOException In case of an I/O error
+     */
+    private boolean fillBuffer() throws IOException {
+        if (super.read() < 0) {
+            return false;
+        }
+
+        pos--; // the byte is still in the buffer
+        return true;
+    }
+
+
+    /**
+     * Append data to the line buffer
+     *
+     * @param data the data
+     * @param offset the offset
+     * @param length the length
+     */
+    private void appendLine(byte[] data, int offset, int length) {
+        if (length <= 0) {
+            return;
+        }
+
+        if (lineLength + length > lineBuffer.length) {
+            lineBuffer = Arrays.copyOf(lineBuffer, Math.max(lineBuffer.length * 2, lineLength + length));
+        }
+
+        System.arraycopy(data, offset, lineBuffer, lineLength, length);
+        lineLength += length;
+    }
+
+
+    /**
+     * Append the scanned line to the header buffer
+     */
+    private void appendHeaderLine() {
+        if (headerLength + lineLength + 1 > headerBuffer.length) {
+            headerBuffer = Arrays.copyOf(headerBuffer, Math.max(headerBuffer.length * 2, headerLength + lineLength + 1));
+        }
+
+        System.arraycopy(lineBuffer, 0, headerBuffer, headerLength, lineLength);
+        headerLength += lineLength;
+        headerBuffer[headerLength++] = LF;
+    }
+
+
+    /**
+     * Parse the header buffer. The parsed values reference the raw header, therefore the parser gets its own copy of the
+     * header buffer which is reused for the next header.
+     *
+     * @return the parsed header
+     */
+    private Map<String, List<String>> parseHeaderBuffer() {
+        return ICAPHeaderParser.getInstance().parseHeader(Arrays.copyOf(headerBuffer, headerLength), 0, headerLength);
+    }
+
+
+    /**
+     * Parse the chunk size from the line buffer, e.g. 1f or 0; ieof. Chunk extensions are ignored. The size is 64-bit,
+     * a single chunk can be larger than 2 GB.
+     *
+     * @return the chunk size
+     * @throws IOException In case of an invalid chunk header
+     */
+    private long parseChunkSize() throws IOException {
+        int i = 0;
+        while (i < lineLength && isWhitespace(lineBuffer[i])) {
+            i++;
+        }
+
+        long size = 0;
+        int digits = 0;
+        while (i < lineLength) {
+            int digit = Character.digit(lineBuffer[i], 16);
+            if (digit < 0) {
+                break;
+            }
+
+            if (size > (Long.MAX_VALUE >> 4)) {
+                throw new IOException("Bad chunk header [" + new String(lineBuffer, 0, lineLength, StandardCharsetsUTF8) + "]: chunk size is too big!");
+            }
+            size = (size << 4) + digit;
+
+            digits++;
+            i++;
+        }
+
+        while (i < lineLength && isWhitespace(lineBuffer[i])) {
+            i++;
+        }
+
+        if (digits == 0 || (i < lineLength && lineBuffer[i] != ';')) {
+            throw new IOException("Bad chunk header [" + new String(lineBuffer, 0, lineLength, StandardCharsetsUTF8) + "]!");
+        }
+
+        return size;
+    }
+
+
+    /**
+     * Check if the byte is a whitespace
+     *
+     * @param b the byte
+     * @return true if it is a whitespace
+     */
+    private boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
     }
 }
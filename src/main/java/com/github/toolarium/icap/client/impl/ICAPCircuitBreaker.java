@@ -0,0 +1,523 @@
+/*
+ * ICAPCircuitBreaker.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.exception.CircuitBreakerOpenException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Circuit breaker of the ICAP services. Each service has its own circuit which records the outcome of the last requests
+ * (sliding window). A request is bad in case it failed with an I/O error or took longer than the slow call duration threshold.
+ *
+ * <p>As soon as the rate of bad requests reaches the failure rate threshold, the circuit opens and rejects the requests
+ * with a {@link CircuitBreakerOpenException} without a connection to the service. After the open duration the circuit
+ * is half-open and permits a number of trial requests: if all succeed the circuit closes, otherwise it opens again.</p>
+ *
+ * @author patrick
+ */
+public class ICAPCircuitBreaker {
+    /** The default failure rate threshold in percent */
+    public static final int DEFAULT_FAILURE_RATE_THRESHOLD = 50;
+
+    /** The default size of the sliding window */
+    public static final int DEFAULT_WINDOW_SIZE = 20;
+
+    /** The default minimum number of recorded requests before the failure rate is evaluated */
+    public static final int DEFAULT_MINIMUM_NUMBER_OF_CALLS = 10;
+
+    /** The default duration in milliseconds the circuit stays open */
+    public static final long DEFAULT_OPEN_DURATION = 30_000L;
+
+    /** The default number of trial requests in the half-open state */
+    public static final int DEFAULT_HALF_OPEN_TRIAL_REQUESTS = 3;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPCircuitBreaker.class);
+    private final Map<ICAPServiceInformation, Circuit> circuits;
+    private volatile int failureRateThreshold;
+    private volatile long slowCallDurationThreshold;
+    private volatile int windowSize;
+    private volatile int minimumNumberOfCalls;
+    private volatile long openDuration;
+    private volatile int halfOpenTrialRequests;
+
+
+    /**
+     * Defines the state of a circuit
+     */
+    public enum State {
+        /** The requests are permitted and recorded */
+        CLOSED,
+
+        /** The requests are rejected */
+        OPEN,
+
+        /** A limited number of trial requests is permitted */
+        HALF_OPEN
+    }
+
+
+    /**
+     * Constructor for ICAPCircuitBreaker
+     */
+    public ICAPCircuitBreaker() {
+        this.circuits = new ConcurrentHashMap<ICAPServiceInformation, Circuit>();
+        this.failureRateThreshold = DEFAULT_FAILURE_RATE_THRESHOLD;
+        this.slowCallDurationThreshold = 0;
+        this.windowSize = DEFAULT_WINDOW_SIZE;
+        this.minimumNumberOfCalls = DEFAULT_MINIMUM_NUMBER_OF_CALLS;
+        this.openDuration = DEFAULT_OPEN_DURATION;
+        this.halfOpenTrialRequests = DEFAULT_HALF_OPEN_TRIAL_REQUESTS;
+    }
+
+
+    /**
+     * Set the failure rate threshold
+     *
+     * @param failureRateThreshold the rate of bad requests in percent (1 - 100) which opens the circuit (by default = 50)
+     * @return the circuit breaker
+     * @throws IllegalArgumentException In case of an invalid threshold
+     */
+    public ICAPCircuitBreaker setFailureRateThreshold(int failureRateThreshold) {
+        if (failureRateThreshold <= 0 || failureRateThreshold > 100) {
+            throw new IllegalArgumentException("Invalid failure rate threshold!");
+        }
+
+        this.failureRateThreshold = failureRateThreshold;
+        return this;
+    }
+
+
+    /**
+     * Set the slow call duration threshold
+     *
+     * @param slowCallDurationThreshold the duration in milliseconds after which a successful request is recorded as bad or 0 to disable it (default)
+     * @return the circuit breaker
+     * @throws IllegalArgumentException In case of a negative threshold
+     */
+    public ICAPCircuitBreaker setSlowCallDurationThreshold(long slowCallDurationThreshold) {
+        if (slowCallDurationThreshold < 0) {
+            throw new IllegalArgumentException("Invalid slow call duration threshold!");
+        }
+
+        this.slowCallDurationThreshold = slowCallDurationThreshold;
+        return this;
+    }
+
+
+    /**
+     * Set the size of the sliding window, the number of the last requests which are recorded. It only applies to new circuits.
+     *
+     * @param windowSize the window size (by default = 20)
+     * @return the circuit breaker
+     * @throws IllegalArgumentException In case of an invalid window size
+     */
+    public ICAPCircuitBreaker setWindowSize(int windowSize) {
+        if (windowSize <= 0) {
+            throw new IllegalArgumentException("Invalid window size!");
+        }
+
+        this.windowSize = windowSize;
+        return this;
+    }
+
+
+    /**
+     * Set the minimum number of recorded requests before the failure rate is evaluated
+     *
+     * @param minimumNumberOfCalls the minimum number of calls (by default = 10)
+     * @return the circuit breaker
+     * @throws IllegalArgumentException In case of an invalid number
+     */
+    public ICAPCircuitBreaker setMinimumNumberOfCalls(int minimumNumberOfCalls) {
+        if (minimumNumberOfCalls <= 0) {
+            throw new IllegalArgumentException("Invalid minimum number of calls!");
+        }
+
+        this.minimumNumberOfCalls = minimumNumberOfCalls;
+        return this;
+    }
+
+
+    /**
+     * Set the duration the circuit stays open before trial requests are permitted
+     *
+     * @param openDuration the duration in milliseconds (by default = 30000)
+     * @return the circuit breaker
+     * @throws IllegalArgumentException In case of a negative duration
+     */
+    public ICAPCircuitBreaker setOpenDuration(long openDuration) {
+        if (openDuration < 0) {
+            throw new IllegalArgumentException("Invalid open duration!");
+        }
+
+        this.openDuration = openDuration;
+        return this;
+    }
+
+
+    /**
+     * Set the number of trial requests in the half-open state which have to succeed to close the circuit
+     *
+     * @param halfOpenTrialRequests the number of trial requests (by default = 3)
+     * @return the circuit breaker
+     * @throws IllegalArgumentException In case of an invalid number
+     */
+    public ICAPCircuitBreaker setHalfOpenTrialRequests(int halfOpenTrialRequests) {
+        if (halfOpenTrialRequests <= 0) {
+            throw new IllegalArgumentException("Invalid half-open trial requests!");
+        }
+
+        this.halfOpenTrialRequests = halfOpenTrialRequests;
+        return this;
+    }
+
+
+    /**
+     * Acquire the permission of a request to the service
+     *
+     * @param serviceInformation the service information
+     * @return the permit which has to record the outcome of the request
+     * @throws CircuitBreakerOpenException In case the circuit is open or all trial requests are in progress
+     */
+    public Permit acquire(ICAPServiceInformation serviceInformation) throws CircuitBreakerOpenException {
+        Circuit circuit = circuits.computeIfAbsent(serviceInformation, key -> new Circuit(key, windowSize));
+        return new Permit(circuit, circuit.acquire());
+    }
+
+
+    /**
+     * Get the state of the circuit of a service
+     *
+     * @param serviceInformation the service information
+     * @return the state, closed in case there was no request to the service
+     */
+    public State getState(ICAPServiceInformation serviceInformation) {
+        Circuit circuit = circuits.get(serviceInformation);
+        if (circuit == null) {
+            return State.CLOSED;
+        }
+
+        return circuit.getState();
+    }
+
+
+    /**
+     * Get the rate of bad requests of the sliding window
+     *
+     * @param serviceInformation the service information
+     * @return the failure rate in percent
+     */
+    public int getFailureRate(ICAPServiceInformation serviceInformation) {
+        Circuit circuit = circuits.get(serviceInformation);
+        if (circuit == null) {
+            return 0;
+        }
+
+        return circuit.getFailureRate();
+    }
+
+
+    /**
+     * Get the states of all services, e.g. for the monitoring
+     *
+     * @return the states by service
+     */
+    public Map<ICAPServiceInformation, State> getStates() {
+        Map<ICAPServiceInformation, State> result = new LinkedHashMap<ICAPServiceInformation, State>();
+        for (Map.Entry<ICAPServiceInformation, Circuit> e : circuits.entrySet()) {
+            result.put(e.getKey(), e.getValue().getState());
+        }
+        return result;
+    }
+
+
+    /**
+     * Reset the circuit of all services
+     */
+    public void reset() {
+        circuits.clear();
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ICAPCircuitBreaker [failureRateThreshold=" + failureRateThreshold + ", slowCallDurationThreshold=" + slowCallDurationThreshold + ", windowSize=" + windowSize
+                + ", minimumNumberOfCalls=" + minimumNumberOfCalls + ", openDuration=" + openDuration + ", halfOpenTrialRequests=" + halfOpenTrialRequests + ", states=" + getStates() + "]";
+    }
+
+
+    /**
+     * The permission of one request. The outcome has to be recorded exactly once: {@link #success()}, {@link #failure()} or
+     * {@link #release()} in case the request was cancelled.
+     */
+    public final class Permit {
+        private final Circuit circuit;
+        private final long generation;
+        private final long start;
+        private boolean recorded;
+
+
+        /**
+         * Constructor for Permit
+         *
+         * @param circuit the circuit
+         * @param generation the generation of the circuit state in which the request was permitted
+         */
+        Permit(Circuit circuit, long generation) {
+            this.circuit = circuit;
+            this.generation = generation;
+            this.start = System.nanoTime();
+            this.recorded = false;
+        }
+
+
+        /**
+         * Record a successful request. It is recorded as bad in case it took longer than the slow call duration threshold.
+         */
+        public void success() {
+            long duration = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            long threshold = slowCallDurationThreshold;
+            record(threshold > 0 && duration > threshold);
+        }
+
+
+        /**
+         * Record a failed request
+         */
+        public void failure() {
+            record(true);
+        }
+
+
+        /**
+         * Release the permission without a recorded outcome, e.g. in case the request was cancelled
+         */
+        public void release() {
+            synchronized (this) {
+                if (recorded) {
+                    return;
+                }
+                recorded = true;
+            }
+
+            circuit.release(generation);
+        }
+
+
+        /**
+         * Record the outcome
+         *
+         * @param bad true if the request failed or was slow
+         */
+        private void record(boolean bad) {
+            synchronized (this) {
+                if (recorded) {
+                    return;
+                }
+                recorded = true;
+            }
+
+            circuit.record(generation, bad);
+        }
+    }
+
+
+    /**
+     * The circuit of one service
+     */
+    private final class Circuit {
+        private final ICAPServiceInformation serviceInformation;
+        private final boolean[] outcomes;
+        private int outcomeIndex;
+        private int outcomeCount;
+        private int badCount;
+        private State state;
+        private long generation;
+        private long openedAt;
+        private int trialRequests;
+        private int trialSuccesses;
+
+
+        /**
+         * Constructor for Circuit
+         *
+         * @param serviceInformation the service information
+         * @param windowSize the size of the sliding window
+         */
+        Circuit(ICAPServiceInformation serviceInformation, int windowSize) {
+            this.serviceInformation = serviceInformation;
+            this.outcomes = new boolean[windowSize];
+            this.state = State.CLOSED;
+            this.generation = 0;
+            clearWindow();
+        }
+
+
+        /**
+         * Acquire the permission of a request
+         *
+         * @return the generation of the state
+         * @throws CircuitBreakerOpenException In case the circuit is open or all trial requests are in progress
+         */
+        synchronized long acquire() throws CircuitBreakerOpenException {
+            if (State.OPEN.equals(state)) {
+                long retryAfter = openedAt + openDuration - System.currentTimeMillis();
+                if (retryAfter > 0) {
+                    throw new CircuitBreakerOpenException("Circuit breaker of the service " + getName() + " is open, retry in " + retryAfter + " ms!", serviceInformation, retryAfter);
+                }
+
+                transition(State.HALF_OPEN);
+            }
+
+            if (State.HALF_OPEN.equals(state)) {
+                if (trialRequests >= halfOpenTrialRequests) {
+                    throw new CircuitBreakerOpenException("Circuit breaker of the service " + getName() + " is half-open, the trial requests are in progress!", serviceInformation, 0);
+                }
+                trialRequests++;
+            }
+
+            return generation;
+        }
+
+
+        /**
+         * Record the outcome of a request
+         *
+         * @param permitGeneration the generation of the state in which the request was permitted
+         * @param bad true if the request failed or was slow
+         */
+        synchronized void record(long permitGeneration, boolean bad) {
+            if (permitGeneration != generation) {
+                return; // the request was permitted in a previous state
+            }
+
+            if (State.HALF_OPEN.equals(state)) {
+                if (bad) {
+                    transition(State.OPEN);
+                } else if (++trialSuccesses >= halfOpenTrialRequests) {
+                    transition(State.CLOSED);
+                }
+                return;
+            }
+
+            if (State.CLOSED.equals(state)) {
+                if (outcomeCount == outcomes.length) {
+                    if (outcomes[outcomeIndex]) {
+                        badCount--;
+                    }
+                } else {
+                    outcomeCount++;
+                }
+
+                outcomes[outcomeIndex] = bad;
+                if (bad) {
+                    badCount++;
+                }
+                outcomeIndex = (outcomeIndex + 1) % outcomes.length;
+
+                if (outcomeCount >= Math.min(minimumNumberOfCalls, outcomes.length) && badCount * 100 >= failureRateThreshold * outcomeCount) {
+                    transition(State.OPEN);
+                }
+            }
+        }
+
+
+        /**
+         * Release the permission of a request without outcome
+         *
+         * @param permitGeneration the generation of the state in which the request was permitted
+         */
+        synchronized void release(long permitGeneration) {
+            if (permitGeneration == generation && State.HALF_OPEN.equals(state) && trialRequests > 0) {
+                trialRequests--;
+            }
+        }
+
+
+        /**
+         * Get the state
+         *
+         * @return the state
+         */
+        synchronized State getState() {
+            if (State.OPEN.equals(state) && System.currentTimeMillis() >= openedAt + openDuration) {
+                return State.HALF_OPEN;
+            }
+            return state;
+        }
+
+
+        /**
+         * Get the failure rate of the sliding window
+         *
+         * @return the failure rate in percent
+         */
+        synchronized int getFailureRate() {
+            if (outcomeCount == 0) {
+                return 0;
+            }
+            return badCount * 100 / outcomeCount;
+        }
+
+
+        /**
+         * Change the state
+         *
+         * @param newState the new state
+         */
+        private void transition(State newState) {
+            String reason = "failure rate: " + getFailureRate() + "%";
+            if (State.HALF_OPEN.equals(state)) {
+                reason = "trial request failed";
+            }
+
+            state = newState;
+            generation++;
+            trialRequests = 0;
+            trialSuccesses = 0;
+            if (State.OPEN.equals(newState)) {
+                openedAt = System.currentTimeMillis();
+                LOG.warn("Circuit breaker of the service " + getName() + " is open (" + reason + "), the requests are rejected for " + openDuration + " ms.");
+            } else if (State.CLOSED.equals(newState)) {
+                LOG.info("Circuit breaker of the service " + getName() + " is closed.");
+            } else if (LOG.isDebugEnabled()) {
+                LOG.debug("Circuit breaker of the service " + getName() + " is half-open.");
+            }
+
+            clearWindow();
+        }
+
+
+        /**
+         * Clear the sliding window
+         */
+        private void clearWindow() {
+            outcomeIndex = 0;
+            outcomeCount = 0;
+            badCount = 0;
+        }
+
+
+        /**
+         * Get the name of the service
+         *
+         * @return the name, e.g. localhost:1344/srv_clamav
+         */
+        private String getName() {
+            return serviceInformation.getHostName() + ":" + serviceInformation.getServicePort() + "/" + serviceInformation.getServiceName();
+        }
+    }
+}
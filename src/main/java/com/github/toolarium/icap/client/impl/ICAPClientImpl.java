@@ -7,19 +7,39 @@ package com.github.toolarium.icap.client.impl;
 
 import com.github.toolarium.icap.client.ICAPClient;
 import com.github.toolarium.icap.client.ICAPConnectionManager;
-import com.github.toolarium.icap.client.dto.*;
+import com.github.toolarium.icap.client.ICAPMetricsListener;
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.dto.ICAPHeaderMap;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPRequestMetrics;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.dto.ICAPTransfer;
 import com.github.toolarium.icap.client.exception.ContentBlockedException;
 import com.github.toolarium.icap.client.exception.UnknownIOException;
 import com.github.toolarium.icap.client.impl.dto.ICAPRemoteServiceConfigurationImpl;
+import com.github.toolarium.icap.client.impl.jfr.AbstractICAPEvent;
+import com.github.toolarium.icap.client.impl.jfr.ICAPContinueReceivedEvent;
+import com.github.toolarium.icap.client.impl.jfr.ICAPOptionsEvent;
+import com.github.toolarium.icap.client.impl.jfr.ICAPPreviewSentEvent;
+import com.github.toolarium.icap.client.impl.jfr.ICAPResponseParsedEvent;
+import com.github.toolarium.icap.client.impl.jfr.ICAPUploadCompleteEvent;
+import com.github.toolarium.icap.client.impl.nio.ICAPEventLoop;
+import com.github.toolarium.icap.client.impl.nio.ICAPNioExchange;
 import com.github.toolarium.icap.client.util.ICAPClientUtil;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import java.io.BufferedOutputStream;
-import java.io.File;
-import java.io.FileOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.URLEncoder;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
 import java.security.DigestInputStream;
@@ -27,8 +47,18 @@ import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicReference;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 
 /**
@@ -41,13 +71,33 @@ public class ICAPClientImpl implements ICAPClient {
     private static final String NEWLINE = "\r\n";
     private static final String ICAP_END_SEPARATOR = NEWLINE + NEWLINE;
     private static final String HTTP_END_SEPARATOR = "0" + ICAP_END_SEPARATOR;
-
-    private ICAPConnectionManager connectionManager;
-    private ICAPServiceInformation serviceInformation;
-    private ICAPRemoteServiceConfiguration remoteServiceConfiguration;
-    private int bufferSize = 8192;
-    private String messageDigestAlgorithm = "SHA-256";
-    private boolean supportCompareVerifyIdenticalContent;
+    private static final long TRANSFER_SIZE = 1024L * 1024L;
+    private static final int DEFAULT_RESPONSE_MEMORY_THRESHOLD = 256 * 1024;
+    private static final int VERDICT_CACHE_MARK_LIMIT = 1024 * 1024;
+    private static final String VERDICT_CACHE_DIGEST_ALGORITHM = ICAPClientUtil.SHA_256;
+    private static final int MAX_REQUEST_TEMPLATES = 32;
+    private static final long THREAT_HEADER_MASK = ICAPHeaderMap.toHeaderMask(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND,
+                                                                              ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND,
+                                                                              ICAPConstants.HEADER_KEY_X_BLOCKED,        // used by Sophos
+                                                                              ICAPConstants.HEADER_KEY_X_VIRUS_ID,       // used by Sophos, Kaspersky, Trenxd Micro, ESET, McAfee, C-ICAP
+                                                                              ICAPConstants.HEADER_KEY_X_VIRUS_NAME,     // used by McAfee
+                                                                              ICAPConstants.HEADER_KEY_X_BLOCK_REASON,   // used by McAfee
+                                                                              ICAPConstants.HEADER_KEY_X_BLOCK_RESULT);  // used by McAfee
+
+    private final ICAPConnectionManager connectionManager;
+    private final ICAPServiceInformation serviceInformation;
+    private final Executor executor;
+    private final Map<ICAPRequestTemplate.Key, ICAPRequestTemplate> requestTemplates;
+    private final AtomicReference<ICAPRemoteServiceConfiguration> remoteServiceConfiguration;
+    private volatile ICAPOptionsCache optionsCache;
+    private volatile ICAPVerdictCache verdictCache;
+    private volatile ICAPCircuitBreaker circuitBreaker;
+    private volatile ICAPMetricsListener metricsListener;
+    private volatile int blockSize = 8192;
+    private volatile String messageDigestAlgorithm = ICAPClientUtil.SHA_256;
+    private volatile boolean supportCompareVerifyIdenticalContent;
+    private volatile int responseMemoryThreshold = DEFAULT_RESPONSE_MEMORY_THRESHOLD;
+    private volatile boolean shared;
 
 
     /**
@@ -58,10 +108,124 @@ public class ICAPClientImpl implements ICAPClient {
      * @param connectionManager the connection manager
      */
     public ICAPClientImpl(ICAPConnectionManager connectionManager, ICAPServiceInformation serviceInformation, ICAPRemoteServiceConfiguration remoteServiceConfiguration) {
+        this(connectionManager, serviceInformation, remoteServiceConfiguration, null);
+    }
+
+
+    /**
+     * Constructor for ICAPClientImpl
+     *
+     * @param serviceInformation the service information
+     * @param remoteServiceConfiguration the remote service configuration
+     * @param connectionManager the connection manager
+     * @param executor the executor of the asynchronous requests or null to use the default executor
+     */
+    public ICAPClientImpl(ICAPConnectionManager connectionManager, ICAPServiceInformation serviceInformation, ICAPRemoteServiceConfiguration remoteServiceConfiguration, Executor executor) {
         this.connectionManager = connectionManager;
         this.serviceInformation = serviceInformation;
-        this.remoteServiceConfiguration = remoteServiceConfiguration;
+        this.remoteServiceConfiguration = new AtomicReference<ICAPRemoteServiceConfiguration>(remoteServiceConfiguration);
         this.supportCompareVerifyIdenticalContent = false;
+        this.requestTemplates = new ConcurrentHashMap<ICAPRequestTemplate.Key, ICAPRequestTemplate>();
+
+        if (executor == null) {
+            this.executor = ICAPClientUtil.getInstance().getDefaultExecutor();
+        } else {
+            this.executor = executor;
+        }
+    }
+
+
+    /**
+     * Constructor for ICAPClientImpl, creates a copy of a client. The copy shares the connection manager, the remote service
+     * configuration, the request templates, the caches, the circuit breaker and the metrics listener of the client.
+     *
+     * @param client the client to copy
+     */
+    protected ICAPClientImpl(ICAPClientImpl client) {
+        this.connectionManager = client.connectionManager;
+        this.serviceInformation = client.serviceInformation;
+        this.executor = client.executor;
+        this.requestTemplates = client.requestTemplates;
+        this.remoteServiceConfiguration = client.remoteServiceConfiguration;
+        this.optionsCache = client.optionsCache;
+        this.verdictCache = client.verdictCache;
+        this.circuitBreaker = client.circuitBreaker;
+        this.metricsListener = client.metricsListener;
+        this.blockSize = client.blockSize;
+        this.messageDigestAlgorithm = client.messageDigestAlgorithm;
+        this.supportCompareVerifyIdenticalContent = client.supportCompareVerifyIdenticalContent;
+        this.responseMemoryThreshold = client.responseMemoryThreshold;
+        this.shared = false;
+    }
+
+
+    /**
+     * Define if the client is shared, e.g. by the {@link com.github.toolarium.icap.client.ICAPClientFactory}. The settings of a
+     * shared client are not changed: {@link #supportCompareVerifyIdenticalContent(boolean)}, {@link #messageDigestAlgorithm(String)},
+     * {@link #responseMemoryThreshold(int)} and {@link #blockSize(int)} return a configured copy, see {@link #ICAPClientImpl(ICAPClientImpl)}.
+     *
+     * @param shared true if the client is shared; otherwise false (by default = false)
+     * @return this client
+     */
+    public ICAPClientImpl setShared(boolean shared) {
+        this.shared = shared;
+        return this;
+    }
+
+
+    /**
+     * Set the verdict cache. In case a resource was already validated by the service (same content digest and ISTag),
+     * the cached verdict is returned without a request to the ICAP server.
+     * The digest is computed before the request is sent, therefore a resource whose verdict is not cached is read twice:
+     * once for the digest and once for the upload. An asynchronous request computes the digest on the executor, a resource
+     * which the service ignores (Transfer-Ignore) is not read. The verdict cache is not used in streaming mode, see
+     * {@link ICAPRequestInformation#setStreaming(boolean)}.
+     *
+     * @param verdictCache the verdict cache or null to disable the cache
+     * @return this client
+     */
+    public ICAPClientImpl setVerdictCache(ICAPVerdictCache verdictCache) {
+        this.verdictCache = verdictCache;
+        return this;
+    }
+
+
+    /**
+     * Set the circuit breaker. As long as the circuit of the service is open, the requests fail fast with a
+     * {@link com.github.toolarium.icap.client.exception.CircuitBreakerOpenException} instead of waiting for the timeouts.
+     *
+     * @param circuitBreaker the circuit breaker or null to disable it
+     * @return this client
+     */
+    public ICAPClientImpl setCircuitBreaker(ICAPCircuitBreaker circuitBreaker) {
+        this.circuitBreaker = circuitBreaker;
+        return this;
+    }
+
+
+    /**
+     * Set the metrics listener. It is called after each request which validated a resource with the duration of each phase,
+     * the transferred bytes, the ICAP status and the verdict. Over the non-blocking transport only the total duration is measured.
+     *
+     * @param metricsListener the metrics listener or null to disable the metrics
+     * @return this client
+     */
+    public ICAPClientImpl setMetricsListener(ICAPMetricsListener metricsListener) {
+        this.metricsListener = metricsListener;
+        return this;
+    }
+
+
+    /**
+     * Set the options cache. The remote service configuration is then taken from the cache which refreshes it in the background
+     * before the Options-TTL expires, the current configuration of the client is swapped as soon as a newer one is available.
+     *
+     * @param optionsCache the options cache or null to request the options only once
+     * @return this client
+     */
+    public ICAPClientImpl setOptionsCache(ICAPOptionsCache optionsCache) {
+        this.optionsCache = optionsCache;
+        return this;
     }
 
 
@@ -70,7 +234,69 @@ public class ICAPClientImpl implements ICAPClient {
      */
     @Override
     public ICAPClient supportCompareVerifyIdenticalContent(boolean supportCompareVerifyIdenticalContent) {
-        this.supportCompareVerifyIdenticalContent = supportCompareVerifyIdenticalContent;
+        ICAPClientImpl client = getConfigurableClient();
+        client.supportCompareVerifyIdenticalContent = supportCompareVerifyIdenticalContent;
+        return client;
+    }
+
+
+    /**
+     * @see ICAPClient#messageDigestAlgorithm(java.lang.String)
+     */
+    @Override
+    public ICAPClient messageDigestAlgorithm(String messageDigestAlgorithm) {
+        try {
+            ICAPClientUtil.getInstance().createMessageDigest(messageDigestAlgorithm);
+        } catch (IOException | RuntimeException e) {
+            throw new IllegalArgumentException("Invalid message digest algorithm!");
+        }
+
+        ICAPClientImpl client = getConfigurableClient();
+        client.messageDigestAlgorithm = messageDigestAlgorithm;
+        return client;
+    }
+
+
+    /**
+     * @see ICAPClient#responseMemoryThreshold(int)
+     */
+    @Override
+    public ICAPClient responseMemoryThreshold(int responseMemoryThreshold) {
+        if (responseMemoryThreshold < 0) {
+            throw new IllegalArgumentException("Invalid response memory threshold!");
+        }
+
+        ICAPClientImpl client = getConfigurableClient();
+        client.responseMemoryThreshold = responseMemoryThreshold;
+        return client;
+    }
+
+
+    /**
+     * @see ICAPClient#blockSize(int)
+     */
+    @Override
+    public ICAPClient blockSize(int blockSize) {
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid block size!");
+        }
+
+        ICAPClientImpl client = getConfigurableClient();
+        client.blockSize = blockSize;
+        return client;
+    }
+
+
+    /**
+     * Get the client of which the settings can be changed: a copy in case this client is shared; otherwise this client.
+     *
+     * @return the client to configure
+     */
+    protected ICAPClientImpl getConfigurableClient() {
+        if (shared) {
+            return new ICAPClientImpl(this);
+        }
+
         return this;
     }
 
@@ -89,411 +315,1663 @@ public class ICAPClientImpl implements ICAPClient {
      */
     @Override
     public ICAPRemoteServiceConfiguration options(final ICAPRequestInformation requestInformation) throws IOException {
-        if (remoteServiceConfiguration != null) {
-            return remoteServiceConfiguration;
+        validateRequestInformation(requestInformation);
+        final ICAPCircuitBreaker.Permit permit = acquirePermit();
+        try {
+            ICAPRemoteServiceConfiguration configuration = getRemoteServiceConfiguration(requestInformation);
+            recordSuccess(permit);
+            return configuration;
+        } catch (IOException e) {
+            recordFailure(permit);
+            throw e;
+        } finally {
+            release(permit);
         }
+    }
 
-        validateRequestInformation(requestInformation);
+
+    /**
+     * Get the remote service configuration. In case there is none, the options are requested.
+     *
+     * @param requestInformation the request information
+     * @return the remote service configuration
+     * @throws IOException In case of an I/O error
+     */
+    protected ICAPRemoteServiceConfiguration getRemoteServiceConfiguration(final ICAPRequestInformation requestInformation) throws IOException {
+        ICAPRemoteServiceConfiguration configuration = getCachedRemoteServiceConfiguration(requestInformation);
+        if (configuration != null) {
+            return configuration;
+        }
+
+        ICAPOptionsCache cache = optionsCache;
+        if (cache != null) {
+            configuration = cache.get(serviceInformation, s -> requestOptions(requestInformation));
+        } else {
+            configuration = requestOptions(requestInformation);
+        }
+
+        remoteServiceConfiguration.set(configuration);
+        return configuration;
+    }
+
+
+    /**
+     * Get the current remote service configuration without a request. In case of an options cache a newer configuration is taken
+     * from the cache and an upcoming expiry triggers a refresh in the background.
+     *
+     * @param requestInformation the request information
+     * @return the remote service configuration or null if there is none
+     */
+    protected ICAPRemoteServiceConfiguration getCachedRemoteServiceConfiguration(final ICAPRequestInformation requestInformation) {
+        ICAPOptionsCache cache = optionsCache;
+        if (cache != null) {
+            ICAPRemoteServiceConfiguration configuration = cache.getIfPresent(serviceInformation, s -> requestOptions(requestInformation));
+            if (configuration != null) {
+                remoteServiceConfiguration.set(configuration);
+                return configuration;
+            }
+        }
+
+        return remoteServiceConfiguration.get();
+    }
+
+
+    /**
+     * Request the options of the service
+     *
+     * @param requestInformation the request information
+     * @return the remote service configuration
+     * @throws IOException In case of an I/O error
+     */
+    protected ICAPRemoteServiceConfiguration requestOptions(final ICAPRequestInformation requestInformation) throws IOException {
         final String requestIdentifier = createRequestIdentifier("options", null);
+        ICAPOptionsEvent optionsEvent = new ICAPOptionsEvent();
+        optionsEvent.begin();
         try (ICAPSocket icapSocket = new ICAPSocket(connectionManager, requestIdentifier, serviceInformation.getHostName(), serviceInformation.getServicePort(),
                                                     serviceInformation.getServiceName(), serviceInformation.isSecureConnection(), requestInformation.getMaxConnectionTimeout(), requestInformation.getMaxReadTimeout())) {
-            icapSocket.write("OPTIONS icap://" + serviceInformation.getHostName() + ":" + serviceInformation.getServicePort() + "/" + serviceInformation.getServiceName() + " ICAP/" + requestInformation.getApiVersion() + NEWLINE
-                             + "Host: " + serviceInformation.getHostName() + NEWLINE
-                             + "User-Agent: " + requestInformation.getUserAgent() + NEWLINE
-                             + createCustomHeaders(requestInformation)
-                             + ICAPConstants.HEADER_KEY_ENCAPSULATED + ": null-body=0" + NEWLINE + NEWLINE);
+            icapSocket.writeRequest(createOptionsRequest(requestInformation));
             icapSocket.flush();
 
-            ICAPHeaderInformation icapHeaderInformation = icapSocket.readICAPResponse(requestIdentifier, ICAP_END_SEPARATOR, bufferSize);
-            if (icapHeaderInformation.getStatus() != 200) {
-                throw new IOException("Could not resolve options!");
+            ICAPHeaderInformation icapHeaderInformation = icapSocket.readICAPResponse(requestIdentifier);
+            commitEvent(optionsEvent, requestIdentifier, null, 0, icapHeaderInformation.getStatus());
+            return createRemoteServiceConfiguration(requestIdentifier, icapHeaderInformation);
+        }
+    }
+
+
+    /**
+     * @see ICAPClient#validateResource(ICAPMode, ICAPResource)
+     */
+    @Override
+    public ICAPHeaderInformation validateResource(final ICAPMode mode, final ICAPResource resource) throws IOException, ContentBlockedException {
+        return validateResource(mode, new ICAPRequestInformation(), resource);
+    }
+
+
+    /**
+     * @see ICAPClient#validateResource(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public ICAPHeaderInformation validateResource(final ICAPMode inputMode, final ICAPRequestInformation requestInformation, final ICAPResource resource) throws IOException, ContentBlockedException {
+        ICAPScanResult scanResult = scanResource(inputMode, requestInformation, resource);
+        if (scanResult.isBlocked()) {
+            throw createContentBlockedException(requestInformation.prepareSourceRequest(resource), scanResult);
+        }
+
+        return scanResult.getICAPHeaderInformation();
+    }
+
+
+    /**
+     * @see ICAPClient#scanResource(ICAPMode, ICAPResource)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode mode, final ICAPResource resource) throws IOException {
+        return scanResource(mode, new ICAPRequestInformation(), resource);
+    }
+
+
+    /**
+     * @see ICAPClient#scanResource(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode inputMode, final ICAPRequestInformation requestInformation, final ICAPResource resource) throws IOException {
+        return scanResource(inputMode, requestInformation, resource, (OutputStream) null);
+    }
+
+
+    /**
+     * @see ICAPClient#scanResource(ICAPMode, ICAPRequestInformation, ICAPResource, WritableByteChannel)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode inputMode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final WritableByteChannel contentChannel) throws IOException {
+        OutputStream contentOutputStream = null;
+        if (contentChannel != null) {
+            contentOutputStream = Channels.newOutputStream(contentChannel);
+        }
+
+        return scanResource(inputMode, requestInformation, resource, contentOutputStream);
+    }
+
+
+    /**
+     * @see ICAPClient#scanResource(ICAPMode, ICAPRequestInformation, ICAPResource, OutputStream)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode inputMode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final OutputStream contentOutputStream) throws IOException {
+        validateRequestInformation(requestInformation);
+        if (resource.getResourceLength() == 0) {
+            return new ICAPScanResult(ICAPScanResult.Verdict.CLEAN, null, new ICAPHeaderInformation(), null);
+        }
+        validateICAPResource(resource);
+
+        ICAPMode icapMode = ICAPMode.REQMOD;
+        if (inputMode != null) {
+            icapMode = inputMode;
+        }
+
+        final String sourceRequest = requestInformation.prepareSourceRequest(resource);
+        final String requestIdentifier = createRequestIdentifier(icapMode.name(), sourceRequest);
+        LOG.info(requestIdentifier + "Validate resource (" + sourceRequest + ")");
+        return scanResource(requestIdentifier, icapMode, sourceRequest, requestInformation, resource, contentOutputStream);
+    }
+
+
+    /**
+     * Scan a resource: validate the service availability, look up the verdict cache and send the resource. The permission of
+     * the circuit breaker is only acquired in case the service is requested: an ignored resource or a cached verdict is served
+     * without a permission as long as the remote service configuration is known and doesn't influence the circuit.
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode
+     * @param sourceRequest the source request
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @param contentOutputStream the output stream of the returned content or null to buffer it
+     * @return the scan result
+     * @throws IOException In case of an I/O error
+     */
+    protected ICAPScanResult scanResource(final String requestIdentifier,
+                                          final ICAPMode icapMode,
+                                          final String sourceRequest,
+                                          final ICAPRequestInformation requestInformation,
+                                          final ICAPResource resource,
+                                          final OutputStream contentOutputStream) throws IOException {
+        ICAPCircuitBreaker.Permit permit = null;
+        try {
+            // validate the service availability, the options are requested with the permission of the request
+            ICAPRemoteServiceConfiguration configuration = getCachedRemoteServiceConfiguration(requestInformation);
+            if (configuration == null) {
+                permit = acquirePermit();
+                configuration = getRemoteServiceConfiguration(requestInformation, permit);
+            }
+
+            if (ICAPTransfer.IGNORE.equals(configuration.getTransfer(resource.getResourceName()))) {
+                recordSuccess(permit);
+                return createIgnoredScanResult(requestIdentifier, requestInformation, resource);
             }
 
-            int serverPreviewSize = 1024;
-            if (icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_PREVIEW)
-                    && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW) != null
-                    && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW).size() > 0) {
-                try {
-                    serverPreviewSize = Integer.parseInt(icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW).get(0));
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug(requestIdentifier + "Server preview size: " + serverPreviewSize);
-                    }
-                } catch (NumberFormatException e) {
-                    LOG.warn(requestIdentifier + "Could not parse server preview size [" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW).get(0) + "]: " + e.getMessage());
+            // verify if the resource was already validated, a cached verdict has no content for the output stream
+            String resourceDigest = null;
+            if (isVerdictCacheLookup(requestInformation) && contentOutputStream == null) {
+                resourceDigest = createResourceDigest(resource);
+                ICAPScanResult cachedScanResult = getCachedScanResult(requestIdentifier, icapMode, sourceRequest, resourceDigest);
+                if (cachedScanResult != null) {
+                    // the resource body was not read
+                    resource.setResourceBodyRestored(requestInformation.isStreaming());
+                    recordSuccess(permit);
+                    return cachedScanResult;
                 }
             }
 
-            boolean serverAllow204 = false;
-            if (icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ALLOW)
-                    && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ALLOW) != null
-                    && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ALLOW).size() > 0) {
-                serverAllow204 = Boolean.valueOf(icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ALLOW).get(0).equalsIgnoreCase("204"));
+            if (permit == null) {
+                permit = acquirePermit();
             }
 
-            LOG.info(requestIdentifier + "Valid service ["
-                     + icapHeaderInformation.getStatus() + "/" + icapHeaderInformation.getMessage() + "], "
-                     + "allow 204: " + serverAllow204 + ", "
-                     + "available methods: " + icapHeaderInformation.getHeaderValues("Methods"));
+            return sendResource(requestIdentifier, icapMode, sourceRequest, requestInformation, configuration, resource, resourceDigest, contentOutputStream, permit);
+        } finally {
+            release(permit);
+        }
+    }
 
-            int i = 0;
-            ICAPMode[] result = new ICAPMode[icapHeaderInformation.getHeaderValues("Methods").size()];
-            for (String method : icapHeaderInformation.getHeaderValues("Methods")) {
-                result[i++] = ICAPMode.valueOf(method.trim());
-            }
 
-            remoteServiceConfiguration = new ICAPRemoteServiceConfigurationImpl(Instant.now(), result, serverPreviewSize, serverAllow204, icapHeaderInformation.getHeaders());
-            return remoteServiceConfiguration;
+    /**
+     * Get the remote service configuration of a request and record a failed options request in the circuit breaker
+     *
+     * @param requestInformation the request information
+     * @param permit the permit of the request or null
+     * @return the remote service configuration
+     * @throws IOException In case of an I/O error
+     */
+    protected ICAPRemoteServiceConfiguration getRemoteServiceConfiguration(final ICAPRequestInformation requestInformation, final ICAPCircuitBreaker.Permit permit) throws IOException {
+        try {
+            return getRemoteServiceConfiguration(requestInformation);
         } catch (IOException e) {
-            remoteServiceConfiguration = null;
+            recordFailure(permit);
             throw e;
         }
     }
 
 
     /**
-     * @see ICAPClient#validateResource(ICAPMode, ICAPResource)
+     * Send a resource to the service and record the outcome in the circuit breaker. A failure of the output stream of the
+     * caller is not recorded as a failure of the service.
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode
+     * @param sourceRequest the source request
+     * @param requestInformation the ICAP request information
+     * @param configuration the remote service configuration of the request
+     * @param resource the ICAP resource
+     * @param resourceDigest the digest of the resource for the verdict cache or null
+     * @param contentOutputStream the output stream of the returned content or null to buffer it
+     * @param permit the permit of the request or null
+     * @return the scan result
+     * @throws IOException In case of an I/O error
+     */
+    protected ICAPScanResult sendResource(final String requestIdentifier,
+                                          final ICAPMode icapMode,
+                                          final String sourceRequest,
+                                          final ICAPRequestInformation requestInformation,
+                                          final ICAPRemoteServiceConfiguration configuration,
+                                          final ICAPResource resource,
+                                          final String resourceDigest,
+                                          final OutputStream contentOutputStream,
+                                          final ICAPCircuitBreaker.Permit permit) throws IOException {
+        final ICAPMetricsRecorder metricsRecorder = createMetricsRecorder();
+        ICAPResponseBuffer resourceResponse;
+        if (contentOutputStream != null) {
+            resourceResponse = new ICAPResponseBuffer(requestIdentifier, contentOutputStream);
+        } else {
+            resourceResponse = new ICAPResponseBuffer(requestIdentifier, responseMemoryThreshold);
+        }
+
+        try (ICAPSocket icapSocket = new ICAPSocket(connectionManager, requestIdentifier, serviceInformation.getHostName(), serviceInformation.getServicePort(),
+                                                    serviceInformation.getServiceName(), serviceInformation.isSecureConnection(), requestInformation.getMaxConnectionTimeout(), requestInformation.getMaxReadTimeout(),
+                                                    metricsRecorder)) {
+            ICAPHeaderInformation icapHeaderInformation = processResource(requestIdentifier, icapSocket, icapMode, requestInformation, configuration, resource, resourceResponse);
+            ICAPScanResult scanResult = scanResponse(requestIdentifier, icapMode, sourceRequest, icapHeaderInformation, resourceResponse, resourceDigest);
+            reportMetrics(requestIdentifier, metricsRecorder, icapMode, icapHeaderInformation.getStatus(), scanResult.getVerdict());
+            recordSuccess(permit);
+            return scanResult;
+        } catch (IOException eio) {
+            if (resourceResponse.isSinkFailed()) {
+                LOG.warn(requestIdentifier + "Could not write the returned content: " + eio.getMessage());
+            } else {
+                LOG.warn(requestIdentifier + "Could not access to ICAP server: " + eio.getMessage());
+                recordFailure(permit);
+            }
+
+            reportMetrics(requestIdentifier, metricsRecorder, icapMode, getStatus(eio), null);
+            throw eio;
+        } finally {
+            resourceResponse.delete();
+        }
+    }
+
+
+    /**
+     * @see ICAPClient#validateResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public CompletableFuture<ICAPHeaderInformation> validateResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource) {
+        return validateResourceAsync(mode, requestInformation, resource, executor);
+    }
+
+
+    /**
+     * @see ICAPClient#validateResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource, Executor)
+     */
+    @Override
+    public CompletableFuture<ICAPHeaderInformation> validateResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final Executor executor) {
+        final CompletableFuture<ICAPScanResult> scanResult = scanResourceAsync(mode, requestInformation, resource, executor);
+        final CompletableFuture<ICAPHeaderInformation> result = new CompletableFuture<ICAPHeaderInformation>();
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                scanResult.cancel(false);
+            }
+        });
+
+        scanResult.whenComplete((r, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else if (r.isBlocked()) {
+                result.completeExceptionally(createContentBlockedException(requestInformation.prepareSourceRequest(resource), r));
+            } else {
+                result.complete(r.getICAPHeaderInformation());
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * @see ICAPClient#scanResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public CompletableFuture<ICAPScanResult> scanResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource) {
+        return scanResourceAsync(mode, requestInformation, resource, executor);
+    }
+
+
+    /**
+     * @see ICAPClient#scanResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource, Executor)
+     */
+    @Override
+    public CompletableFuture<ICAPScanResult> scanResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final Executor executor) {
+        final CompletableFuture<ICAPScanResult> result = new CompletableFuture<ICAPScanResult>();
+        if (executor == null) {
+            result.completeExceptionally(new IllegalArgumentException("Invalid executor!"));
+            return result;
+        }
+
+        if (executor instanceof ICAPEventLoop && isNonBlockingResource(resource)) {
+            return scanResourceNonBlocking(mode, requestInformation, resource, (ICAPEventLoop) executor);
+        }
+
+        // any other resource body is read by the blocking transport, an event loop runs it on its worker executor
+
+        try {
+            executor.execute(() -> {
+                if (result.isDone()) {
+                    return; // cancelled before it was started
+                }
+
+                try {
+                    result.complete(scanResource(mode, requestInformation, resource));
+                } catch (IOException | RuntimeException e) {
+                    result.completeExceptionally(e);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            result.completeExceptionally(e);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Check if the body of a resource can be read on the thread of an event loop without blocking it: a file or an in memory
+     * stream. Any other stream, e.g. of a servlet upload, might block all exchanges of the event loop thread.
+     *
+     * @param resource the ICAP resource
+     * @return true if the resource can be sent over the non-blocking transport
+     */
+    protected boolean isNonBlockingResource(final ICAPResource resource) {
+        if (resource == null || resource.getResourceBody() == null) {
+            return true; // rejected by the validation of the resource
+        }
+
+        return resource.getResourceBody() instanceof FileInputStream || resource.getResourceBody() instanceof ByteArrayInputStream;
+    }
+
+
+    /**
+     * Scan a resource over the non-blocking transport of the event loop.
+     *
+     * @param inputMode the icap mode
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @param eventLoop the event loop
+     * @return the future of the scan result
+     */
+    protected CompletableFuture<ICAPScanResult> scanResourceNonBlocking(final ICAPMode inputMode,
+                                                                        final ICAPRequestInformation requestInformation,
+                                                                        final ICAPResource resource,
+                                                                        final ICAPEventLoop eventLoop) {
+        final CompletableFuture<ICAPScanResult> result = new CompletableFuture<ICAPScanResult>();
+        try {
+            validateRequestInformation(requestInformation);
+            if (resource.getResourceLength() == 0) {
+                result.complete(new ICAPScanResult(ICAPScanResult.Verdict.CLEAN, null, new ICAPHeaderInformation(), null));
+                return result;
+            }
+            validateICAPResource(resource);
+        } catch (IOException e) {
+            result.completeExceptionally(e);
+            return result;
+        }
+
+        ICAPMode icapMode = ICAPMode.REQMOD;
+        if (inputMode != null) {
+            icapMode = inputMode;
+        }
+
+        final ICAPMode mode = icapMode;
+        final String sourceRequest = requestInformation.prepareSourceRequest(resource);
+        final String requestIdentifier = createRequestIdentifier(icapMode.name(), sourceRequest);
+        LOG.info(requestIdentifier + "Validate resource (" + sourceRequest + ")");
+
+        // validate the service availability, the options are requested with the permission of the request
+        ICAPCircuitBreaker.Permit optionsPermit = null;
+        if (getCachedRemoteServiceConfiguration(requestInformation) == null) {
+            try {
+                optionsPermit = acquirePermit();
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+                return result;
+            }
+        }
+
+        final ICAPCircuitBreaker.Permit requestPermit = optionsPermit;
+        optionsNonBlocking(requestInformation, eventLoop).whenComplete((configuration, e) -> {
+            if (e != null) {
+                recordOutcome(requestPermit, e);
+                result.completeExceptionally(e);
+                return;
+            }
+
+            if (ICAPTransfer.IGNORE.equals(configuration.getTransfer(resource.getResourceName()))) {
+                recordSuccess(requestPermit);
+                result.complete(createIgnoredScanResult(requestIdentifier, requestInformation, resource));
+                return;
+            }
+
+            if (!isVerdictCacheLookup(requestInformation)) {
+                sendResourceNonBlocking(requestIdentifier, mode, sourceRequest, requestInformation, configuration, resource, null, requestPermit, eventLoop, result);
+                return;
+            }
+
+            // the digest reads the whole resource, it is created on the worker executor and not on the thread of the caller
+            try {
+                eventLoop.execute(() -> {
+                    if (result.isDone()) {
+                        release(requestPermit);
+                        return; // cancelled before it was started
+                    }
+
+                    final String resourceDigest;
+                    try {
+                        resourceDigest = createResourceDigest(resource);
+                    } catch (IOException | RuntimeException ex) {
+                        release(requestPermit);
+                        result.completeExceptionally(ex);
+                        return;
+                    }
+
+                    // verify if the resource was already validated
+                    ICAPScanResult cachedScanResult = getCachedScanResult(requestIdentifier, mode, sourceRequest, resourceDigest);
+                    if (cachedScanResult != null) {
+                        // the resource body was not read
+                        resource.setResourceBodyRestored(requestInformation.isStreaming());
+                        recordSuccess(requestPermit);
+                        result.complete(cachedScanResult);
+                        return;
+                    }
+
+                    sendResourceNonBlocking(requestIdentifier, mode, sourceRequest, requestInformation, configuration, resource, resourceDigest, requestPermit, eventLoop, result);
+                });
+            } catch (RejectedExecutionException ex) {
+                release(requestPermit);
+                result.completeExceptionally(ex);
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * Send a resource over the non-blocking transport of the event loop and record the outcome in the circuit breaker.
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode
+     * @param sourceRequest the source request
+     * @param requestInformation the ICAP request information
+     * @param configuration the remote service configuration of the request
+     * @param resource the ICAP resource
+     * @param resourceDigest the digest of the resource for the verdict cache or null
+     * @param requestPermit the permit of the options request or null to acquire a permit
+     * @param eventLoop the event loop
+     * @param result the future to complete
+     */
+    protected void sendResourceNonBlocking(final String requestIdentifier,
+                                           final ICAPMode icapMode,
+                                           final String sourceRequest,
+                                           final ICAPRequestInformation requestInformation,
+                                           final ICAPRemoteServiceConfiguration configuration,
+                                           final ICAPResource resource,
+                                           final String resourceDigest,
+                                           final ICAPCircuitBreaker.Permit requestPermit,
+                                           final ICAPEventLoop eventLoop,
+                                           final CompletableFuture<ICAPScanResult> result) {
+        ICAPCircuitBreaker.Permit permit = requestPermit;
+        if (permit == null) {
+            try {
+                permit = acquirePermit();
+            } catch (IOException e) {
+                result.completeExceptionally(e);
+                return;
+            }
+        }
+
+        final ICAPCircuitBreaker.Permit resourcePermit = permit;
+        result.whenComplete((r, e) -> recordOutcome(resourcePermit, e));
+        processResourceNonBlocking(requestIdentifier, icapMode, sourceRequest, requestInformation, configuration, resource, resourceDigest, eventLoop, result);
+    }
+
+
+    /**
+     * Check if the verdict cache is looked up for a request. In streaming mode the verdict cache is not used: the digest would
+     * read the whole resource, whereas a resource which is cleared on the preview only needs the preview to be read.
+     *
+     * @param requestInformation the ICAP request information
+     * @return true if the verdict cache is looked up
+     */
+    protected boolean isVerdictCacheLookup(final ICAPRequestInformation requestInformation) {
+        return verdictCache != null && !requestInformation.isStreaming();
+    }
+
+
+    /**
+     * Resolve the options over the non-blocking transport of the event loop.
+     *
+     * @param requestInformation the ICAP request information
+     * @param eventLoop the event loop
+     * @return the future of the remote service configuration
+     */
+    protected CompletableFuture<ICAPRemoteServiceConfiguration> optionsNonBlocking(final ICAPRequestInformation requestInformation, final ICAPEventLoop eventLoop) {
+        final CompletableFuture<ICAPRemoteServiceConfiguration> result = new CompletableFuture<ICAPRemoteServiceConfiguration>();
+        ICAPRemoteServiceConfiguration configuration = getCachedRemoteServiceConfiguration(requestInformation);
+        if (configuration != null) {
+            result.complete(configuration);
+            return result;
+        }
+
+        final String requestIdentifier = createRequestIdentifier("options", null);
+        ICAPNioExchange exchange = new ICAPNioExchange(requestIdentifier, serviceInformation.getHostName(), serviceInformation.getServicePort(), serviceInformation.isSecureConnection(),
+                                                       createOptionsRequest(requestInformation))
+                .setTimeout(requestInformation.getMaxConnectionTimeout(), requestInformation.getMaxReadTimeout());
+        eventLoop.submit(exchange).whenComplete((icapHeaderInformation, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+                return;
+            }
+
+            try {
+                ICAPRemoteServiceConfiguration remoteConfiguration = createRemoteServiceConfiguration(requestIdentifier, icapHeaderInformation);
+                remoteServiceConfiguration.set(remoteConfiguration);
+                result.complete(remoteConfiguration);
+            } catch (IOException | RuntimeException ex) {
+                result.completeExceptionally(ex);
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * Process a resource over the non-blocking transport of the event loop.
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode
+     * @param sourceRequest the source request
+     * @param requestInformation the ICAP request information
+     * @param configuration the remote service configuration of the request
+     * @param resource the ICAP resource
+     * @param resourceDigest the digest of the resource for the verdict cache or null
+     * @param eventLoop the event loop
+     * @param result the future to complete
+     */
+    protected void processResourceNonBlocking(final String requestIdentifier,
+                                              final ICAPMode icapMode,
+                                              final String sourceRequest,
+                                              final ICAPRequestInformation requestInformation,
+                                              final ICAPRemoteServiceConfiguration configuration,
+                                              final ICAPResource resource,
+                                              final String resourceDigest,
+                                              final ICAPEventLoop eventLoop,
+                                              final CompletableFuture<ICAPScanResult> result) {
+        final ICAPResponseBuffer resourceResponse = new ICAPResponseBuffer(requestIdentifier, responseMemoryThreshold);
+        OutputStream contentOutputStream = null;
+        try {
+            resource.setResourceBodyRestored(false);
+            final int previewSize = getPreviewSize(configuration, resource);
+            final String algorithm = messageDigestAlgorithm;
+            final MessageDigest inputMessageDigest = createMessageDigest(requestInformation, algorithm);
+            final MessageDigest outputMessageDigest = createMessageDigest(requestInformation, algorithm);
+            if (!(requestInformation.isAllow204() != null && !requestInformation.isAllow204() && ICAPMode.REQMOD.equals(icapMode))) {
+                contentOutputStream = createDigestOutputStream(resourceResponse, outputMessageDigest);
+            }
+
+            final FileChannel fileChannel = getTransferableFileChannel(resource);
+            long position = 0;
+            if (fileChannel != null) {
+                position = fileChannel.position();
+            }
+
+            final long startPosition = position;
+            final ICAPNioExchange exchange = new ICAPNioExchange(requestIdentifier, serviceInformation.getHostName(), serviceInformation.getServicePort(), serviceInformation.isSecureConnection(),
+                                                                 createResourceRequest(requestIdentifier, icapMode, requestInformation, configuration, resource, previewSize))
+                    .setResource(createDigestInputStream(resource.getResourceBody(), inputMessageDigest), resource.getResourceLength(), previewSize, blockSize)
+                    .setResourceChannel(fileChannel)
+                    .setContentOutputStream(contentOutputStream)
+                    .setTimeout(requestInformation.getMaxConnectionTimeout(), requestInformation.getMaxReadTimeout());
+
+            final OutputStream outputStream = contentOutputStream;
+            final ICAPMetricsRecorder metricsRecorder = createMetricsRecorder();
+            result.whenComplete((r, e) -> {
+                if (result.isCancelled()) {
+                    exchange.getResult().cancel(false);
+                } else if (e == null) {
+                    reportMetrics(requestIdentifier, metricsRecorder, icapMode, r.getICAPHeaderInformation().getStatus(), r.getVerdict());
+                } else {
+                    reportMetrics(requestIdentifier, metricsRecorder, icapMode, getStatus(e), null);
+                }
+            });
+
+            eventLoop.submit(exchange).whenComplete((icapHeaderInformation, e) -> {
+                try {
+                    close(outputStream);
+                    if (e != null) {
+                        LOG.warn(requestIdentifier + "Could not access to ICAP server: " + e.getMessage());
+                        result.completeExceptionally(e);
+                        return;
+                    }
+
+                    if (exchange.isPreviewResponse()) {
+                        restoreResourceBody(requestIdentifier, requestInformation, resource, exchange.getPreview(), exchange.getPreview().length);
+                    }
+
+                    if (exchange.isContentProcessed()) {
+                        if (exchange.isResourceTransferred() && inputMessageDigest != null) {
+                            // the transferred content was not read by the digest input stream
+                            inputMessageDigest.reset();
+                            ICAPClientUtil.getInstance().updateMessageDigest(inputMessageDigest, fileChannel, startPosition, fileChannel.position() - startPosition);
+                        }
+
+                        verifyContent(requestIdentifier, resource, icapHeaderInformation, inputMessageDigest, outputMessageDigest, exchange.isContentEnded(), exchange.getContentLength());
+                    }
+
+                    result.complete(scanResponse(requestIdentifier, icapMode, sourceRequest, icapHeaderInformation, resourceResponse, resourceDigest));
+                } catch (IOException | RuntimeException ex) {
+                    result.completeExceptionally(ex);
+                } finally {
+                    resourceResponse.delete();
+                }
+            });
+        } catch (IOException | RuntimeException e) {
+            LOG.warn(requestIdentifier + "Could not access to ICAP server: " + e.getMessage());
+            close(contentOutputStream);
+            resourceResponse.delete();
+
+            result.completeExceptionally(e);
+        }
+    }
+
+
+    /**
+     * Create custom headers
+     *
+     * @param requestInformation the ICAP request information
+     * @return the customer headers
+     */
+    private String createCustomHeaders(final ICAPRequestInformation requestInformation) {
+        if (requestInformation.getCustomHeaders() == null || requestInformation.getCustomHeaders().isEmpty()) {
+            return "";
+        }
+
+        final StringBuilder headers = new StringBuilder();
+        for (Map.Entry<String, String> e : requestInformation.getCustomHeaders().entrySet()) {
+            final String key = e.getKey().trim();
+            final String value = e.getValue().trim();
+
+            if (key.equalsIgnoreCase("Host") || key.equalsIgnoreCase("Connection") || key.equalsIgnoreCase("User-Agent") || key.equalsIgnoreCase("Preview") || key.equalsIgnoreCase("Encapsulated") || key.equalsIgnoreCase("Allow")) {
+                LOG.warn("Invalid customer header [" + key + "], it's not allowed, ignore!");
+            } else if (!value.isEmpty()) {
+                headers.append(key).append(": ").append(value).append(NEWLINE);
+            }
+        }
+
+        return headers.toString();
+    }
+
+
+    /**
+     * Check if there are thread header information
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @return true if a thread was detected
+     */
+    private boolean hasThreadHeaderInformation(ICAPHeaderInformation icapHeaderInformation) {
+        return icapHeaderInformation.containsAnyHeader(THREAT_HEADER_MASK);
+    }
+
+
+    /**
+     * Read the thread reason
+     *
+     * @param icapMode the icap mode
+     * @param resourceResponse the resource response
+     * @param icapHeaderInformation the ICAP header information
+     * @return the thread content information
+     */
+    private String readThreadHeaderInformation(ICAPMode icapMode, ICAPHeaderInformation icapHeaderInformation, ICAPResponseBuffer resourceResponse) {
+        String threadHeaderInformation = null;
+
+        if (icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ENCAPSULATED) && !icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED).isEmpty()
+            && resourceResponse != null && resourceResponse.getLength() > 0) {
+            for (int i = 0; i < icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED).size(); i++) {
+                String entry = icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED).get(i);
+                String[] split = entry.split("=");
+                if (split.length > 1 && split[0].trim().equalsIgnoreCase(icapMode.getTag() + "-body")) {
+                    try {
+                        threadHeaderInformation = new String(resourceResponse.toByteArray(), Charset.forName("UTF-8")).trim();
+                    } catch (IOException e) {
+                        LOG.warn("Could not read resource response: " + e.getMessage(), e);
+                    }
+
+                    break;
+                }
+            }
+        }
+
+        if ((threadHeaderInformation == null || threadHeaderInformation.isBlank()) && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_BLOCKED)) {
+            // used by Sophos
+            threadHeaderInformation = "" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_BLOCKED);
+        }
+
+        if ((threadHeaderInformation == null || threadHeaderInformation.isBlank()) && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIRUS_ID)) {
+            // used by Sophos, Kaspersky, Trenxd Micro, ESET, McAfee, C-ICAP
+            threadHeaderInformation = "" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_VIRUS_ID);
+        }
+
+        if ((threadHeaderInformation == null || threadHeaderInformation.isBlank()) && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIRUS_NAME)) {
+            // used by McAfee
+            threadHeaderInformation = "" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_VIRUS_NAME);
+        }
+
+        if (threadHeaderInformation == null || threadHeaderInformation.isBlank()) {
+            threadHeaderInformation = "n/a";
+        }
+
+        return threadHeaderInformation;
+    }
+
+
+    /**
+     * Validate resource
+     *
+     * @param resource the resource
+     * @throws IOException In case of an invalid resource
+     */
+    protected void validateICAPResource(final ICAPResource resource) throws IOException {
+        if (resource == null
+                || resource.getResourceName() == null || resource.getResourceName().isBlank()
+                || resource.getResourceBody() == null
+                || resource.getResourceLength() <= 0) {
+            throw new IOException("Invalid input resource!");
+        }
+    }
+
+
+    /**
+     * Process a resource
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapSocket The icap socket
+     * @param icapMode the icap mode
+     * @param requestInformation the ICAP request information
+     * @param configuration the remote service configuration of the request
+     * @param resource the ICAP resource
+     * @param resourceResponse the resource response
+     * @return the ICAP header information
+     * @throws IOException In case of an I/O error
+     * @throws UnknownIOException In case of an unknown I/O error
+     */
+    protected ICAPHeaderInformation processResource(final String requestIdentifier,
+                                                    final ICAPSocket icapSocket,
+                                                    final ICAPMode icapMode,
+                                                    final ICAPRequestInformation requestInformation,
+                                                    final ICAPRemoteServiceConfiguration configuration,
+                                                    final ICAPResource resource,
+                                                    final ICAPResponseBuffer resourceResponse) throws IOException {
+
+        resource.setResourceBodyRestored(false);
+        int previewSize = getPreviewSize(configuration, resource);
+        if (previewSize >= 0 && resource.getResourceLength() > previewSize) {
+            icapSocket.phase(ICAPRequestMetrics.Phase.PREVIEW);
+        } else {
+            icapSocket.phase(ICAPRequestMetrics.Phase.UPLOAD);
+        }
+        ICAPPreviewSentEvent previewEvent = new ICAPPreviewSentEvent();
+        previewEvent.begin();
+        icapSocket.writeRequest(createResourceRequest(requestIdentifier, icapMode, requestInformation, configuration, resource, previewSize));
+
+        FileChannel fileChannel = getTransferableFileChannel(resource);
+        long startPosition = 0;
+        if (fileChannel != null) {
+            startPosition = fileChannel.position();
+        }
+
+        String algorithm = messageDigestAlgorithm;
+        MessageDigest inputMessageDigest = createMessageDigest(requestInformation, algorithm);
+        InputStream inputstream = createDigestInputStream(resource.getResourceBody(), inputMessageDigest);
+        int readBytes = 0;
+        long totalReadBytes = 0;
+        if (previewSize >= 0) {
+            // sending preview or, if smaller than previewSize, the whole file.
+            byte[] chunk = new byte[previewSize];
+            readBytes = inputstream.readNBytes(chunk, 0, previewSize);
+            totalReadBytes = readBytes;
+            icapSocket.write(chunk, 0, readBytes);
+            icapSocket.write(NEWLINE);
+            if (resource.getResourceLength() <= previewSize) {
+                icapSocket.write("0; ieof" + ICAP_END_SEPARATOR);
+                icapSocket.flush();
+            } else if (previewSize != 0) {
+                icapSocket.write(HTTP_END_SEPARATOR);
+                icapSocket.flush();
+            }
+            commitEvent(previewEvent, requestIdentifier, icapMode, resource.getResourceLength(), 0);
+
+            // parse the response; it might not be "100 continue" if fileSize < previewSize, then this is actually the respond otherwise it is a "go" for the rest of the file.
+            if (resource.getResourceLength() > previewSize) {
+                ICAPContinueReceivedEvent continueEvent = new ICAPContinueReceivedEvent();
+                continueEvent.begin();
+                ICAPHeaderInformation icapHeaderInformation = icapSocket.readICAPResponse(requestIdentifier);
+                commitEvent(continueEvent, requestIdentifier, icapMode, resource.getResourceLength(), icapHeaderInformation.getStatus());
+                switch (icapHeaderInformation.getStatus()) {
+                    case 100: break; // continue transfer
+                    case 200:
+                    case 204:
+                        restoreResourceBody(requestIdentifier, requestInformation, resource, chunk, readBytes);
+                        return icapHeaderInformation;
+                    case 404: throw new IOException("404: ICAP Service not found");
+                    default: throw new UnknownIOException("Server returned unknown status code:" + icapHeaderInformation.getStatus(), icapHeaderInformation);
+                }
+            }
+        }
+
+        // sending remaining part of file
+        boolean transferred = false;
+        if (resource.getResourceLength() > previewSize) {
+            icapSocket.phase(ICAPRequestMetrics.Phase.UPLOAD);
+            ICAPUploadCompleteEvent uploadEvent = new ICAPUploadCompleteEvent();
+            uploadEvent.begin();
+            if (fileChannel != null && icapSocket.isTransferSupported()) {
+                transferred = true;
+                transferResource(requestIdentifier, icapSocket, fileChannel);
+            } else {
+                byte[] buffer = new byte[blockSize];
+                readBytes = -1;
+                while ((readBytes = inputstream.read(buffer)) != -1) {
+                    totalReadBytes += readBytes;
+                    if (LOG.isDebugEnabled()) {
+                        LOG.debug(requestIdentifier + "Send next block of " + readBytes + " bytes (total sent: " + totalReadBytes + " bytes)...");
+                    }
+                    icapSocket.writeChunk(buffer, 0, readBytes);
+                }
+            }
+
+            // closing resource transfer.
+            icapSocket.write(HTTP_END_SEPARATOR);
+            icapSocket.flush();
+            commitEvent(uploadEvent, requestIdentifier, icapMode, resource.getResourceLength(), 0);
+        }
+
+        icapSocket.phase(ICAPRequestMetrics.Phase.PROCESSING);
+        ICAPResponseParsedEvent responseEvent = new ICAPResponseParsedEvent();
+        responseEvent.begin();
+        ICAPHeaderInformation icapHeaderInformation = icapSocket.readICAPResponse(requestIdentifier);
+        commitEvent(responseEvent, requestIdentifier, icapMode, resource.getResourceLength(), icapHeaderInformation.getStatus());
+        if (icapHeaderInformation.getStatus() == 204) { // unmodified
+            return icapHeaderInformation;
+        }
+
+        if (icapHeaderInformation.getStatus() == 200) { // OK - The ICAP status is ok, but the encapsulated HTTP status will likely be different
+            if ((requestInformation.isAllow204() != null && !requestInformation.isAllow204()) && ICAPMode.REQMOD.equals(icapMode)) {
+                return icapHeaderInformation;
+            }
+
+            if (!icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
+                LOG.warn("Missing " + ICAPConstants.HEADER_KEY_ENCAPSULATED + " information!");
+                return icapHeaderInformation;
+            }
+
+            if (resourceResponse.isForwarded() && hasThreadHeaderInformation(icapHeaderInformation)) {
+                // the block page of a threat is returned by the scan result and not written into the output stream of the caller
+                resourceResponse.bufferContent(responseMemoryThreshold);
+            }
+
+            icapSocket.phase(ICAPRequestMetrics.Phase.DOWNLOAD);
+            boolean couldProcessFullContent;
+            MessageDigest outputMessageDigest = createMessageDigest(requestInformation, algorithm);
+            try (OutputStream outputstream = createDigestOutputStream(resourceResponse, outputMessageDigest)) {
+                //int parsedResult = (int) Long.parseLong(hex, 16);
+                couldProcessFullContent = (icapSocket.processContent(outputstream) >= 0);
+                outputstream.flush();
+                outputstream.close();
+            }
+            icapSocket.flush();
+            icapSocket.close();
+
+            if (transferred && inputMessageDigest != null) {
+                // the transferred content was not read by the digest input stream
+                inputMessageDigest.reset();
+                ICAPClientUtil.getInstance().updateMessageDigest(inputMessageDigest, fileChannel, startPosition, fileChannel.position() - startPosition);
+            }
+
+            verifyContent(requestIdentifier, resource, icapHeaderInformation, inputMessageDigest, outputMessageDigest, couldProcessFullContent, resourceResponse.getLength());
+            return icapHeaderInformation;
+        }
+
+        throw new UnknownIOException("Unrecognized or no status code in response header: " + icapHeaderInformation.getStatus() + "!", icapHeaderInformation);
+    }
+
+
+    /**
+     * Create the message digest of a request to compare the sent and the returned content. It is only created in case the 
+     * request information requests it or, if not defined, the client compares the content.
+     *
+     * @param requestInformation the ICAP request information
+     * @param algorithm the algorithm
+     * @return the message digest or null if no message digest is computed
+     * @throws IOException In case the message digest could not be created
+     */
+    protected MessageDigest createMessageDigest(final ICAPRequestInformation requestInformation, final String algorithm) throws IOException {
+        boolean messageDigest = supportCompareVerifyIdenticalContent;
+        if (requestInformation.isMessageDigest() != null) {
+            messageDigest = requestInformation.isMessageDigest().booleanValue();
+        }
+
+        if (!messageDigest) {
+            return null;
+        }
+
+        return ICAPClientUtil.getInstance().createMessageDigest(algorithm);
+    }
+
+
+    /**
+     * Create the digest input stream
+     *
+     * @param inputStream the input stream
+     * @param messageDigest the message digest or null
+     * @return the digest input stream or the input stream if there is no message digest
+     */
+    protected InputStream createDigestInputStream(final InputStream inputStream, final MessageDigest messageDigest) {
+        if (messageDigest == null) {
+            return inputStream;
+        }
+
+        return new DigestInputStream(inputStream, messageDigest);
+    }
+
+
+    /**
+     * Create the digest output stream
+     *
+     * @param outputStream the output stream
+     * @param messageDigest the message digest or null
+     * @return the digest output stream or the output stream if there is no message digest
+     */
+    protected OutputStream createDigestOutputStream(final OutputStream outputStream, final MessageDigest messageDigest) {
+        if (messageDigest == null) {
+            return outputStream;
+        }
+
+        return new DigestOutputStream(outputStream, messageDigest);
+    }
+
+
+    /**
+     * Get the file channel of a file based resource which can be transferred directly into an unsecured connection (zero-copy).
+     *
+     * @param resource the ICAP resource
+     * @return the file channel or null if the resource can not be transferred
+     */
+    protected FileChannel getTransferableFileChannel(final ICAPResource resource) {
+        if (serviceInformation.isSecureConnection() || !(resource.getResourceBody() instanceof FileInputStream)) {
+            return null;
+        }
+
+        return ((FileInputStream) resource.getResourceBody()).getChannel();
+    }
+
+
+    /**
+     * Transfer the remaining part of a file based resource directly into the connection. Each transferred region is framed as chunk.
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapSocket the icap socket
+     * @param fileChannel the file channel
+     * @throws IOException In case of an I/O error
+     */
+    protected void transferResource(final String requestIdentifier, final ICAPSocket icapSocket, final FileChannel fileChannel) throws IOException {
+        long position = fileChannel.position();
+        long size = fileChannel.size();
+        while (position < size) {
+            long length = Math.min(TRANSFER_SIZE, size - position);
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(requestIdentifier + "Transfer next block of " + length + " bytes (position: " + position + ")...");
+            }
+
+            icapSocket.write((Long.toHexString(length) + NEWLINE));
+            if (icapSocket.transferFrom(fileChannel, position, length) != length) {
+                throw new IOException("Could not transfer resource, the file was modified!");
+            }
+            icapSocket.write(NEWLINE);
+            position += length;
+        }
+
+        fileChannel.position(position);
+    }
+
+
+    /**
+     * Create the options request, it is completely pre-rendered by the request template.
+     *
+     * @param requestInformation the ICAP request information
+     * @return the options request
+     */
+    protected byte[] createOptionsRequest(final ICAPRequestInformation requestInformation) {
+        return getRequestTemplate(null, requestInformation).getHead();
+    }
+
+
+    /**
+     * Get the request template of the service. The head of a request only depends on the icap mode, the connection mode and the
+     * api version, user agent and custom headers of the request information, it is rendered and encoded once and then reused.
+     *
+     * @param icapMode the icap mode or null in case of an options request
+     * @param requestInformation the ICAP request information
+     * @return the request template
+     */
+    private ICAPRequestTemplate getRequestTemplate(final ICAPMode icapMode, final ICAPRequestInformation requestInformation) {
+        ICAPRequestTemplate.Key key = new ICAPRequestTemplate.Key(icapMode, connectionManager.isPersistentConnection(), requestInformation);
+        ICAPRequestTemplate requestTemplate = requestTemplates.get(key);
+        if (requestTemplate != null) {
+            return requestTemplate;
+        }
+
+        key = key.copy();
+        String head;
+        if (icapMode == null) {
+            head = "OPTIONS icap://" + serviceInformation.getHostName() + ":" + serviceInformation.getServicePort() + "/" + serviceInformation.getServiceName() + " ICAP/" + requestInformation.getApiVersion() + NEWLINE
+                   + "Host: " + serviceInformation.getHostName() + NEWLINE
+                   + "User-Agent: " + requestInformation.getUserAgent() + NEWLINE
+                   + createCustomHeaders(requestInformation)
+                   + ICAPConstants.HEADER_KEY_ENCAPSULATED + ": null-body=0" + NEWLINE + NEWLINE;
+        } else {
+            head = icapMode.name() + " icap://" + serviceInformation.getHostName() + ":" + serviceInformation.getServicePort() + "/" + serviceInformation.getServiceName() + " ICAP/" + requestInformation.getApiVersion() + NEWLINE
+                   + "Host: " + serviceInformation.getHostName() + NEWLINE
+                   + createConnectionHeader()
+                   + "User-Agent: " + requestInformation.getUserAgent() + NEWLINE
+                   + createCustomHeaders(requestInformation);
+        }
+
+        requestTemplate = new ICAPRequestTemplate(icapMode, head.getBytes(StandardCharsets.UTF_8));
+        if (requestTemplates.size() >= MAX_REQUEST_TEMPLATES) {
+            // the request information of a service hardly changes, in case it does the templates are simply rendered again
+            requestTemplates.clear();
+        }
+
+        requestTemplates.put(key, requestTemplate);
+        return requestTemplate;
+    }
+
+
+    /**
+     * Create the remote service configuration from the options response
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapHeaderInformation the ICAP header information of the options response
+     * @return the remote service configuration
+     * @throws IOException In case the options could not be resolved
+     */
+    protected ICAPRemoteServiceConfiguration createRemoteServiceConfiguration(final String requestIdentifier, final ICAPHeaderInformation icapHeaderInformation) throws IOException {
+        if (icapHeaderInformation.getStatus() != 200) {
+            throw new IOException("Could not resolve options!");
+        }
+
+        int serverPreviewSize = 1024;
+        if (icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_PREVIEW)
+                && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW) != null
+                && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW).size() > 0) {
+            try {
+                serverPreviewSize = Integer.parseInt(icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW).get(0));
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(requestIdentifier + "Server preview size: " + serverPreviewSize);
+                }
+            } catch (NumberFormatException e) {
+                LOG.warn(requestIdentifier + "Could not parse server preview size [" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_PREVIEW).get(0) + "]: " + e.getMessage());
+            }
+        }
+
+        Integer optionsTTL = null;
+        if (icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_OPTIONS_TTL)
+                && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_OPTIONS_TTL) != null
+                && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_OPTIONS_TTL).size() > 0) {
+            try {
+                optionsTTL = Integer.valueOf(icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_OPTIONS_TTL).get(0).trim());
+            } catch (NumberFormatException e) {
+                LOG.warn(requestIdentifier + "Could not parse options ttl [" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_OPTIONS_TTL).get(0) + "]: " + e.getMessage());
+            }
+        }
+
+        boolean serverAllow204 = false;
+        if (icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ALLOW)
+                && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ALLOW) != null
+                && icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ALLOW).size() > 0) {
+            serverAllow204 = Boolean.valueOf(icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ALLOW).get(0).equalsIgnoreCase("204"));
+        }
+
+        LOG.info(requestIdentifier + "Valid service ["
+                 + icapHeaderInformation.getStatus() + "/" + icapHeaderInformation.getMessage() + "], "
+                 + "allow 204: " + serverAllow204 + ", "
+                 + "available methods: " + icapHeaderInformation.getHeaderValues("Methods"));
+
+        int i = 0;
+        ICAPMode[] result = new ICAPMode[icapHeaderInformation.getHeaderValues("Methods").size()];
+        for (String method : icapHeaderInformation.getHeaderValues("Methods")) {
+            result[i++] = ICAPMode.valueOf(method.trim());
+        }
+
+        if (verdictCache != null) {
+            verdictCache.updateServiceTag(getServiceIdentifier(), ICAPVerdictCache.getServiceTag(icapHeaderInformation));
+        }
+
+        Set<String> transferPreview = getTransferExtensions(icapHeaderInformation, ICAPConstants.HEADER_KEY_TRANSFER_PREVIEW);
+        Set<String> transferIgnore = getTransferExtensions(icapHeaderInformation, ICAPConstants.HEADER_KEY_TRANSFER_IGNORE);
+        Set<String> transferComplete = getTransferExtensions(icapHeaderInformation, ICAPConstants.HEADER_KEY_TRANSFER_COMPLETE);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Transfer preview: " + transferPreview + ", ignore: " + transferIgnore + ", complete: " + transferComplete);
+        }
+
+        return new ICAPRemoteServiceConfigurationImpl(Instant.now(), result, serverPreviewSize, serverAllow204, icapHeaderInformation.getHeaders(), optionsTTL,
+                                                      transferPreview, transferIgnore, transferComplete);
+    }
+
+
+    /**
+     * Get the file extensions of a transfer header (Transfer-Preview, Transfer-Ignore, Transfer-Complete)
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @param header the header name
+     * @return the lower case file extensions without leading dot, the wildcard is kept as "*"
+     */
+    protected Set<String> getTransferExtensions(final ICAPHeaderInformation icapHeaderInformation, final String header) {
+        Set<String> extensions = new LinkedHashSet<String>();
+        if (!icapHeaderInformation.containsHeader(header) || icapHeaderInformation.getHeaderValues(header) == null) {
+            return extensions;
+        }
+
+        for (String values : icapHeaderInformation.getHeaderValues(header)) {
+            for (String value : values.split(",")) {
+                String extension = value.trim().toLowerCase(Locale.ROOT);
+                if (extension.startsWith(".")) {
+                    extension = extension.substring(1);
+                }
+
+                if (!extension.isEmpty()) {
+                    extensions.add(extension);
+                }
+            }
+        }
+
+        return extensions;
+    }
+
+
+    /**
+     * Hand the resource body back to the caller in streaming mode after the server decided on the preview: the body is
+     * replaced by a stream of the sent preview followed by the unread remaining part.
+     *
+     * @param requestIdentifier the request identifier
+     * @param requestInformation the ICAP request information
+     * @param resource the ICAP resource
+     * @param preview the preview buffer
+     * @param previewLength the length of the sent preview
+     */
+    protected void restoreResourceBody(final String requestIdentifier,
+                                       final ICAPRequestInformation requestInformation,
+                                       final ICAPResource resource,
+                                       final byte[] preview,
+                                       final int previewLength) {
+        if (!requestInformation.isStreaming()) {
+            return;
+        }
+
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Decided on the preview, skip the remaining " + (resource.getResourceLength() - previewLength) + " bytes.");
+        }
+
+        resource.setResourceBody(new SequenceInputStream(new ByteArrayInputStream(preview, 0, previewLength), resource.getResourceBody())).setResourceBodyRestored(true);
+    }
+
+
+    /**
+     * Get the preview size of a resource
+     *
+     * @param configuration the remote service configuration of the request
+     * @param resource the ICAP resource
+     * @return the preview size or -1 to send the resource without preview (Transfer-Complete)
+     */
+    protected int getPreviewSize(final ICAPRemoteServiceConfiguration configuration, final ICAPResource resource) {
+        if (ICAPTransfer.COMPLETE.equals(configuration.getTransfer(resource.getResourceName()))) {
+            return -1;
+        }
+
+        int previewSize = configuration.getServerPreviewSize();
+        if (resource.getResourceLength() < previewSize) {
+            previewSize = (int) resource.getResourceLength();
+        }
+
+        return previewSize;
+    }
+
+
+    /**
+     * Create the resource request: the ICAP header, the encapsulated http headers and the chunk header of the preview.
+     * Without preview the resource is sent completely and the chunks follow the encapsulated http headers. The head of
+     * the request is taken from the request template, only the variable parts are rendered per request.
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode
+     * @param requestInformation the ICAP request information
+     * @param configuration the remote service configuration of the request
+     * @param resource the ICAP resource
+     * @param previewSize the preview size or -1 to send the resource without preview
+     * @return the resource request
+     * @throws IOException In case of an I/O error
      */
-    @Override
-    public ICAPHeaderInformation validateResource(final ICAPMode mode, final ICAPResource resource) throws IOException, ContentBlockedException {
-        return validateResource(mode, new ICAPRequestInformation(), resource);
+    protected byte[] createResourceRequest(final String requestIdentifier,
+                                           final ICAPMode icapMode,
+                                           final ICAPRequestInformation requestInformation,
+                                           final ICAPRemoteServiceConfiguration configuration,
+                                           final ICAPResource resource,
+                                           final int previewSize) throws IOException {
+        final boolean allow204 = !supportAllow204(requestIdentifier, configuration, requestInformation.isAllow204()).isEmpty();
+        return getRequestTemplate(icapMode, requestInformation).createResourceRequest(allow204, previewSize, resource.getResourceName(), requestInformation.getRequestSource(), resource.getResourceLength());
     }
 
 
     /**
-     * @see ICAPClient#validateResource(ICAPMode, ICAPRequestInformation, ICAPResource)
+     * Verify the returned content of a modified response (200) and add the message digest headers.
+     *
+     * @param requestIdentifier the request identifier
+     * @param resource the ICAP resource
+     * @param icapHeaderInformation the ICAP header information
+     * @param inputMessageDigest the message digest of the sent resource or null if it is not computed
+     * @param outputMessageDigest the message digest of the returned content or null if it is not computed
+     * @param couldProcessFullContent true if the returned content could be read
+     * @param responseLength the length of the returned content
      */
-    @Override
-    public ICAPHeaderInformation validateResource(final ICAPMode inputMode, final ICAPRequestInformation requestInformation, final ICAPResource resource) throws IOException, ContentBlockedException {
-        validateRequestInformation(requestInformation);
-        if (resource.getResourceLength() == 0) {
-            return new ICAPHeaderInformation();
-        }
-        validateICAPResource(resource);
-
-        ICAPMode icapMode = ICAPMode.REQMOD;
-        if (inputMode != null) {
-            icapMode = inputMode;
+    protected void verifyContent(final String requestIdentifier,
+                                 final ICAPResource resource,
+                                 final ICAPHeaderInformation icapHeaderInformation,
+                                 final MessageDigest inputMessageDigest,
+                                 final MessageDigest outputMessageDigest,
+                                 final boolean couldProcessFullContent,
+                                 final long responseLength) {
+        if (inputMessageDigest == null || outputMessageDigest == null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(requestIdentifier + "Resource length: " + resource.getResourceLength() + ", Response length: " + responseLength + ", no message digest.");
+            }
+            return;
         }
 
-        final String sourceRequest = requestInformation.prepareSourceRequest(resource);
-        final String requestIdentifier = createRequestIdentifier(icapMode.name(), sourceRequest);
-        LOG.info(requestIdentifier + "Validate resource (" + sourceRequest + ")");
+        String inputMsg = ICAPClientUtil.getInstance().messageDigestToString(inputMessageDigest.getAlgorithm(), inputMessageDigest);
+        icapHeaderInformation.getHeaders().put(ICAPConstants.HEADER_KEY_X_REQUEST_MESSAGE_DIGEST, Arrays.asList(inputMsg));
+        String outputMsg = ICAPClientUtil.getInstance().messageDigestToString(outputMessageDigest.getAlgorithm(), outputMessageDigest);
+        icapHeaderInformation.getHeaders().put(ICAPConstants.HEADER_KEY_X_RESPONSE_MESSAGE_DIGEST, Arrays.asList(outputMsg));
 
-        // validate the service availability
-        if (remoteServiceConfiguration == null) {
-            options(requestInformation);
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Resource length: " + resource.getResourceLength() + ", Response length: " + responseLength + "?");
         }
 
-        // prepare preview size
-        int previewSize = remoteServiceConfiguration.getServerPreviewSize();
-        if (resource.getResourceLength() < previewSize) {
-            previewSize = (int)resource.getResourceLength();
+        if (supportCompareVerifyIdenticalContent) {
+            boolean identicalContent = couldProcessFullContent && resource.getResourceLength() == responseLength && inputMsg.equals(outputMsg);
+            if (identicalContent) {
+                icapHeaderInformation.getHeaders().put(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT, Arrays.asList("" + identicalContent));
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(requestIdentifier + "Input and output are equal -> allow, it's a valid response!");
+                }
+            }
         }
+    }
 
-        File resourceResponse = File.createTempFile(requestIdentifier, ".tmp");
-        try (ICAPSocket icapSocket = new ICAPSocket(connectionManager, requestIdentifier, serviceInformation.getHostName(), serviceInformation.getServicePort(),
-                                                    serviceInformation.getServiceName(), serviceInformation.isSecureConnection(), requestInformation.getMaxConnectionTimeout(), requestInformation.getMaxReadTimeout())) {
-            ICAPHeaderInformation icapHeaderInformation = processResource(requestIdentifier, icapSocket, icapMode, requestInformation, resource, resourceResponse);
-            icapHeaderInformation.getHeaders().remove(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE);
 
-            if (icapHeaderInformation.getStatus() == 200) {
-                String threadInformation = "";
+    /**
+     * Scan the ICAP response of a resource and put the verdict into the verdict cache
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode
+     * @param sourceRequest the source request
+     * @param icapHeaderInformation the ICAP header information
+     * @param resourceResponse the resource response
+     * @param resourceDigest the digest of the resource for the verdict cache or null
+     * @return the scan result
+     */
+    protected ICAPScanResult scanResponse(final String requestIdentifier,
+                                          final ICAPMode icapMode,
+                                          final String sourceRequest,
+                                          final ICAPHeaderInformation icapHeaderInformation,
+                                          final ICAPResponseBuffer resourceResponse,
+                                          final String resourceDigest) {
+        ICAPScanResult scanResult = createScanResult(requestIdentifier, icapMode, sourceRequest, icapHeaderInformation, resourceResponse);
+
+        // only valid resources and threats are cached, a not identical content depends on the client
+        if (verdictCache != null && !ICAPScanResult.Verdict.NOT_IDENTICAL.equals(scanResult.getVerdict())) {
+            verdictCache.put(getServiceIdentifier(), icapMode, resourceDigest, scanResult);
+        }
 
-                for (Map.Entry<String, List<String>> e: icapHeaderInformation.getHeaders().entrySet()) {
-                    if (e.getKey().toLowerCase().startsWith("x-")) {
-                        threadInformation += "- " + e.getKey() + ": " + e.getValue() + "\n";
-                    }
-                }
+        return scanResult;
+    }
 
-                // verify if there is a thread is found taken from header
-                if (hasThreadHeaderInformation(icapHeaderInformation)) {
-                    String threadHeaderInformation = readThreadHeaderInformation(icapMode, icapHeaderInformation, resourceResponse);
-                    String msg = "Threat found in resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + "):\n" + threadInformation.trim();
-                    LOG.info(requestIdentifier + msg);
-                    throw new ContentBlockedException(msg, icapHeaderInformation, threadHeaderInformation);
-                } else if (supportCompareVerifyIdenticalContent
-                        && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT) && !icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT).isEmpty()
-                        && !Boolean.valueOf(icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT).get(0))) {
-                    String msg = "Not identical resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + "):\n" + threadInformation.trim();
-                    LOG.info(requestIdentifier + msg);
-                    throw new ContentBlockedException(msg, icapHeaderInformation);
-                }
-            }
 
-            LOG.info(requestIdentifier + "Valid resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + ").");
-            return icapHeaderInformation;
-        } catch (IOException eio) {
-            LOG.warn(requestIdentifier + "Could not access to ICAP server: " + eio.getMessage());
-            throw eio;
-        } finally {
-            if (resourceResponse != null && resourceResponse.exists()) {
-                resourceResponse.delete();
+    /**
+     * Get the cached scan result of a resource
+     *
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode
+     * @param sourceRequest the source request
+     * @param resourceDigest the digest of the resource or null
+     * @return the cached scan result or null if there is none
+     */
+    protected ICAPScanResult getCachedScanResult(final String requestIdentifier, final ICAPMode icapMode, final String sourceRequest, final String resourceDigest) {
+        if (verdictCache == null || resourceDigest == null) {
+            return null;
+        }
+
+        ICAPScanResult scanResult = verdictCache.getScanResult(getServiceIdentifier(), icapMode, resourceDigest);
+        if (scanResult != null) {
+            if (scanResult.isBlocked()) {
+                LOG.info(requestIdentifier + "Threat found in resource (" + sourceRequest + ", threats: " + scanResult.getThreatNames() + ", cached verdict).");
+            } else {
+                LOG.info(requestIdentifier + "Valid resource (" + sourceRequest + ", http-status: " + scanResult.getICAPHeaderInformation().getStatus() + ", cached verdict).");
             }
         }
+
+        return scanResult;
     }
 
 
     /**
-     * Create custom headers
+     * Create the scan result of a resource which the server doesn't need to see (Transfer-Ignore), the resource is not sent.
      *
+     * @param requestIdentifier the request identifier
      * @param requestInformation the ICAP request information
-     * @return the customer headers
+     * @param resource the ICAP resource
+     * @return the scan result
      */
-    private String createCustomHeaders(final ICAPRequestInformation requestInformation) {
-        if (requestInformation.getCustomHeaders() == null || requestInformation.getCustomHeaders().isEmpty()) {
-            return "";
-        }
+    protected ICAPScanResult createIgnoredScanResult(final String requestIdentifier, final ICAPRequestInformation requestInformation, final ICAPResource resource) {
+        LOG.info(requestIdentifier + "Valid resource (" + resource.getResourceName() + ", transfer ignored by the service).");
 
-        final StringBuilder headers = new StringBuilder();
-        for (Map.Entry<String, String> e : requestInformation.getCustomHeaders().entrySet()) {
-            final String key = e.getKey().trim();
-            final String value = e.getValue().trim();
+        // the resource body was not read
+        resource.setResourceBodyRestored(requestInformation.isStreaming());
 
-            if (key.equalsIgnoreCase("Host") || key.equalsIgnoreCase("Connection") || key.equalsIgnoreCase("User-Agent") || key.equalsIgnoreCase("Preview") || key.equalsIgnoreCase("Encapsulated") || key.equalsIgnoreCase("Allow")) {
-                LOG.warn("Invalid customer header [" + key + "], it's not allowed, ignore!");
-            } else if (!value.isEmpty()) {
-                headers.append(key).append(": ").append(value).append(NEWLINE);
+        Map<String, List<String>> headers = new ICAPHeaderMap();
+        headers.put(ICAPConstants.HEADER_KEY_X_TRANSFER_IGNORED, Arrays.asList("true"));
+        return new ICAPScanResult(ICAPScanResult.Verdict.CLEAN, null,
+                                  new ICAPHeaderInformation().setProtocol("ICAP").setVersion("1.0").setStatus(204).setMessage("No modifications needed").setHeaders(headers), null);
+    }
+
+
+    /**
+     * Create the digest of a resource for the verdict cache. The digest is only created in case the content can be read
+     * without consuming the resource: a file based resource or a markable stream up to 1 MB.
+     *
+     * @param resource the ICAP resource
+     * @return the digest or null if it can not be created
+     * @throws IOException In case of an I/O error
+     */
+    protected String createResourceDigest(final ICAPResource resource) throws IOException {
+        final InputStream resourceBody = resource.getResourceBody();
+        final MessageDigest messageDigest = ICAPClientUtil.getInstance().createMessageDigest(VERDICT_CACHE_DIGEST_ALGORITHM);
+        if (resourceBody instanceof FileInputStream) {
+            FileChannel fileChannel = ((FileInputStream) resourceBody).getChannel();
+            long position = fileChannel.position();
+            ICAPClientUtil.getInstance().updateMessageDigest(messageDigest, fileChannel, position, fileChannel.size() - position);
+        } else if (resourceBody.markSupported() && resource.getResourceLength() <= VERDICT_CACHE_MARK_LIMIT) {
+            resourceBody.mark((int) resource.getResourceLength() + 1);
+            try {
+                byte[] buffer = new byte[blockSize];
+                int readBytes;
+                while ((readBytes = resourceBody.read(buffer)) != -1) {
+                    messageDigest.update(buffer, 0, readBytes);
+                }
+            } finally {
+                resourceBody.reset();
             }
+        } else {
+            return null;
         }
 
-        return headers.toString();
+        return ICAPClientUtil.getInstance().messageDigestToString(VERDICT_CACHE_DIGEST_ALGORITHM, messageDigest);
     }
 
 
     /**
-     * Check if there are thread header information
+     * Get the identifier of the service
      *
-     * @param icapHeaderInformation the ICAP header information
-     * @return true if a thread was detected
+     * @return the service identifier, e.g. icap://localhost:1344/srv_clamav
      */
-    private boolean hasThreadHeaderInformation(ICAPHeaderInformation icapHeaderInformation) {
-        return icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND)
-               || icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND)
-               || icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_BLOCKED)        // used by Sophos
-               || icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIRUS_ID)       // used by Sophos, Kaspersky, Trenxd Micro, ESET, McAfee, C-ICAP
-               || icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIRUS_NAME)     // used by McAfee
-               || icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_BLOCK_REASON)   // used by McAfee
-               || icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_BLOCK_RESULT);  // used by McAfee
+    protected String getServiceIdentifier() {
+        String protocol = "icap";
+        if (serviceInformation.isSecureConnection()) {
+            protocol = "icaps";
+        }
+
+        return protocol + "://" + serviceInformation.getHostName() + ":" + serviceInformation.getServicePort() + "/" + serviceInformation.getServiceName();
     }
 
 
     /**
-     * Read the thread reason
+     * Create the scan result of an ICAP response. A blocked resource is only reported by the verdict, no message is built.
      *
+     * @param requestIdentifier the request identifier
      * @param icapMode the icap mode
-     * @param resourceResponse the resource response
+     * @param sourceRequest the source request
      * @param icapHeaderInformation the ICAP header information
-     * @return the thread content information
+     * @param resourceResponse the resource response
+     * @return the scan result
      */
-    private String readThreadHeaderInformation(ICAPMode icapMode, ICAPHeaderInformation icapHeaderInformation, File resourceResponse) {
-        String threadHeaderInformation = null;
+    protected ICAPScanResult createScanResult(final String requestIdentifier,
+                                              final ICAPMode icapMode,
+                                              final String sourceRequest,
+                                              final ICAPHeaderInformation icapHeaderInformation,
+                                              final ICAPResponseBuffer resourceResponse) {
+        icapHeaderInformation.getHeaders().remove(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE);
+
+        if (icapHeaderInformation.getStatus() == 200) {
+            // verify if there is a thread is found taken from header
+            if (hasThreadHeaderInformation(icapHeaderInformation)) {
+                List<String> threatNames = ICAPClientUtil.getInstance().readThreatNames(icapHeaderInformation);
+                LOG.info(requestIdentifier + "Threat found in resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + ", threats: " + threatNames + ").");
+                return new ICAPScanResult(ICAPScanResult.Verdict.THREAT, threatNames, icapHeaderInformation, readThreadHeaderInformation(icapMode, icapHeaderInformation, resourceResponse));
+            } else if (supportCompareVerifyIdenticalContent
+                    && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT) && !icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT).isEmpty()
+                    && !Boolean.valueOf(icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT).get(0))) {
+                LOG.info(requestIdentifier + "Not identical resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + ").");
+                return new ICAPScanResult(ICAPScanResult.Verdict.NOT_IDENTICAL, null, icapHeaderInformation, null);
+            }
+        }
 
-        if (icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ENCAPSULATED) && !icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED).isEmpty()
-            && resourceResponse != null && resourceResponse.length() > 0 && resourceResponse.exists()) {
-            for (int i = 0; i < icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED).size(); i++) {
-                String entry = icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED).get(i);
-                String[] split = entry.split("=");
-                if (split.length > 1 && split[0].trim().equalsIgnoreCase(icapMode.getTag() + "-body")) {
-                    try {
-                        threadHeaderInformation = new String(ICAPClientUtil.getInstance().readFile(resourceResponse), Charset.forName("UTF-8")).trim();
-                    } catch (IOException e) {
-                        LOG.warn("Could not read resource response: " + e.getMessage(), e);
-                    }
+        LOG.info(requestIdentifier + "Valid resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + ").");
+        return new ICAPScanResult(ICAPScanResult.Verdict.CLEAN, null, icapHeaderInformation, null);
+    }
 
-                    break;
+
+    /**
+     * Create the exception of a blocked scan result
+     *
+     * @param sourceRequest the source request
+     * @param scanResult the scan result
+     * @return the exception
+     */
+    protected ContentBlockedException createContentBlockedException(final String sourceRequest, final ICAPScanResult scanResult) {
+        final ICAPHeaderInformation icapHeaderInformation = scanResult.getICAPHeaderInformation();
+        final StringBuilder threadInformation = new StringBuilder();
+        if (icapHeaderInformation.getHeaders() != null) {
+            for (Map.Entry<String, List<String>> e: icapHeaderInformation.getHeaders().entrySet()) {
+                if (e.getKey().toLowerCase().startsWith("x-")) {
+                    threadInformation.append("- ").append(e.getKey()).append(": ").append(e.getValue()).append('\n');
                 }
             }
         }
 
-        if ((threadHeaderInformation == null || threadHeaderInformation.isBlank()) && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_BLOCKED)) {
-            // used by Sophos
-            threadHeaderInformation = "" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_BLOCKED);
-        }
-
-        if ((threadHeaderInformation == null || threadHeaderInformation.isBlank()) && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIRUS_ID)) {
-            // used by Sophos, Kaspersky, Trenxd Micro, ESET, McAfee, C-ICAP
-            threadHeaderInformation = "" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_VIRUS_ID);
+        if (ICAPScanResult.Verdict.NOT_IDENTICAL.equals(scanResult.getVerdict())) {
+            return new ContentBlockedException("Not identical resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + "):\n" + threadInformation.toString().trim(), icapHeaderInformation);
         }
 
-        if ((threadHeaderInformation == null || threadHeaderInformation.isBlank()) && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIRUS_NAME)) {
-            // used by McAfee
-            threadHeaderInformation = "" + icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_X_VIRUS_NAME);
-        }
+        return new ContentBlockedException("Threat found in resource (" + sourceRequest + ", http-status: " + icapHeaderInformation.getStatus() + "):\n" + threadInformation.toString().trim(),
+                                           icapHeaderInformation, scanResult.getContent());
+    }
 
-        if (threadHeaderInformation == null || threadHeaderInformation.isBlank()) {
-            threadHeaderInformation = "n/a";
-        }
 
-        return threadHeaderInformation;
+    /**
+     * Commit a flight recorder event of a request to the service, see {@link AbstractICAPEvent}
+     *
+     * @param event the started event
+     * @param requestIdentifier the request identifier
+     * @param icapMode the icap mode or null
+     * @param resourceLength the length of the resource or 0
+     * @param status the ICAP status or 0 if there is no response
+     */
+    private void commitEvent(final AbstractICAPEvent event, final String requestIdentifier, final ICAPMode icapMode, final long resourceLength, final int status) {
+        event.commit(requestIdentifier, serviceInformation.getHostName(), serviceInformation.getServicePort(), serviceInformation.getServiceName(), icapMode, resourceLength, status);
     }
 
 
     /**
-     * Validate resource
+     * Create the recorder of the request metrics
      *
-     * @param resource the resource
-     * @throws IOException In case of an invalid resource
+     * @return the recorder or null if there is no metrics listener
      */
-    protected void validateICAPResource(final ICAPResource resource) throws IOException {
-        if (resource == null
-                || resource.getResourceName() == null || resource.getResourceName().isBlank()
-                || resource.getResourceBody() == null
-                || resource.getResourceLength() <= 0) {
-            throw new IOException("Invalid input resource!");
+    private ICAPMetricsRecorder createMetricsRecorder() {
+        if (metricsListener == null) {
+            return null;
         }
+
+        return new ICAPMetricsRecorder();
     }
 
 
     /**
-     * Process a resource
+     * Report the metrics of a request to the metrics listener
      *
      * @param requestIdentifier the request identifier
-     * @param icapSocket The icap socket
+     * @param metricsRecorder the recorder of the request metrics or null
      * @param icapMode the icap mode
-     * @param requestInformation the ICAP request information
-     * @param resource the ICAP resource
-     * @param resourceResponse the resource response
-     * @return the ICAP header information
-     * @throws IOException In case of an I/O error
-     * @throws UnknownIOException In case of an unknown I/O error
-     * @throws ContentBlockedException In case the content is blocked
+     * @param status the ICAP status or 0 if there is no response
+     * @param verdict the verdict or null in case the request failed
      */
-    protected ICAPHeaderInformation processResource(final String requestIdentifier,
-                                                    final ICAPSocket icapSocket,
-                                                    final ICAPMode icapMode,
-                                                    final ICAPRequestInformation requestInformation,
-                                                    final ICAPResource resource,
-                                                    final File resourceResponse) throws IOException, ContentBlockedException {
-
-        // first part of header
-        String httpMethod = "GET";
-        String header = httpMethod + " /" + URLEncoder.encode(resource.getResourceName().trim(), StandardCharsets.UTF_8.name()) + " HTTP/1.1" + NEWLINE
-                        + "Host: " + requestInformation.getRequestSource() + NEWLINE + NEWLINE;
-        String body = header + "HTTP/1.1 200 OK" + NEWLINE + ICAPConstants.HEADER_KEY_TRANSFER_ENCODING + ": chunked" + NEWLINE
-                      + ICAPConstants.HEADER_KEY_CONTENT_LENGTH + ": " + resource.getResourceLength() + NEWLINE + NEWLINE;
-        String reqHdr = "";
-        String bodyHdr = "";
-        if (ICAPMode.RESPMOD.equals(icapMode)) {
-            reqHdr = "req-hdr=0, ";
-            bodyHdr = icapMode.getTag() + "-hdr=" + header.length() + ", ";
-        } else {
-            reqHdr = "req-hdr=0, ";
+    private void reportMetrics(final String requestIdentifier, final ICAPMetricsRecorder metricsRecorder, final ICAPMode icapMode, final int status, final ICAPScanResult.Verdict verdict) {
+        ICAPMetricsListener listener = metricsListener;
+        if (metricsRecorder == null || listener == null) {
+            return;
         }
 
-        int previewSize = remoteServiceConfiguration.getServerPreviewSize();
-        if (resource.getResourceLength() < previewSize) {
-            previewSize = (int) resource.getResourceLength();
+        try {
+            listener.onRequest(metricsRecorder.end(serviceInformation, icapMode, status, verdict));
+        } catch (RuntimeException e) {
+            LOG.warn(requestIdentifier + "Could not report the metrics: " + e.getMessage(), e);
         }
+    }
 
-        String requestBuffer = "" + icapMode.name() + " icap://" + serviceInformation.getHostName() + ":" + serviceInformation.getServicePort() + "/" + serviceInformation.getServiceName() + " ICAP/" + requestInformation.getApiVersion() + NEWLINE
-                             + "Host: " + serviceInformation.getHostName() + NEWLINE
-                             + "Connection:  close" + NEWLINE
-                             + "User-Agent: " + requestInformation.getUserAgent() + NEWLINE
-                             + createCustomHeaders(requestInformation)
-                             + supportAllow204(requestIdentifier, requestInformation.isAllow204())
-                             + "Preview: " + previewSize + NEWLINE
-                             + "Encapsulated: " + reqHdr + bodyHdr + icapMode.getTag() + "-body=" + body.length() + NEWLINE + NEWLINE
-                             + body
-                             + Integer.toHexString(previewSize) + NEWLINE;
-        icapSocket.write(requestBuffer);
-
-        // sending preview or, if smaller than previewSize, the whole file.
-        byte[] chunk = new byte[previewSize];
-
-        MessageDigest inputMessageDigest = ICAPClientUtil.getInstance().createMessageDigest(messageDigestAlgorithm);
-        DigestInputStream inputstream = new DigestInputStream(resource.getResourceBody(), inputMessageDigest);
-        int readBytes = inputstream.read(chunk);
-        long totalReadBytes = readBytes;
-        icapSocket.write(chunk, 0, readBytes);
-        icapSocket.write(NEWLINE);
-        if (resource.getResourceLength() <= previewSize) {
-            icapSocket.write("0; ieof" + ICAP_END_SEPARATOR);
-            icapSocket.flush();
-        } else if (previewSize != 0) {
-            icapSocket.write(HTTP_END_SEPARATOR);
-            icapSocket.flush();
-        }
 
-        // parse the response; it might not be "100 continue" if fileSize < previewSize, then this is actually the respond otherwise it is a "go" for the rest of the file.
-        if (resource.getResourceLength() > previewSize) {
-            ICAPHeaderInformation icapHeaderInformation = icapSocket.readICAPResponse(requestIdentifier, ICAP_END_SEPARATOR, bufferSize);
-            switch (icapHeaderInformation.getStatus()) {
-                case 100: break; // continue transfer
-                case 200: return icapHeaderInformation;
-                case 204: return icapHeaderInformation;
-                case 404: throw new IOException("404: ICAP Service not found");
-                default: throw new UnknownIOException("Server returned unknown status code:" + icapHeaderInformation.getStatus(), icapHeaderInformation);
-            }
+    /**
+     * Get the ICAP status of a failed request
+     *
+     * @param e the exception
+     * @return the ICAP status or 0 if there is no response
+     */
+    private int getStatus(final Throwable e) {
+        if (e instanceof UnknownIOException && ((UnknownIOException) e).getICAPHeaderInformation() != null) {
+            return ((UnknownIOException) e).getICAPHeaderInformation().getStatus();
         }
 
-        // sending remaining part of file
-        if (resource.getResourceLength() > previewSize) {
-            byte[] buffer = new byte[bufferSize];
-            readBytes = -1;
-            while ((readBytes = inputstream.read(buffer)) != -1) {
-                totalReadBytes += readBytes;
-                if (LOG.isDebugEnabled()) {
-                    LOG.debug(requestIdentifier + "Send next block of " + readBytes + " bytes (total sent: " + totalReadBytes + " bytes)...");
-                }
-                icapSocket.write((Integer.toHexString(readBytes) + NEWLINE));
-                icapSocket.write(buffer, 0, readBytes);
-                icapSocket.write(NEWLINE);
-            }
+        return 0;
+    }
 
-            // closing resource transfer.
-            icapSocket.write(HTTP_END_SEPARATOR);
-            icapSocket.flush();
+
+    /**
+     * Acquire the permission of a request from the circuit breaker
+     *
+     * @return the permit or null if there is no circuit breaker
+     * @throws IOException In case the circuit of the service is open
+     */
+    protected ICAPCircuitBreaker.Permit acquirePermit() throws IOException {
+        ICAPCircuitBreaker breaker = circuitBreaker;
+        if (breaker == null) {
+            return null;
         }
 
-        ICAPHeaderInformation icapHeaderInformation = icapSocket.readICAPResponse(requestIdentifier, ICAP_END_SEPARATOR, bufferSize);
-        if (icapHeaderInformation.getStatus() == 204) { // unmodified
-            return icapHeaderInformation;
+        return breaker.acquire(serviceInformation);
+    }
+
+
+    /**
+     * Record a successful request in the circuit breaker
+     *
+     * @param permit the permit or null
+     */
+    protected void recordSuccess(final ICAPCircuitBreaker.Permit permit) {
+        if (permit != null) {
+            permit.success();
         }
+    }
 
-        if (icapHeaderInformation.getStatus() == 200) { // OK - The ICAP status is ok, but the encapsulated HTTP status will likely be different
-            if ((requestInformation.isAllow204() != null && !requestInformation.isAllow204()) && ICAPMode.REQMOD.equals(icapMode)) {
-                return icapHeaderInformation;
-            }
 
-            if (!icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
-                LOG.warn("Missing " + ICAPConstants.HEADER_KEY_ENCAPSULATED + " information!");
-                return icapHeaderInformation;
-            }
+    /**
+     * Record a failed request in the circuit breaker
+     *
+     * @param permit the permit or null
+     */
+    protected void recordFailure(final ICAPCircuitBreaker.Permit permit) {
+        if (permit != null) {
+            permit.failure();
+        }
+    }
 
-            boolean couldProcessFullContent;
-            MessageDigest outputMessageDigest = ICAPClientUtil.getInstance().createMessageDigest(messageDigestAlgorithm);
-            try (DigestOutputStream outputstream = new DigestOutputStream(new BufferedOutputStream(new FileOutputStream(resourceResponse)), outputMessageDigest)) {
-                //int parsedResult = (int) Long.parseLong(hex, 16);
-                couldProcessFullContent = (icapSocket.processContent(outputstream) >= 0);
-                outputstream.flush();
-                outputstream.close();
-            }
-            icapSocket.flush();
-            icapSocket.close();
 
-            String inputMsg = ICAPClientUtil.getInstance().messageDigestToString(messageDigestAlgorithm, inputMessageDigest);
-            icapHeaderInformation.getHeaders().put(ICAPConstants.HEADER_KEY_X_REQUEST_MESSAGE_DIGEST, Arrays.asList(inputMsg));
-            String outputMsg = ICAPClientUtil.getInstance().messageDigestToString(messageDigestAlgorithm, outputMessageDigest);
-            icapHeaderInformation.getHeaders().put(ICAPConstants.HEADER_KEY_X_RESPONSE_MESSAGE_DIGEST, Arrays.asList(outputMsg));
+    /**
+     * Record the outcome of an asynchronous request in the circuit breaker: an I/O error is recorded as failure, any other error
+     * releases the permission without a recorded outcome.
+     *
+     * @param permit the permit or null
+     * @param e the exception or null in case of a successful request
+     */
+    protected void recordOutcome(final ICAPCircuitBreaker.Permit permit, final Throwable e) {
+        if (e == null) {
+            recordSuccess(permit);
+        } else if (e instanceof IOException || e.getCause() instanceof IOException) {
+            recordFailure(permit);
+        } else {
+            release(permit);
+        }
+    }
+
 
-            if (LOG.isDebugEnabled()) {
-                LOG.debug(requestIdentifier + "Resource length: " + resource.getResourceLength() + ", Response length: " + resourceResponse.length() + "?");
-            }
+    /**
+     * Release the permission of a request without a recorded outcome
+     *
+     * @param permit the permit or null
+     */
+    protected void release(final ICAPCircuitBreaker.Permit permit) {
+        if (permit != null) {
+            permit.release();
+        }
+    }
 
-            if (supportCompareVerifyIdenticalContent) {
-                boolean identicalContent = couldProcessFullContent && resource.getResourceLength() == resourceResponse.length() && inputMsg.equals(outputMsg);
-                if (identicalContent) {
-                    icapHeaderInformation.getHeaders().put(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT, Arrays.asList("" + identicalContent));
-                    if (LOG.isDebugEnabled()) {
-                        LOG.debug(requestIdentifier + "Input and output are equal -> allow, it's a valid response!");
-                    }
-                }
-            }
 
-            return icapHeaderInformation;
+    /**
+     * Create the connection header. As long as the connection manager keeps the connections open, no connection header is sent
+     * and the ICAP default (persistent connection) applies.
+     *
+     * @return the connection header
+     */
+    protected String createConnectionHeader() {
+        if (connectionManager.isPersistentConnection()) {
+            return "";
         }
 
-        throw new UnknownIOException("Unrecognized or no status code in response header: " + icapHeaderInformation.getStatus() + "!", icapHeaderInformation);
+        return "Connection:  close" + NEWLINE;
     }
 
 
@@ -501,13 +1979,14 @@ public class ICAPClientImpl implements ICAPClient {
      * Check allow 204 support
      *
      * @param requestIdentifier the equest identifier
+     * @param configuration the remote service configuration of the request
      * @param isAllow204 the request information
      * @return the request string
      */
-    protected String supportAllow204(final String requestIdentifier, final Boolean isAllow204) {
-
+    protected String supportAllow204(final String requestIdentifier, final ICAPRemoteServiceConfiguration configuration, final Boolean isAllow204) {
+        final boolean serverAllow204 = configuration.isServerAllow204();
         String serverReason = "suppported by the icap-server";
-        if (!remoteServiceConfiguration.isServerAllow204()) {
+        if (!serverAllow204) {
             serverReason = "not " + serverReason;
         }
 
@@ -520,7 +1999,7 @@ public class ICAPClientImpl implements ICAPClient {
 
         String selectAllow204Reason = "Not use allow 204";
         String allow204Request = "";
-        if (remoteServiceConfiguration.isServerAllow204() && (isAllow204 == null || isAllow204.booleanValue())) {
+        if (serverAllow204 && (isAllow204 == null || isAllow204.booleanValue())) {
             selectAllow204Reason = "Use allow 204";
             allow204Request = "Allow: 204" + NEWLINE;
         }
@@ -555,4 +2034,20 @@ public class ICAPClientImpl implements ICAPClient {
             throw new IOException("Invalid request information!");
         }
     }
+
+
+    /**
+     * Close an output stream
+     *
+     * @param outputStream the output stream or null
+     */
+    private void close(OutputStream outputStream) {
+        if (outputStream != null) {
+            try {
+                outputStream.close();
+            } catch (IOException e) {
+                LOG.debug("Could not close output stream: " + e.getMessage());
+            }
+        }
+    }
 }
@@ -10,6 +10,7 @@ import java.io.IOException;
 import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.channels.SocketChannel;
 import javax.net.ssl.SSLSocket;
 import javax.net.ssl.SSLSocketFactory;
 
@@ -67,9 +68,15 @@ public class ICAPConnectionManagerImpl implements ICAPConnectionManager {
      * @throws IOException In case of an I/O error
      */
     protected Socket createUnsecureSocket(String hostname, int port, Integer maxConnectionTimeout, Integer maxReadTimeout) throws UnknownHostException, IOException {
-        Socket socket = new Socket();
-        socket.setSoTimeout(getReadSocketTimeout(maxReadTimeout));
-        socket.connect(new InetSocketAddress(hostname,port), getSocketConnectionTimeout(maxConnectionTimeout));
+        Socket socket = SocketChannel.open().socket(); // backed by a channel to support zero-copy transfers of files
+        try {
+            socket.setSoTimeout(getReadSocketTimeout(maxReadTimeout));
+            socket.setTcpNoDelay(true); // the requests are already buffered, don't wait for the ack of the previous segment
+            socket.connect(new InetSocketAddress(hostname,port), getSocketConnectionTimeout(maxConnectionTimeout));
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
         return socket;
     }
 
@@ -89,6 +96,7 @@ public class ICAPConnectionManagerImpl implements ICAPConnectionManager {
         SSLSocketFactory factory = (SSLSocketFactory)SSLSocketFactory.getDefault();
         Socket sslSocket = (SSLSocket)factory.createSocket();
         sslSocket.setSoTimeout(getReadSocketTimeout(maxReadTimeout));
+        sslSocket.setTcpNoDelay(true);
         sslSocket.connect(new InetSocketAddress(hostname,port), getSocketConnectionTimeout(maxConnectionTimeout));
         return sslSocket;
     }
@@ -100,7 +108,7 @@ public class ICAPConnectionManagerImpl implements ICAPConnectionManager {
      * @param maxConnectionTimeout the max connection timeout or null
      * @return the socket timeout to use
      */
-    private int getSocketConnectionTimeout(Integer maxConnectionTimeout) {
+    protected int getSocketConnectionTimeout(Integer maxConnectionTimeout) {
         int socketTimeout = 0;
         if (defaultSocketConnectionTimeout != null && defaultSocketConnectionTimeout.intValue() >= 0) {
             socketTimeout = defaultSocketConnectionTimeout.intValue();
@@ -119,7 +127,7 @@ public class ICAPConnectionManagerImpl implements ICAPConnectionManager {
      * @param maxReadTimeout the max read timeout or null
      * @return the socket timeout to use
      */
-    private int getReadSocketTimeout(Integer maxReadTimeout) {
+    protected int getReadSocketTimeout(Integer maxReadTimeout) {
         int socketReadTimeout = 0;
         if (defaultSocketReadTimeout != null && defaultSocketReadTimeout.intValue() >= 0) {
             socketReadTimeout = defaultSocketReadTimeout.intValue();
@@ -0,0 +1,163 @@
+/*
+ * ICAPEndpointImpl.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.ICAPEndpoint;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Implements an endpoint of a service group: the ICAP server and its health.
+ *
+ * @author patrick
+ */
+class ICAPEndpointImpl implements ICAPEndpoint {
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPEndpointImpl.class);
+    private final ICAPServiceInformation serviceInformation;
+    private final int weight;
+    private final AtomicInteger inFlight;
+    private final AtomicInteger failures;
+    private volatile long unavailableUntil;
+
+
+    /**
+     * Constructor for ICAPEndpointImpl
+     *
+     * @param serviceInformation the service information
+     * @param weight the weight
+     */
+    ICAPEndpointImpl(ICAPServiceInformation serviceInformation, int weight) {
+        this.serviceInformation = serviceInformation;
+        this.weight = weight;
+        this.inFlight = new AtomicInteger();
+        this.failures = new AtomicInteger();
+        this.unavailableUntil = 0;
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPEndpoint#getServiceInformation()
+     */
+    @Override
+    public ICAPServiceInformation getServiceInformation() {
+        return serviceInformation;
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPEndpoint#getWeight()
+     */
+    @Override
+    public int getWeight() {
+        return weight;
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPEndpoint#getInFlight()
+     */
+    @Override
+    public int getInFlight() {
+        return inFlight.get();
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPEndpoint#getFailures()
+     */
+    @Override
+    public int getFailures() {
+        return failures.get();
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPEndpoint#isAvailable()
+     */
+    @Override
+    public boolean isAvailable() {
+        long until = unavailableUntil;
+        return until == 0 || System.currentTimeMillis() >= until;
+    }
+
+
+    /**
+     * Start a request
+     */
+    void start() {
+        inFlight.incrementAndGet();
+    }
+
+
+    /**
+     * End a request
+     */
+    void end() {
+        inFlight.decrementAndGet();
+    }
+
+
+    /**
+     * Mark a successful request or health check, the endpoint is available.
+     */
+    void success() {
+        failures.set(0);
+        if (unavailableUntil != 0) {
+            unavailableUntil = 0;
+            LOG.info("ICAP endpoint " + getName() + " is available.");
+        }
+    }
+
+
+    /**
+     * Mark a failed request. After the failure threshold the endpoint is unavailable until the retry delay is reached.
+     *
+     * @param failureThreshold the number of consecutive failures after which the endpoint is unavailable
+     * @param retryDelay the delay in milliseconds until the endpoint is retried
+     * @param message the failure message
+     */
+    void failure(int failureThreshold, long retryDelay, String message) {
+        if (failures.incrementAndGet() >= failureThreshold) {
+            unavailable(retryDelay, message);
+        }
+    }
+
+
+    /**
+     * Mark the endpoint as unavailable
+     *
+     * @param retryDelay the delay in milliseconds until the endpoint is retried
+     * @param message the failure message
+     */
+    void unavailable(long retryDelay, String message) {
+        if (unavailableUntil == 0) {
+            LOG.warn("ICAP endpoint " + getName() + " is unavailable: " + message);
+        }
+        unavailableUntil = System.currentTimeMillis() + Math.max(1, retryDelay);
+    }
+
+
+    /**
+     * Get the name of the endpoint
+     *
+     * @return the name, e.g. localhost:1344/srv_clamav
+     */
+    String getName() {
+        return serviceInformation.getHostName() + ":" + serviceInformation.getServicePort() + "/" + serviceInformation.getServiceName();
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ICAPEndpoint [" + getName() + ", weight=" + weight + ", inFlight=" + inFlight.get() + ", failures=" + failures.get() + ", available=" + isAvailable() + "]";
+    }
+}
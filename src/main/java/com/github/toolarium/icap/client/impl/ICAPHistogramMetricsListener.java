@@ -0,0 +1,366 @@
+/*
+ * ICAPHistogramMetricsListener.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.ICAPMetricsListener;
+import com.github.toolarium.icap.client.dto.ICAPRequestMetrics;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+
+/**
+ * Collects the request metrics in memory: a latency histogram of each phase and of the total duration, the transferred
+ * bytes and the number of requests by ICAP status and verdict.
+ *
+ * <p>The histograms have a fixed number of logarithmic buckets with 16 linear sub-buckets each, recording a value is
+ * lock-free and doesn't allocate. A percentile is accurate within 6.25% of its value.</p>
+ *
+ * @author patrick
+ */
+public class ICAPHistogramMetricsListener implements ICAPMetricsListener {
+    private final Map<ICAPRequestMetrics.Phase, Histogram> phaseHistograms;
+    private final Histogram totalHistogram;
+    private final LongAdder bytesSent;
+    private final LongAdder bytesReceived;
+    private final LongAdder failures;
+    private final Map<Integer, LongAdder> statusCounts;
+    private final Map<ICAPScanResult.Verdict, LongAdder> verdictCounts;
+
+
+    /**
+     * Constructor for ICAPHistogramMetricsListener
+     */
+    public ICAPHistogramMetricsListener() {
+        phaseHistograms = new EnumMap<ICAPRequestMetrics.Phase, Histogram>(ICAPRequestMetrics.Phase.class);
+        for (ICAPRequestMetrics.Phase phase : ICAPRequestMetrics.Phase.values()) {
+            phaseHistograms.put(phase, new Histogram());
+        }
+
+        verdictCounts = new EnumMap<ICAPScanResult.Verdict, LongAdder>(ICAPScanResult.Verdict.class);
+        for (ICAPScanResult.Verdict verdict : ICAPScanResult.Verdict.values()) {
+            verdictCounts.put(verdict, new LongAdder());
+        }
+
+        totalHistogram = new Histogram();
+        bytesSent = new LongAdder();
+        bytesReceived = new LongAdder();
+        failures = new LongAdder();
+        statusCounts = new ConcurrentHashMap<Integer, LongAdder>();
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPMetricsListener#onRequest(com.github.toolarium.icap.client.dto.ICAPRequestMetrics)
+     */
+    @Override
+    public void onRequest(ICAPRequestMetrics metrics) {
+        for (Map.Entry<ICAPRequestMetrics.Phase, Histogram> e : phaseHistograms.entrySet()) {
+            long duration = metrics.getDuration(e.getKey());
+            if (duration > 0) {
+                e.getValue().record(duration / 1000);
+            }
+        }
+
+        totalHistogram.record(metrics.getDuration() / 1000);
+        bytesSent.add(metrics.getBytesSent());
+        bytesReceived.add(metrics.getBytesReceived());
+        if (metrics.getStatus() > 0) {
+            statusCounts.computeIfAbsent(metrics.getStatus(), key -> new LongAdder()).increment();
+        }
+
+        if (metrics.isFailed()) {
+            failures.increment();
+        } else {
+            verdictCounts.get(metrics.getVerdict()).increment();
+        }
+    }
+
+
+    /**
+     * Get the histogram of a phase, a request which didn't pass the phase is not recorded
+     *
+     * @param phase the phase
+     * @return the histogram of the durations in microseconds
+     */
+    public Histogram getHistogram(ICAPRequestMetrics.Phase phase) {
+        return phaseHistograms.get(phase);
+    }
+
+
+    /**
+     * Get the histogram of the total duration
+     *
+     * @return the histogram of the durations in microseconds
+     */
+    public Histogram getTotalHistogram() {
+        return totalHistogram;
+    }
+
+
+    /**
+     * Get the number of sent bytes
+     *
+     * @return the number of sent bytes
+     */
+    public long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+
+    /**
+     * Get the number of received bytes
+     *
+     * @return the number of received bytes
+     */
+    public long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+
+    /**
+     * Get the number of failed requests
+     *
+     * @return the number of failed requests
+     */
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+
+    /**
+     * Get the number of requests with a verdict
+     *
+     * @param verdict the verdict
+     * @return the number of requests
+     */
+    public long getVerdictCount(ICAPScanResult.Verdict verdict) {
+        return verdictCounts.get(verdict).sum();
+    }
+
+
+    /**
+     * Get the number of requests by final ICAP status
+     *
+     * @return the number of requests by status
+     */
+    public Map<Integer, Long> getStatusCounts() {
+        Map<Integer, Long> result = new TreeMap<Integer, Long>();
+        for (Map.Entry<Integer, LongAdder> e : statusCounts.entrySet()) {
+            result.put(e.getKey(), e.getValue().sum());
+        }
+        return result;
+    }
+
+
+    /**
+     * Reset all metrics
+     */
+    public void reset() {
+        for (Histogram histogram : phaseHistograms.values()) {
+            histogram.reset();
+        }
+
+        for (LongAdder count : verdictCounts.values()) {
+            count.reset();
+        }
+
+        totalHistogram.reset();
+        bytesSent.reset();
+        bytesReceived.reset();
+        failures.reset();
+        statusCounts.clear();
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        StringBuilder phases = new StringBuilder();
+        for (Map.Entry<ICAPRequestMetrics.Phase, Histogram> e : phaseHistograms.entrySet()) {
+            phases.append(", ").append(e.getKey().name().toLowerCase()).append('=').append(e.getValue());
+        }
+
+        return "ICAPHistogramMetricsListener [total=" + totalHistogram + phases + ", bytesSent=" + getBytesSent() + ", bytesReceived=" + getBytesReceived()
+               + ", failures=" + getFailureCount() + ", status=" + getStatusCounts() + "]";
+    }
+
+
+    /**
+     * A lock-free histogram with logarithmic buckets of 16 linear sub-buckets.
+     */
+    public static final class Histogram {
+        private static final int SUB_BUCKET_BITS = 4;
+        private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+        private static final int BUCKETS = SUB_BUCKETS + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+        private final AtomicLongArray counts;
+        private final LongAdder count;
+        private final LongAdder sum;
+        private final AtomicLong max;
+
+
+        /**
+         * Constructor for Histogram
+         */
+        public Histogram() {
+            counts = new AtomicLongArray(BUCKETS);
+            count = new LongAdder();
+            sum = new LongAdder();
+            max = new AtomicLong();
+        }
+
+
+        /**
+         * Record a value
+         *
+         * @param value the value, a negative value is recorded as 0
+         */
+        public void record(long value) {
+            long v = Math.max(0, value);
+            counts.incrementAndGet(getIndex(v));
+            count.increment();
+            sum.add(v);
+
+            long currentMax = max.get();
+            while (v > currentMax && !max.compareAndSet(currentMax, v)) {
+                currentMax = max.get();
+            }
+        }
+
+
+        /**
+         * Get the number of recorded values
+         *
+         * @return the number of recorded values
+         */
+        public long getCount() {
+            return count.sum();
+        }
+
+
+        /**
+         * Get the max recorded value
+         *
+         * @return the max value
+         */
+        public long getMax() {
+            return max.get();
+        }
+
+
+        /**
+         * Get the mean of the recorded values
+         *
+         * @return the mean or 0 if there is no recorded value
+         */
+        public double getMean() {
+            long n = count.sum();
+            if (n == 0) {
+                return 0;
+            }
+            return (double) sum.sum() / n;
+        }
+
+
+        /**
+         * Get a percentile of the recorded values
+         *
+         * @param percentile the percentile between 0 and 100, e.g. 99.9
+         * @return the upper bound of the bucket which contains the percentile or 0 if there is no recorded value
+         * @throws IllegalArgumentException In case of an invalid percentile
+         */
+        public long getPercentile(double percentile) {
+            if (percentile < 0 || percentile > 100) {
+                throw new IllegalArgumentException("Invalid percentile!");
+            }
+
+            long total = 0;
+            long[] snapshot = new long[BUCKETS];
+            for (int i = 0; i < BUCKETS; i++) {
+                snapshot[i] = counts.get(i);
+                total += snapshot[i];
+            }
+
+            if (total == 0) {
+                return 0;
+            }
+
+            long rank = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+            long cumulated = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                cumulated += snapshot[i];
+                if (cumulated >= rank) {
+                    return Math.min(getUpperBound(i), max.get());
+                }
+            }
+
+            return max.get();
+        }
+
+
+        /**
+         * Reset the histogram
+         */
+        public void reset() {
+            for (int i = 0; i < BUCKETS; i++) {
+                counts.set(i, 0);
+            }
+            count.reset();
+            sum.reset();
+            max.set(0);
+        }
+
+
+        /**
+         * @see java.lang.Object#toString()
+         */
+        @Override
+        public String toString() {
+            return "[count=" + getCount() + ", mean=" + Math.round(getMean()) + ", p50=" + getPercentile(50) + ", p99=" + getPercentile(99) + ", max=" + getMax() + "]";
+        }
+
+
+        /**
+         * Get the bucket index of a value
+         *
+         * @param value the value, not negative
+         * @return the index
+         */
+        static int getIndex(long value) {
+            if (value < SUB_BUCKETS) {
+                return (int) value;
+            }
+
+            int exponent = Long.SIZE - 1 - Long.numberOfLeadingZeros(value);
+            int subBucket = (int) (value >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+            return SUB_BUCKETS + (exponent - SUB_BUCKET_BITS) * SUB_BUCKETS + subBucket;
+        }
+
+
+        /**
+         * Get the highest value of a bucket
+         *
+         * @param index the index
+         * @return the upper bound
+         */
+        static long getUpperBound(int index) {
+            if (index < SUB_BUCKETS) {
+                return index;
+            }
+
+            int shift = (index - SUB_BUCKETS) / SUB_BUCKETS;
+            long subBucket = (index - SUB_BUCKETS) % SUB_BUCKETS;
+            return ((SUB_BUCKETS + subBucket + 1) << shift) - 1;
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * ICAPLeastInFlightLoadBalancer.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.ICAPEndpoint;
+import com.github.toolarium.icap.client.ICAPLoadBalancer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Selects the endpoint with the least requests in flight. Endpoints with the same number of requests are selected in turn.
+ *
+ * @author patrick
+ */
+public class ICAPLeastInFlightLoadBalancer implements ICAPLoadBalancer {
+    private final AtomicInteger counter = new AtomicInteger();
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPLoadBalancer#select(java.util.List)
+     */
+    @Override
+    public ICAPEndpoint select(List<ICAPEndpoint> endpoints) {
+        final int size = endpoints.size();
+        final int start = Math.floorMod(counter.getAndIncrement(), size);
+
+        ICAPEndpoint result = null;
+        int leastInFlight = Integer.MAX_VALUE;
+        for (int i = 0; i < size; i++) {
+            ICAPEndpoint endpoint = endpoints.get((start + i) % size);
+            int inFlight = endpoint.getInFlight();
+            if (inFlight < leastInFlight) {
+                result = endpoint;
+                leastInFlight = inFlight;
+            }
+        }
+
+        return result;
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ICAPLeastInFlightLoadBalancer";
+    }
+}
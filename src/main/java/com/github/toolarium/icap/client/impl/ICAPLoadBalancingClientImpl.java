@@ -0,0 +1,1050 @@
+/*
+ * ICAPLoadBalancingClientImpl.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.ICAPClient;
+import com.github.toolarium.icap.client.ICAPConnectionManager;
+import com.github.toolarium.icap.client.ICAPEndpoint;
+import com.github.toolarium.icap.client.ICAPLoadBalancer;
+import com.github.toolarium.icap.client.ICAPMetricsListener;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceGroup;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.exception.CircuitBreakerOpenException;
+import com.github.toolarium.icap.client.exception.ContentBlockedException;
+import com.github.toolarium.icap.client.util.ICAPClientUtil;
+import java.io.FileInputStream;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.SocketException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Implements an ICAP client of a service group. Each request is sent to the endpoint selected by the load balancer; in case of
+ * a connection error or timeout the request fails over to the next endpoint as long as the resource can be sent again.
+ * The health of the endpoints is tracked passively by the failed requests and actively by a periodic OPTIONS request.
+ * The health check runs until the client is closed.
+ * In case the client is shared, e.g. by the {@link com.github.toolarium.icap.client.ICAPClientFactory}, the settings of the
+ * {@link ICAPClient} return a configured copy which shares the endpoints and their health but not the health check.
+ *
+ * @author patrick
+ */
+public class ICAPLoadBalancingClientImpl implements ICAPClient, AutoCloseable {
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPLoadBalancingClientImpl.class);
+    private static final long MAX_HEALTH_CHECK_TIMEOUT = 10_000L;
+    private static final int REWIND_MARK_LIMIT = 1024 * 1024;
+    private final List<ICAPEndpointImpl> endpoints;
+    private final Map<ICAPEndpointImpl, ICAPClientImpl> clients;
+    private final ICAPLoadBalancer loadBalancer;
+    private final long healthCheckInterval;
+    private final long retryDelay;
+    private final int failureThreshold;
+    private final ScheduledFuture<?> healthCheck;
+    private final Set<ICAPEndpointImpl> runningHealthChecks;
+    private volatile boolean shared;
+
+
+    /**
+     * Constructor for ICAPLoadBalancingClientImpl
+     *
+     * @param connectionManager the connection manager
+     * @param serviceGroup the service group
+     * @param executor the executor of the asynchronous requests or null to use the default executor
+     * @throws IllegalArgumentException In case of an invalid service group
+     */
+    public ICAPLoadBalancingClientImpl(ICAPConnectionManager connectionManager, ICAPServiceGroup serviceGroup, Executor executor) {
+        if (serviceGroup == null || serviceGroup.getServices().isEmpty()) {
+            throw new IllegalArgumentException("Invalid service group!");
+        }
+
+        this.endpoints = new ArrayList<ICAPEndpointImpl>();
+        this.clients = new HashMap<ICAPEndpointImpl, ICAPClientImpl>();
+        List<ICAPServiceInformation> services = serviceGroup.getServices();
+        List<Integer> weights = serviceGroup.getWeights();
+        for (int i = 0; i < services.size(); i++) {
+            ICAPEndpointImpl endpoint = new ICAPEndpointImpl(services.get(i), weights.get(i));
+            endpoints.add(endpoint);
+            clients.put(endpoint, new ICAPClientImpl(connectionManager, services.get(i), null, executor));
+        }
+
+        if (serviceGroup.getLoadBalancer() != null) {
+            this.loadBalancer = serviceGroup.getLoadBalancer();
+        } else {
+            this.loadBalancer = new ICAPRoundRobinLoadBalancer();
+        }
+
+        this.healthCheckInterval = serviceGroup.getHealthCheckInterval();
+        this.retryDelay = serviceGroup.getRetryDelay();
+        this.failureThreshold = serviceGroup.getFailureThreshold();
+        this.runningHealthChecks = ConcurrentHashMap.newKeySet();
+        if (healthCheckInterval > 0) {
+            this.healthCheck = HealthCheckHolder.INSTANCE.scheduleWithFixedDelay(this::checkHealth, healthCheckInterval, healthCheckInterval, TimeUnit.MILLISECONDS);
+        } else {
+            this.healthCheck = null;
+        }
+    }
+
+
+    /**
+     * Constructor for ICAPLoadBalancingClientImpl, creates a copy of a client. The copy shares the endpoints and their health,
+     * the clients of the endpoints are copied, see {@link ICAPClientImpl#ICAPClientImpl(ICAPClientImpl)}. The health check is
+     * only run by the original client.
+     *
+     * @param client the client to copy
+     */
+    protected ICAPLoadBalancingClientImpl(ICAPLoadBalancingClientImpl client) {
+        this.endpoints = client.endpoints;
+        this.clients = new HashMap<ICAPEndpointImpl, ICAPClientImpl>();
+        for (Map.Entry<ICAPEndpointImpl, ICAPClientImpl> e : client.clients.entrySet()) {
+            clients.put(e.getKey(), new ICAPClientImpl(e.getValue()));
+        }
+
+        this.loadBalancer = client.loadBalancer;
+        this.healthCheckInterval = client.healthCheckInterval;
+        this.retryDelay = client.retryDelay;
+        this.failureThreshold = client.failureThreshold;
+        this.runningHealthChecks = client.runningHealthChecks;
+        this.healthCheck = null;
+        this.shared = false;
+    }
+
+
+    /**
+     * Define if the client is shared, see {@link ICAPClientImpl#setShared(boolean)}.
+     *
+     * @param shared true if the client is shared; otherwise false (by default = false)
+     * @return this client
+     */
+    public ICAPLoadBalancingClientImpl setShared(boolean shared) {
+        this.shared = shared;
+        return this;
+    }
+
+
+    /**
+     * Set the verdict cache of all endpoints, see {@link ICAPClientImpl#setVerdictCache(ICAPVerdictCache)}.
+     *
+     * @param verdictCache the verdict cache or null to disable the cache
+     * @return this client
+     */
+    public ICAPLoadBalancingClientImpl setVerdictCache(ICAPVerdictCache verdictCache) {
+        for (ICAPClientImpl client : clients.values()) {
+            client.setVerdictCache(verdictCache);
+        }
+        return this;
+    }
+
+
+    /**
+     * Set the circuit breaker of all endpoints, see {@link ICAPClientImpl#setCircuitBreaker(ICAPCircuitBreaker)}. A request
+     * to an endpoint with an open circuit fails over to the next endpoint.
+     *
+     * @param circuitBreaker the circuit breaker or null to disable it
+     * @return this client
+     */
+    public ICAPLoadBalancingClientImpl setCircuitBreaker(ICAPCircuitBreaker circuitBreaker) {
+        for (ICAPClientImpl client : clients.values()) {
+            client.setCircuitBreaker(circuitBreaker);
+        }
+        return this;
+    }
+
+
+    /**
+     * Set the metrics listener of all endpoints, see {@link ICAPClientImpl#setMetricsListener(ICAPMetricsListener)}. Each
+     * attempt is reported, a failed over request is reported once per endpoint.
+     *
+     * @param metricsListener the metrics listener or null to disable the metrics
+     * @return this client
+     */
+    public ICAPLoadBalancingClientImpl setMetricsListener(ICAPMetricsListener metricsListener) {
+        for (ICAPClientImpl client : clients.values()) {
+            client.setMetricsListener(metricsListener);
+        }
+        return this;
+    }
+
+
+    /**
+     * Set the options cache of all endpoints, see {@link ICAPClientImpl#setOptionsCache(ICAPOptionsCache)}.
+     *
+     * @param optionsCache the options cache or null to request the options only once
+     * @return this client
+     */
+    public ICAPLoadBalancingClientImpl setOptionsCache(ICAPOptionsCache optionsCache) {
+        for (ICAPClientImpl client : clients.values()) {
+            client.setOptionsCache(optionsCache);
+        }
+        return this;
+    }
+
+
+    /**
+     * Get the endpoints and their current state
+     *
+     * @return the endpoints in the order of the service group
+     */
+    public List<ICAPEndpoint> getEndpoints() {
+        return Collections.unmodifiableList(endpoints);
+    }
+
+
+    /**
+     * @see ICAPClient#supportCompareVerifyIdenticalContent(boolean)
+     */
+    @Override
+    public ICAPClient supportCompareVerifyIdenticalContent(boolean supportCompareVerifyIdenticalContent) {
+        ICAPLoadBalancingClientImpl client = getConfigurableClient();
+        for (ICAPClientImpl endpointClient : client.clients.values()) {
+            endpointClient.supportCompareVerifyIdenticalContent(supportCompareVerifyIdenticalContent);
+        }
+        return client;
+    }
+
+
+    /**
+     * @see ICAPClient#messageDigestAlgorithm(java.lang.String)
+     */
+    @Override
+    public ICAPClient messageDigestAlgorithm(String messageDigestAlgorithm) {
+        ICAPLoadBalancingClientImpl client = getConfigurableClient();
+        for (ICAPClientImpl endpointClient : client.clients.values()) {
+            endpointClient.messageDigestAlgorithm(messageDigestAlgorithm);
+        }
+        return client;
+    }
+
+
+    /**
+     * @see ICAPClient#responseMemoryThreshold(int)
+     */
+    @Override
+    public ICAPClient responseMemoryThreshold(int responseMemoryThreshold) {
+        ICAPLoadBalancingClientImpl client = getConfigurableClient();
+        for (ICAPClientImpl endpointClient : client.clients.values()) {
+            endpointClient.responseMemoryThreshold(responseMemoryThreshold);
+        }
+        return client;
+    }
+
+
+    /**
+     * @see ICAPClient#blockSize(int)
+     */
+    @Override
+    public ICAPClient blockSize(int blockSize) {
+        ICAPLoadBalancingClientImpl client = getConfigurableClient();
+        for (ICAPClientImpl endpointClient : client.clients.values()) {
+            endpointClient.blockSize(blockSize);
+        }
+        return client;
+    }
+
+
+    /**
+     * Get the client of which the settings can be changed: a copy in case this client is shared; otherwise this client.
+     *
+     * @return the client to configure
+     */
+    protected ICAPLoadBalancingClientImpl getConfigurableClient() {
+        if (shared) {
+            return new ICAPLoadBalancingClientImpl(this);
+        }
+
+        return this;
+    }
+
+
+    /**
+     * @see ICAPClient#options()
+     */
+    @Override
+    public ICAPRemoteServiceConfiguration options() throws IOException {
+        return options(new ICAPRequestInformation());
+    }
+
+
+    /**
+     * @see ICAPClient#options(ICAPRequestInformation)
+     */
+    @Override
+    public ICAPRemoteServiceConfiguration options(final ICAPRequestInformation requestInformation) throws IOException {
+        return execute(new ResourceRewind(null), client -> client.options(requestInformation));
+    }
+
+
+    /**
+     * @see ICAPClient#validateResource(ICAPMode, ICAPResource)
+     */
+    @Override
+    public ICAPHeaderInformation validateResource(final ICAPMode mode, final ICAPResource resource) throws IOException, ContentBlockedException {
+        return validateResource(mode, new ICAPRequestInformation(), resource);
+    }
+
+
+    /**
+     * @see ICAPClient#validateResource(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public ICAPHeaderInformation validateResource(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource) throws IOException, ContentBlockedException {
+        final ResourceRewind rewind = new ResourceRewind(resource);
+        final EndpointScanResult scanResult = execute(rewind, client -> new EndpointScanResult(client, client.scanResource(mode, requestInformation, rewind.getResource())));
+        if (scanResult.getScanResult().isBlocked()) {
+            throw scanResult.getClient().createContentBlockedException(requestInformation.prepareSourceRequest(resource), scanResult.getScanResult());
+        }
+
+        return scanResult.getScanResult().getICAPHeaderInformation();
+    }
+
+
+    /**
+     * @see ICAPClient#scanResource(ICAPMode, ICAPResource)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode mode, final ICAPResource resource) throws IOException {
+        return scanResource(mode, new ICAPRequestInformation(), resource);
+    }
+
+
+    /**
+     * @see ICAPClient#scanResource(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource) throws IOException {
+        final ResourceRewind rewind = new ResourceRewind(resource);
+        return execute(rewind, client -> client.scanResource(mode, requestInformation, rewind.getResource()));
+    }
+
+
+    /**
+     * @see ICAPClient#scanResource(ICAPMode, ICAPRequestInformation, ICAPResource, WritableByteChannel)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final WritableByteChannel contentChannel) throws IOException {
+        OutputStream contentOutputStream = null;
+        if (contentChannel != null) {
+            contentOutputStream = Channels.newOutputStream(contentChannel);
+        }
+
+        return scanResource(mode, requestInformation, resource, contentOutputStream);
+    }
+
+
+    /**
+     * Fails over only as long as nothing was written into the output stream.
+     *
+     * @see ICAPClient#scanResource(ICAPMode, ICAPRequestInformation, ICAPResource, OutputStream)
+     */
+    @Override
+    public ICAPScanResult scanResource(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final OutputStream contentOutputStream) throws IOException {
+        final ResourceRewind rewind = new ResourceRewind(resource, contentOutputStream);
+        return execute(rewind, client -> client.scanResource(mode, requestInformation, rewind.getResource(), rewind.getContentOutputStream()));
+    }
+
+
+    /**
+     * @see ICAPClient#validateResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public CompletableFuture<ICAPHeaderInformation> validateResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource) {
+        final ResourceRewind rewind = new ResourceRewind(resource);
+        return toValidateResult(executeAsync(rewind, client -> toEndpointScanResult(client, client.scanResourceAsync(mode, requestInformation, rewind.getResource()))), requestInformation, resource);
+    }
+
+
+    /**
+     * @see ICAPClient#validateResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource, Executor)
+     */
+    @Override
+    public CompletableFuture<ICAPHeaderInformation> validateResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final Executor executor) {
+        final ResourceRewind rewind = new ResourceRewind(resource);
+        return toValidateResult(executeAsync(rewind, client -> toEndpointScanResult(client, client.scanResourceAsync(mode, requestInformation, rewind.getResource(), executor))), requestInformation, resource);
+    }
+
+
+    /**
+     * @see ICAPClient#scanResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource)
+     */
+    @Override
+    public CompletableFuture<ICAPScanResult> scanResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource) {
+        final ResourceRewind rewind = new ResourceRewind(resource);
+        return executeAsync(rewind, client -> client.scanResourceAsync(mode, requestInformation, rewind.getResource()));
+    }
+
+
+    /**
+     * @see ICAPClient#scanResourceAsync(ICAPMode, ICAPRequestInformation, ICAPResource, Executor)
+     */
+    @Override
+    public CompletableFuture<ICAPScanResult> scanResourceAsync(final ICAPMode mode, final ICAPRequestInformation requestInformation, final ICAPResource resource, final Executor executor) {
+        final ResourceRewind rewind = new ResourceRewind(resource);
+        return executeAsync(rewind, client -> client.scanResourceAsync(mode, requestInformation, rewind.getResource(), executor));
+    }
+
+
+    /**
+     * Stop the health check
+     *
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() {
+        if (healthCheck != null) {
+            healthCheck.cancel(false);
+        }
+    }
+
+
+    /**
+     * Execute a request on the selected endpoint and fail over to the next endpoint in case of a connection error or timeout.
+     *
+     * @param <T> the result type
+     * @param rewind the rewind of the resource
+     * @param call the request
+     * @return the result
+     * @throws IOException In case of an I/O error or in case all endpoints failed
+     */
+    protected <T> T execute(final ResourceRewind rewind, final Call<T> call) throws IOException {
+        final List<ICAPEndpointImpl> triedEndpoints = new ArrayList<ICAPEndpointImpl>();
+        IOException lastException = null;
+        ICAPEndpointImpl endpoint;
+        while ((endpoint = selectEndpoint(triedEndpoints)) != null) {
+            triedEndpoints.add(endpoint);
+            endpoint.start();
+            try {
+                T result = call.call(getClient(endpoint));
+                endpoint.success();
+                rewind.complete();
+                return result;
+            } catch (IOException e) {
+                if (!isFailover(e)) {
+                    throw e;
+                }
+
+                endpoint.failure(failureThreshold, retryDelay, e.getMessage());
+                if (!rewind.rewind()) {
+                    throw e;
+                }
+
+                LOG.info("Fail over from ICAP endpoint " + endpoint.getName() + ": " + e.getMessage());
+                lastException = e;
+            } finally {
+                endpoint.end();
+            }
+        }
+
+        if (lastException != null) {
+            throw lastException;
+        }
+
+        throw new IOException("No ICAP endpoint available!");
+    }
+
+
+    /**
+     * Execute an asynchronous request on the selected endpoint and fail over to the next endpoint in case of a connection error or timeout.
+     *
+     * @param <T> the result type
+     * @param rewind the rewind of the resource
+     * @param call the asynchronous request
+     * @return the future of the result
+     */
+    protected <T> CompletableFuture<T> executeAsync(final ResourceRewind rewind, final AsyncCall<T> call) {
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        executeAsync(rewind, call, new ArrayList<ICAPEndpointImpl>(), null, result);
+        return result;
+    }
+
+
+    /**
+     * Execute an asynchronous request on the next endpoint
+     *
+     * @param <T> the result type
+     * @param rewind the rewind of the resource
+     * @param call the asynchronous request
+     * @param triedEndpoints the endpoints which already failed
+     * @param lastException the last exception or null
+     * @param result the future to complete
+     */
+    private <T> void executeAsync(final ResourceRewind rewind, final AsyncCall<T> call, final List<ICAPEndpointImpl> triedEndpoints, final Throwable lastException, final CompletableFuture<T> result) {
+        if (result.isDone()) {
+            return; // cancelled
+        }
+
+        final ICAPEndpointImpl endpoint = selectEndpoint(triedEndpoints);
+        if (endpoint == null) {
+            if (lastException != null) {
+                result.completeExceptionally(lastException);
+            } else {
+                result.completeExceptionally(new IOException("No ICAP endpoint available!"));
+            }
+            return;
+        }
+
+        triedEndpoints.add(endpoint);
+        endpoint.start();
+        final CompletableFuture<T> future = call.call(getClient(endpoint));
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                future.cancel(false);
+            }
+        });
+
+        future.whenComplete((r, e) -> {
+            endpoint.end();
+            if (e == null) {
+                endpoint.success();
+                rewind.complete();
+                result.complete(r);
+                return;
+            }
+
+            Throwable cause = e;
+            if (e instanceof CompletionException && e.getCause() != null) {
+                cause = e.getCause();
+            }
+
+            if (cause instanceof IOException && isFailover((IOException) cause)) {
+                endpoint.failure(failureThreshold, retryDelay, cause.getMessage());
+                if (rewind.rewind()) {
+                    LOG.info("Fail over from ICAP endpoint " + endpoint.getName() + ": " + cause.getMessage());
+                    executeAsync(rewind, call, triedEndpoints, cause, result);
+                    return;
+                }
+            }
+
+            result.completeExceptionally(cause);
+        });
+    }
+
+
+    /**
+     * Get the client of an endpoint
+     *
+     * @param endpoint the endpoint
+     * @return the client
+     */
+    protected ICAPClientImpl getClient(final ICAPEndpointImpl endpoint) {
+        return clients.get(endpoint);
+    }
+
+
+    /**
+     * Select the endpoint of a request. The available endpoints are preferred, in case there is none the unavailable endpoints
+     * are tried as well.
+     *
+     * @param triedEndpoints the endpoints which already failed for the request
+     * @return the endpoint or null if all endpoints failed
+     */
+    protected ICAPEndpointImpl selectEndpoint(final List<ICAPEndpointImpl> triedEndpoints) {
+        List<ICAPEndpoint> candidates = new ArrayList<ICAPEndpoint>();
+        for (ICAPEndpointImpl endpoint : endpoints) {
+            if (endpoint.isAvailable() && !triedEndpoints.contains(endpoint)) {
+                candidates.add(endpoint);
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            for (ICAPEndpointImpl endpoint : endpoints) {
+                if (!triedEndpoints.contains(endpoint)) {
+                    candidates.add(endpoint);
+                }
+            }
+        }
+
+        if (candidates.isEmpty()) {
+            return null;
+        }
+
+        ICAPEndpoint endpoint = loadBalancer.select(candidates);
+        if (!candidates.contains(endpoint)) {
+            endpoint = candidates.get(0);
+        }
+
+        return (ICAPEndpointImpl) endpoint;
+    }
+
+
+    /**
+     * Check if a request can fail over to the next endpoint: the endpoint is unreachable, doesn't answer in time or its circuit is open.
+     *
+     * @param e the exception
+     * @return true to fail over
+     */
+    protected boolean isFailover(final IOException e) {
+        return e instanceof CircuitBreakerOpenException || e instanceof SocketException || e instanceof SocketTimeoutException || e instanceof UnknownHostException;
+    }
+
+
+    /**
+     * Check the health of the endpoints by an OPTIONS request. The endpoints are checked in parallel on the default executor,
+     * each request is limited by its own connection and read timeout. An endpoint is skipped as long as its previous check
+     * is still running, therefore a slow endpoint neither delays the check of the other endpoints nor the scheduler.
+     */
+    protected void checkHealth() {
+        final int timeout = (int) Math.min(healthCheckInterval, MAX_HEALTH_CHECK_TIMEOUT);
+        final Executor executor = ICAPClientUtil.getInstance().getDefaultExecutor();
+        for (final ICAPEndpointImpl endpoint : endpoints) {
+            if (!runningHealthChecks.add(endpoint)) {
+                continue;
+            }
+
+            try {
+                executor.execute(() -> checkHealth(endpoint, timeout));
+            } catch (RejectedExecutionException e) {
+                runningHealthChecks.remove(endpoint);
+                LOG.debug("Could not check the health of the ICAP endpoint " + endpoint.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+
+    /**
+     * Check the health of an endpoint by an OPTIONS request
+     *
+     * @param endpoint the endpoint
+     * @param timeout the connection and read timeout in milliseconds
+     */
+    protected void checkHealth(final ICAPEndpointImpl endpoint, final int timeout) {
+        try {
+            getClient(endpoint).requestOptions(new ICAPRequestInformation().maxConnectionTimeout(timeout).maxReadTimeout(timeout));
+            endpoint.success();
+        } catch (IOException | RuntimeException e) {
+            endpoint.unavailable(retryDelay, e.getMessage());
+        } finally {
+            runningHealthChecks.remove(endpoint);
+        }
+    }
+
+
+    /**
+     * Keep the client of the endpoint which answered together with the future of its scan result. The cancellation of the
+     * returned future is passed to the request.
+     *
+     * @param client the client of the endpoint
+     * @param scanResult the future of the scan result
+     * @return the future of the scan result of the endpoint
+     */
+    private CompletableFuture<EndpointScanResult> toEndpointScanResult(final ICAPClientImpl client, final CompletableFuture<ICAPScanResult> scanResult) {
+        final CompletableFuture<EndpointScanResult> result = scanResult.thenApply(r -> new EndpointScanResult(client, r));
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                scanResult.cancel(false);
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * Convert the future of a scan result into the future of a validation
+     *
+     * @param scanResult the future of the scan result of the endpoint which answered
+     * @param requestInformation the request information
+     * @param resource the ICAP resource
+     * @return the future of the validation
+     */
+    private CompletableFuture<ICAPHeaderInformation> toValidateResult(final CompletableFuture<EndpointScanResult> scanResult, final ICAPRequestInformation requestInformation, final ICAPResource resource) {
+        final CompletableFuture<ICAPHeaderInformation> result = new CompletableFuture<ICAPHeaderInformation>();
+        result.whenComplete((r, e) -> {
+            if (result.isCancelled()) {
+                scanResult.cancel(false);
+            }
+        });
+
+        scanResult.whenComplete((r, e) -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else if (r.getScanResult().isBlocked()) {
+                result.completeExceptionally(r.getClient().createContentBlockedException(requestInformation.prepareSourceRequest(resource), r.getScanResult()));
+            } else {
+                result.complete(r.getScanResult().getICAPHeaderInformation());
+            }
+        });
+
+        return result;
+    }
+
+
+    /**
+     * Defines a request on the client of an endpoint
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    protected interface Call<T> {
+        /**
+         * Call the request
+         *
+         * @param client the client of the endpoint
+         * @return the result
+         * @throws IOException In case of an I/O error
+         */
+        T call(ICAPClientImpl client) throws IOException;
+    }
+
+
+    /**
+     * Defines an asynchronous request on the client of an endpoint
+     *
+     * @param <T> the result type
+     */
+    @FunctionalInterface
+    protected interface AsyncCall<T> {
+        /**
+         * Call the request
+         *
+         * @param client the client of the endpoint
+         * @return the future of the result
+         */
+        CompletableFuture<T> call(ICAPClientImpl client);
+    }
+
+
+    /**
+     * The scan result together with the client of the endpoint which answered
+     */
+    protected static class EndpointScanResult {
+        private final ICAPClientImpl client;
+        private final ICAPScanResult scanResult;
+
+
+        /**
+         * Constructor for EndpointScanResult
+         *
+         * @param client the client of the endpoint
+         * @param scanResult the scan result
+         */
+        EndpointScanResult(final ICAPClientImpl client, final ICAPScanResult scanResult) {
+            this.client = client;
+            this.scanResult = scanResult;
+        }
+
+
+        /**
+         * Get the client of the endpoint which answered
+         *
+         * @return the client
+         */
+        public ICAPClientImpl getClient() {
+            return client;
+        }
+
+
+        /**
+         * Get the scan result
+         *
+         * @return the scan result
+         */
+        public ICAPScanResult getScanResult() {
+            return scanResult;
+        }
+    }
+
+
+    /**
+     * Rewinds the resource of a request before it is sent to the next endpoint. A file is rewound to its position and a
+     * markable stream up to 1 MB to its mark; any other stream can only fail over as long as nothing was read from it.
+     */
+    protected static class ResourceRewind {
+        private final ICAPResource originalResource;
+        private final ICAPResource resource;
+        private final FileChannel fileChannel;
+        private final long position;
+        private final boolean marked;
+        private final CountingInputStream countingInputStream;
+        private final CountingOutputStream contentOutputStream;
+
+
+        /**
+         * Constructor for ResourceRewind
+         *
+         * @param resource the resource or null
+         */
+        ResourceRewind(final ICAPResource resource) {
+            this(resource, null);
+        }
+
+
+        /**
+         * Constructor for ResourceRewind
+         *
+         * @param resource the resource or null
+         * @param contentOutputStream the output stream of the returned content or null
+         */
+        ResourceRewind(final ICAPResource resource, final OutputStream contentOutputStream) {
+            FileChannel channel = null;
+            long startPosition = 0;
+            boolean mark = false;
+            CountingInputStream counting = null;
+            ICAPResource rewindableResource = resource;
+            if (resource != null && resource.getResourceBody() != null && resource.getResourceLength() > 0) {
+                InputStream resourceBody = resource.getResourceBody();
+                if (resourceBody instanceof FileInputStream) {
+                    try {
+                        channel = ((FileInputStream) resourceBody).getChannel();
+                        startPosition = channel.position();
+                    } catch (IOException e) {
+                        channel = null;
+                    }
+                } else if (resourceBody.markSupported() && resource.getResourceLength() <= REWIND_MARK_LIMIT) {
+                    resourceBody.mark((int) resource.getResourceLength() + 1);
+                    mark = true;
+                } else {
+                    counting = new CountingInputStream(resourceBody);
+                    rewindableResource = new ICAPResource(resource.getResourceName(), counting, resource.getResourceLength());
+                }
+            }
+
+            this.originalResource = resource;
+            this.resource = rewindableResource;
+            this.fileChannel = channel;
+            this.position = startPosition;
+            this.marked = mark;
+            this.countingInputStream = counting;
+            if (contentOutputStream != null) {
+                this.contentOutputStream = new CountingOutputStream(contentOutputStream);
+            } else {
+                this.contentOutputStream = null;
+            }
+        }
+
+
+        /**
+         * Get the resource to send
+         *
+         * @return the resource
+         */
+        ICAPResource getResource() {
+            return resource;
+        }
+
+
+        /**
+         * Get the output stream of the returned content
+         *
+         * @return the output stream or null
+         */
+        OutputStream getContentOutputStream() {
+            return contentOutputStream;
+        }
+
+
+        /**
+         * Rewind the resource
+         *
+         * @return true if the resource can be sent again
+         */
+        boolean rewind() {
+            if (contentOutputStream != null && contentOutputStream.getCount() > 0) {
+                // the returned content was already partially written
+                return false;
+            }
+
+            if (resource == null || resource.getResourceBody() == null || resource.getResourceLength() <= 0) {
+                return true;
+            }
+
+            try {
+                if (fileChannel != null) {
+                    fileChannel.position(position);
+                    return true;
+                }
+
+                if (marked) {
+                    resource.getResourceBody().reset();
+                    return true;
+                }
+            } catch (IOException e) {
+                return false;
+            }
+
+            return countingInputStream != null && countingInputStream.getCount() == 0;
+        }
+
+
+        /**
+         * Complete a successful request: a resource body which was handed back in streaming mode is passed to the original resource
+         */
+        void complete() {
+            if (resource == originalResource) {
+                return;
+            }
+
+            if (resource.isResourceBodyRestored()) {
+                originalResource.setResourceBody(resource.getResourceBody());
+            }
+            originalResource.setResourceBodyRestored(resource.isResourceBodyRestored());
+        }
+    }
+
+
+    /**
+     * Counts the bytes which are read from a stream
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private long count;
+
+
+        /**
+         * Constructor for CountingInputStream
+         *
+         * @param in the input stream
+         */
+        CountingInputStream(InputStream in) {
+            super(in);
+            this.count = 0;
+        }
+
+
+        /**
+         * Get the number of read bytes
+         *
+         * @return the number of read bytes
+         */
+        long getCount() {
+            return count;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#skip(long)
+         */
+        @Override
+        public long skip(long n) throws IOException {
+            long result = super.skip(n);
+            count += result;
+            return result;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#markSupported()
+         */
+        @Override
+        public boolean markSupported() {
+            return false;
+        }
+    }
+
+
+    /**
+     * Counts the bytes which are written into a stream
+     */
+    private static class CountingOutputStream extends FilterOutputStream {
+        private long count;
+
+
+        /**
+         * Constructor for CountingOutputStream
+         *
+         * @param out the output stream
+         */
+        CountingOutputStream(OutputStream out) {
+            super(out);
+            this.count = 0;
+        }
+
+
+        /**
+         * Get the number of written bytes
+         *
+         * @return the number of written bytes
+         */
+        long getCount() {
+            return count;
+        }
+
+
+        /**
+         * @see java.io.FilterOutputStream#write(int)
+         */
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+
+        /**
+         * @see java.io.FilterOutputStream#write(byte[], int, int)
+         */
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
+
+    /**
+     * Private class, the scheduler of the health checks which will be created by accessing the holder class.
+     */
+    private static class HealthCheckHolder {
+        static final ScheduledExecutorService INSTANCE = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "icap-health-check");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * ICAPMetricsRecorder.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestMetrics;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+
+
+/**
+ * Records the metrics of one request: the phases are measured back to back, each started phase ends the previous one.
+ * It is used by the thread which processes the request and is not thread-safe.
+ *
+ * @author patrick
+ */
+class ICAPMetricsRecorder {
+    private final long start;
+    private final long[] phaseDurations;
+    private ICAPRequestMetrics.Phase phase;
+    private long phaseStart;
+    private long bytesSent;
+    private long bytesReceived;
+
+
+    /**
+     * Constructor for ICAPMetricsRecorder
+     */
+    ICAPMetricsRecorder() {
+        this.start = System.nanoTime();
+        this.phaseDurations = new long[ICAPRequestMetrics.Phase.values().length];
+        this.phase = null;
+        this.phaseStart = start;
+        this.bytesSent = 0;
+        this.bytesReceived = 0;
+    }
+
+
+    /**
+     * Start a phase, the current phase ends
+     *
+     * @param nextPhase the phase to start
+     */
+    void phase(ICAPRequestMetrics.Phase nextPhase) {
+        long now = System.nanoTime();
+        if (phase != null) {
+            phaseDurations[phase.ordinal()] += now - phaseStart;
+        }
+
+        phase = nextPhase;
+        phaseStart = now;
+    }
+
+
+    /**
+     * Add sent bytes
+     *
+     * @param length the number of sent bytes
+     */
+    void sent(long length) {
+        bytesSent += length;
+    }
+
+
+    /**
+     * Add received bytes
+     *
+     * @param length the number of received bytes
+     */
+    void received(long length) {
+        bytesReceived += length;
+    }
+
+
+    /**
+     * End the current phase and create the metrics
+     *
+     * @param serviceInformation the service information
+     * @param mode the ICAP mode
+     * @param status the ICAP status or 0 if there is no response
+     * @param verdict the verdict or null in case the request failed
+     * @return the metrics
+     */
+    ICAPRequestMetrics end(ICAPServiceInformation serviceInformation, ICAPMode mode, int status, ICAPScanResult.Verdict verdict) {
+        phase(null);
+        return new ICAPRequestMetrics(serviceInformation, mode, phaseDurations, System.nanoTime() - start, bytesSent, bytesReceived, status, verdict);
+    }
+}
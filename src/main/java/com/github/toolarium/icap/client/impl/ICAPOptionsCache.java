@@ -0,0 +1,216 @@
+/*
+ * ICAPOptionsCache.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import java.io.IOException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Caches the remote service configuration (OPTIONS response) per service. The time to live is taken from the <code>Options-TTL</code>
+ * header of the server, only if the server doesn't announce it the cache max age of the service information is used.
+ *
+ * <p>Only one request per service is sent: the first load is done by one thread while the others wait for it. Before an entry expires
+ * it is refreshed in the background, meanwhile and also in case the refresh fails the previous configuration is returned.</p>
+ *
+ * @author patrick
+ */
+public class ICAPOptionsCache {
+    /** The part of the time to live after which an entry is refreshed */
+    public static final double REFRESH_AHEAD_FACTOR = 0.8;
+
+    /** The delay in milliseconds until a failed refresh is retried */
+    public static final long RETRY_DELAY = 10_000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPOptionsCache.class);
+    private final Map<ICAPServiceInformation, Entry> entries;
+    private final Executor executor;
+
+
+    /**
+     * Defines the loader of a remote service configuration
+     *
+     * @author patrick
+     */
+    @FunctionalInterface
+    public interface Loader {
+
+        /**
+         * Load the remote service configuration by an OPTIONS request
+         *
+         * @param serviceInformation the service information
+         * @return the remote service configuration
+         * @throws IOException In case of an I/O error
+         */
+        ICAPRemoteServiceConfiguration load(ICAPServiceInformation serviceInformation) throws IOException;
+    }
+
+
+    /**
+     * Constructor for ICAPOptionsCache, the refresh runs on a daemon thread.
+     */
+    public ICAPOptionsCache() {
+        this(Executors.newCachedThreadPool(runnable -> {
+            Thread thread = new Thread(runnable, "icap-options-refresh");
+            thread.setDaemon(true);
+            return thread;
+        }));
+    }
+
+
+    /**
+     * Constructor for ICAPOptionsCache
+     *
+     * @param executor the executor of the background refresh
+     * @throws IllegalArgumentException In case of an invalid executor
+     */
+    public ICAPOptionsCache(Executor executor) {
+        if (executor == null) {
+            throw new IllegalArgumentException("Invalid executor!");
+        }
+
+        this.entries = new ConcurrentHashMap<ICAPServiceInformation, Entry>();
+        this.executor = executor;
+    }
+
+
+    /**
+     * Get the remote service configuration of a service
+     *
+     * @param serviceInformation the service information
+     * @param loader the loader
+     * @return the remote service configuration
+     * @throws IOException In case the configuration is not cached and could not be loaded
+     */
+    public ICAPRemoteServiceConfiguration get(final ICAPServiceInformation serviceInformation, final Loader loader) throws IOException {
+        ICAPRemoteServiceConfiguration configuration = getIfPresent(serviceInformation, loader);
+        if (configuration != null) {
+            return configuration;
+        }
+
+        final Entry entry = entries.computeIfAbsent(serviceInformation, key -> new Entry());
+        synchronized (entry) {
+            if (entry.configuration == null) {
+                entry.update(serviceInformation, loader.load(serviceInformation));
+                LOG.debug("Set remote service configuration cache: " + serviceInformation);
+            }
+
+            return entry.configuration;
+        }
+    }
+
+
+    /**
+     * Get the remote service configuration of a service if it is cached, no request is sent by the calling thread.
+     * In case the refresh time is reached the refresh is started in the background.
+     *
+     * @param serviceInformation the service information
+     * @param loader the loader of the refresh
+     * @return the remote service configuration or null if it is not cached
+     */
+    public ICAPRemoteServiceConfiguration getIfPresent(final ICAPServiceInformation serviceInformation, final Loader loader) {
+        final Entry entry = entries.get(serviceInformation);
+        if (entry == null) {
+            return null;
+        }
+
+        ICAPRemoteServiceConfiguration configuration = entry.configuration;
+        if (configuration == null) {
+            return null;
+        }
+
+        if (System.currentTimeMillis() >= entry.refreshTime && entry.refreshing.compareAndSet(false, true)) {
+            try {
+                executor.execute(() -> refresh(serviceInformation, loader, entry));
+            } catch (RuntimeException e) {
+                entry.refreshing.set(false);
+                LOG.warn("Could not start the refresh of the remote service configuration " + serviceInformation + ": " + e.getMessage());
+            }
+        }
+
+        return configuration;
+    }
+
+
+    /**
+     * Invalidate the cached configuration of a service
+     *
+     * @param serviceInformation the service information
+     */
+    public void invalidate(ICAPServiceInformation serviceInformation) {
+        entries.remove(serviceInformation);
+    }
+
+
+    /**
+     * Invalidate all cached configurations
+     */
+    public void invalidateAll() {
+        entries.clear();
+    }
+
+
+    /**
+     * Refresh the configuration of a service
+     *
+     * @param serviceInformation the service information
+     * @param loader the loader
+     * @param entry the entry
+     */
+    private void refresh(ICAPServiceInformation serviceInformation, Loader loader, Entry entry) {
+        try {
+            entry.update(serviceInformation, loader.load(serviceInformation));
+            LOG.debug("Refreshed remote service configuration cache: " + serviceInformation);
+        } catch (IOException | RuntimeException e) {
+            entry.refreshTime = System.currentTimeMillis() + RETRY_DELAY;
+            LOG.warn("Could not refresh remote service configuration " + serviceInformation + ", keep the previous one: " + e.getMessage());
+        } finally {
+            entry.refreshing.set(false);
+        }
+    }
+
+
+    /**
+     * Defines a cached configuration
+     *
+     * @author patrick
+     */
+    private static class Entry {
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+        private volatile ICAPRemoteServiceConfiguration configuration;
+        private volatile long refreshTime;
+
+
+        /**
+         * Update the configuration
+         *
+         * @param serviceInformation the service information
+         * @param configuration the configuration
+         */
+        void update(ICAPServiceInformation serviceInformation, ICAPRemoteServiceConfiguration configuration) {
+            long timeToLive = serviceInformation.getCacheMaxAgeInSeconds();
+            if (configuration.getOptionsTTL() != null && configuration.getOptionsTTL().intValue() > 0) {
+                timeToLive = configuration.getOptionsTTL().intValue();
+            }
+
+            long timestamp = System.currentTimeMillis();
+            if (configuration.getTimestamp() != null) {
+                timestamp = configuration.getTimestamp().toEpochMilli();
+            }
+
+            this.refreshTime = timestamp + (long) (timeToLive * 1000L * REFRESH_AHEAD_FACTOR);
+            this.configuration = configuration;
+        }
+    }
+}
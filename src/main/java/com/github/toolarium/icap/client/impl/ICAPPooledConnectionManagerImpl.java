@@ -0,0 +1,308 @@
+/*
+ * ICAPPooledConnectionManagerImpl.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import java.io.IOException;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
+import java.util.Deque;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Implements a pooled {@link com.github.toolarium.icap.client.ICAPConnectionManager}. The connections are kept open after a
+ * fully consumed ICAP response and reused by the next request to the same host, port and connection type (ICAP / ICAPS).
+ *
+ * @author patrick
+ */
+public class ICAPPooledConnectionManagerImpl extends ICAPConnectionManagerImpl {
+    /** The default max idle connections per host, port and connection type */
+    public static final int DEFAULT_MAX_IDLE_CONNECTIONS_PER_ROUTE = 8;
+
+    /** The default keep alive timeout of an idle connection in milliseconds */
+    public static final long DEFAULT_KEEP_ALIVE_TIMEOUT = 30_000L;
+
+    /** The default inactivity in milliseconds after which an idle connection is validated before it is reused */
+    public static final long DEFAULT_VALIDATE_AFTER_INACTIVITY = 2_000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPPooledConnectionManagerImpl.class);
+    private final Map<String, Deque<IdleConnection>> idleConnections;
+    private volatile boolean persistentConnection;
+    private volatile int maxIdleConnectionsPerRoute;
+    private volatile long keepAliveTimeout;
+    private volatile long validateAfterInactivity;
+
+
+    /**
+     * Constructor for ICAPPooledConnectionManagerImpl
+     */
+    public ICAPPooledConnectionManagerImpl() {
+        this(DEFAULT_MAX_IDLE_CONNECTIONS_PER_ROUTE, DEFAULT_KEEP_ALIVE_TIMEOUT);
+    }
+
+
+    /**
+     * Constructor for ICAPPooledConnectionManagerImpl
+     *
+     * @param maxIdleConnectionsPerRoute the max idle connections per host, port and connection type
+     * @param keepAliveTimeout the time in milliseconds an idle connection is kept open
+     */
+    public ICAPPooledConnectionManagerImpl(int maxIdleConnectionsPerRoute, long keepAliveTimeout) {
+        this.idleConnections = new ConcurrentHashMap<String, Deque<IdleConnection>>();
+        this.persistentConnection = true;
+        this.maxIdleConnectionsPerRoute = maxIdleConnectionsPerRoute;
+        this.keepAliveTimeout = keepAliveTimeout;
+        this.validateAfterInactivity = DEFAULT_VALIDATE_AFTER_INACTIVITY;
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.impl.ICAPConnectionManagerImpl#createSocket(java.lang.String, int, boolean, java.lang.Integer, java.lang.Integer)
+     */
+    @Override
+    public Socket createSocket(String hostname, int port, boolean secureConnection, Integer maxConnectionTimeout, Integer maxReadTimeout) throws UnknownHostException, IOException {
+        if (persistentConnection) {
+            Deque<IdleConnection> queue = idleConnections.get(createRouteKey(hostname, port, secureConnection));
+            if (queue != null) {
+                IdleConnection idleConnection;
+                while ((idleConnection = queue.pollLast()) != null) {
+                    long idleTime = System.currentTimeMillis() - idleConnection.getTimestamp();
+                    Socket socket = idleConnection.getSocket();
+                    if (idleTime > keepAliveTimeout || isClosed(socket) || (idleTime > validateAfterInactivity && isStale(socket))) {
+                        close(socket);
+                    } else {
+                        socket.setSoTimeout(getReadSocketTimeout(maxReadTimeout));
+                        if (LOG.isDebugEnabled()) {
+                            LOG.debug("Reuse connection to [" + hostname + ":" + port + "] (idle " + idleTime + "ms).");
+                        }
+
+                        return socket;
+                    }
+                }
+            }
+        }
+
+        return super.createSocket(hostname, port, secureConnection, maxConnectionTimeout, maxReadTimeout);
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPConnectionManager#releaseSocket(java.net.Socket, java.lang.String, int, boolean, boolean)
+     */
+    @Override
+    public void releaseSocket(Socket socket, String hostname, int port, boolean secureConnection, boolean reusable) throws IOException {
+        if (!reusable || !persistentConnection || maxIdleConnectionsPerRoute <= 0 || isClosed(socket)) {
+            socket.close();
+            return;
+        }
+
+        Deque<IdleConnection> queue = idleConnections.computeIfAbsent(createRouteKey(hostname, port, secureConnection), k -> new ConcurrentLinkedDeque<IdleConnection>());
+        queue.offerLast(new IdleConnection(socket, System.currentTimeMillis()));
+
+        // evict the oldest connections
+        while (queue.size() > maxIdleConnectionsPerRoute) {
+            IdleConnection idleConnection = queue.pollFirst();
+            if (idleConnection != null) {
+                close(idleConnection.getSocket());
+            }
+        }
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPConnectionManager#isPersistentConnection()
+     */
+    @Override
+    public boolean isPersistentConnection() {
+        return persistentConnection;
+    }
+
+
+    /**
+     * Enable or disable the persistent connections. In case it is disabled all idle connections are closed and the
+     * requests are sent with the header Connection: close.
+     *
+     * @param persistentConnection true to keep the connections open (by default = true)
+     */
+    public void setPersistentConnection(boolean persistentConnection) {
+        this.persistentConnection = persistentConnection;
+        if (!persistentConnection) {
+            closeIdleConnections();
+        }
+    }
+
+
+    /**
+     * Set the max idle connections per host, port and connection type.
+     *
+     * @param maxIdleConnectionsPerRoute the max idle connections per host, port and connection type
+     */
+    public void setMaxIdleConnectionsPerRoute(int maxIdleConnectionsPerRoute) {
+        this.maxIdleConnectionsPerRoute = maxIdleConnectionsPerRoute;
+    }
+
+
+    /**
+     * Set the time in milliseconds an idle connection is kept open. It should be lower than the keep alive timeout of the ICAP server.
+     *
+     * @param keepAliveTimeout the keep alive timeout in milliseconds
+     */
+    public void setKeepAliveTimeout(long keepAliveTimeout) {
+        this.keepAliveTimeout = keepAliveTimeout;
+    }
+
+
+    /**
+     * Set the inactivity in milliseconds after which an idle connection is checked if it was closed by the server before it is reused.
+     *
+     * @param validateAfterInactivity the inactivity in milliseconds
+     */
+    public void setValidateAfterInactivity(long validateAfterInactivity) {
+        this.validateAfterInactivity = validateAfterInactivity;
+    }
+
+
+    /**
+     * Get the number of idle connections
+     *
+     * @return the number of idle connections
+     */
+    public int getIdleConnectionCount() {
+        int count = 0;
+        for (Deque<IdleConnection> queue : idleConnections.values()) {
+            count += queue.size();
+        }
+        return count;
+    }
+
+
+    /**
+     * Close all idle connections
+     */
+    public void closeIdleConnections() {
+        for (Deque<IdleConnection> queue : idleConnections.values()) {
+            IdleConnection idleConnection;
+            while ((idleConnection = queue.pollFirst()) != null) {
+                close(idleConnection.getSocket());
+            }
+        }
+    }
+
+
+    /**
+     * Create the route key
+     *
+     * @param hostname the name of the host
+     * @param port the port
+     * @param secureConnection true if it is a secured SSL connection
+     * @return the route key
+     */
+    protected String createRouteKey(String hostname, int port, boolean secureConnection) {
+        String protocol = "icap";
+        if (secureConnection) {
+            protocol = "icaps";
+        }
+
+        return protocol + "://" + hostname + ":" + port;
+    }
+
+
+    /**
+     * Check if the socket is closed
+     *
+     * @param socket the socket
+     * @return true if the socket is closed
+     */
+    private boolean isClosed(Socket socket) {
+        return socket.isClosed() || !socket.isConnected() || socket.isInputShutdown() || socket.isOutputShutdown();
+    }
+
+
+    /**
+     * Check if an idle socket was closed by the server or received unexpected data.
+     *
+     * @param socket the socket
+     * @return true if the socket can not be reused
+     */
+    private boolean isStale(Socket socket) {
+        try {
+            int soTimeout = socket.getSoTimeout();
+            try {
+                socket.setSoTimeout(1);
+                socket.getInputStream().read();
+                return true; // end of stream or unexpected data
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(soTimeout);
+            }
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+
+    /**
+     * Close a socket
+     *
+     * @param socket the socket
+     */
+    private void close(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // NOP
+        }
+    }
+
+
+    /**
+     * Defines an idle connection
+     *
+     * @author patrick
+     */
+    private static class IdleConnection {
+        private final Socket socket;
+        private final long timestamp;
+
+
+        /**
+         * Constructor for IdleConnection
+         *
+         * @param socket the socket
+         * @param timestamp the timestamp when it was released
+         */
+        IdleConnection(Socket socket, long timestamp) {
+            this.socket = socket;
+            this.timestamp = timestamp;
+        }
+
+
+        /**
+         * Get the socket
+         *
+         * @return the socket
+         */
+        Socket getSocket() {
+            return socket;
+        }
+
+
+        /**
+         * Get the timestamp when it was released
+         *
+         * @return the timestamp
+         */
+        long getTimestamp() {
+            return timestamp;
+        }
+    }
+}
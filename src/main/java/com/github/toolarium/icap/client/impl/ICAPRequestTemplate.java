@@ -0,0 +1,333 @@
+/*
+ * ICAPRequestTemplate.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+
+/**
+ * Implements the pre-encoded head of the ICAP requests to a service: the request line, the Host, Connection and User-Agent
+ * header and the custom headers are the same for every request with the same {@link ICAPRequestInformation}. Only the variable
+ * parts (Allow, Preview, the Encapsulated offsets and the encapsulated http headers of the resource) are spliced in per request.
+ *
+ * @author patrick
+ */
+final class ICAPRequestTemplate {
+    private static final byte[] NEWLINE = ascii("\r\n");
+    private static final byte[] SEPARATOR = ascii(", ");
+    private static final byte[] ALLOW_204 = ascii("Allow: 204\r\n");
+    private static final byte[] PREVIEW = ascii("Preview: ");
+    private static final byte[] ENCAPSULATED = ascii("Encapsulated: req-hdr=0, ");
+    private static final byte[] HTTP_REQUEST = ascii("GET /");
+    private static final byte[] HTTP_REQUEST_HOST = ascii(" HTTP/1.1\r\nHost: ");
+    private static final byte[] HTTP_RESPONSE = ascii("HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Length: ");
+    private static final int VARIABLE_PART_SIZE = 256;
+    private final byte[] head;
+    private final byte[] headerTag;
+    private final byte[] bodyTag;
+
+
+    /**
+     * Constructor for ICAPRequestTemplate
+     *
+     * @param icapMode the icap mode or null in case of an options request
+     * @param head the encoded head of the request; in case of an options request the complete request
+     */
+    ICAPRequestTemplate(ICAPMode icapMode, byte[] head) {
+        byte[] resourceHeaderTag = null;
+        byte[] resourceBodyTag = null;
+        if (icapMode != null) {
+            if (ICAPMode.RESPMOD.equals(icapMode)) {
+                resourceHeaderTag = ascii(icapMode.getTag() + "-hdr=");
+            }
+
+            resourceBodyTag = ascii(icapMode.getTag() + "-body=");
+        }
+
+        this.head = head;
+        this.headerTag = resourceHeaderTag;
+        this.bodyTag = resourceBodyTag;
+    }
+
+
+    /**
+     * Get the encoded head of the request, in case of an options request it is the complete request.
+     *
+     * @return the head of the request
+     */
+    byte[] getHead() {
+        return head;
+    }
+
+
+    /**
+     * Create the resource request: the head, the variable ICAP headers, the encapsulated http headers and the chunk header of the preview.
+     *
+     * @param allow204 true to add the header Allow: 204
+     * @param previewSize the preview size or -1 to send the resource without preview
+     * @param resourceName the name of the resource
+     * @param requestSource the request source
+     * @param resourceLength the length of the resource
+     * @return the encoded request
+     */
+    byte[] createResourceRequest(boolean allow204, int previewSize, String resourceName, String requestSource, long resourceLength) {
+        final byte[] name = ascii(URLEncoder.encode(resourceName.trim(), StandardCharsets.UTF_8));
+        final byte[] source = String.valueOf(requestSource).getBytes(StandardCharsets.UTF_8);
+        final long httpHeaderLength = HTTP_REQUEST.length + name.length + HTTP_REQUEST_HOST.length + source.length + 2 * NEWLINE.length;
+        final long bodyLength = httpHeaderLength + HTTP_RESPONSE.length + decimalLength(resourceLength) + 2 * NEWLINE.length;
+
+        RequestBuffer buffer = new RequestBuffer(head.length + (int) bodyLength + VARIABLE_PART_SIZE);
+        buffer.put(head);
+        if (allow204) {
+            buffer.put(ALLOW_204);
+        }
+
+        if (previewSize >= 0) {
+            buffer.put(PREVIEW).putDecimal(previewSize).put(NEWLINE);
+        }
+
+        buffer.put(ENCAPSULATED);
+        if (headerTag != null) {
+            buffer.put(headerTag).putDecimal(httpHeaderLength).put(SEPARATOR);
+        }
+        buffer.put(bodyTag).putDecimal(bodyLength).put(NEWLINE).put(NEWLINE);
+
+        // encapsulated http headers
+        buffer.put(HTTP_REQUEST).put(name).put(HTTP_REQUEST_HOST).put(source).put(NEWLINE).put(NEWLINE);
+        buffer.put(HTTP_RESPONSE).putDecimal(resourceLength).put(NEWLINE).put(NEWLINE);
+
+        if (previewSize >= 0) {
+            buffer.putHex(previewSize).put(NEWLINE);
+        }
+
+        return buffer.toByteArray();
+    }
+
+
+    /**
+     * Get the number of decimal digits
+     *
+     * @param value the value, not negative
+     * @return the number of digits
+     */
+    private static int decimalLength(long value) {
+        int length = 1;
+        for (long v = value; v >= 10; v /= 10) {
+            length++;
+        }
+
+        return length;
+    }
+
+
+    /**
+     * Encode an ASCII string
+     *
+     * @param value the value
+     * @return the encoded value
+     */
+    private static byte[] ascii(String value) {
+        return value.getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Defines the key of a template: the icap mode, the connection mode and the parts of the {@link ICAPRequestInformation} which are part of the head.
+     */
+    static final class Key {
+        private final ICAPMode icapMode;
+        private final boolean persistentConnection;
+        private final String apiVersion;
+        private final String userAgent;
+        private final Map<String, String> customHeaders;
+
+
+        /**
+         * Constructor for Key
+         *
+         * @param icapMode the icap mode or null in case of an options request
+         * @param persistentConnection true if the connection is persistent
+         * @param requestInformation the request information
+         */
+        Key(ICAPMode icapMode, boolean persistentConnection, ICAPRequestInformation requestInformation) {
+            this(icapMode, persistentConnection, requestInformation.getApiVersion(), requestInformation.getUserAgent(), requestInformation.getCustomHeaders());
+        }
+
+
+        /**
+         * Constructor for Key
+         *
+         * @param icapMode the icap mode or null in case of an options request
+         * @param persistentConnection true if the connection is persistent
+         * @param apiVersion the api version
+         * @param userAgent the user agent
+         * @param customHeaders the custom headers
+         */
+        private Key(ICAPMode icapMode, boolean persistentConnection, String apiVersion, String userAgent, Map<String, String> customHeaders) {
+            this.icapMode = icapMode;
+            this.persistentConnection = persistentConnection;
+            this.apiVersion = apiVersion;
+            this.userAgent = userAgent;
+            this.customHeaders = customHeaders;
+        }
+
+
+        /**
+         * Copy the key to keep it in a cache, the custom headers of the request information can be modified afterwards.
+         *
+         * @return the copy
+         */
+        Key copy() {
+            Map<String, String> customHeadersCopy = null;
+            if (customHeaders != null) {
+                customHeadersCopy = new LinkedHashMap<String, String>(customHeaders);
+            }
+
+            return new Key(icapMode, persistentConnection, apiVersion, userAgent, customHeadersCopy);
+        }
+
+
+        /**
+         * @see java.lang.Object#hashCode()
+         */
+        @Override
+        public int hashCode() {
+            int result = Objects.hashCode(icapMode);
+            result = 31 * result + Boolean.hashCode(persistentConnection);
+            result = 31 * result + Objects.hashCode(apiVersion);
+            result = 31 * result + Objects.hashCode(userAgent);
+            result = 31 * result + Objects.hashCode(customHeaders);
+            return result;
+        }
+
+
+        /**
+         * @see java.lang.Object#equals(java.lang.Object)
+         */
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (obj == null) {
+                return false;
+            }
+            if (getClass() != obj.getClass()) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return icapMode == other.icapMode && persistentConnection == other.persistentConnection && Objects.equals(apiVersion, other.apiVersion) && Objects.equals(userAgent, other.userAgent)
+                    && Objects.equals(customHeaders, other.customHeaders);
+        }
+    }
+
+
+    /**
+     * Implements the buffer of a request
+     */
+    private static final class RequestBuffer {
+        private byte[] data;
+        private int length;
+
+
+        /**
+         * Constructor for RequestBuffer
+         *
+         * @param capacity the capacity
+         */
+        RequestBuffer(int capacity) {
+            data = new byte[capacity];
+            length = 0;
+        }
+
+
+        /**
+         * Put bytes
+         *
+         * @param bytes the bytes
+         * @return the buffer
+         */
+        RequestBuffer put(byte[] bytes) {
+            ensureCapacity(bytes.length);
+            System.arraycopy(bytes, 0, data, length, bytes.length);
+            length += bytes.length;
+            return this;
+        }
+
+
+        /**
+         * Put the decimal digits of a value
+         *
+         * @param value the value, not negative
+         * @return the buffer
+         */
+        RequestBuffer putDecimal(long value) {
+            int digits = decimalLength(value);
+            ensureCapacity(digits);
+            long v = value;
+            for (int i = length + digits - 1; i >= length; i--) {
+                data[i] = (byte) ('0' + (v % 10));
+                v /= 10;
+            }
+
+            length += digits;
+            return this;
+        }
+
+
+        /**
+         * Put the hex digits of a value
+         *
+         * @param value the value, not negative
+         * @return the buffer
+         */
+        RequestBuffer putHex(long value) {
+            int digits = Math.max(1, (Long.SIZE - Long.numberOfLeadingZeros(value) + 3) / 4);
+            ensureCapacity(digits);
+            long v = value;
+            for (int i = length + digits - 1; i >= length; i--) {
+                data[i] = (byte) Character.forDigit((int) (v & 0xf), 16);
+                v >>>= 4;
+            }
+
+            length += digits;
+            return this;
+        }
+
+
+        /**
+         * Get the content of the buffer
+         *
+         * @return the content
+         */
+        byte[] toByteArray() {
+            if (length == data.length) {
+                return data;
+            }
+
+            return Arrays.copyOf(data, length);
+        }
+
+
+        /**
+         * Ensure the capacity
+         *
+         * @param size the size to add
+         */
+        private void ensureCapacity(int size) {
+            if (length + size > data.length) {
+                data = Arrays.copyOf(data, Math.max(data.length * 2, length + size));
+            }
+        }
+    }
+}
@@ -0,0 +1,310 @@
+/*
+ * ICAPResponseBuffer.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.util.ICAPClientUtil;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+
+/**
+ * Buffers the content of an ICAP response. The content is kept on the heap as long as it is below the memory threshold,
+ * only bigger responses are spooled into a temporary file. Nothing is allocated or created as long as nothing is written,
+ * e.g. in case of a 204 or header only response. With a sink the content is not buffered at all but forwarded as it arrives
+ * until {@link #bufferContent(int)} is called.
+ *
+ * @author patrick
+ */
+public class ICAPResponseBuffer extends OutputStream {
+    private static final int INITIAL_BUFFER_SIZE = 8192;
+    private final String name;
+    private int memoryThreshold;
+    private OutputStream sink;
+    private byte[] buffer;
+    private int count;
+    private long length;
+    private File file;
+    private OutputStream fileOutputStream;
+    private boolean sinkFailed;
+
+
+    /**
+     * Constructor for ICAPResponseBuffer
+     *
+     * @param name the name, it is used as prefix of the temporary file
+     * @param memoryThreshold the max number of bytes which are kept on the heap
+     * @throws IllegalArgumentException In case of an invalid memory threshold
+     */
+    public ICAPResponseBuffer(String name, int memoryThreshold) {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("Invalid memory threshold!");
+        }
+
+        this.name = name;
+        this.memoryThreshold = memoryThreshold;
+        this.sink = null;
+        this.buffer = null;
+        this.count = 0;
+        this.length = 0;
+        this.file = null;
+        this.fileOutputStream = null;
+    }
+
+
+    /**
+     * Constructor for ICAPResponseBuffer which forwards the content to a sink instead of buffering it. The sink is flushed
+     * but not closed.
+     *
+     * @param name the name
+     * @param sink the sink of the content
+     * @throws IllegalArgumentException In case of an invalid sink
+     */
+    public ICAPResponseBuffer(String name, OutputStream sink) {
+        if (sink == null) {
+            throw new IllegalArgumentException("Invalid sink!");
+        }
+
+        this.name = name;
+        this.memoryThreshold = 0;
+        this.sink = sink;
+        this.buffer = null;
+        this.count = 0;
+        this.length = 0;
+        this.file = null;
+        this.fileOutputStream = null;
+    }
+
+
+    /**
+     * @see java.io.OutputStream#write(int)
+     */
+    @Override
+    public void write(int b) throws IOException {
+        write(new byte[] {(byte) b}, 0, 1);
+    }
+
+
+    /**
+     * @see java.io.OutputStream#write(byte[], int, int)
+     */
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        if (len <= 0) {
+            return;
+        }
+
+        if (sink != null) {
+            try {
+                sink.write(b, off, len);
+            } catch (IOException e) {
+                sinkFailed = true;
+                throw e;
+            }
+
+            length += len;
+            return;
+        }
+
+        if (file == null && (long) count + len <= memoryThreshold) {
+            ensureCapacity(count + len);
+            System.arraycopy(b, off, buffer, count, len);
+            count += len;
+        } else {
+            if (file == null) {
+                spool();
+            }
+
+            fileOutputStream.write(b, off, len);
+        }
+
+        length += len;
+    }
+
+
+    /**
+     * @see java.io.OutputStream#flush()
+     */
+    @Override
+    public void flush() throws IOException {
+        flushSink();
+
+        if (fileOutputStream != null) {
+            fileOutputStream.flush();
+        }
+    }
+
+
+    /**
+     * Close the temporary file in case the content was spooled. The content is still available until {@link #delete()} is called.
+     * A sink is only flushed.
+     *
+     * @see java.io.OutputStream#close()
+     */
+    @Override
+    public void close() throws IOException {
+        flushSink();
+
+        if (fileOutputStream != null) {
+            try {
+                fileOutputStream.close();
+            } finally {
+                fileOutputStream = null;
+            }
+        }
+    }
+
+
+    /**
+     * Buffer the content instead of forwarding it to the sink, e.g. the block page of a threat which is not a content of the caller.
+     * It has to be called before anything is written.
+     *
+     * @param memoryThreshold the max number of bytes which are kept on the heap
+     * @throws IllegalArgumentException In case of an invalid memory threshold
+     */
+    public void bufferContent(int memoryThreshold) {
+        if (memoryThreshold < 0) {
+            throw new IllegalArgumentException("Invalid memory threshold!");
+        }
+
+        this.memoryThreshold = memoryThreshold;
+        this.sink = null;
+    }
+
+
+    /**
+     * Get the length of the buffered content
+     *
+     * @return the length
+     */
+    public long getLength() {
+        return length;
+    }
+
+
+    /**
+     * Check if the content is forwarded to a sink
+     *
+     * @return true if the content is forwarded and not buffered
+     */
+    public boolean isForwarded() {
+        return sink != null;
+    }
+
+
+    /**
+     * Check if the sink failed to take the content. Such a failure is caused by the caller and not by the server.
+     *
+     * @return true if a write or flush of the sink failed
+     */
+    public boolean isSinkFailed() {
+        return sinkFailed;
+    }
+
+
+    /**
+     * Check if the content was spooled into a temporary file
+     *
+     * @return true if the content is in a temporary file; false if it is kept on the heap
+     */
+    public boolean isSpooled() {
+        return file != null;
+    }
+
+
+    /**
+     * Get the buffered content
+     *
+     * @return the content or an empty array in case the content is forwarded
+     * @throws IOException In case the temporary file could not be read
+     */
+    public byte[] toByteArray() throws IOException {
+        if (file == null) {
+            if (buffer == null) {
+                return new byte[0];
+            }
+
+            return Arrays.copyOf(buffer, count);
+        }
+
+        flush();
+        return ICAPClientUtil.getInstance().readFile(file);
+    }
+
+
+    /**
+     * Release the buffered content and delete the temporary file if there is one
+     */
+    public void delete() {
+        try {
+            close();
+        } catch (IOException e) {
+            // NOP
+        }
+
+        if (file != null && file.exists()) {
+            file.delete();
+        }
+
+        file = null;
+        buffer = null;
+        count = 0;
+        length = 0;
+    }
+
+
+    /**
+     * Flush the sink and remember a failure
+     *
+     * @throws IOException In case the sink could not be flushed
+     */
+    private void flushSink() throws IOException {
+        if (sink == null) {
+            return;
+        }
+
+        try {
+            sink.flush();
+        } catch (IOException e) {
+            sinkFailed = true;
+            throw e;
+        }
+    }
+
+
+    /**
+     * Ensure the capacity of the heap buffer
+     *
+     * @param minCapacity the min capacity
+     */
+    private void ensureCapacity(int minCapacity) {
+        if (buffer == null) {
+            buffer = new byte[Math.min(memoryThreshold, Math.max(INITIAL_BUFFER_SIZE, minCapacity))];
+        } else if (minCapacity > buffer.length) {
+            buffer = Arrays.copyOf(buffer, (int) Math.min(memoryThreshold, Math.max(2L * buffer.length, minCapacity)));
+        }
+    }
+
+
+    /**
+     * Spool the heap buffer into a temporary file
+     *
+     * @throws IOException In case the temporary file could not be created
+     */
+    private void spool() throws IOException {
+        file = File.createTempFile(name, ".tmp");
+        fileOutputStream = new BufferedOutputStream(new FileOutputStream(file));
+        if (count > 0) {
+            fileOutputStream.write(buffer, 0, count);
+        }
+
+        buffer = null;
+        count = 0;
+    }
+}
@@ -0,0 +1,39 @@
+/*
+ * ICAPRoundRobinLoadBalancer.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.ICAPEndpoint;
+import com.github.toolarium.icap.client.ICAPLoadBalancer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+
+/**
+ * Selects the endpoints in turn.
+ *
+ * @author patrick
+ */
+public class ICAPRoundRobinLoadBalancer implements ICAPLoadBalancer {
+    private final AtomicInteger counter = new AtomicInteger();
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPLoadBalancer#select(java.util.List)
+     */
+    @Override
+    public ICAPEndpoint select(List<ICAPEndpoint> endpoints) {
+        return endpoints.get(Math.floorMod(counter.getAndIncrement(), endpoints.size()));
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ICAPRoundRobinLoadBalancer";
+    }
+}
@@ -8,12 +8,18 @@ package com.github.toolarium.icap.client.impl;
 import com.github.toolarium.icap.client.ICAPConnectionManager;
 import com.github.toolarium.icap.client.dto.ICAPConstants;
 import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
-import com.github.toolarium.icap.client.impl.parser.ICAPParser;
+import com.github.toolarium.icap.client.dto.ICAPRequestMetrics;
+import com.github.toolarium.icap.client.impl.jfr.ICAPConnectEvent;
+import com.github.toolarium.icap.client.impl.parser.ICAPHeaderParser;
 import com.github.toolarium.icap.client.util.ICAPClientUtil;
+import java.io.BufferedOutputStream;
 import java.io.Closeable;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.Socket;
+import java.nio.channels.FileChannel;
 import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
@@ -29,12 +35,23 @@ import org.slf4j.LoggerFactory;
 public class ICAPSocket implements AutoCloseable {
     private static final Logger LOG = LoggerFactory.getLogger(ICAPSocket.class);
     private static final Charset StandardCharsetsUTF8 = Charset.forName("UTF-8");
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsetsUTF8);
+    private static final int CHUNK_FRAME_SIZE = 8 + 4; // max hex digits of an int and two newlines
     
+    private ICAPConnectionManager connectionManager;
     private String requestIdentifier;
+    private String host;
+    private int port;
+    private boolean secureConnection;
     private String connection;
     private Socket socket;
     private ChunkedInputStream is;
     private OutputStream os;
+    private byte[] chunkFrame;
+    private boolean responseComplete;
+    private boolean connectionClose;
+    private boolean closed;
+    private final ICAPMetricsRecorder metricsRecorder;
 
 
     /**
@@ -51,16 +68,52 @@ public class ICAPSocket implements AutoCloseable {
      * @throws IOException In case of an I/O error
      */
     public ICAPSocket(ICAPConnectionManager connectionManager, String requestIdentifier, String host, int port, String service, boolean secureConnection, Integer maxConnectionTimeout, Integer maxReadTimeout) throws IOException {
+        this(connectionManager, requestIdentifier, host, port, service, secureConnection, maxConnectionTimeout, maxReadTimeout, null);
+    }
+
+
+    /**
+     * Constructor for ICAPSocket
+     *
+     * @param connectionManager the connection manager
+     * @param requestIdentifier the request identifier
+     * @param host the host
+     * @param port the port
+     * @param service the service
+     * @param secureConnection true to establish a secured connection
+     * @param maxConnectionTimeout the max connection timeout in milliseconds. By default there is no timeout set (null). A timeout of null or zero are interpreted as an infinite timeout. The connection will then block. 
+     * @param maxReadTimeout the max read timeout in milliseconds. By default there is no timeout set (null). A timeout of null or zero are interpreted as an infinite timeout. The connection will then block. 
+     * @param metricsRecorder the recorder of the request metrics or null
+     * @throws IOException In case of an I/O error
+     */
+    ICAPSocket(ICAPConnectionManager connectionManager, String requestIdentifier, String host, int port, String service, boolean secureConnection, Integer maxConnectionTimeout, Integer maxReadTimeout,
+               ICAPMetricsRecorder metricsRecorder) throws IOException {
+        this.connectionManager = connectionManager;
+        this.metricsRecorder = metricsRecorder;
         this.requestIdentifier = requestIdentifier;
+        this.host = host;
+        this.port = port;
+        this.secureConnection = secureConnection;
         this.connection = "" + host + ":" + port + "/" + service;
+        this.responseComplete = false;
+        this.connectionClose = false;
+        this.closed = false;
         if (LOG.isDebugEnabled()) {
             LOG.debug(requestIdentifier + "Send create socket to [" + connection + "]");
         }
 
+        phase(ICAPRequestMetrics.Phase.CONNECT);
+        ICAPConnectEvent connectEvent = new ICAPConnectEvent();
+        connectEvent.begin();
         try {
             socket = connectionManager.createSocket(host, port, secureConnection, maxConnectionTimeout, maxReadTimeout);
-            is = new ChunkedInputStream(requestIdentifier, socket.getInputStream());
-            os = socket.getOutputStream();
+            connectEvent.commit(requestIdentifier, host, port, service, null, 0, 0);
+            InputStream socketInputStream = socket.getInputStream();
+            if (metricsRecorder != null) {
+                socketInputStream = new MetricsInputStream(socketInputStream, metricsRecorder);
+            }
+            is = new ChunkedInputStream(requestIdentifier, socketInputStream);
+            os = new BufferedOutputStream(socket.getOutputStream(), ICAPClientUtil.INTERNAL_BUFFER_SIZE);
         } catch (IOException e) {
             LOG.warn(requestIdentifier + "Could not connect to [" + connection + "]: " + e.getMessage());
             throw e;
@@ -83,6 +136,21 @@ public class ICAPSocket implements AutoCloseable {
     }
 
     
+    /**
+     * Write an encoded request
+     *
+     * @param request the encoded request
+     * @throws IOException In case of an I/O error
+     */
+    public void writeRequest(byte[] request) throws IOException {
+        if (LOG.isDebugEnabled() && request.length > 10) {
+            LOG.debug(requestIdentifier + "Send request:\n" + new String(request, StandardCharsetsUTF8));
+        }
+
+        write(request);
+    }
+
+    
     /**
      * Write some bytes
      *
@@ -90,7 +158,9 @@ public class ICAPSocket implements AutoCloseable {
      * @throws IOException In case of an I/O error
      */
     public void write(byte[] bytes) throws IOException {
+        responseComplete = false;
         os.write(bytes);
+        sent(bytes.length);
     }
 
     
@@ -103,7 +173,95 @@ public class ICAPSocket implements AutoCloseable {
      * @throws IOException In case of an I/O error
      */
     public void write(byte[] bytes, int offset, int length) throws IOException {
+        responseComplete = false;
         os.write(bytes, offset, length);
+        sent(length);
+    }
+
+
+    /**
+     * Write a chunk: the chunk size, the data and the closing newline are framed together and written at once.
+     *
+     * @param bytes the bytes to write
+     * @param offset the offset
+     * @param length the length
+     * @throws IOException In case of an I/O error
+     */
+    public void writeChunk(byte[] bytes, int offset, int length) throws IOException {
+        responseComplete = false;
+        if (length <= 0) {
+            return;
+        }
+
+        if (chunkFrame == null || chunkFrame.length < length + CHUNK_FRAME_SIZE) {
+            chunkFrame = new byte[length + CHUNK_FRAME_SIZE];
+        }
+
+        int digits = Math.max(1, (Integer.SIZE - Integer.numberOfLeadingZeros(length) + 3) / 4);
+        int pos = 0;
+        for (int i = digits - 1; i >= 0; i--) {
+            chunkFrame[pos++] = HEX_DIGITS[(length >>> (i * 4)) & 0xf];
+        }
+
+        chunkFrame[pos++] = '\r';
+        chunkFrame[pos++] = '\n';
+        System.arraycopy(bytes, offset, chunkFrame, pos, length);
+        pos += length;
+        chunkFrame[pos++] = '\r';
+        chunkFrame[pos++] = '\n';
+        os.write(chunkFrame, 0, pos);
+        sent(pos);
+    }
+
+
+    /**
+     * Check if the content of a file can be transferred directly into the connection (zero-copy), see {@link #transferFrom(FileChannel, long, long)}.
+     * It is supported by unsecured connections with a socket channel.
+     *
+     * @return true if the content of a file can be transferred
+     */
+    public boolean isTransferSupported() {
+        return !secureConnection && socket.getChannel() != null;
+    }
+
+
+    /**
+     * Transfer a region of a file directly into the connection.
+     *
+     * @param fileChannel the file channel
+     * @param position the position of the region
+     * @param count the length of the region
+     * @return the transferred bytes
+     * @throws IOException In case of an I/O error
+     */
+    public long transferFrom(FileChannel fileChannel, long position, long count) throws IOException {
+        responseComplete = false;
+        os.flush();
+
+        long transferred = 0;
+        while (transferred < count) {
+            long transferredBytes = fileChannel.transferTo(position + transferred, count - transferred, socket.getChannel());
+            if (transferredBytes <= 0) {
+                break;
+            }
+
+            transferred += transferredBytes;
+        }
+
+        sent(transferred);
+        return transferred;
+    }
+
+
+    /**
+     * Start a phase of the request metrics, the current phase ends
+     *
+     * @param phase the phase
+     */
+    void phase(ICAPRequestMetrics.Phase phase) {
+        if (metricsRecorder != null) {
+            metricsRecorder.phase(phase);
+        }
     }
 
 
@@ -124,12 +282,10 @@ public class ICAPSocket implements AutoCloseable {
     /**
      * Receive an expected ICAP header as response of a request.
      * 
-     * @param separator the separator
-     * @param bufferSize the buffer size
-     * @return the response header status
+     * @return the response header
      * @throws IOException In case of an I/O error
      */
-    public Map<String, List<String>> readHTTPHeader(final String separator, final int bufferSize) throws IOException {
+    public Map<String, List<String>> readHTTPHeader() throws IOException {
         return is.readHeader();
     }
 
@@ -147,6 +303,7 @@ public class ICAPSocket implements AutoCloseable {
         }
         
         long totalSize = 0;
+        responseComplete = false;
         
         try {
             byte[] buf = new byte[ICAPClientUtil.INTERNAL_BUFFER_SIZE];
@@ -162,6 +319,10 @@ public class ICAPSocket implements AutoCloseable {
             totalSize = -1;
         }
 
+        if (totalSize >= 0 && is.isContentEnded()) {
+            responseComplete = !connectionClose;
+        }
+
         if (LOG.isDebugEnabled()) {
             LOG.debug(requestIdentifier + "Process content [" + connection + "] copied bytes " + totalSize);
         }
@@ -173,15 +334,13 @@ public class ICAPSocket implements AutoCloseable {
      * Read the ICAP response
      *
      * @param requestIdentifier the request identifier
-     * @param separator the separator
-     * @param bufferSize the buffer size
      * @return the ICAP response
      * @throws IOException In case of an I/O error
      */
-    public ICAPHeaderInformation readICAPResponse(String requestIdentifier, final String separator, final int bufferSize) throws IOException {
+    public ICAPHeaderInformation readICAPResponse(String requestIdentifier) throws IOException {
         
         // read http header
-        Map<String, List<String>> header = readHTTPHeader(separator, bufferSize);
+        Map<String, List<String>> header = readHTTPHeader();
         if (LOG.isDebugEnabled()) {
             LOG.debug(requestIdentifier + "Response header: " + header);
         }
@@ -190,7 +349,7 @@ public class ICAPSocket implements AutoCloseable {
         if (header.containsKey(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE) && !header.get(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE).isEmpty()) {            
             String protocolHeaderLine = header.get(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE).get(0); // parse protocol line
             if (protocolHeaderLine != null && !protocolHeaderLine.isBlank()) {
-                icapHeaderInformation = ICAPParser.getInstance().parseICAPHeaderInformation(protocolHeaderLine);
+                icapHeaderInformation = ICAPHeaderParser.getInstance().parseICAPHeaderInformation(protocolHeaderLine);
                 if (LOG.isDebugEnabled()) {
                     LOG.debug(requestIdentifier + "Received ICAP response status: " + protocolHeaderLine);
                 }
@@ -203,23 +362,141 @@ public class ICAPSocket implements AutoCloseable {
 
         // parse header values
         icapHeaderInformation.setHeaders(header);
+        connectionClose = isConnectionClose(icapHeaderInformation);
+        prepareContent(icapHeaderInformation);
+        responseComplete = !connectionClose && isResponseComplete(icapHeaderInformation);
         return icapHeaderInformation;
     }
 
+
+    /**
+     * Check if the last ICAP response was fully consumed and the connection can be used for a further request.
+     *
+     * @return true if the last ICAP response was fully consumed
+     */
+    public boolean isResponseComplete() {
+        return responseComplete;
+    }
+
     
     /**
      * @see java.lang.AutoCloseable#close()
      */
     @Override
     public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+
+        closed = true;
+        boolean reusable = responseComplete && connectionManager.isPersistentConnection() && is.available() == 0;
         if (LOG.isDebugEnabled()) {
-            LOG.debug(requestIdentifier + "Close socket of [" + connection + "]");
+            if (reusable) {
+                LOG.debug(requestIdentifier + "Release socket of [" + connection + "]");
+            } else {
+                LOG.debug(requestIdentifier + "Close socket of [" + connection + "]");
+            }
+        }
+
+        if (reusable) {
+            try {
+                os.flush();
+            } catch (IOException e) {
+                reusable = false;
+            }
+        }
+
+        if (!reusable) {
+            close(is);
+            close(os); // flushes the buffered request
+        }
+
+        connectionManager.releaseSocket(socket, host, port, secureConnection, reusable);
+    }
+
+
+    /**
+     * Count sent bytes in the request metrics
+     *
+     * @param length the number of sent bytes
+     */
+    private void sent(long length) {
+        if (metricsRecorder != null) {
+            metricsRecorder.sent(length);
+        }
+    }
+
+
+    /**
+     * Check if the server closes the connection after the response.
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @return true if the server closes the connection
+     */
+    private boolean isConnectionClose(ICAPHeaderInformation icapHeaderInformation) {
+        if (icapHeaderInformation.getHeaders() != null && icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_CONNECTION)) {
+            for (String value : icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_CONNECTION)) {
+                if ("close".equalsIgnoreCase(value)) {
+                    return true;
+                }
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Prepare the content stream of the encapsulated message, e.g. Encapsulated: res-hdr=0, res-body=75.
+     *
+     * @param icapHeaderInformation the ICAP header information
+     */
+    private void prepareContent(ICAPHeaderInformation icapHeaderInformation) {
+        if (icapHeaderInformation.getStatus() == 100 || icapHeaderInformation.getHeaders() == null || !icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
+            return;
+        }
+
+        for (String value : icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
+            int idx = value.indexOf('=');
+            if (idx > 0 && value.substring(0, idx).trim().endsWith("-body")) {
+                try {
+                    is.prepareContent(Long.parseLong(value.substring(idx + 1).trim()), !value.startsWith("null-body"));
+                } catch (NumberFormatException e) {
+                    LOG.debug(requestIdentifier + "Invalid encapsulated value [" + value + "]");
+                }
+                return;
+            }
         }
-        
-        close(is);
-        os.flush();
-        close(os);
-        socket.close();
+    }
+
+
+    /**
+     * Check if an ICAP response has no further content to read.
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @return true if the response has no further content
+     */
+    private boolean isResponseComplete(ICAPHeaderInformation icapHeaderInformation) {
+        if (icapHeaderInformation.getStatus() == 100 || icapHeaderInformation.getHeaders() == null) {
+            return false;
+        }
+
+        if (icapHeaderInformation.getStatus() == 204) {
+            return true;
+        }
+
+        // only a null-body without any encapsulated header has no further content, e.g. Encapsulated: null-body=0
+        if (!icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ENCAPSULATED) || icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED).isEmpty()) {
+            return false;
+        }
+
+        for (String value : icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
+            if (!value.startsWith("null-body")) {
+                return false;
+            }
+        }
+
+        return true;
     }
     
 
@@ -237,4 +514,50 @@ public class ICAPSocket implements AutoCloseable {
             }
         }
     }
+
+
+    /**
+     * Counts the received bytes in the request metrics
+     */
+    private static class MetricsInputStream extends FilterInputStream {
+        private final ICAPMetricsRecorder metricsRecorder;
+
+
+        /**
+         * Constructor for MetricsInputStream
+         *
+         * @param in the input stream of the socket
+         * @param metricsRecorder the recorder of the request metrics
+         */
+        MetricsInputStream(InputStream in, ICAPMetricsRecorder metricsRecorder) {
+            super(in);
+            this.metricsRecorder = metricsRecorder;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            if (result >= 0) {
+                metricsRecorder.received(1);
+            }
+            return result;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            if (result > 0) {
+                metricsRecorder.received(result);
+            }
+            return result;
+        }
+    }
 }
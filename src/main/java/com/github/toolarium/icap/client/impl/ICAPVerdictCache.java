@@ -0,0 +1,337 @@
+/*
+ * ICAPVerdictCache.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.dto.ICAPHeaderMap;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Caches the verdict (valid or blocked) of already validated resources. An entry is identified by the content digest,
+ * the service, the ICAP mode and the ISTag of the service. As soon as the service returns another ISTag, e.g. after a
+ * signature update, the entries of the service are invalidated.
+ *
+ * <p>The cache is bounded by the max number of entries (least recently used entries are evicted) and each entry expires
+ * after the time to live.</p>
+ *
+ * @author patrick
+ */
+public class ICAPVerdictCache {
+    /** The default max number of entries */
+    public static final int DEFAULT_MAX_ENTRIES = 10_000;
+
+    /** The default time to live in milliseconds */
+    public static final long DEFAULT_TIME_TO_LIVE = 60L * 60L * 1000L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPVerdictCache.class);
+    private final Map<String, Verdict> verdicts;
+    private final Map<String, String> serviceTags;
+    private final int maxEntries;
+    private final long timeToLive;
+
+
+    /**
+     * Constructor for ICAPVerdictCache
+     */
+    public ICAPVerdictCache() {
+        this(DEFAULT_MAX_ENTRIES, DEFAULT_TIME_TO_LIVE);
+    }
+
+
+    /**
+     * Constructor for ICAPVerdictCache
+     *
+     * @param maxEntries the max number of entries
+     * @param timeToLive the time to live of an entry in milliseconds
+     * @throws IllegalArgumentException In case of an invalid max number of entries or time to live
+     */
+    public ICAPVerdictCache(int maxEntries, long timeToLive) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Invalid max entries!");
+        }
+
+        if (timeToLive <= 0) {
+            throw new IllegalArgumentException("Invalid time to live!");
+        }
+
+        this.maxEntries = maxEntries;
+        this.timeToLive = timeToLive;
+        this.serviceTags = new ConcurrentHashMap<String, String>();
+        this.verdicts = new LinkedHashMap<String, Verdict>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            /**
+             * @see java.util.LinkedHashMap#removeEldestEntry(java.util.Map.Entry)
+             */
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Verdict> eldest) {
+                return size() > ICAPVerdictCache.this.maxEntries;
+            }
+        };
+    }
+
+
+    /**
+     * Get the verdict of a resource as scan result
+     *
+     * @param service the service
+     * @param mode the ICAP mode
+     * @param digest the content digest
+     * @return the scan result with a copy of the ICAP header information or null if there is no verdict
+     */
+    public ICAPScanResult getScanResult(String service, ICAPMode mode, String digest) {
+        Verdict verdict = getVerdict(service, mode, digest);
+        if (verdict == null) {
+            return null;
+        }
+
+        return new ICAPScanResult(verdict.scanVerdict, verdict.threatNames, copy(verdict.icapHeaderInformation), verdict.blockedContent);
+    }
+
+
+    /**
+     * Put the scan result of a resource. The verdict is only cached if the response contains an ISTag, in any case the ISTag of the service is updated.
+     *
+     * @param service the service
+     * @param mode the ICAP mode
+     * @param digest the content digest or null
+     * @param scanResult the scan result
+     */
+    public void put(String service, ICAPMode mode, String digest, ICAPScanResult scanResult) {
+        String serviceTag = getServiceTag(scanResult.getICAPHeaderInformation());
+        updateServiceTag(service, serviceTag);
+        if (serviceTag == null || digest == null) {
+            return;
+        }
+
+        Verdict verdict = new Verdict(scanResult.getVerdict(), new ArrayList<String>(scanResult.getThreatNames()), copy(scanResult.getICAPHeaderInformation()),
+                                      scanResult.getContent(), System.currentTimeMillis());
+        put(service, mode, serviceTag, digest, verdict);
+    }
+
+
+    /**
+     * Update the ISTag of a service. In case it has changed the verdicts of the service are invalidated.
+     *
+     * @param service the service
+     * @param serviceTag the ISTag of the service or null
+     */
+    public void updateServiceTag(String service, String serviceTag) {
+        if (serviceTag == null) {
+            return;
+        }
+
+        String previousServiceTag = serviceTags.put(service, serviceTag);
+        if (previousServiceTag != null && !previousServiceTag.equals(serviceTag)) {
+            LOG.info("Service tag of [" + service + "] changed from " + previousServiceTag + " to " + serviceTag + ", invalidate verdicts.");
+            invalidate(service);
+        }
+    }
+
+
+    /**
+     * Invalidate the verdicts of a service
+     *
+     * @param service the service
+     */
+    public void invalidate(String service) {
+        String prefix = service + "|";
+        synchronized (verdicts) {
+            Iterator<String> it = verdicts.keySet().iterator();
+            while (it.hasNext()) {
+                if (it.next().startsWith(prefix)) {
+                    it.remove();
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Invalidate all verdicts
+     */
+    public void invalidateAll() {
+        synchronized (verdicts) {
+            verdicts.clear();
+        }
+    }
+
+
+    /**
+     * Get the number of cached verdicts
+     *
+     * @return the number of cached verdicts
+     */
+    public int size() {
+        synchronized (verdicts) {
+            return verdicts.size();
+        }
+    }
+
+
+    /**
+     * Get the ISTag of an ICAP response
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @return the ISTag or null
+     */
+    public static String getServiceTag(ICAPHeaderInformation icapHeaderInformation) {
+        if (icapHeaderInformation == null) {
+            return null;
+        }
+
+        return getServiceTag(icapHeaderInformation.getHeaders());
+    }
+
+
+    /**
+     * Get the ISTag of ICAP headers
+     *
+     * @param headers the headers
+     * @return the ISTag or null
+     */
+    public static String getServiceTag(Map<String, List<String>> headers) {
+        if (headers == null) {
+            return null;
+        }
+
+        for (Map.Entry<String, List<String>> e : headers.entrySet()) {
+            if (ICAPConstants.HEADER_KEY_ISTAG.equalsIgnoreCase(e.getKey()) && e.getValue() != null && !e.getValue().isEmpty()) {
+                return e.getValue().get(0);
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Get a not expired verdict
+     *
+     * @param service the service
+     * @param mode the ICAP mode
+     * @param digest the content digest
+     * @return the verdict or null
+     */
+    private Verdict getVerdict(String service, ICAPMode mode, String digest) {
+        String serviceTag = serviceTags.get(service);
+        if (serviceTag == null || digest == null) {
+            return null;
+        }
+
+        String key = createKey(service, mode, serviceTag, digest);
+        synchronized (verdicts) {
+            Verdict verdict = verdicts.get(key);
+            if (verdict != null && System.currentTimeMillis() - verdict.timestamp > timeToLive) {
+                verdicts.remove(key);
+                verdict = null;
+            }
+            return verdict;
+        }
+    }
+
+
+    /**
+     * Put a verdict
+     *
+     * @param service the service
+     * @param mode the ICAP mode
+     * @param serviceTag the ISTag
+     * @param digest the content digest
+     * @param verdict the verdict
+     */
+    private void put(String service, ICAPMode mode, String serviceTag, String digest, Verdict verdict) {
+        synchronized (verdicts) {
+            verdicts.put(createKey(service, mode, serviceTag, digest), verdict);
+        }
+    }
+
+
+    /**
+     * Create the key of a verdict
+     *
+     * @param service the service
+     * @param mode the ICAP mode
+     * @param serviceTag the ISTag
+     * @param digest the content digest
+     * @return the key
+     */
+    private String createKey(String service, ICAPMode mode, String serviceTag, String digest) {
+        return service + "|" + mode + "|" + serviceTag + "|" + digest;
+    }
+
+
+    /**
+     * Copy the ICAP header information
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @return the copy
+     */
+    private ICAPHeaderInformation copy(ICAPHeaderInformation icapHeaderInformation) {
+        ICAPHeaderInformation result = new ICAPHeaderInformation()
+                .setProtocol(icapHeaderInformation.getProtocol())
+                .setVersion(icapHeaderInformation.getVersion())
+                .setStatus(icapHeaderInformation.getStatus())
+                .setMessage(icapHeaderInformation.getMessage());
+
+        if (icapHeaderInformation.getHeaders() != null) {
+            Map<String, List<String>> headers = new ICAPHeaderMap(icapHeaderInformation.getHeaders().size());
+            for (Map.Entry<String, List<String>> e : icapHeaderInformation.getHeaders().entrySet()) {
+                if (e.getValue() != null) {
+                    headers.put(e.getKey(), new ArrayList<String>(e.getValue()));
+                } else {
+                    headers.put(e.getKey(), null);
+                }
+            }
+            result.setHeaders(headers);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Defines a cached verdict
+     *
+     * @author patrick
+     */
+    private static class Verdict {
+        private final ICAPScanResult.Verdict scanVerdict;
+        private final List<String> threatNames;
+        private final ICAPHeaderInformation icapHeaderInformation;
+        private final String blockedContent;
+        private final long timestamp;
+
+
+        /**
+         * Constructor for Verdict
+         *
+         * @param scanVerdict the verdict of the scan result
+         * @param threatNames the names of the found threats
+         * @param icapHeaderInformation the ICAP header information
+         * @param blockedContent the returned content in case of a threat or null
+         * @param timestamp the timestamp
+         */
+        Verdict(ICAPScanResult.Verdict scanVerdict, List<String> threatNames, ICAPHeaderInformation icapHeaderInformation, String blockedContent, long timestamp) {
+            this.scanVerdict = scanVerdict;
+            this.threatNames = threatNames;
+            this.icapHeaderInformation = icapHeaderInformation;
+            this.blockedContent = blockedContent;
+            this.timestamp = timestamp;
+        }
+    }
+}
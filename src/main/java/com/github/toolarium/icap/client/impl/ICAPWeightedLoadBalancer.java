@@ -0,0 +1,53 @@
+/*
+ * ICAPWeightedLoadBalancer.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import com.github.toolarium.icap.client.ICAPEndpoint;
+import com.github.toolarium.icap.client.ICAPLoadBalancer;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+
+/**
+ * Selects the endpoints in turn according to their weight, e.g. an endpoint with the weight 3 gets three times the requests
+ * of an endpoint with the weight 1.
+ *
+ * @author patrick
+ */
+public class ICAPWeightedLoadBalancer implements ICAPLoadBalancer {
+    private final AtomicLong counter = new AtomicLong();
+
+
+    /**
+     * @see com.github.toolarium.icap.client.ICAPLoadBalancer#select(java.util.List)
+     */
+    @Override
+    public ICAPEndpoint select(List<ICAPEndpoint> endpoints) {
+        long totalWeight = 0;
+        for (ICAPEndpoint endpoint : endpoints) {
+            totalWeight += Math.max(1, endpoint.getWeight());
+        }
+
+        long position = Math.floorMod(counter.getAndIncrement(), totalWeight);
+        for (ICAPEndpoint endpoint : endpoints) {
+            position -= Math.max(1, endpoint.getWeight());
+            if (position < 0) {
+                return endpoint;
+            }
+        }
+
+        return endpoints.get(endpoints.size() - 1);
+    }
+
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ICAPWeightedLoadBalancer";
+    }
+}
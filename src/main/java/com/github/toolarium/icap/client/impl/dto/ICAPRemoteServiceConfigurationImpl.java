@@ -7,12 +7,17 @@ package com.github.toolarium.icap.client.impl.dto;
 
 import com.github.toolarium.icap.client.dto.ICAPMode;
 import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPTransfer;
 import java.io.Serializable;
 import java.time.Instant;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Objects;
+import java.util.Set;
 
 
 /**
@@ -22,11 +27,16 @@ import java.util.Objects;
  */
 public class ICAPRemoteServiceConfigurationImpl implements ICAPRemoteServiceConfiguration, Serializable {
     private static final long serialVersionUID = -1296347334233061866L;
+    private static final String WILDCARD = "*";
     private final int serverPreviewSize;
     private final boolean serverAllow204;
     private final ICAPMode[] optionMethods;
     private final Instant timestamp;
     private final Map<String, List<String>> headers;
+    private final Integer optionsTTL;
+    private final Set<String> transferPreview;
+    private final Set<String> transferIgnore;
+    private final Set<String> transferComplete;
     
     
     /**
@@ -47,11 +57,49 @@ public class ICAPRemoteServiceConfigurationImpl implements ICAPRemoteServiceConf
      * @param headers the icap header information
      */
     public ICAPRemoteServiceConfigurationImpl(Instant timestamp, ICAPMode[] optionMethods, int serverPreviewSize, boolean serverAllow204, Map<String, List<String>> headers) {
+        this(timestamp, optionMethods, serverPreviewSize, serverAllow204, headers, null);
+    }
+
+
+    /**
+     * Constructor for RemoteServiceConfiguration
+     * 
+     * @param timestamp the timestamp
+     * @param optionMethods the option methods
+     * @param serverPreviewSize the server preview size
+     * @param serverAllow204 the server allow 204
+     * @param headers the icap header information
+     * @param optionsTTL the time to live of the options in seconds or null
+     */
+    public ICAPRemoteServiceConfigurationImpl(Instant timestamp, ICAPMode[] optionMethods, int serverPreviewSize, boolean serverAllow204, Map<String, List<String>> headers, Integer optionsTTL) {
+        this(timestamp, optionMethods, serverPreviewSize, serverAllow204, headers, optionsTTL, null, null, null);
+    }
+
+
+    /**
+     * Constructor for RemoteServiceConfiguration
+     * 
+     * @param timestamp the timestamp
+     * @param optionMethods the option methods
+     * @param serverPreviewSize the server preview size
+     * @param serverAllow204 the server allow 204
+     * @param headers the icap header information
+     * @param optionsTTL the time to live of the options in seconds or null
+     * @param transferPreview the file extensions of which the server wants a preview or null
+     * @param transferIgnore the file extensions which the server doesn't need to see or null
+     * @param transferComplete the file extensions which the server wants to see completely or null
+     */
+    public ICAPRemoteServiceConfigurationImpl(Instant timestamp, ICAPMode[] optionMethods, int serverPreviewSize, boolean serverAllow204, Map<String, List<String>> headers, Integer optionsTTL,
+                                              Set<String> transferPreview, Set<String> transferIgnore, Set<String> transferComplete) {
         this.timestamp = timestamp;
         this.optionMethods = optionMethods;
         this.serverPreviewSize = serverPreviewSize;
         this.serverAllow204 = serverAllow204;
         this.headers = headers;
+        this.optionsTTL = optionsTTL;
+        this.transferPreview = toExtensions(transferPreview);
+        this.transferIgnore = toExtensions(transferIgnore);
+        this.transferComplete = toExtensions(transferComplete);
     }
 
 
@@ -100,6 +148,81 @@ public class ICAPRemoteServiceConfigurationImpl implements ICAPRemoteServiceConf
     }
 
     
+    /**
+     * @see com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration#getOptionsTTL()
+     */
+    @Override
+    public Integer getOptionsTTL() {
+        return optionsTTL;
+    }
+
+    
+    /**
+     * @see com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration#getTransferPreview()
+     */
+    @Override
+    public Set<String> getTransferPreview() {
+        return transferPreview;
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration#getTransferIgnore()
+     */
+    @Override
+    public Set<String> getTransferIgnore() {
+        return transferIgnore;
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration#getTransferComplete()
+     */
+    @Override
+    public Set<String> getTransferComplete() {
+        return transferComplete;
+    }
+
+
+    /**
+     * @see com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration#getTransfer(java.lang.String)
+     */
+    @Override
+    public ICAPTransfer getTransfer(String resourceName) {
+        String extension = "";
+        if (resourceName != null) {
+            int idx = resourceName.lastIndexOf('.');
+            if (idx >= 0) {
+                extension = resourceName.substring(idx + 1).trim().toLowerCase(Locale.ROOT);
+            }
+        }
+
+        if (!extension.isEmpty()) {
+            if (transferIgnore.contains(extension)) {
+                return ICAPTransfer.IGNORE;
+            }
+
+            if (transferComplete.contains(extension)) {
+                return ICAPTransfer.COMPLETE;
+            }
+
+            if (transferPreview.contains(extension)) {
+                return ICAPTransfer.PREVIEW;
+            }
+        }
+
+        if (transferIgnore.contains(WILDCARD)) {
+            return ICAPTransfer.IGNORE;
+        }
+
+        if (transferComplete.contains(WILDCARD)) {
+            return ICAPTransfer.COMPLETE;
+        }
+
+        return ICAPTransfer.PREVIEW;
+    }
+
+    
     /**
      * @see java.lang.Object#hashCode()
      */
@@ -108,7 +231,7 @@ public class ICAPRemoteServiceConfigurationImpl implements ICAPRemoteServiceConf
         final int prime = 31;
         int result = 1;
         result = prime * result + Arrays.hashCode(optionMethods);
-        result = prime * result + Objects.hash(headers, serverAllow204, serverPreviewSize, timestamp);
+        result = prime * result + Objects.hash(headers, optionsTTL, serverAllow204, serverPreviewSize, timestamp, transferComplete, transferIgnore, transferPreview);
         return result;
     }
 
@@ -131,9 +254,11 @@ public class ICAPRemoteServiceConfigurationImpl implements ICAPRemoteServiceConf
         }
         
         ICAPRemoteServiceConfigurationImpl other = (ICAPRemoteServiceConfigurationImpl) obj;
-        return Objects.equals(headers, other.headers)
+        return Objects.equals(headers, other.headers) && Objects.equals(optionsTTL, other.optionsTTL)
                 && Arrays.equals(optionMethods, other.optionMethods) && serverAllow204 == other.serverAllow204
-                && serverPreviewSize == other.serverPreviewSize && Objects.equals(timestamp, other.timestamp);
+                && serverPreviewSize == other.serverPreviewSize && Objects.equals(timestamp, other.timestamp)
+                && Objects.equals(transferComplete, other.transferComplete) && Objects.equals(transferIgnore, other.transferIgnore)
+                && Objects.equals(transferPreview, other.transferPreview);
     }
 
 
@@ -143,8 +268,28 @@ public class ICAPRemoteServiceConfigurationImpl implements ICAPRemoteServiceConf
     @Override
     public String toString() {
         return "ICAPRemoteServiceConfigurationImpl [serverPreviewSize=" + serverPreviewSize + ", serverAllow204="
-                + serverAllow204 + ", optionMethods=" + Arrays.toString(optionMethods) + ", timestamp=" + timestamp
-                + "]";
+                + serverAllow204 + ", optionMethods=" + Arrays.toString(optionMethods) + ", optionsTTL=" + optionsTTL + ", transferPreview=" + transferPreview
+                + ", transferIgnore=" + transferIgnore + ", transferComplete=" + transferComplete + ", timestamp=" + timestamp + "]";
     }
-}
 
+
+    /**
+     * Normalize the file extensions
+     *
+     * @param extensions the file extensions or null
+     * @return the lower case file extensions
+     */
+    private static Set<String> toExtensions(Set<String> extensions) {
+        if (extensions == null || extensions.isEmpty()) {
+            return Collections.emptySet();
+        }
+
+        Set<String> result = new LinkedHashSet<String>();
+        for (String extension : extensions) {
+            if (extension != null && !extension.isBlank()) {
+                result.add(extension.trim().toLowerCase(Locale.ROOT));
+            }
+        }
+        return Collections.unmodifiableSet(result);
+    }
+}
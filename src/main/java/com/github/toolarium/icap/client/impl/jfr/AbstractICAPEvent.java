@@ -0,0 +1,77 @@
+/*
+ * AbstractICAPEvent.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.jfr;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.StackTrace;
+
+
+/**
+ * The base of the Java Flight Recorder events of the ICAP client. An event is created and started before a step of a request
+ * and committed after it: the fields are only set if the event is recorded. As long as no recording is active the allocation
+ * of the event is eliminated by the JIT compiler and the events have no overhead.
+ *
+ * @author patrick
+ */
+@Category({"ICAP Client"})
+@StackTrace(false)
+public abstract class AbstractICAPEvent extends Event {
+    // the flight recorder ignores private fields of a super class
+    @Label("Request Identifier")
+    protected String requestIdentifier;
+
+    @Label("Host")
+    protected String host;
+
+    @Label("Port")
+    protected int port;
+
+    @Label("Service")
+    protected String service;
+
+    @Label("Mode")
+    protected String mode;
+
+    @Label("Resource Length")
+    @DataAmount
+    protected long resourceLength;
+
+    @Label("Status")
+    protected int status;
+
+
+    /**
+     * Commit the event if it is recorded
+     *
+     * @param requestIdentifier the request identifier
+     * @param host the host
+     * @param port the port
+     * @param service the service
+     * @param icapMode the ICAP mode or null
+     * @param length the length of the resource or 0
+     * @param icapStatus the ICAP status or 0 if there is no response
+     */
+    public void commit(String requestIdentifier, String host, int port, String service, ICAPMode icapMode, long length, int icapStatus) {
+        if (!shouldCommit()) {
+            return;
+        }
+
+        this.requestIdentifier = requestIdentifier;
+        this.host = host;
+        this.port = port;
+        this.service = service;
+        if (icapMode != null) {
+            this.mode = icapMode.name();
+        }
+        this.resourceLength = length;
+        this.status = icapStatus;
+        commit();
+    }
+}
@@ -0,0 +1,22 @@
+/*
+ * ICAPConnectEvent.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * The JFR event of establishing the connection to the ICAP server or taking it from the pool.
+ *
+ * @author patrick
+ */
+@Name("com.github.toolarium.icap.Connect")
+@Label("ICAP Connect")
+@Description("Connection established or taken from the pool, the status is 0")
+public class ICAPConnectEvent extends AbstractICAPEvent {
+}
@@ -0,0 +1,22 @@
+/*
+ * ICAPContinueReceivedEvent.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * The JFR event of waiting for the 100 Continue after the preview. In case the server decides on the preview the status is the final one, e.g. 204.
+ *
+ * @author patrick
+ */
+@Name("com.github.toolarium.icap.ContinueReceived")
+@Label("ICAP Continue Received")
+@Description("Waiting for the response to the preview, 100 Continue or the final status")
+public class ICAPContinueReceivedEvent extends AbstractICAPEvent {
+}
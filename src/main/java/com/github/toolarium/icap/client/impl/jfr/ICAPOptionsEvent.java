@@ -0,0 +1,22 @@
+/*
+ * ICAPOptionsEvent.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * The JFR event of an OPTIONS request, from connecting until the response is parsed.
+ *
+ * @author patrick
+ */
+@Name("com.github.toolarium.icap.Options")
+@Label("ICAP OPTIONS")
+@Description("OPTIONS request until the response is parsed")
+public class ICAPOptionsEvent extends AbstractICAPEvent {
+}
@@ -0,0 +1,22 @@
+/*
+ * ICAPPreviewSentEvent.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * The JFR event of sending the request header and the preview, a resource which fits into the preview is sent completely.
+ *
+ * @author patrick
+ */
+@Name("com.github.toolarium.icap.PreviewSent")
+@Label("ICAP Preview Sent")
+@Description("Request header and preview sent")
+public class ICAPPreviewSentEvent extends AbstractICAPEvent {
+}
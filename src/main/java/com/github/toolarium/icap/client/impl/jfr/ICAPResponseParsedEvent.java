@@ -0,0 +1,22 @@
+/*
+ * ICAPResponseParsedEvent.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * The JFR event of waiting for and parsing the final ICAP response header after the resource was sent.
+ *
+ * @author patrick
+ */
+@Name("com.github.toolarium.icap.ResponseParsed")
+@Label("ICAP Response Parsed")
+@Description("Final ICAP response header received and parsed")
+public class ICAPResponseParsedEvent extends AbstractICAPEvent {
+}
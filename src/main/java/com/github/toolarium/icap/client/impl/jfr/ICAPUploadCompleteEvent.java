@@ -0,0 +1,22 @@
+/*
+ * ICAPUploadCompleteEvent.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.jfr;
+
+import jdk.jfr.Description;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+
+
+/**
+ * The JFR event of sending the remaining part of the resource after the 100 Continue.
+ *
+ * @author patrick
+ */
+@Name("com.github.toolarium.icap.UploadComplete")
+@Label("ICAP Upload Complete")
+@Description("Remaining part of the resource sent")
+public class ICAPUploadCompleteEvent extends AbstractICAPEvent {
+}
@@ -0,0 +1,405 @@
+/*
+ * ICAPEventLoop.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.nio;
+
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.util.ICAPClientUtil;
+import java.io.IOException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.security.NoSuchAlgorithmException;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import javax.net.ssl.SSLContext;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Implements a non-blocking transport based on {@link java.nio.channels.SocketChannel} and a {@link Selector} per I/O thread.
+ * Each {@link ICAPNioExchange} is bound to one I/O thread which drives the whole ICAP exchange, therefore a handful of threads
+ * can handle a large number of concurrent requests.
+ *
+ * <p>The event loop is an {@link Executor}: in case it is used as executor of the asynchronous requests, e.g. by
+ * {@link com.github.toolarium.icap.client.ICAPClientFactory#setExecutor(Executor)}, the requests are sent over the non-blocking transport.
+ * The I/O threads only drive the exchanges: the result of an exchange is completed and the tasks of {@link #execute(Runnable)}
+ * run on the worker executor, therefore the processing of a response and the stages of the caller never block a selector.</p>
+ *
+ * @author patrick
+ */
+public class ICAPEventLoop implements Executor, AutoCloseable {
+    /** The default number of I/O threads */
+    public static final int DEFAULT_NUMBER_OF_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPEventLoop.class);
+    private static final long SELECT_TIMEOUT = 100L;
+    private static final AtomicInteger EVENT_LOOP_COUNTER = new AtomicInteger();
+    private final EventLoopThread[] threads;
+    private final AtomicInteger nextThread;
+    private volatile Executor workerExecutor;
+    private volatile SSLContext sslContext;
+    private volatile Integer defaultConnectionTimeout;
+    private volatile Integer defaultReadTimeout;
+    private volatile boolean closed;
+
+
+    /**
+     * Constructor for ICAPEventLoop
+     *
+     * @throws IOException In case the selector could not be opened
+     */
+    public ICAPEventLoop() throws IOException {
+        this(DEFAULT_NUMBER_OF_THREADS);
+    }
+
+
+    /**
+     * Constructor for ICAPEventLoop
+     *
+     * @param numberOfThreads the number of I/O threads
+     * @throws IOException In case the selector could not be opened
+     * @throws IllegalArgumentException In case of an invalid number of threads
+     */
+    public ICAPEventLoop(int numberOfThreads) throws IOException {
+        if (numberOfThreads <= 0) {
+            throw new IllegalArgumentException("Invalid number of threads!");
+        }
+
+        this.nextThread = new AtomicInteger();
+        this.workerExecutor = ICAPClientUtil.getInstance().getDefaultExecutor();
+        this.closed = false;
+        this.threads = new EventLoopThread[numberOfThreads];
+
+        int eventLoopNumber = EVENT_LOOP_COUNTER.incrementAndGet();
+        try {
+            for (int i = 0; i < numberOfThreads; i++) {
+                threads[i] = new EventLoopThread("icap-event-loop-" + eventLoopNumber + "-" + (i + 1));
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+
+        for (int i = 0; i < numberOfThreads; i++) {
+            threads[i].start();
+        }
+    }
+
+
+    /**
+     * Set the worker executor which completes the results of the exchanges and runs the tasks of {@link #execute(Runnable)}.
+     * By default the default executor of the asynchronous requests is used.
+     *
+     * @param workerExecutor the worker executor or null to use the default
+     */
+    public void setWorkerExecutor(Executor workerExecutor) {
+        if (workerExecutor == null) {
+            this.workerExecutor = ICAPClientUtil.getInstance().getDefaultExecutor();
+        } else {
+            this.workerExecutor = workerExecutor;
+        }
+    }
+
+
+    /**
+     * Set the ssl context of the secured connections (icaps). By default the default ssl context is used.
+     *
+     * @param sslContext the ssl context or null to use the default
+     */
+    public void setSSLContext(SSLContext sslContext) {
+        this.sslContext = sslContext;
+    }
+
+
+    /**
+     * Define the default connection timeout in milliseconds or null. A timeout of null or zero are interpreted as an infinite timeout.
+     *
+     * @param defaultConnectionTimeout the default connection timeout in milliseconds or null.
+     */
+    public void setDefaultConnectionTimeout(Integer defaultConnectionTimeout) {
+        this.defaultConnectionTimeout = defaultConnectionTimeout;
+    }
+
+
+    /**
+     * Define the default read timeout in milliseconds or null. A timeout of null or zero are interpreted as an infinite timeout.
+     *
+     * @param defaultReadTimeout the default read timeout in milliseconds or null.
+     */
+    public void setDefaultReadTimeout(Integer defaultReadTimeout) {
+        this.defaultReadTimeout = defaultReadTimeout;
+    }
+
+
+    /**
+     * Get the number of I/O threads
+     *
+     * @return the number of I/O threads
+     */
+    public int getNumberOfThreads() {
+        return threads.length;
+    }
+
+
+    /**
+     * Get the number of the currently active exchanges
+     *
+     * @return the number of the active exchanges
+     */
+    public int getActiveExchangeCount() {
+        int count = 0;
+        for (EventLoopThread thread : threads) {
+            count += thread.activeExchanges.get();
+        }
+        return count;
+    }
+
+
+    /**
+     * Submit an exchange
+     *
+     * @param exchange the exchange
+     * @return the result of the exchange which is completed on the worker executor
+     */
+    public CompletableFuture<ICAPHeaderInformation> submit(final ICAPNioExchange exchange) {
+        final CompletableFuture<ICAPHeaderInformation> result = new CompletableFuture<ICAPHeaderInformation>();
+        exchange.getResult().whenComplete((r, e) -> complete(result, r, e));
+
+        final int connectionTimeout = getTimeout(defaultConnectionTimeout, exchange.getMaxConnectionTimeout());
+        final int readTimeout = getTimeout(defaultReadTimeout, exchange.getMaxReadTimeout());
+        final EventLoopThread thread = nextThread();
+        try {
+            final SSLContext context = getSSLContext();
+            thread.execute(() -> {
+                thread.activeExchanges.incrementAndGet();
+                exchange.getResult().whenComplete((r, e) -> thread.activeExchanges.decrementAndGet());
+                exchange.start(thread.selector, context, connectionTimeout, readTimeout);
+            });
+        } catch (IOException | RejectedExecutionException e) {
+            exchange.fail(e);
+        }
+
+        return result;
+    }
+
+
+    /**
+     * Execute a task on the worker executor, a task never runs on an I/O thread.
+     *
+     * @see java.util.concurrent.Executor#execute(java.lang.Runnable)
+     */
+    @Override
+    public void execute(Runnable command) {
+        if (closed) {
+            throw new RejectedExecutionException("Event loop is closed!");
+        }
+
+        workerExecutor.execute(command);
+    }
+
+
+    /**
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() {
+        closed = true;
+        for (EventLoopThread thread : threads) {
+            if (thread != null) {
+                thread.selector.wakeup();
+            }
+        }
+    }
+
+
+    /**
+     * Get the ssl context
+     *
+     * @return the ssl context
+     * @throws IOException In case the default ssl context could not be created
+     */
+    private SSLContext getSSLContext() throws IOException {
+        if (sslContext != null) {
+            return sslContext;
+        }
+
+        try {
+            return SSLContext.getDefault();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException("Could not create ssl context: " + e.getMessage(), e);
+        }
+    }
+
+
+    /**
+     * Complete the result of an exchange on the worker executor. In case the worker executor rejects it, the result is
+     * completed by the current thread.
+     *
+     * @param result the result to complete
+     * @param icapHeaderInformation the ICAP header information or null
+     * @param e the exception or null
+     */
+    private void complete(final CompletableFuture<ICAPHeaderInformation> result, final ICAPHeaderInformation icapHeaderInformation, final Throwable e) {
+        final Runnable completion = () -> {
+            if (e != null) {
+                result.completeExceptionally(e);
+            } else {
+                result.complete(icapHeaderInformation);
+            }
+        };
+
+        try {
+            workerExecutor.execute(completion);
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Worker executor rejected the completion: " + ex.getMessage());
+            completion.run();
+        }
+    }
+
+
+    /**
+     * Get the next I/O thread
+     *
+     * @return the next I/O thread
+     */
+    private EventLoopThread nextThread() {
+        return threads[Math.floorMod(nextThread.getAndIncrement(), threads.length)];
+    }
+
+
+    /**
+     * Get the timeout
+     *
+     * @param defaultTimeout the default timeout or null
+     * @param timeout the timeout or null
+     * @return the timeout
+     */
+    private int getTimeout(Integer defaultTimeout, Integer timeout) {
+        int result = 0;
+        if (defaultTimeout != null && defaultTimeout.intValue() >= 0) {
+            result = defaultTimeout.intValue();
+        }
+
+        if (timeout != null && timeout.intValue() >= 0) {
+            result = timeout.intValue();
+        }
+        return result;
+    }
+
+
+    /**
+     * Defines an I/O thread with its own selector
+     *
+     * @author patrick
+     */
+    private class EventLoopThread extends Thread {
+        private final Selector selector;
+        private final Queue<Runnable> tasks;
+        private final AtomicInteger activeExchanges;
+
+
+        /**
+         * Constructor for EventLoopThread
+         *
+         * @param name the name of the thread
+         * @throws IOException In case the selector could not be opened
+         */
+        EventLoopThread(String name) throws IOException {
+            super(name);
+            setDaemon(true);
+            this.selector = Selector.open();
+            this.tasks = new ConcurrentLinkedQueue<Runnable>();
+            this.activeExchanges = new AtomicInteger();
+        }
+
+
+        /**
+         * Execute a task on this thread
+         *
+         * @param task the task
+         * @throws RejectedExecutionException In case the event loop is closed
+         */
+        void execute(Runnable task) {
+            if (closed) {
+                throw new RejectedExecutionException("Event loop is closed!");
+            }
+
+            tasks.add(task);
+            if (Thread.currentThread() != this) {
+                selector.wakeup();
+            }
+        }
+
+
+        /**
+         * @see java.lang.Thread#run()
+         */
+        @Override
+        public void run() {
+            long nextTimeoutCheck = System.nanoTime();
+            while (!closed) {
+                try {
+                    selector.select(SELECT_TIMEOUT);
+
+                    Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                    while (it.hasNext()) {
+                        SelectionKey key = it.next();
+                        it.remove();
+                        if (key.isValid()) {
+                            ((ICAPNioExchange) key.attachment()).handle(key);
+                        }
+                    }
+
+                    runTasks();
+
+                    long now = System.nanoTime();
+                    if (now - nextTimeoutCheck >= 0) {
+                        nextTimeoutCheck = now + SELECT_TIMEOUT * 1_000_000L;
+                        for (SelectionKey key : selector.keys()) {
+                            if (key.isValid()) {
+                                ((ICAPNioExchange) key.attachment()).checkTimeout(now);
+                            }
+                        }
+                    }
+                } catch (IOException | RuntimeException e) {
+                    LOG.warn("Unexpected error in event loop " + getName() + ": " + e.getMessage(), e);
+                }
+            }
+
+            // fail the pending exchanges
+            runTasks();
+            for (SelectionKey key : selector.keys()) {
+                ((ICAPNioExchange) key.attachment()).fail(new IOException("Event loop is closed!"));
+            }
+
+            try {
+                selector.close();
+            } catch (IOException e) {
+                // NOP
+            }
+        }
+
+
+        /**
+         * Run the pending tasks
+         */
+        private void runTasks() {
+            Runnable task;
+            while ((task = tasks.poll()) != null) {
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOG.warn("Unexpected error in task of event loop " + getName() + ": " + e.getMessage(), e);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,321 @@
+/*
+ * ICAPNioChannel.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.nio;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import javax.net.ssl.SSLEngine;
+import javax.net.ssl.SSLEngineResult;
+import javax.net.ssl.SSLException;
+
+
+/**
+ * Wraps a non-blocking {@link SocketChannel}. In case of a secured connection (icaps) the data is encrypted and decrypted by an {@link SSLEngine}.
+ * All methods return immediately; in case the channel can not proceed they return and the caller has to wait for the next selector event.
+ *
+ * @author patrick
+ */
+class ICAPNioChannel {
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+    private final SocketChannel socketChannel;
+    private final SSLEngine sslEngine;
+    private ByteBuffer netIn;
+    private ByteBuffer netOut;
+    private ByteBuffer appIn;
+    private boolean handshakeStarted;
+
+
+    /**
+     * Constructor for ICAPNioChannel
+     *
+     * @param socketChannel the non-blocking socket channel
+     * @param sslEngine the ssl engine in case of a secured connection or null
+     */
+    ICAPNioChannel(SocketChannel socketChannel, SSLEngine sslEngine) {
+        this.socketChannel = socketChannel;
+        this.sslEngine = sslEngine;
+        this.handshakeStarted = false;
+
+        if (sslEngine != null) {
+            netIn = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+            netOut = ByteBuffer.allocate(sslEngine.getSession().getPacketBufferSize());
+            netOut.flip();
+            appIn = ByteBuffer.allocate(sslEngine.getSession().getApplicationBufferSize());
+        }
+    }
+
+
+    /**
+     * Get the socket channel
+     *
+     * @return the socket channel
+     */
+    SocketChannel getSocketChannel() {
+        return socketChannel;
+    }
+
+
+    /**
+     * Proceed the ssl handshake.
+     *
+     * @return 0 if the handshake is finished (or not needed), otherwise the selection key operation to wait for
+     * @throws IOException In case of an I/O error
+     */
+    int handshake() throws IOException {
+        if (sslEngine == null) {
+            return 0;
+        }
+
+        if (!handshakeStarted) {
+            handshakeStarted = true;
+            sslEngine.beginHandshake();
+        }
+
+        while (true) {
+            if (!flushNetOut()) {
+                return SelectionKey.OP_WRITE;
+            }
+
+            switch (sslEngine.getHandshakeStatus()) {
+                case NEED_WRAP:
+                    wrap(EMPTY);
+                    break;
+                case NEED_UNWRAP:
+                case NEED_UNWRAP_AGAIN:
+                    if (!unwrap()) {
+                        int readBytes = socketChannel.read(netIn);
+                        if (readBytes < 0) {
+                            throw new SSLException("Connection closed during ssl handshake!");
+                        }
+
+                        if (readBytes == 0) {
+                            return SelectionKey.OP_READ;
+                        }
+                    }
+                    break;
+                case NEED_TASK:
+                    runDelegatedTasks();
+                    break;
+                default:
+                    return 0;
+            }
+        }
+    }
+
+
+    /**
+     * Write the content of the buffer.
+     *
+     * @param src the buffer to write
+     * @return true if the whole buffer was written; false if the channel is busy
+     * @throws IOException In case of an I/O error
+     */
+    boolean write(ByteBuffer src) throws IOException {
+        if (sslEngine == null) {
+            while (src.hasRemaining()) {
+                if (socketChannel.write(src) == 0) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
+        while (true) {
+            if (!flushNetOut()) {
+                return false;
+            }
+
+            if (!src.hasRemaining()) {
+                return true;
+            }
+
+            wrap(src);
+        }
+    }
+
+
+    /**
+     * Read the available content into the buffer.
+     *
+     * @param dst the destination buffer
+     * @return the number of read bytes, 0 if there is no data available or -1 in case the stream has ended
+     * @throws IOException In case of an I/O error
+     */
+    int read(ByteBuffer dst) throws IOException {
+        if (sslEngine == null) {
+            return socketChannel.read(dst);
+        }
+
+        while (true) {
+            if (appIn.position() > 0) {
+                return transfer(appIn, dst);
+            }
+
+            if (!unwrap()) {
+                if (sslEngine.isInboundDone()) {
+                    return -1;
+                }
+
+                int readBytes = socketChannel.read(netIn);
+                if (readBytes <= 0) {
+                    return readBytes;
+                }
+            }
+
+            if (sslEngine.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_WRAP) {
+                // post handshake message, e.g. key update
+                wrap(EMPTY);
+                flushNetOut();
+            }
+        }
+    }
+
+
+    /**
+     * Close the channel
+     */
+    void close() {
+        if (sslEngine != null) {
+            try {
+                sslEngine.closeOutbound();
+                if (flushNetOut()) {
+                    wrap(EMPTY);
+                    flushNetOut();
+                }
+            } catch (IOException | RuntimeException e) {
+                // NOP
+            }
+        }
+
+        try {
+            socketChannel.close();
+        } catch (IOException e) {
+            // NOP
+        }
+    }
+
+
+    /**
+     * Wrap the source into the network output buffer
+     *
+     * @param src the source
+     * @throws IOException In case of an I/O error
+     */
+    private void wrap(ByteBuffer src) throws IOException {
+        netOut.clear();
+        SSLEngineResult result = sslEngine.wrap(src, netOut);
+        netOut.flip();
+
+        if (result.getStatus() == SSLEngineResult.Status.CLOSED && src.hasRemaining()) {
+            throw new SSLException("Ssl connection is closed!");
+        }
+
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+        }
+    }
+
+
+    /**
+     * Unwrap the network input buffer into the application input buffer
+     *
+     * @return true if there was progress; false if more data from the network is needed
+     * @throws IOException In case of an I/O error
+     */
+    private boolean unwrap() throws IOException {
+        netIn.flip();
+        SSLEngineResult result;
+        try {
+            result = sslEngine.unwrap(netIn, appIn);
+        } finally {
+            netIn.compact();
+        }
+
+        if (result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.NEED_TASK) {
+            runDelegatedTasks();
+        }
+
+        switch (result.getStatus()) {
+            case BUFFER_OVERFLOW:
+                appIn = enlarge(appIn, sslEngine.getSession().getApplicationBufferSize());
+                return true;
+            case BUFFER_UNDERFLOW:
+                if (netIn.remaining() == 0) {
+                    netIn = enlarge(netIn, sslEngine.getSession().getPacketBufferSize());
+                }
+                return false;
+            case CLOSED:
+                return false;
+            default:
+                return result.bytesConsumed() > 0 || result.bytesProduced() > 0;
+        }
+    }
+
+
+    /**
+     * Flush the network output buffer
+     *
+     * @return true if the buffer is empty
+     * @throws IOException In case of an I/O error
+     */
+    private boolean flushNetOut() throws IOException {
+        while (netOut.hasRemaining()) {
+            if (socketChannel.write(netOut) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Run the delegated tasks of the ssl engine
+     */
+    private void runDelegatedTasks() {
+        Runnable task;
+        while ((task = sslEngine.getDelegatedTask()) != null) {
+            task.run();
+        }
+    }
+
+
+    /**
+     * Transfer the content of a buffer in write mode into the destination buffer.
+     *
+     * @param src the source buffer in write mode
+     * @param dst the destination buffer
+     * @return the transferred bytes
+     */
+    private int transfer(ByteBuffer src, ByteBuffer dst) {
+        src.flip();
+        int length = Math.min(src.remaining(), dst.remaining());
+        ByteBuffer slice = src.duplicate();
+        slice.limit(slice.position() + length);
+        dst.put(slice);
+        src.position(src.position() + length);
+        src.compact();
+        return length;
+    }
+
+
+    /**
+     * Enlarge a buffer in write mode
+     *
+     * @param buffer the buffer
+     * @param size the expected size
+     * @return the new buffer
+     */
+    private ByteBuffer enlarge(ByteBuffer buffer, int size) {
+        ByteBuffer result = ByteBuffer.allocate(Math.max(size, buffer.capacity() * 2));
+        buffer.flip();
+        result.put(buffer);
+        return result;
+    }
+}
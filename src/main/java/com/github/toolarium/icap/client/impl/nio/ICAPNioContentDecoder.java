@@ -0,0 +1,200 @@
+/*
+ * ICAPNioContentDecoder.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.nio;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+
+/**
+ * Decodes the encapsulated message of an ICAP response incrementally: the encapsulated http headers are skipped and
+ * the chunked body is written to an output stream until the last chunk.
+ *
+ * @author patrick
+ */
+class ICAPNioContentDecoder {
+    private static final int MAX_LINE_LENGTH = 8192;
+    private final boolean encapsulatedBody;
+    private State state;
+    private long remaining;
+    private long contentLength;
+    private ByteArrayOutputStream line;
+
+
+    /**
+     * Defines the decoder states
+     */
+    private enum State {
+        ENCAPSULATED_HEADER,
+        CHUNK_SIZE,
+        CHUNK_DATA,
+        CHUNK_END,
+        TRAILER,
+        ENDED
+    }
+
+
+    /**
+     * Constructor for ICAPNioContentDecoder
+     *
+     * @param encapsulatedHeaderLength the length of the encapsulated http headers (offset of the body)
+     * @param encapsulatedBody true if the encapsulated message contains a chunked body; false in case of a null-body
+     */
+    ICAPNioContentDecoder(long encapsulatedHeaderLength, boolean encapsulatedBody) {
+        this.encapsulatedBody = encapsulatedBody;
+        this.remaining = Math.max(0, encapsulatedHeaderLength);
+        this.contentLength = 0;
+        this.line = new ByteArrayOutputStream();
+        this.state = State.ENCAPSULATED_HEADER;
+        if (!encapsulatedBody && remaining == 0) {
+            state = State.ENDED;
+        }
+    }
+
+
+    /**
+     * Decode the available content
+     *
+     * @param src the source buffer in read mode
+     * @param outputStream the output stream of the decoded body
+     * @return true if the content has ended
+     * @throws IOException In case of an I/O error or an invalid chunk
+     */
+    boolean decode(ByteBuffer src, OutputStream outputStream) throws IOException {
+        while (state != State.ENDED && src.hasRemaining()) {
+            switch (state) {
+                case ENCAPSULATED_HEADER:
+                    int skip = (int) Math.min(remaining, src.remaining());
+                    src.position(src.position() + skip);
+                    remaining -= skip;
+                    if (remaining == 0) {
+                        if (encapsulatedBody) {
+                            state = State.CHUNK_SIZE;
+                        } else {
+                            state = State.ENDED;
+                        }
+                    }
+                    break;
+                case CHUNK_SIZE:
+                    String chunkHeader = readLine(src);
+                    if (chunkHeader != null && !chunkHeader.isEmpty()) {
+                        remaining = parseChunkSize(chunkHeader);
+                        if (remaining == 0) {
+                            state = State.TRAILER;
+                        } else {
+                            state = State.CHUNK_DATA;
+                        }
+                    }
+                    break;
+                case CHUNK_DATA:
+                    int length = (int) Math.min(remaining, src.remaining());
+                    if (src.hasArray()) {
+                        outputStream.write(src.array(), src.arrayOffset() + src.position(), length);
+                        src.position(src.position() + length);
+                    } else {
+                        byte[] data = new byte[length];
+                        src.get(data);
+                        outputStream.write(data);
+                    }
+
+                    remaining -= length;
+                    contentLength += length;
+                    if (remaining == 0) {
+                        state = State.CHUNK_END;
+                    }
+                    break;
+                case CHUNK_END:
+                    if (readLine(src) != null) {
+                        state = State.CHUNK_SIZE;
+                    }
+                    break;
+                case TRAILER:
+                    String trailer = readLine(src);
+                    if (trailer != null && trailer.isEmpty()) {
+                        state = State.ENDED;
+                    }
+                    break;
+                default:
+                    break;
+            }
+        }
+
+        return isEnded();
+    }
+
+
+    /**
+     * Check if the content has ended
+     *
+     * @return true if the last chunk was read
+     */
+    boolean isEnded() {
+        return state == State.ENDED;
+    }
+
+
+    /**
+     * Get the length of the decoded content
+     *
+     * @return the length of the decoded content
+     */
+    long getContentLength() {
+        return contentLength;
+    }
+
+
+    /**
+     * Read a line
+     *
+     * @param src the source buffer
+     * @return the line without the line separator or null if the line is not yet complete
+     * @throws IOException In case the line is too long
+     */
+    private String readLine(ByteBuffer src) throws IOException {
+        while (src.hasRemaining()) {
+            byte b = src.get();
+            if (b == '\n') {
+                String result = new String(line.toByteArray(), StandardCharsets.US_ASCII).trim();
+                line.reset();
+                return result;
+            }
+
+            if (b != '\r') {
+                line.write(b);
+                if (line.size() > MAX_LINE_LENGTH) {
+                    throw new IOException("Bad chunk header, line is too long!");
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Parse the chunk size, e.g. 1f or 0; ieof
+     *
+     * @param chunkHeader the chunk header
+     * @return the chunk size
+     * @throws IOException In case of an invalid chunk header
+     */
+    private long parseChunkSize(String chunkHeader) throws IOException {
+        String size = chunkHeader;
+        int idx = size.indexOf(';');
+        if (idx >= 0) {
+            size = size.substring(0, idx);
+        }
+
+        try {
+            return Long.parseLong(size.trim(), 16);
+        } catch (NumberFormatException e) {
+            throw new IOException("Bad chunk header [" + chunkHeader + "]:" + e.getMessage());
+        }
+    }
+}
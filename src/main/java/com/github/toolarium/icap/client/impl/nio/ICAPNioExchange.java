@@ -0,0 +1,841 @@
+/*
+ * ICAPNioExchange.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.nio;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.exception.UnknownIOException;
+import com.github.toolarium.icap.client.impl.parser.ICAPHeaderParser;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.channels.UnresolvedAddressException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLEngine;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Defines one ICAP request / response exchange over a non-blocking connection. The exchange is driven by the {@link ICAPEventLoop}:
+ * it sends the request and the preview, waits for the 100 continue, sends the remaining part of the resource and reads the response.
+ * The resource body is read in blocks on the event loop thread; therefore the client only sends a file or an in memory stream
+ * over the event loop, any other stream is sent by the blocking transport on the worker executor of the event loop.
+ *
+ * @author patrick
+ */
+public class ICAPNioExchange {
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPNioExchange.class);
+    private static final byte[] NEWLINE = "\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] END_SEPARATOR = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] IEOF_SEPARATOR = "0; ieof\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+    private static final int CHUNK_HEADER_SIZE = 16;
+    private static final long TRANSFER_SIZE = 1024L * 1024L;
+    private static final int HEADER_BUFFER_SIZE = 512;
+
+    private final String requestIdentifier;
+    private final String host;
+    private final int port;
+    private final boolean secureConnection;
+    private final byte[] request;
+    private final CompletableFuture<ICAPHeaderInformation> result;
+    private InputStream resourceBody;
+    private long resourceLength;
+    private int previewSize;
+    private int bufferSize;
+    private OutputStream contentOutputStream;
+    private Integer maxConnectionTimeout;
+    private Integer maxReadTimeout;
+    private int readTimeout;
+    private State state;
+    private ICAPNioChannel channel;
+    private SelectionKey selectionKey;
+    private ByteBuffer outbound;
+    private ByteBuffer inbound;
+    private byte[] block;
+    private byte[] preview;
+    private boolean previewResponse;
+    private boolean resourceEnded;
+    private FileChannel resourceChannel;
+    private long transferPosition;
+    private long transferRemaining;
+    private boolean resourceTransferred;
+    private byte[] headerBuffer;
+    private int headerLength;
+    private int headerLineLength;
+    private ICAPHeaderInformation icapHeaderInformation;
+    private ICAPNioContentDecoder contentDecoder;
+    private boolean contentProcessed;
+    private long deadline;
+
+
+    /**
+     * Defines the exchange states
+     */
+    private enum State {
+        CONNECT,
+        HANDSHAKE,
+        SEND_PREVIEW,
+        READ_PREVIEW_RESPONSE,
+        SEND_REMAINDER,
+        READ_RESPONSE,
+        READ_CONTENT,
+        DONE
+    }
+
+
+    /**
+     * Constructor for ICAPNioExchange
+     *
+     * @param requestIdentifier the request identifier
+     * @param host the host
+     * @param port the port
+     * @param secureConnection true to establish a secured connection
+     * @param request the request: the ICAP header, the encapsulated http headers and in case of a resource the chunk header of the preview
+     */
+    public ICAPNioExchange(String requestIdentifier, String host, int port, boolean secureConnection, byte[] request) {
+        this.requestIdentifier = requestIdentifier;
+        this.host = host;
+        this.port = port;
+        this.secureConnection = secureConnection;
+        this.request = request;
+        this.result = new CompletableFuture<ICAPHeaderInformation>();
+        this.resourceBody = null;
+        this.resourceLength = 0;
+        this.previewSize = 0;
+        this.bufferSize = 8192;
+        this.contentOutputStream = null;
+        this.state = State.CONNECT;
+        this.preview = null;
+        this.previewResponse = false;
+        this.resourceEnded = false;
+        this.resourceChannel = null;
+        this.transferPosition = 0;
+        this.transferRemaining = 0;
+        this.resourceTransferred = false;
+        this.headerBuffer = new byte[HEADER_BUFFER_SIZE];
+        this.headerLength = 0;
+        this.headerLineLength = 0;
+        this.contentProcessed = false;
+        this.deadline = 0;
+    }
+
+
+    /**
+     * Set the resource to send
+     *
+     * @param resourceBody the resource body
+     * @param resourceLength the resource length
+     * @param previewSize the preview size or -1 to send the resource without preview
+     * @param bufferSize the buffer size
+     * @return the ICAPNioExchange
+     */
+    public ICAPNioExchange setResource(InputStream resourceBody, long resourceLength, int previewSize, int bufferSize) {
+        this.resourceBody = resourceBody;
+        this.resourceLength = resourceLength;
+        this.previewSize = previewSize;
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+
+    /**
+     * Set the file channel of a file based resource. The remaining part of the resource after the preview is transferred
+     * directly from the file into an unsecured connection (zero-copy).
+     *
+     * @param resourceChannel the file channel of the resource body or null
+     * @return the ICAPNioExchange
+     */
+    public ICAPNioExchange setResourceChannel(FileChannel resourceChannel) {
+        if (!secureConnection) {
+            this.resourceChannel = resourceChannel;
+        }
+        return this;
+    }
+
+
+    /**
+     * Set the output stream of the content of a modified response (200). In case it is not set, the content is not read.
+     *
+     * @param contentOutputStream the output stream or null
+     * @return the ICAPNioExchange
+     */
+    public ICAPNioExchange setContentOutputStream(OutputStream contentOutputStream) {
+        this.contentOutputStream = contentOutputStream;
+        return this;
+    }
+
+
+    /**
+     * Set the timeouts. A timeout of null uses the default of the event loop, zero is interpreted as an infinite timeout.
+     *
+     * @param maxConnectionTimeout the max connection timeout in milliseconds or null
+     * @param maxReadTimeout the max read timeout in milliseconds or null
+     * @return the ICAPNioExchange
+     */
+    public ICAPNioExchange setTimeout(Integer maxConnectionTimeout, Integer maxReadTimeout) {
+        this.maxConnectionTimeout = maxConnectionTimeout;
+        this.maxReadTimeout = maxReadTimeout;
+        return this;
+    }
+
+
+    /**
+     * Get the result of the exchange
+     *
+     * @return the result
+     */
+    public CompletableFuture<ICAPHeaderInformation> getResult() {
+        return result;
+    }
+
+
+    /**
+     * Check if the remaining part of the resource was transferred directly from the file channel, see {@link #setResourceChannel(FileChannel)}.
+     *
+     * @return true if the resource was transferred
+     */
+    public boolean isResourceTransferred() {
+        return resourceTransferred;
+    }
+
+
+    /**
+     * Check if the content of a modified response was processed
+     *
+     * @return true if the content was written to the content output stream
+     */
+    public boolean isContentProcessed() {
+        return contentProcessed;
+    }
+
+
+    /**
+     * Check if the server decided on the preview (204 or 200 instead of 100 continue), the remaining part of the resource was not read
+     *
+     * @return true if the server decided on the preview
+     */
+    public boolean isPreviewResponse() {
+        return previewResponse;
+    }
+
+
+    /**
+     * Get the sent preview
+     *
+     * @return the preview or null if no resource was sent
+     */
+    public byte[] getPreview() {
+        return preview;
+    }
+
+
+    /**
+     * Check if the content of a modified response was read until the last chunk
+     *
+     * @return true if the content was fully read
+     */
+    public boolean isContentEnded() {
+        return contentDecoder != null && contentDecoder.isEnded();
+    }
+
+
+    /**
+     * Get the length of the processed content
+     *
+     * @return the length of the processed content
+     */
+    public long getContentLength() {
+        if (contentDecoder == null) {
+            return 0;
+        }
+
+        return contentDecoder.getContentLength();
+    }
+
+
+    /**
+     * Get the max connection timeout
+     *
+     * @return the max connection timeout or null
+     */
+    Integer getMaxConnectionTimeout() {
+        return maxConnectionTimeout;
+    }
+
+
+    /**
+     * Get the max read timeout
+     *
+     * @return the max read timeout or null
+     */
+    Integer getMaxReadTimeout() {
+        return maxReadTimeout;
+    }
+
+
+    /**
+     * Start the exchange, it is called by the event loop thread.
+     *
+     * @param selector the selector
+     * @param sslContext the ssl context
+     * @param connectionTimeout the connection timeout in milliseconds, zero is interpreted as an infinite timeout
+     * @param readTimeout the read timeout in milliseconds, zero is interpreted as an infinite timeout
+     */
+    void start(Selector selector, SSLContext sslContext, int connectionTimeout, int readTimeout) {
+        if (result.isDone()) {
+            return; // cancelled before it was started
+        }
+
+        this.readTimeout = readTimeout;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Open channel to [" + host + ":" + port + "]");
+        }
+
+        try {
+            SocketChannel socketChannel = SocketChannel.open();
+            socketChannel.setOption(StandardSocketOptions.TCP_NODELAY, Boolean.TRUE);
+            SSLEngine sslEngine = null;
+            if (secureConnection) {
+                sslEngine = sslContext.createSSLEngine(host, port);
+                sslEngine.setUseClientMode(true);
+            }
+
+            channel = new ICAPNioChannel(socketChannel, sslEngine);
+            socketChannel.configureBlocking(false);
+            updateDeadline(connectionTimeout);
+            selectionKey = socketChannel.register(selector, 0, this);
+            if (socketChannel.connect(new InetSocketAddress(host, port))) {
+                connected();
+            } else {
+                selectionKey.interestOps(SelectionKey.OP_CONNECT);
+            }
+        } catch (UnresolvedAddressException e) {
+            fail(new UnknownHostException(host));
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+
+    /**
+     * Handle a selection key event, it is called by the event loop thread.
+     *
+     * @param key the selection key
+     */
+    void handle(SelectionKey key) {
+        try {
+            if (key.isConnectable()) {
+                if (!channel.getSocketChannel().finishConnect()) {
+                    return;
+                }
+
+                connected();
+                return;
+            }
+
+            process();
+        } catch (IOException | RuntimeException e) {
+            fail(e);
+        }
+    }
+
+
+    /**
+     * Check the timeout of the exchange, it is called by the event loop thread.
+     *
+     * @param now the current time in nanoseconds
+     */
+    void checkTimeout(long now) {
+        if (state == State.DONE) {
+            return;
+        }
+
+        if (result.isDone()) {
+            close(); // cancelled
+            return;
+        }
+
+        if (deadline != 0 && now - deadline > 0) {
+            if (state == State.CONNECT) {
+                fail(new SocketTimeoutException("Connect timed out"));
+            } else {
+                fail(new SocketTimeoutException("Read timed out"));
+            }
+        }
+    }
+
+
+    /**
+     * Fail the exchange
+     *
+     * @param e the exception
+     */
+    void fail(Throwable e) {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Exchange with [" + host + ":" + port + "] failed: " + e.getMessage());
+        }
+
+        close();
+        result.completeExceptionally(e);
+    }
+
+
+    /**
+     * The connection is established
+     *
+     * @throws IOException In case of an I/O error
+     */
+    private void connected() throws IOException {
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Connected to [" + host + ":" + port + "]");
+        }
+
+        updateDeadline(readTimeout);
+        state = State.HANDSHAKE;
+        process();
+    }
+
+
+    /**
+     * Process the exchange as far as possible without blocking
+     *
+     * @throws IOException In case of an I/O error
+     */
+    private void process() throws IOException {
+        while (true) {
+            switch (state) {
+                case HANDSHAKE:
+                    int ops = channel.handshake();
+                    if (ops != 0) {
+                        selectionKey.interestOps(ops);
+                        return;
+                    }
+
+                    prepareRequest();
+                    state = State.SEND_PREVIEW;
+                    break;
+                case SEND_PREVIEW:
+                case SEND_REMAINDER:
+                    if (!channel.write(outbound)) {
+                        selectionKey.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    if (transferRemaining > 0 && !transfer()) {
+                        selectionKey.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+
+                    updateDeadline(readTimeout);
+                    if (state == State.SEND_REMAINDER && !resourceEnded) {
+                        prepareNextBlock();
+                    } else if (state == State.SEND_PREVIEW && resourceBody != null && previewSize < 0) {
+                        // no preview, the resource is sent completely
+                        state = State.SEND_REMAINDER;
+                        prepareNextBlock();
+                    } else if (state == State.SEND_PREVIEW && resourceBody != null && resourceLength > previewSize) {
+                        state = State.READ_PREVIEW_RESPONSE;
+                    } else {
+                        state = State.READ_RESPONSE;
+                    }
+                    break;
+                case READ_PREVIEW_RESPONSE:
+                case READ_RESPONSE:
+                    if (!readHeader()) {
+                        selectionKey.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+
+                    processResponse();
+                    break;
+                case READ_CONTENT:
+                    if (!readContent()) {
+                        selectionKey.interestOps(SelectionKey.OP_READ);
+                        return;
+                    }
+
+                    complete();
+                    break;
+                default:
+                    return;
+            }
+        }
+    }
+
+
+    /**
+     * Process the ICAP response header
+     *
+     * @throws IOException In case of an I/O error
+     */
+    private void processResponse() throws IOException {
+        if (state == State.READ_PREVIEW_RESPONSE) {
+            // it might not be "100 continue", then this is actually the response otherwise it is a "go" for the rest of the resource.
+            switch (icapHeaderInformation.getStatus()) {
+                case 100:
+                    icapHeaderInformation = null;
+                    state = State.SEND_REMAINDER;
+                    prepareNextBlock();
+                    return;
+                case 200:
+                case 204:
+                    previewResponse = true;
+                    complete();
+                    return;
+                case 404: throw new IOException("404: ICAP Service not found");
+                default: throw new UnknownIOException("Server returned unknown status code:" + icapHeaderInformation.getStatus(), icapHeaderInformation);
+            }
+        }
+
+        if (resourceBody == null || icapHeaderInformation.getStatus() == 204) {
+            complete();
+            return;
+        }
+
+        if (icapHeaderInformation.getStatus() != 200) {
+            throw new UnknownIOException("Unrecognized or no status code in response header: " + icapHeaderInformation.getStatus() + "!", icapHeaderInformation);
+        }
+
+        if (contentOutputStream == null) {
+            complete();
+            return;
+        }
+
+        contentDecoder = createContentDecoder(icapHeaderInformation);
+        if (contentDecoder == null) {
+            LOG.warn("Missing " + ICAPConstants.HEADER_KEY_ENCAPSULATED + " information!");
+            complete();
+            return;
+        }
+
+        contentProcessed = true;
+        state = State.READ_CONTENT;
+    }
+
+
+    /**
+     * Prepare the request and the preview
+     *
+     * @throws IOException In case of an I/O error
+     */
+    private void prepareRequest() throws IOException {
+        if (resourceBody == null || previewSize < 0) {
+            outbound = ByteBuffer.wrap(request);
+            return;
+        }
+
+        // sending preview or, if smaller than preview size, the whole resource.
+        preview = resourceBody.readNBytes(previewSize);
+        outbound = ByteBuffer.allocate(request.length + preview.length + NEWLINE.length + IEOF_SEPARATOR.length);
+        outbound.put(request).put(preview).put(NEWLINE);
+        if (resourceLength <= previewSize) {
+            outbound.put(IEOF_SEPARATOR);
+        } else if (previewSize != 0) {
+            outbound.put(END_SEPARATOR);
+        }
+
+        outbound.flip();
+    }
+
+
+    /**
+     * Prepare the next block of the remaining part of the resource
+     *
+     * @throws IOException In case of an I/O error
+     */
+    private void prepareNextBlock() throws IOException {
+        if (resourceChannel != null) {
+            prepareNextTransfer();
+            return;
+        }
+
+        if (block == null) {
+            block = new byte[bufferSize];
+            outbound = ByteBuffer.allocate(bufferSize + CHUNK_HEADER_SIZE);
+        }
+
+        outbound.clear();
+        int readBytes = resourceBody.read(block);
+        if (readBytes < 0) {
+            // closing resource transfer
+            resourceEnded = true;
+            outbound.put(END_SEPARATOR);
+        } else {
+            outbound.put(Integer.toHexString(readBytes).getBytes(StandardCharsets.US_ASCII)).put(NEWLINE);
+            outbound.put(block, 0, readBytes).put(NEWLINE);
+        }
+
+        outbound.flip();
+    }
+
+
+    /**
+     * Prepare the next region of the remaining part of the resource which is transferred directly from the file channel
+     *
+     * @throws IOException In case of an I/O error
+     */
+    private void prepareNextTransfer() throws IOException {
+        if (!resourceTransferred) {
+            resourceTransferred = true;
+            transferPosition = resourceChannel.position();
+            outbound = ByteBuffer.allocate(NEWLINE.length + CHUNK_HEADER_SIZE + END_SEPARATOR.length);
+        } else {
+            outbound.clear();
+            outbound.put(NEWLINE); // end of the previous region
+        }
+
+        long length = Math.min(TRANSFER_SIZE, resourceChannel.size() - transferPosition);
+        if (length <= 0) {
+            // closing resource transfer
+            resourceEnded = true;
+            resourceChannel.position(transferPosition);
+            outbound.put(END_SEPARATOR);
+        } else {
+            transferRemaining = length;
+            outbound.put(Long.toHexString(length).getBytes(StandardCharsets.US_ASCII)).put(NEWLINE);
+        }
+
+        outbound.flip();
+    }
+
+
+    /**
+     * Transfer the current region of the resource directly from the file channel into the socket channel
+     *
+     * @return true if the region is transferred; false if the channel is busy
+     * @throws IOException In case of an I/O error
+     */
+    private boolean transfer() throws IOException {
+        while (transferRemaining > 0) {
+            long transferredBytes = resourceChannel.transferTo(transferPosition, transferRemaining, channel.getSocketChannel());
+            if (transferredBytes <= 0) {
+                if (transferPosition >= resourceChannel.size()) {
+                    throw new IOException("Could not transfer resource, the file was modified!");
+                }
+
+                return false;
+            }
+
+            transferPosition += transferredBytes;
+            transferRemaining -= transferredBytes;
+            updateDeadline(readTimeout);
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Read the ICAP response header
+     *
+     * @return true if the header is completely read
+     * @throws IOException In case of an I/O error
+     */
+    private boolean readHeader() throws IOException {
+        if (inbound == null) {
+            inbound = ByteBuffer.allocate(bufferSize);
+        }
+
+        while (true) {
+            inbound.flip();
+            boolean headerEnded = parseHeaderLines(inbound);
+            inbound.compact();
+            if (headerEnded) {
+                break;
+            }
+
+            int readBytes = channel.read(inbound);
+            if (readBytes == 0) {
+                return false;
+            }
+
+            if (readBytes < 0) {
+                break;
+            }
+
+            updateDeadline(readTimeout);
+        }
+
+        // the parsed values reference the raw header, the parser gets its own copy; an incomplete last line is ignored
+        int length = headerLength - headerLineLength;
+        Map<String, List<String>> header = ICAPHeaderParser.getInstance().parseHeader(Arrays.copyOf(headerBuffer, length), 0, length);
+        headerLength = 0;
+        headerLineLength = 0;
+        if (LOG.isDebugEnabled()) {
+            LOG.debug(requestIdentifier + "Response header: " + header);
+        }
+
+        icapHeaderInformation = null;
+        if (header.containsKey(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE) && !header.get(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE).isEmpty()) {
+            String protocolHeaderLine = header.get(ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE).get(0); // parse protocol line
+            if (protocolHeaderLine != null && !protocolHeaderLine.isBlank()) {
+                icapHeaderInformation = ICAPHeaderParser.getInstance().parseICAPHeaderInformation(protocolHeaderLine);
+                if (LOG.isDebugEnabled()) {
+                    LOG.debug(requestIdentifier + "Received ICAP response status: " + protocolHeaderLine);
+                }
+            }
+        }
+
+        if (icapHeaderInformation == null) {
+            icapHeaderInformation = new ICAPHeaderInformation();
+        }
+
+        icapHeaderInformation.setHeaders(header);
+        return true;
+    }
+
+
+    /**
+     * Collect the header lines of the buffer into the header buffer. Empty lines before the header are skipped.
+     *
+     * @param src the source buffer in read mode
+     * @return true if the empty line at the end of the header was found
+     */
+    private boolean parseHeaderLines(ByteBuffer src) {
+        while (src.hasRemaining()) {
+            byte b = src.get();
+            if (b == '\n') {
+                if (headerLineLength > 0) {
+                    appendHeader(b);
+                    headerLineLength = 0;
+                } else if (headerLength > 0) {
+                    return true;
+                }
+            } else if (b != '\r') {
+                appendHeader(b);
+                headerLineLength++;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Append a byte to the header buffer
+     *
+     * @param b the byte
+     */
+    private void appendHeader(byte b) {
+        if (headerLength >= headerBuffer.length) {
+            headerBuffer = Arrays.copyOf(headerBuffer, headerBuffer.length * 2);
+        }
+
+        headerBuffer[headerLength++] = b;
+    }
+
+
+    /**
+     * Read the content of a modified response
+     *
+     * @return true if the content is completely read
+     * @throws IOException In case of an I/O error
+     */
+    private boolean readContent() throws IOException {
+        while (true) {
+            inbound.flip();
+            boolean ended = contentDecoder.decode(inbound, contentOutputStream);
+            inbound.compact();
+            if (ended) {
+                return true;
+            }
+
+            int readBytes = channel.read(inbound);
+            if (readBytes < 0) {
+                return true;
+            }
+
+            if (readBytes == 0) {
+                return false;
+            }
+
+            updateDeadline(readTimeout);
+        }
+    }
+
+
+    /**
+     * Create the content decoder of the encapsulated message, e.g. Encapsulated: res-hdr=0, res-body=75.
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @return the content decoder or null if there is no encapsulated information
+     */
+    private ICAPNioContentDecoder createContentDecoder(ICAPHeaderInformation icapHeaderInformation) {
+        if (!icapHeaderInformation.containsHeader(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
+            return null;
+        }
+
+        for (String value : icapHeaderInformation.getHeaderValues(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
+            int idx = value.indexOf('=');
+            if (idx > 0 && value.substring(0, idx).trim().endsWith("-body")) {
+                try {
+                    return new ICAPNioContentDecoder(Long.parseLong(value.substring(idx + 1).trim()), !value.startsWith("null-body"));
+                } catch (NumberFormatException e) {
+                    LOG.debug(requestIdentifier + "Invalid encapsulated value [" + value + "]");
+                }
+            }
+        }
+
+        return null;
+    }
+
+
+    /**
+     * Complete the exchange
+     */
+    private void complete() {
+        close();
+        result.complete(icapHeaderInformation);
+    }
+
+
+    /**
+     * Update the deadline
+     *
+     * @param timeout the timeout in milliseconds, zero is interpreted as an infinite timeout
+     */
+    private void updateDeadline(int timeout) {
+        if (timeout > 0) {
+            deadline = System.nanoTime() + timeout * 1_000_000L;
+        } else {
+            deadline = 0;
+        }
+    }
+
+
+    /**
+     * Close the channel
+     */
+    private void close() {
+        state = State.DONE;
+        if (selectionKey != null) {
+            selectionKey.cancel();
+        }
+
+        if (channel != null) {
+            if (LOG.isDebugEnabled()) {
+                LOG.debug(requestIdentifier + "Close channel of [" + host + ":" + port + "]");
+            }
+
+            channel.close();
+        }
+    }
+}
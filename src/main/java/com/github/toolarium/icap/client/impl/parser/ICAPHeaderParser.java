@@ -0,0 +1,292 @@
+/*
+ * ICAPHeaderParser.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.parser;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.dto.ICAPHeaderMap;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+
+/**
+ * Defines the byte level ICAP parser. In difference to the {@link ICAPParser} it works directly on the buffer of the response
+ * header: the well-known header names are interned and the values are only decoded and split when a header is read.
+ * The parsed header has the same content as the header of the {@link ICAPParser}.
+ *
+ * @author patrick
+ */
+public final class ICAPHeaderParser {
+    private static final String PROTOCOL = "ICAP";
+    private static final String VERSION = "1.0";
+    private static final String PROTOCOL_PREFIX = PROTOCOL + "/";
+    private static final int STATUS_OFFSET = PROTOCOL_PREFIX.length() + VERSION.length() + 1;
+    private static final int MESSAGE_OFFSET = STATUS_OFFSET + 4;
+    private static final String HEADER_KEY_DATE = "Date";
+    private static final String[] KNOWN_HEADERS = {
+        ICAPConstants.HEADER_KEY_SERVER, ICAPConstants.HEADER_KEY_CONNECTION, ICAPConstants.HEADER_KEY_ISTAG, ICAPConstants.HEADER_KEY_CONTENT_LENGTH,
+        ICAPConstants.HEADER_KEY_TRANSFER_ENCODING, ICAPConstants.HEADER_KEY_ENCAPSULATED, ICAPConstants.HEADER_KEY_PREVIEW, ICAPConstants.HEADER_KEY_ALLOW,
+        ICAPConstants.HEADER_KEY_OPTIONS_TTL, ICAPConstants.HEADER_KEY_TRANSFER_PREVIEW, ICAPConstants.HEADER_KEY_TRANSFER_IGNORE,
+        ICAPConstants.HEADER_KEY_TRANSFER_COMPLETE, ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND, ICAPConstants.HEADER_KEY_X_INFECTION_FOUND,
+        ICAPConstants.HEADER_KEY_X_BLOCKED, ICAPConstants.HEADER_KEY_X_VIRUS_ID, ICAPConstants.HEADER_KEY_X_VIRUS_NAME, ICAPConstants.HEADER_KEY_X_BLOCK_REASON,
+        ICAPConstants.HEADER_KEY_X_BLOCK_RESULT, HEADER_KEY_DATE};
+    private static final String[][] KNOWN_HEADER_NAMES = createKnownHeaderNames();
+    private static final byte[][][] KNOWN_HEADER_BYTES = createKnownHeaderBytes();
+
+
+    /**
+     * Private class, the only instance of the singelton which will be created by accessing the holder class.
+     *
+     * @author patrick
+     */
+    private static class HOLDER {
+        static final ICAPHeaderParser INSTANCE = new ICAPHeaderParser();
+    }
+
+
+    /**
+     * Constructor
+     */
+    private ICAPHeaderParser() {
+        // NOP
+    }
+
+
+    /**
+     * Get the instance
+     *
+     * @return the instance
+     */
+    public static ICAPHeaderParser getInstance() {
+        return HOLDER.INSTANCE;
+    }
+
+
+    /**
+     * Parse the protocol line, e.g. ICAP/1.0 200 OK
+     *
+     * @param protocolHeaderLine the protocol line
+     * @return the parsed header information
+     */
+    public ICAPHeaderInformation parseICAPHeaderInformation(String protocolHeaderLine) {
+        ICAPHeaderInformation headerInformation = new ICAPHeaderInformation();
+        if (protocolHeaderLine == null || protocolHeaderLine.length() < MESSAGE_OFFSET || !protocolHeaderLine.startsWith(PROTOCOL_PREFIX)) {
+            return headerInformation;
+        }
+
+        int versionOffset = PROTOCOL_PREFIX.length();
+        if (protocolHeaderLine.charAt(versionOffset) != VERSION.charAt(0) || protocolHeaderLine.charAt(versionOffset + 2) != VERSION.charAt(2)
+            || !isWhitespace(protocolHeaderLine.charAt(STATUS_OFFSET - 1)) || !isWhitespace(protocolHeaderLine.charAt(MESSAGE_OFFSET - 1))) {
+            return headerInformation;
+        }
+
+        int status = 0;
+        for (int i = STATUS_OFFSET; i < MESSAGE_OFFSET - 1; i++) {
+            char c = protocolHeaderLine.charAt(i);
+            if (c < '0' || c > '9') {
+                return headerInformation;
+            }
+
+            status = status * 10 + (c - '0');
+        }
+
+        String version = VERSION;
+        if (protocolHeaderLine.charAt(versionOffset + 1) != VERSION.charAt(1)) {
+            version = protocolHeaderLine.substring(versionOffset, versionOffset + VERSION.length());
+        }
+
+        headerInformation.setProtocol(PROTOCOL);
+        headerInformation.setVersion(version);
+        headerInformation.setStatus(status);
+        headerInformation.setMessage(protocolHeaderLine.substring(MESSAGE_OFFSET));
+        return headerInformation;
+    }
+
+
+    /**
+     * Parse a raw header into an {@link ICAPHeaderMap}. The lines are separated by CRLF or a single CR or LF and empty lines
+     * are ignored. The returned values reference the buffer, it must not be modified afterwards.
+     *
+     * @param buffer the buffer which contains the raw header
+     * @param offset the offset of the header
+     * @param length the length of the header
+     * @return the parsed header
+     */
+    public Map<String, List<String>> parseHeader(byte[] buffer, int offset, int length) {
+        /****SAMPLE:****
+         * ICAP/1.0 204 Unmodified
+         * Server: C-ICAP/0.1.6
+         * Connection: keep-alive
+         * ISTag: CI0001-000-0978-6918203
+         */
+        Map<String, List<String>> headers = new ICAPHeaderMap();
+        String key = ICAPConstants.HEADER_KEY_X_ICAP_STATUSLINE;
+        ICAPHeaderValues values = null;
+        int end = offset + length;
+        int lineStart = offset;
+        while (lineStart < end) {
+            int lineEnd = lineStart;
+            int idx = -1;
+            while (lineEnd < end && buffer[lineEnd] != '\r' && buffer[lineEnd] != '\n') {
+                if (idx < 0 && buffer[lineEnd] == ':') {
+                    idx = lineEnd;
+                }
+
+                lineEnd++;
+            }
+
+            if (lineEnd > lineStart) {
+                int valueStart = lineStart;
+                if (idx >= 0) {
+                    valueStart = idx + 1;
+                }
+
+                if (idx > lineStart) {
+                    key = getHeaderName(buffer, lineStart, idx);
+                    values = null;
+                }
+
+                if (values == null) {
+                    values = (ICAPHeaderValues) headers.get(key);
+                    if (values == null) {
+                        values = new ICAPHeaderValues(buffer, getSeparator(key));
+                        headers.put(key, values);
+                    }
+                }
+
+                int valueEnd = lineEnd;
+                while (valueStart < valueEnd && (buffer[valueStart] & 0xff) <= ' ') {
+                    valueStart++;
+                }
+
+                while (valueEnd > valueStart && (buffer[valueEnd - 1] & 0xff) <= ' ') {
+                    valueEnd--;
+                }
+
+                values.addRange(valueStart, valueEnd);
+            }
+
+            lineStart = lineEnd + 1;
+        }
+
+        return headers;
+    }
+
+
+    /**
+     * Get the header name, a well-known header name is returned without allocation.
+     *
+     * @param buffer the buffer
+     * @param start the start offset of the name
+     * @param end the end offset (exclusive) of the name
+     * @return the header name
+     */
+    private String getHeaderName(byte[] buffer, int start, int end) {
+        int length = end - start;
+        if (length < KNOWN_HEADER_BYTES.length) {
+            byte[][] candidates = KNOWN_HEADER_BYTES[length];
+            for (int i = 0; i < candidates.length; i++) {
+                if (equals(candidates[i], buffer, start)) {
+                    return KNOWN_HEADER_NAMES[length][i];
+                }
+            }
+        }
+
+        return new String(buffer, start, length, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Get the separator of the values of a header
+     *
+     * @param key the header name
+     * @return the separator or 0 in case the value is not split
+     */
+    private byte getSeparator(String key) {
+        if (key.equalsIgnoreCase(HEADER_KEY_DATE)) {
+            return 0;
+        } else if (key.equalsIgnoreCase(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND)) {
+            return ';';
+        } else if (key.equalsIgnoreCase(ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND)) {
+            return '\n';
+        }
+
+        return ',';
+    }
+
+
+    /**
+     * Compare the name with the buffer
+     *
+     * @param name the name
+     * @param buffer the buffer
+     * @param start the start offset in the buffer
+     * @return true if the buffer contains the name at the given offset
+     */
+    private boolean equals(byte[] name, byte[] buffer, int start) {
+        for (int i = 0; i < name.length; i++) {
+            if (name[i] != buffer[start + i]) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+
+    /**
+     * Check if the character is a whitespace in the sense of a regular expression
+     *
+     * @param c the character
+     * @return true if it is a whitespace
+     */
+    private boolean isWhitespace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+
+    /**
+     * Create the well-known header names grouped by their length
+     *
+     * @return the header names
+     */
+    private static String[][] createKnownHeaderNames() {
+        int maxLength = 0;
+        for (String name : KNOWN_HEADERS) {
+            maxLength = Math.max(maxLength, name.length());
+        }
+
+        String[][] names = new String[maxLength + 1][0];
+        for (String name : KNOWN_HEADERS) {
+            String[] candidates = Arrays.copyOf(names[name.length()], names[name.length()].length + 1);
+            candidates[candidates.length - 1] = name;
+            names[name.length()] = candidates;
+        }
+
+        return names;
+    }
+
+
+    /**
+     * Create the bytes of the well-known header names grouped by their length
+     *
+     * @return the header name bytes
+     */
+    private static byte[][][] createKnownHeaderBytes() {
+        String[][] names = KNOWN_HEADER_NAMES;
+        byte[][][] bytes = new byte[names.length][][];
+        for (int i = 0; i < names.length; i++) {
+            bytes[i] = new byte[names[i].length][];
+            for (int j = 0; j < names[i].length; j++) {
+                bytes[i][j] = names[i][j].getBytes(StandardCharsets.US_ASCII);
+            }
+        }
+
+        return bytes;
+    }
+}
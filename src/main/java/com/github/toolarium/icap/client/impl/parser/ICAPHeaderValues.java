@@ -0,0 +1,210 @@
+/*
+ * ICAPHeaderValues.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.parser;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+
+/**
+ * Implements the values of a header which are parsed by the {@link ICAPHeaderParser}. The list only references the raw
+ * value ranges of the response buffer; the values are decoded and split on the first access.
+ *
+ * @author patrick
+ */
+final class ICAPHeaderValues extends AbstractList<String> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 4925187064512987309L;
+    private static final byte NO_SEPARATOR = 0;
+    private byte[] buffer;
+    private byte separator;
+    private int[] ranges;
+    private int rangeCount;
+    private List<String> values;
+
+
+    /**
+     * Constructor for ICAPHeaderValues
+     *
+     * @param buffer the buffer which contains the raw values
+     * @param separator the separator of the values or 0 in case the value is not split
+     */
+    ICAPHeaderValues(byte[] buffer, byte separator) {
+        this.buffer = buffer;
+        this.separator = separator;
+        this.ranges = new int[2];
+        this.rangeCount = 0;
+        this.values = null;
+    }
+
+
+    /**
+     * Add the range of a raw value
+     *
+     * @param start the start offset of the raw value
+     * @param end the end offset (exclusive) of the raw value
+     */
+    void addRange(int start, int end) {
+        if (values != null) {
+            split(start, end);
+            return;
+        }
+
+        if (rangeCount + 2 > ranges.length) {
+            ranges = Arrays.copyOf(ranges, ranges.length * 2);
+        }
+
+        ranges[rangeCount++] = start;
+        ranges[rangeCount++] = end;
+    }
+
+
+    /**
+     * @see java.util.AbstractList#get(int)
+     */
+    @Override
+    public String get(int index) {
+        return getValues().get(index);
+    }
+
+
+    /**
+     * @see java.util.AbstractCollection#size()
+     */
+    @Override
+    public int size() {
+        return getValues().size();
+    }
+
+
+    /**
+     * @see java.util.AbstractList#set(int, java.lang.Object)
+     */
+    @Override
+    public String set(int index, String element) {
+        return getValues().set(index, element);
+    }
+
+
+    /**
+     * @see java.util.AbstractList#add(int, java.lang.Object)
+     */
+    @Override
+    public void add(int index, String element) {
+        getValues().add(index, element);
+        modCount++;
+    }
+
+
+    /**
+     * @see java.util.AbstractList#remove(int)
+     */
+    @Override
+    public String remove(int index) {
+        String result = getValues().remove(index);
+        modCount++;
+        return result;
+    }
+
+
+    /**
+     * Get the values, the raw values are decoded and split on the first access.
+     *
+     * @return the values
+     */
+    private List<String> getValues() {
+        if (values == null) {
+            values = new ArrayList<String>(rangeCount);
+            for (int i = 0; i < rangeCount; i += 2) {
+                split(ranges[i], ranges[i + 1]);
+            }
+
+            ranges = null;
+            rangeCount = 0;
+        }
+
+        return values;
+    }
+
+
+    /**
+     * Split a raw value by the separator. The values are trimmed and trailing empty values are removed, the same as
+     * {@link String#split(String)} followed by {@link String#trim()} does.
+     *
+     * @param start the start offset of the raw value
+     * @param end the end offset (exclusive) of the raw value
+     */
+    private void split(int start, int end) {
+        if (separator == NO_SEPARATOR) {
+            values.add(decode(start, end));
+            return;
+        }
+
+        int keep = values.size();
+        boolean found = false;
+        int segmentStart = start;
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == separator) {
+                values.add(decode(segmentStart, i));
+                if (i > segmentStart) {
+                    keep = values.size();
+                }
+
+                segmentStart = i + 1;
+                found = true;
+            }
+        }
+
+        values.add(decode(segmentStart, end));
+        if (end > segmentStart) {
+            keep = values.size();
+        }
+
+        if (found) {
+            values.subList(keep, values.size()).clear();
+        }
+    }
+
+
+    /**
+     * Decode a trimmed value
+     *
+     * @param start the start offset
+     * @param end the end offset (exclusive)
+     * @return the value
+     */
+    private String decode(int start, int end) {
+        int from = start;
+        int to = end;
+        while (from < to && (buffer[from] & 0xff) <= ' ') {
+            from++;
+        }
+
+        while (to > from && (buffer[to - 1] & 0xff) <= ' ') {
+            to--;
+        }
+
+        if (from == to) {
+            return "";
+        }
+
+        return new String(buffer, from, to - from, StandardCharsets.UTF_8);
+    }
+
+
+    /**
+     * Serialize the values as a plain list
+     *
+     * @return the list to serialize
+     */
+    private Object writeReplace() {
+        return new ArrayList<String>(getValues());
+    }
+}
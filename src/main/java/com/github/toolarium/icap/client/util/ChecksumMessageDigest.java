@@ -0,0 +1,90 @@
+/*
+ * ChecksumMessageDigest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.util;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.zip.Checksum;
+
+
+/**
+ * Adapts a non-cryptographic {@link Checksum} (e.g. CRC32C) to a {@link MessageDigest}. It can be used where only accidental
+ * differences have to be detected, e.g. to compare the sent and the returned content, and is considerably faster than SHA-256.
+ *
+ * @author patrick
+ */
+final class ChecksumMessageDigest extends MessageDigest {
+    private static final int DIGEST_LENGTH = 4;
+    private final Checksum checksum;
+
+
+    /**
+     * Constructor for ChecksumMessageDigest
+     *
+     * @param algorithm the name of the algorithm
+     * @param checksum the checksum
+     */
+    ChecksumMessageDigest(String algorithm, Checksum checksum) {
+        super(algorithm);
+        this.checksum = checksum;
+    }
+
+
+    /**
+     * @see java.security.MessageDigestSpi#engineGetDigestLength()
+     */
+    @Override
+    protected int engineGetDigestLength() {
+        return DIGEST_LENGTH;
+    }
+
+
+    /**
+     * @see java.security.MessageDigestSpi#engineUpdate(byte)
+     */
+    @Override
+    protected void engineUpdate(byte input) {
+        checksum.update(input);
+    }
+
+
+    /**
+     * @see java.security.MessageDigestSpi#engineUpdate(byte[], int, int)
+     */
+    @Override
+    protected void engineUpdate(byte[] input, int offset, int len) {
+        checksum.update(input, offset, len);
+    }
+
+
+    /**
+     * @see java.security.MessageDigestSpi#engineUpdate(java.nio.ByteBuffer)
+     */
+    @Override
+    protected void engineUpdate(ByteBuffer input) {
+        checksum.update(input);
+    }
+
+
+    /**
+     * @see java.security.MessageDigestSpi#engineDigest()
+     */
+    @Override
+    protected byte[] engineDigest() {
+        long value = checksum.getValue();
+        checksum.reset();
+        return new byte[] {(byte) (value >>> 24), (byte) (value >>> 16), (byte) (value >>> 8), (byte) value};
+    }
+
+
+    /**
+     * @see java.security.MessageDigestSpi#engineReset()
+     */
+    @Override
+    protected void engineReset() {
+        checksum.reset();
+    }
+}
@@ -5,6 +5,8 @@
  */
 package com.github.toolarium.icap.client.util;
 
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
 import java.io.BufferedInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.File;
@@ -14,11 +16,21 @@ import java.io.InputStream;
 import java.io.OutputStream;
 import java.math.BigInteger;
 import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.security.DigestOutputStream;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.text.CharacterIterator;
 import java.text.StringCharacterIterator;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 
 /**
@@ -30,6 +42,15 @@ public final class ICAPClientUtil {
     /** INTERNAL COPY BUFFER */
     public static final int INTERNAL_BUFFER_SIZE = 1024;
 
+    /** The cryptographic message digest algorithm SHA-256 */
+    public static final String SHA_256 = "SHA-256";
+
+    /** The non-cryptographic checksum CRC32C, supported as message digest algorithm */
+    public static final String CRC32C = "CRC32C";
+
+    /** The non-cryptographic checksum CRC32, supported as message digest algorithm */
+    public static final String CRC32 = "CRC32";
+
 
     /**
      * Private class, the only instance of the singelton which will be created by accessing the holder class.
@@ -41,6 +62,19 @@ public final class ICAPClientUtil {
     }
 
 
+    /**
+     * Private class, the default executor of the asynchronous requests which will be created by accessing the holder class.
+     */
+    private static class DefaultExecutorHolder {
+        private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+        static final ExecutorService INSTANCE = Executors.newCachedThreadPool(r -> {
+            Thread thread = new Thread(r, "icap-client-" + THREAD_COUNTER.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+
     /**
      * Constructor
      */
@@ -59,6 +93,17 @@ public final class ICAPClientUtil {
     }
 
 
+    /**
+     * Get the default executor of the asynchronous requests. The requests are blocking, therefore the executor creates
+     * the (daemon) threads on demand.
+     *
+     * @return the default executor
+     */
+    public Executor getDefaultExecutor() {
+        return DefaultExecutorHolder.INSTANCE;
+    }
+
+
     /**
      * Read the file content
      *
@@ -157,13 +202,20 @@ public final class ICAPClientUtil {
     
     
     /**
-     * Create a message digest
+     * Create a message digest. Besides the algorithms of the security providers the non-cryptographic checksums 
+     * {@link #CRC32C} and {@link #CRC32} are supported.
      *
      * @param algorithm the algorithm
      * @return the algorithm
      * @throws IOException In case the message digest could not be created
      */
     public MessageDigest createMessageDigest(String algorithm) throws IOException {
+        if (CRC32C.equalsIgnoreCase(algorithm)) {
+            return new ChecksumMessageDigest(CRC32C, new java.util.zip.CRC32C());
+        } else if (CRC32.equalsIgnoreCase(algorithm)) {
+            return new ChecksumMessageDigest(CRC32, new java.util.zip.CRC32());
+        }
+
         try {
             return MessageDigest.getInstance(algorithm);
         } catch (NoSuchAlgorithmException e) {
@@ -180,7 +232,7 @@ public final class ICAPClientUtil {
      * @throws IOException In case of an I/O error
      */
     public String hashFile(File file) throws IOException {
-        return hashFile("SHA-256", file);
+        return hashFile(SHA_256, file);
     }
   
     
@@ -203,6 +255,34 @@ public final class ICAPClientUtil {
     }
     
 
+    /**
+     * Update a message digest with a region of a file channel. The position of the file channel is not changed.
+     *
+     * @param messageDigest the message digest
+     * @param fileChannel the file channel
+     * @param position the start position of the region
+     * @param length the length of the region
+     * @throws IOException In case of an I/O error
+     */
+    public void updateMessageDigest(MessageDigest messageDigest, FileChannel fileChannel, long position, long length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(64 * INTERNAL_BUFFER_SIZE);
+        long currentPosition = position;
+        long endPosition = position + length;
+        while (currentPosition < endPosition) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), endPosition - currentPosition));
+            int readBytes = fileChannel.read(buffer, currentPosition);
+            if (readBytes < 0) {
+                break;
+            }
+
+            buffer.flip();
+            messageDigest.update(buffer);
+            currentPosition += readBytes;
+        }
+    }
+
+
     /**
      * Convert a message digest into a string
      *
@@ -213,4 +293,87 @@ public final class ICAPClientUtil {
     public String messageDigestToString(String algorithm, MessageDigest messageDigest) {
         return "{" + algorithm + "}" + String.format("%0" + (messageDigest.getDigestLength() * 2) + "x", new BigInteger(1, messageDigest.digest()));
     }
+
+
+    /**
+     * Read the names of the found threats of an ICAP response. The names are taken from the <code>X-Infection-Found</code> (Threat=),
+     * <code>X-Violations-Found</code>, <code>X-Virus-ID</code> and <code>X-Virus-Name</code> header. In case none of them is set, the
+     * values of the <code>X-Blocked</code> and <code>X-Block-Reason</code> header are returned.
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @return the names of the found threats, an empty list if there are none
+     */
+    public List<String> readThreatNames(ICAPHeaderInformation icapHeaderInformation) {
+        final Set<String> threatNames = new LinkedHashSet<String>();
+        if (icapHeaderInformation == null || icapHeaderInformation.getHeaders() == null) {
+            return new ArrayList<String>(threatNames);
+        }
+
+        // e.g. X-Infection-Found: Type=0; Resolution=2; Threat=Eicar-Signature;
+        for (String value : getHeaderValues(icapHeaderInformation, ICAPConstants.HEADER_KEY_X_INFECTION_FOUND)) {
+            if (value.trim().startsWith("Threat=")) {
+                addThreatName(threatNames, value.trim().substring("Threat=".length()));
+            }
+        }
+
+        // e.g. X-Violations-Found: 1 followed by filename, threat name, violation id and disposition per violation
+        List<String> violations = getHeaderValues(icapHeaderInformation, ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND);
+        for (int i = 2; i < violations.size(); i += 4) {
+            addThreatName(threatNames, violations.get(i));
+        }
+
+        for (String value : getHeaderValues(icapHeaderInformation, ICAPConstants.HEADER_KEY_X_VIRUS_ID)) {
+            addThreatName(threatNames, value);
+        }
+
+        for (String value : getHeaderValues(icapHeaderInformation, ICAPConstants.HEADER_KEY_X_VIRUS_NAME)) {
+            addThreatName(threatNames, value);
+        }
+
+        if (threatNames.isEmpty()) {
+            for (String value : getHeaderValues(icapHeaderInformation, ICAPConstants.HEADER_KEY_X_BLOCKED)) {
+                addThreatName(threatNames, value);
+            }
+
+            for (String value : getHeaderValues(icapHeaderInformation, ICAPConstants.HEADER_KEY_X_BLOCK_REASON)) {
+                addThreatName(threatNames, value);
+            }
+        }
+
+        return new ArrayList<String>(threatNames);
+    }
+
+
+    /**
+     * Get the values of a header
+     *
+     * @param icapHeaderInformation the ICAP header information
+     * @param header the header
+     * @return the values, an empty list if the header is not set
+     */
+    private List<String> getHeaderValues(ICAPHeaderInformation icapHeaderInformation, String header) {
+        List<String> values = icapHeaderInformation.getHeaderValues(header);
+        if (values == null) {
+            return new ArrayList<String>();
+        }
+        return values;
+    }
+
+
+    /**
+     * Add a threat name
+     *
+     * @param threatNames the threat names
+     * @param threatName the threat name to add
+     */
+    private void addThreatName(Set<String> threatNames, String threatName) {
+        if (threatName == null) {
+            return;
+        }
+
+        String name = threatName.trim();
+        if (!name.isEmpty() && !"-".equals(name)) {
+            threatNames.add(name);
+        }
+    }
 }
@@ -6,6 +6,7 @@
 package com.github.toolarium.icap.client;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.junit.jupiter.api.Assertions.fail;
 
@@ -15,10 +16,13 @@ import com.github.toolarium.icap.client.dto.ICAPMode;
 import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
 import com.github.toolarium.icap.client.dto.ICAPResource;
 import com.github.toolarium.icap.client.exception.ContentBlockedException;
+import com.github.toolarium.icap.client.impl.nio.ICAPEventLoop;
 import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.util.Base64;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
 import org.junit.jupiter.api.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -634,4 +638,65 @@ public class ICAPClientUsageTest extends AbstractICAPClientTest {
             fail();
         }
     }
+
+
+    /**
+     * The usage how to use the asynchronous client
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void usageAsync_RESPMOD() throws Exception {
+        ICAPClient icapClient = ICAPClientFactory.getInstance().getICAPClient(LOCALHOST, 1344, SERVICENAME);
+
+        ByteArrayInputStream cleanInputStream = new ByteArrayInputStream(ICAPTestVirusConstants.REQUEST_BODY_CLEAN.getBytes());
+        CompletableFuture<ICAPHeaderInformation> clean = icapClient.validateResourceAsync(ICAPMode.RESPMOD, 
+                                                                                           new ICAPRequestInformation("usera", "asyncfile"), 
+                                                                                           new ICAPResource("test-file.com", cleanInputStream, ICAPTestVirusConstants.REQUEST_BODY_CLEAN.length()));
+
+        ByteArrayInputStream virusInputStream = new ByteArrayInputStream(ICAPTestVirusConstants.REQUEST_BODY_VIRUS.getBytes());
+        CompletableFuture<ICAPHeaderInformation> virus = icapClient.validateResourceAsync(ICAPMode.RESPMOD, 
+                                                                                           new ICAPRequestInformation("usera", "asyncfile"), 
+                                                                                           new ICAPResource("test-virus-file.com", virusInputStream, ICAPTestVirusConstants.REQUEST_BODY_VIRUS.length()));
+
+        // If the future completes normally the resource can be used and is valid.
+        assertEquals(204, clean.get().getStatus());
+
+        // A blocked resource completes the future exceptionally with a ContentBlockedException.
+        ExecutionException e = assertThrows(ExecutionException.class, () -> virus.get());
+        assertTrue(e.getCause() instanceof ContentBlockedException);
+        assertTrue(((ContentBlockedException) e.getCause()).getICAPHeaderInformation().containsHeader(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND));
+    }
+
+
+    /**
+     * Test asynchronous usage over the non-blocking transport
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void usageNonBlocking_RESPMOD() throws Exception {
+        try (ICAPEventLoop eventLoop = new ICAPEventLoop(1)) {
+            // the event loop as executor sends the asynchronous requests over the non-blocking transport
+            ICAPClientFactory.getInstance().setExecutor(eventLoop);
+            ICAPClient icapClient = ICAPClientFactory.getInstance().getICAPClient(LOCALHOST, 1344, SERVICENAME);
+
+            ByteArrayInputStream cleanInputStream = new ByteArrayInputStream(ICAPTestVirusConstants.REQUEST_BODY_CLEAN.getBytes());
+            CompletableFuture<ICAPHeaderInformation> clean = icapClient.validateResourceAsync(ICAPMode.RESPMOD, 
+                                                                                               new ICAPRequestInformation("usera", "nonblockingfile"), 
+                                                                                               new ICAPResource("test-file.com", cleanInputStream, ICAPTestVirusConstants.REQUEST_BODY_CLEAN.length()));
+
+            ByteArrayInputStream virusInputStream = new ByteArrayInputStream(ICAPTestVirusConstants.REQUEST_BODY_VIRUS.getBytes());
+            CompletableFuture<ICAPHeaderInformation> virus = icapClient.validateResourceAsync(ICAPMode.RESPMOD, 
+                                                                                               new ICAPRequestInformation("usera", "nonblockingfile"), 
+                                                                                               new ICAPResource("test-virus-file.com", virusInputStream, ICAPTestVirusConstants.REQUEST_BODY_VIRUS.length()));
+
+            assertEquals(204, clean.get().getStatus());
+            ExecutionException e = assertThrows(ExecutionException.class, () -> virus.get());
+            assertTrue(e.getCause() instanceof ContentBlockedException);
+            assertTrue(((ContentBlockedException) e.getCause()).getICAPHeaderInformation().containsHeader(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND));
+        } finally {
+            ICAPClientFactory.getInstance().setExecutor(null);
+        }
+    }
 }
@@ -0,0 +1,406 @@
+/*
+ * ICAPOfflineTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client;
+
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createContent;
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createResource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.exception.ContentBlockedException;
+import com.github.toolarium.icap.client.impl.ICAPClientImpl;
+import com.github.toolarium.icap.client.impl.ICAPConnectionManagerImpl;
+import com.github.toolarium.icap.client.impl.ICAPPooledConnectionManagerImpl;
+import com.github.toolarium.icap.client.impl.nio.ICAPEventLoop;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import com.github.toolarium.icap.client.util.ICAPClientUtil;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the client against the {@link ICAPTestServer}, no external ICAP server is needed.
+ *
+ * @author patrick
+ */
+public class ICAPOfflineTest {
+    private ICAPTestServer server;
+
+
+    /**
+     * Start the server
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @BeforeEach
+    public void startServer() throws IOException {
+        server = new ICAPTestServer().start();
+    }
+
+
+    /**
+     * Stop the server
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @AfterEach
+    public void stopServer() throws IOException {
+        server.close();
+    }
+
+
+    /**
+     * Test an unmodified resource with and without allow 204
+     *
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    @Test
+    public void testUnmodified() throws IOException, ContentBlockedException {
+        ICAPClient client = createClient(new ICAPConnectionManagerImpl());
+        for (ICAPMode mode : new ICAPMode[] {ICAPMode.REQMOD, ICAPMode.RESPMOD}) {
+            ICAPHeaderInformation icapHeaderInformation = validateResource(client, mode, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(204, icapHeaderInformation.getStatus());
+            assertEquals("[\"TEST-1\"]", "" + icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_ISTAG));
+
+            icapHeaderInformation = validateResource(client, mode, false, "ABCDEFG".getBytes(StandardCharsets.US_ASCII));
+            assertEquals(200, icapHeaderInformation.getStatus());
+        }
+
+        // the echoed content is only verified in case of a response
+        ICAPHeaderInformation icapHeaderInformation = validateResource(client, ICAPMode.RESPMOD, false, "ABCDEFG".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("[true]", "" + icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT));
+
+        assertEquals(5, server.getRequestCount());
+    }
+
+
+    /**
+     * Test a resource which is bigger than the preview
+     *
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    @Test
+    public void testPreview() throws IOException, ContentBlockedException {
+        ICAPClient client = createClient(new ICAPConnectionManagerImpl());
+        byte[] content = createContent("abcdefghijklmnopqrstuvwxyz", 40000);
+        assertEquals(204, validateResource(client, ICAPMode.RESPMOD, true, content).getStatus());
+
+        ICAPHeaderInformation icapHeaderInformation = validateResource(client, ICAPMode.RESPMOD, false, content);
+        assertEquals(200, icapHeaderInformation.getStatus());
+        assertEquals("[true]", "" + icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT));
+    }
+
+
+    /**
+     * Test a threat
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testThreat() throws IOException {
+        ICAPClient client = createClient(new ICAPConnectionManagerImpl());
+        byte[] content = ICAPTestVirusConstants.REQUEST_BODY_VIRUS.getBytes(StandardCharsets.US_ASCII);
+        for (ICAPMode mode : new ICAPMode[] {ICAPMode.REQMOD, ICAPMode.RESPMOD}) {
+            ContentBlockedException ex = assertThrows(ContentBlockedException.class, () -> validateResource(client, mode, true, content));
+            assertEquals(200, ex.getICAPHeaderInformation().getStatus());
+            assertEquals("Threat=" + ICAPTestServer.THREAT_NAME, ex.getICAPHeaderInformation().getHeaders().get(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND).get(2));
+            assertNotNull(ex.getContent());
+            if (ICAPMode.RESPMOD.equals(mode)) {
+                assertTrue(ex.getContent().contains(ICAPTestServer.THREAT_NAME)); // block page
+            }
+        }
+
+        // configured verdict
+        server.setVerdict(ICAPTestServer.Verdict.THREAT);
+        assertThrows(ContentBlockedException.class, () -> validateResource(client, ICAPMode.RESPMOD, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII)));
+    }
+
+
+    /**
+     * Test the scan result of a threat and a valid resource
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testScanResult() throws Exception {
+        ICAPClient client = createClient(new ICAPConnectionManagerImpl());
+        ICAPRequestInformation requestInformation = new ICAPRequestInformation("testUser", "test");
+        byte[] content = ICAPTestVirusConstants.REQUEST_BODY_VIRUS.getBytes(StandardCharsets.US_ASCII);
+
+        ICAPScanResult scanResult = client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource(content));
+        assertEquals(ICAPScanResult.Verdict.THREAT, scanResult.getVerdict());
+        assertTrue(scanResult.isBlocked());
+        assertEquals("[" + ICAPTestServer.THREAT_NAME + "]", "" + scanResult.getThreatNames());
+        assertEquals(200, scanResult.getICAPHeaderInformation().getStatus());
+        assertTrue(scanResult.getContent().contains(ICAPTestServer.THREAT_NAME)); // block page
+
+        scanResult = client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource("ABCDEFG".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+        assertEquals("[]", "" + scanResult.getThreatNames());
+        assertEquals(204, scanResult.getICAPHeaderInformation().getStatus());
+
+        // asynchronous over a thread pool and the non-blocking transport
+        assertEquals(ICAPScanResult.Verdict.THREAT, client.scanResourceAsync(ICAPMode.RESPMOD, requestInformation, createResource(content)).get().getVerdict());
+        try (ICAPEventLoop eventLoop = new ICAPEventLoop(1)) {
+            assertEquals(ICAPScanResult.Verdict.THREAT, client.scanResourceAsync(ICAPMode.RESPMOD, requestInformation, createResource(content), eventLoop).get().getVerdict());
+            ExecutionException ex = assertThrows(ExecutionException.class, () -> client.validateResourceAsync(ICAPMode.RESPMOD, requestInformation, createResource(content), eventLoop).get());
+            assertTrue(ex.getCause() instanceof ContentBlockedException);
+
+            // the response is processed and the future is completed on the worker executor and not on the I/O thread
+            String threadName = client.scanResourceAsync(ICAPMode.RESPMOD, requestInformation, createResource(content), eventLoop).thenApply(r -> Thread.currentThread().getName()).get();
+            assertFalse(threadName.startsWith("icap-event-loop"), threadName);
+        }
+    }
+
+
+    /**
+     * Test a modified resource
+     *
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    @Test
+    public void testModified() throws IOException, ContentBlockedException {
+        server.setVerdict(ICAPTestServer.Verdict.MODIFIED).setModifiedContent("replaced");
+        ICAPClient client = createClient(new ICAPConnectionManagerImpl());
+        ICAPHeaderInformation icapHeaderInformation = validateResource(client, ICAPMode.RESPMOD, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII));
+        assertEquals(200, icapHeaderInformation.getStatus());
+        assertFalse(icapHeaderInformation.getHeaders().containsKey(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT));
+    }
+
+
+    /**
+     * Test the message digest which is only computed on demand
+     *
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    @Test
+    public void testMessageDigest() throws IOException, ContentBlockedException {
+        byte[] content = createContent("abcdefghijklmnopqrstuvwxyz", 4000);
+        server.setVerdict(ICAPTestServer.Verdict.ECHO);
+
+        // without compare no message digest is computed, except it is requested
+        ICAPClient client = server.createClient();
+        ICAPHeaderInformation icapHeaderInformation = client.validateResource(ICAPMode.RESPMOD, new ICAPRequestInformation("testUser", "test"), createResource(content));
+        assertEquals(200, icapHeaderInformation.getStatus());
+        assertFalse(icapHeaderInformation.getHeaders().containsKey(ICAPConstants.HEADER_KEY_X_REQUEST_MESSAGE_DIGEST));
+        assertFalse(icapHeaderInformation.getHeaders().containsKey(ICAPConstants.HEADER_KEY_X_RESPONSE_MESSAGE_DIGEST));
+
+        icapHeaderInformation = client.validateResource(ICAPMode.RESPMOD, new ICAPRequestInformation("testUser", "test").setMessageDigest(true), createResource(content));
+        assertTrue(icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_X_REQUEST_MESSAGE_DIGEST).get(0).startsWith("{SHA-256}"));
+        assertEquals(icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_X_REQUEST_MESSAGE_DIGEST), icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_X_RESPONSE_MESSAGE_DIGEST));
+
+        // compare with the checksum
+        client = createClient(new ICAPConnectionManagerImpl()).messageDigestAlgorithm(ICAPClientUtil.CRC32C);
+        icapHeaderInformation = client.validateResource(ICAPMode.RESPMOD, new ICAPRequestInformation("testUser", "test"), createResource(content));
+        assertTrue(icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_X_REQUEST_MESSAGE_DIGEST).get(0).startsWith("{CRC32C}"));
+        assertEquals("[true]", "" + icapHeaderInformation.getHeaders().get(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT));
+
+        icapHeaderInformation = client.validateResource(ICAPMode.RESPMOD, new ICAPRequestInformation("testUser", "test").setMessageDigest(false), createResource(content));
+        assertFalse(icapHeaderInformation.getHeaders().containsKey(ICAPConstants.HEADER_KEY_X_IDENTICAL_CONTENT));
+
+        final ICAPClient invalidClient = client;
+        assertThrows(IllegalArgumentException.class, () -> invalidClient.messageDigestAlgorithm("unknown"));
+    }
+
+
+    /**
+     * Test an injected latency
+     *
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    @Test
+    public void testLatency() throws IOException, ContentBlockedException {
+        ICAPClient client = createClient(new ICAPConnectionManagerImpl());
+        client.options();
+        server.setLatency(300);
+
+        ICAPRequestInformation requestInformation = new ICAPRequestInformation("user", "test").maxReadTimeout(100);
+        assertThrows(SocketTimeoutException.class, () -> client.validateResource(ICAPMode.RESPMOD, requestInformation, createResource("ABCDEFG".getBytes(StandardCharsets.US_ASCII))));
+
+        long start = System.currentTimeMillis();
+        assertEquals(204, validateResource(client, ICAPMode.RESPMOD, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII)).getStatus());
+        assertTrue(System.currentTimeMillis() - start >= 300);
+    }
+
+
+    /**
+     * Test a connection reset
+     *
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    @Test
+    public void testConnectionReset() throws IOException, ContentBlockedException {
+        server.setConnectionReset(2);
+        ICAPClient client = createClient(new ICAPConnectionManagerImpl());
+        assertEquals(204, validateResource(client, ICAPMode.RESPMOD, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII)).getStatus());
+        assertThrows(IOException.class, () -> validateResource(client, ICAPMode.RESPMOD, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(204, validateResource(client, ICAPMode.RESPMOD, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII)).getStatus());
+        assertEquals(1, server.getResetCount());
+    }
+
+
+    /**
+     * Test concurrent requests over persistent connections
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testLoad() throws Exception {
+        final int threads = 8;
+        final int requests = 50;
+        final ICAPClient client = createClient(new ICAPPooledConnectionManagerImpl());
+        final byte[] content = createContent("abcdefghijklmnopqrstuvwxyz", 400);
+        client.options();
+
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+            for (int i = 0; i < threads; i++) {
+                results.add(executor.submit(() -> {
+                    int valid = 0;
+                    for (int j = 0; j < requests; j++) {
+                        if (validateResource(client, ICAPMode.RESPMOD, true, content).getStatus() == 204) {
+                            valid++;
+                        }
+                    }
+                    return valid;
+                }));
+            }
+
+            for (Future<Integer> result : results) {
+                assertEquals(requests, result.get().intValue());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(threads * requests, server.getRequestCount());
+        assertTrue(server.getConnectionCount() <= threads + 1, "Connections: " + server.getConnectionCount());
+    }
+
+
+    /**
+     * Test an unknown service
+     */
+    @Test
+    public void testUnknownService() {
+        ICAPClient client = new ICAPClientImpl(new ICAPConnectionManagerImpl(), new ICAPServiceInformation("localhost", server.getPort(), false, "unknown", 3600), null);
+        assertThrows(IOException.class, () -> validateResource(client, ICAPMode.RESPMOD, true, "ABCDEFG".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals(0, server.getOptionsCount());
+        assertEquals(0, server.getRequestCount());
+    }
+
+
+    /**
+     * Test the default implementation of a client which only implements the methods of the first release
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testDefaultImplementation() throws Exception {
+        final ICAPClient delegate = createClient(new ICAPConnectionManagerImpl());
+        ICAPClient client = new ICAPClient() {
+            @Override
+            public ICAPRemoteServiceConfiguration options() throws IOException {
+                return delegate.options();
+            }
+
+            @Override
+            public ICAPRemoteServiceConfiguration options(ICAPRequestInformation requestInformation) throws IOException {
+                return delegate.options(requestInformation);
+            }
+
+            @Override
+            public ICAPHeaderInformation validateResource(ICAPMode mode, ICAPResource resource) throws IOException, ContentBlockedException {
+                return delegate.validateResource(mode, resource);
+            }
+
+            @Override
+            public ICAPHeaderInformation validateResource(ICAPMode mode, ICAPRequestInformation requestInformation, ICAPResource resource) throws IOException, ContentBlockedException {
+                return delegate.validateResource(mode, requestInformation, resource);
+            }
+
+            @Override
+            public ICAPClient supportCompareVerifyIdenticalContent(boolean supportCompareVerifyIdenticalContent) {
+                return this;
+            }
+        };
+
+        ICAPRequestInformation requestInformation = new ICAPRequestInformation("testUser", "test");
+        byte[] content = ICAPTestVirusConstants.REQUEST_BODY_VIRUS.getBytes(StandardCharsets.US_ASCII);
+        ICAPScanResult scanResult = client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource(content));
+        assertEquals(ICAPScanResult.Verdict.THREAT, scanResult.getVerdict());
+        assertEquals("[" + ICAPTestServer.THREAT_NAME + "]", "" + scanResult.getThreatNames());
+        assertTrue(scanResult.getContent().contains(ICAPTestServer.THREAT_NAME)); // block page
+        assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResourceAsync(ICAPMode.RESPMOD, requestInformation, createResource("ABCDEFG".getBytes(StandardCharsets.US_ASCII))).get().getVerdict());
+        ExecutionException ex = assertThrows(ExecutionException.class, () -> client.validateResourceAsync(ICAPMode.RESPMOD, requestInformation, createResource(content)).get());
+        assertTrue(ex.getCause() instanceof ContentBlockedException);
+
+        // the returned content is not streamed and the performance hints are ignored
+        ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+        assertEquals(ICAPScanResult.Verdict.THREAT, client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource(content), contentOutputStream).getVerdict());
+        assertEquals(0, contentOutputStream.size());
+        assertSame(client, client.blockSize(4096).responseMemoryThreshold(0).messageDigestAlgorithm("CRC32C"));
+    }
+
+
+    /**
+     * Create the client
+     *
+     * @param connectionManager the connection manager
+     * @return the client
+     */
+    private ICAPClient createClient(ICAPConnectionManager connectionManager) {
+        return new ICAPClientImpl(connectionManager, server.createServiceInformation(), null)
+                .supportCompareVerifyIdenticalContent(true);
+    }
+
+
+    /**
+     * Validate a resource
+     *
+     * @param client the client
+     * @param mode the mode
+     * @param allow204 true to allow 204
+     * @param content the content
+     * @return the ICAP header information
+     * @throws IOException In case of an I/O error
+     * @throws ContentBlockedException In case the content is blocked
+     */
+    private ICAPHeaderInformation validateResource(ICAPClient client, ICAPMode mode, boolean allow204, byte[] content) throws IOException, ContentBlockedException {
+        ICAPRequestInformation requestInformation = new ICAPRequestInformation(ICAPRequestInformation.USER_AGENT, ICAPRequestInformation.API_VERSION, "testUser", "test", allow204);
+        return client.validateResource(mode, requestInformation, createResource(content));
+    }
+}
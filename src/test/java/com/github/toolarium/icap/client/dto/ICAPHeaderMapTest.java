@@ -0,0 +1,123 @@
+/*
+ * ICAPHeaderMapTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.dto;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.util.ICAPClientUtil;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPHeaderMap}.
+ *
+ * @author patrick
+ */
+public class ICAPHeaderMapTest {
+    private static final long THREAT_HEADER_MASK = ICAPHeaderMap.toHeaderMask(ICAPConstants.HEADER_KEY_X_VIRUS_ID, ICAPConstants.HEADER_KEY_X_INFECTION_FOUND);
+
+
+    /**
+     * Test the case-insensitive lookup
+     */
+    @Test
+    public void testCaseInsensitive() {
+        ICAPHeaderMap headers = new ICAPHeaderMap(1);
+        headers.put("Server", Arrays.asList("C-ICAP/0.5.10"));
+        headers.put("x-virus-id", Arrays.asList("Eicar-Signature"));
+        headers.put("Methods", Arrays.asList("RESPMOD"));
+        assertTrue(headers.containsKey(ICAPConstants.HEADER_KEY_X_VIRUS_ID));
+        assertEquals(Arrays.asList("Eicar-Signature"), headers.get("X-VIRUS-ID"));
+        assertEquals(Arrays.asList("C-ICAP/0.5.10"), headers.get("server"));
+        assertNull(headers.get("X-Virus-Name"));
+        assertNull(headers.get(null));
+
+        assertEquals(Arrays.asList("Eicar-Signature"), headers.put(ICAPConstants.HEADER_KEY_X_VIRUS_ID, Arrays.asList("Other")));
+        assertEquals(3, headers.size());
+        assertEquals(Arrays.asList("Server", "x-virus-id", "Methods"), new ArrayList<String>(headers.keySet()));
+        assertEquals("{Server=[C-ICAP/0.5.10], x-virus-id=[Other], Methods=[RESPMOD]}", headers.toString());
+        assertThrows(IllegalArgumentException.class, () -> headers.put(null, null));
+    }
+
+
+    /**
+     * Test the detection of well-known headers
+     */
+    @Test
+    public void testContainsAny() {
+        ICAPHeaderMap headers = new ICAPHeaderMap();
+        headers.put(ICAPConstants.HEADER_KEY_ENCAPSULATED, Arrays.asList("null-body=0"));
+        assertFalse(headers.containsAny(THREAT_HEADER_MASK));
+
+        headers.put("X-INFECTION-FOUND", Arrays.asList("Type=0", "Resolution=2", "Threat=Eicar-Signature"));
+        assertTrue(headers.containsAny(THREAT_HEADER_MASK));
+        assertTrue(headers.containsAny(ICAPHeaderMap.toHeaderMask(ICAPConstants.HEADER_KEY_ENCAPSULATED)));
+
+        headers.remove(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND);
+        assertFalse(headers.containsAny(THREAT_HEADER_MASK));
+        assertTrue(headers.containsAny(ICAPHeaderMap.toHeaderMask(ICAPConstants.HEADER_KEY_ENCAPSULATED)));
+
+        headers.clear();
+        assertFalse(headers.containsAny(ICAPHeaderMap.toHeaderMask(ICAPConstants.HEADER_KEY_ENCAPSULATED)));
+        assertThrows(IllegalArgumentException.class, () -> ICAPHeaderMap.toHeaderMask("Methods"));
+    }
+
+
+    /**
+     * Test the entry set which is backed by the map
+     */
+    @Test
+    public void testEntrySet() {
+        ICAPHeaderMap headers = new ICAPHeaderMap();
+        headers.put(ICAPConstants.HEADER_KEY_ISTAG, Arrays.asList("CI0001"));
+        headers.put(ICAPConstants.HEADER_KEY_X_BLOCKED, Arrays.asList("Virus found"));
+        headers.put(ICAPConstants.HEADER_KEY_CONNECTION, Arrays.asList("keep-alive"));
+
+        Iterator<Map.Entry<String, List<String>>> it = headers.entrySet().iterator();
+        it.next().setValue(Arrays.asList("CI0002"));
+        assertEquals(ICAPConstants.HEADER_KEY_X_BLOCKED, it.next().getKey());
+        it.remove();
+        assertEquals(ICAPConstants.HEADER_KEY_CONNECTION, it.next().getKey());
+        assertFalse(it.hasNext());
+
+        Map<String, List<String>> expected = new LinkedHashMap<String, List<String>>();
+        expected.put(ICAPConstants.HEADER_KEY_ISTAG, Arrays.asList("CI0002"));
+        expected.put(ICAPConstants.HEADER_KEY_CONNECTION, Arrays.asList("keep-alive"));
+        assertEquals(expected, headers);
+        assertEquals(headers, expected);
+        assertEquals(expected.hashCode(), headers.hashCode());
+        assertFalse(headers.containsAny(ICAPHeaderMap.toHeaderMask(ICAPConstants.HEADER_KEY_X_BLOCKED)));
+    }
+
+
+    /**
+     * Test that the header information is backed by the map and that a lowercase vendor header is found
+     */
+    @Test
+    public void testHeaderInformation() {
+        Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        headers.put("x-virus-id", Arrays.asList("Eicar-Signature"));
+        headers.put("X-Virus-ID", Arrays.asList("Other-Signature"));
+        ICAPHeaderInformation headerInformation = new ICAPHeaderInformation().setHeaders(headers);
+        assertEquals(ICAPHeaderMap.class, headerInformation.getHeaders().getClass());
+        assertEquals(1, headerInformation.getHeaders().size());
+        assertTrue(headerInformation.containsHeader(ICAPConstants.HEADER_KEY_X_VIRUS_ID));
+        assertTrue(headerInformation.containsAnyHeader(THREAT_HEADER_MASK));
+        assertEquals(Arrays.asList("Eicar-Signature", "Other-Signature"), ICAPClientUtil.getInstance().readThreatNames(headerInformation));
+
+        assertFalse(new ICAPHeaderInformation().containsAnyHeader(THREAT_HEADER_MASK));
+    }
+}
@@ -0,0 +1,190 @@
+/*
+ * ChunkedInputStreamTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ChunkedInputStream}.
+ *
+ * @author patrick
+ */
+public class ChunkedInputStreamTest {
+    private static final String ICAP_HEADER = "ICAP/1.0 200 OK\r\nISTag: \"1\"\r\nEncapsulated: res-hdr=0, res-body=46\r\n\r\n";
+    private static final String HTTP_HEADER = "HTTP/1.1 403 Forbidden\r\nContent-Length: 12\r\n\r\n";
+    private static final String CONTENT = ICAP_HEADER + HTTP_HEADER + "5\r\nHello\r\n7; ext=1\r\n, world\r\n0\r\n\r\n";
+
+
+    /**
+     * Test to read the header and the content
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testReadContent() throws IOException {
+        try (ChunkedInputStream is = new ChunkedInputStream("test", new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.US_ASCII)))) {
+            Map<String, List<String>> headers = is.readHeader();
+            assertTrue(headers.containsKey("Encapsulated"));
+            is.prepareContent(HTTP_HEADER.length(), true);
+            assertEquals("Hello, world", new String(is.readAllBytes(), StandardCharsets.US_ASCII));
+            assertTrue(is.isContentEnded());
+        }
+    }
+
+
+    /**
+     * Test to read the content byte by byte from a stream which returns single bytes
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testReadFragmented() throws IOException {
+        InputStream fragmented = new FilterInputStream(new ByteArrayInputStream(CONTENT.getBytes(StandardCharsets.US_ASCII))) {
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                return super.read(b, off, Math.min(1, len));
+            }
+        };
+
+        try (ChunkedInputStream is = new ChunkedInputStream("test", fragmented)) {
+            is.readHeader();
+            is.prepareContent(-1, true);
+            StringBuilder content = new StringBuilder();
+            int b;
+            while ((b = is.read()) != -1) {
+                content.append((char) b);
+            }
+
+            assertEquals("Hello, world", content.toString());
+            assertTrue(is.isContentEnded());
+        }
+    }
+
+
+    /**
+     * Test an invalid chunk header
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testBadChunkHeader() throws IOException {
+        String content = ICAP_HEADER + HTTP_HEADER + "5x\r\nHello\r\n0\r\n\r\n";
+        try (ChunkedInputStream is = new ChunkedInputStream("test", new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII)))) {
+            is.readHeader();
+            is.prepareContent(HTTP_HEADER.length(), true);
+            assertThrows(IOException.class, () -> is.read());
+        }
+    }
+
+
+    /**
+     * Test a chunk which is larger than 4 GB
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testLargeChunk() throws IOException {
+        final long size = (1L << 32) + 5;
+        InputStream content = new SequenceInputStream(Collections.enumeration(Arrays.asList(
+                new ByteArrayInputStream((ICAP_HEADER + HTTP_HEADER + Long.toHexString(size) + "\r\n").getBytes(StandardCharsets.US_ASCII)),
+                new SyntheticInputStream(size),
+                new ByteArrayInputStream("\r\n0\r\n\r\n".getBytes(StandardCharsets.US_ASCII)))));
+
+        try (ChunkedInputStream is = new ChunkedInputStream("test", content)) {
+            is.readHeader();
+            is.prepareContent(HTTP_HEADER.length(), true);
+
+            byte[] buffer = new byte[1024 * 1024];
+            long total = 0;
+            int readBytes;
+            while ((readBytes = is.read(buffer)) != -1) {
+                total += readBytes;
+            }
+
+            assertEquals(size, total);
+            assertTrue(is.isContentEnded());
+        }
+    }
+
+
+    /**
+     * Test a chunk size which exceeds 64 bit
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testChunkSizeTooBig() throws IOException {
+        String content = ICAP_HEADER + HTTP_HEADER + "10000000000000000\r\nHello\r\n0\r\n\r\n";
+        try (ChunkedInputStream is = new ChunkedInputStream("test", new ByteArrayInputStream(content.getBytes(StandardCharsets.US_ASCII)))) {
+            is.readHeader();
+            is.prepareContent(HTTP_HEADER.length(), true);
+            assertThrows(IOException.class, () -> is.read());
+        }
+    }
+
+
+    /**
+     * Generates a content of a given length without keeping it in memory
+     */
+    private static class SyntheticInputStream extends InputStream {
+        private long remaining;
+
+
+        /**
+         * Constructor for SyntheticInputStream
+         *
+         * @param length the length of the content
+         */
+        SyntheticInputStream(long length) {
+            this.remaining = length;
+        }
+
+
+        /**
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            remaining--;
+            return 'x';
+        }
+
+
+        /**
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int length = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + length, (byte) 'x');
+            remaining -= length;
+            return length;
+        }
+    }
+}
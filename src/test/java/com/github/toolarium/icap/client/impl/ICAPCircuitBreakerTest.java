@@ -0,0 +1,235 @@
+/*
+ * ICAPCircuitBreakerTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createResource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.exception.CircuitBreakerOpenException;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.SocketTimeoutException;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPCircuitBreaker}.
+ *
+ * @author patrick
+ */
+public class ICAPCircuitBreakerTest {
+    private static final ICAPServiceInformation SERVICE_INFORMATION = new ICAPServiceInformation("localhost", 1344, false, "srv_clamav", 3600);
+    private static final byte[] CONTENT = "This is a clean content".getBytes();
+    private static final byte[] OTHER_CONTENT = "This is another clean content".getBytes();
+
+
+    /**
+     * Test that the circuit opens as soon as the failure rate reaches the threshold
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testOpen() throws Exception {
+        ICAPCircuitBreaker circuitBreaker = new ICAPCircuitBreaker().setWindowSize(4).setMinimumNumberOfCalls(4).setFailureRateThreshold(50).setOpenDuration(60_000);
+        assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(SERVICE_INFORMATION));
+
+        circuitBreaker.acquire(SERVICE_INFORMATION).success();
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        circuitBreaker.acquire(SERVICE_INFORMATION).success();
+        assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(SERVICE_INFORMATION));
+        assertEquals(33, circuitBreaker.getFailureRate(SERVICE_INFORMATION));
+
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        assertEquals(ICAPCircuitBreaker.State.OPEN, circuitBreaker.getState(SERVICE_INFORMATION));
+        assertEquals(ICAPCircuitBreaker.State.OPEN, circuitBreaker.getStates().get(SERVICE_INFORMATION));
+
+        CircuitBreakerOpenException e = assertThrows(CircuitBreakerOpenException.class, () -> circuitBreaker.acquire(SERVICE_INFORMATION));
+        assertEquals(SERVICE_INFORMATION, e.getServiceInformation());
+        assertTrue(e.getRetryAfter() > 0);
+
+        circuitBreaker.reset();
+        assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(SERVICE_INFORMATION));
+    }
+
+
+    /**
+     * Test the sliding window: old outcomes are dropped
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testSlidingWindow() throws Exception {
+        ICAPCircuitBreaker circuitBreaker = new ICAPCircuitBreaker().setWindowSize(4).setMinimumNumberOfCalls(4).setFailureRateThreshold(75);
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        circuitBreaker.acquire(SERVICE_INFORMATION).success();
+        circuitBreaker.acquire(SERVICE_INFORMATION).success();
+        for (int i = 0; i < 20; i++) {
+            circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+            circuitBreaker.acquire(SERVICE_INFORMATION).success();
+        }
+
+        assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(SERVICE_INFORMATION));
+        assertEquals(50, circuitBreaker.getFailureRate(SERVICE_INFORMATION));
+    }
+
+
+    /**
+     * Test the half-open state
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testHalfOpen() throws Exception {
+        ICAPCircuitBreaker circuitBreaker = new ICAPCircuitBreaker().setWindowSize(2).setMinimumNumberOfCalls(2).setOpenDuration(50).setHalfOpenTrialRequests(2);
+        ICAPCircuitBreaker.Permit stalePermit = circuitBreaker.acquire(SERVICE_INFORMATION);
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        assertEquals(ICAPCircuitBreaker.State.OPEN, circuitBreaker.getState(SERVICE_INFORMATION));
+
+        Thread.sleep(60);
+        assertEquals(ICAPCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(SERVICE_INFORMATION));
+        ICAPCircuitBreaker.Permit trial1 = circuitBreaker.acquire(SERVICE_INFORMATION);
+        ICAPCircuitBreaker.Permit trial2 = circuitBreaker.acquire(SERVICE_INFORMATION);
+        assertThrows(CircuitBreakerOpenException.class, () -> circuitBreaker.acquire(SERVICE_INFORMATION));
+
+        // the outcome of a request which was permitted before the circuit opened is ignored
+        stalePermit.failure();
+        assertEquals(ICAPCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(SERVICE_INFORMATION));
+
+        // a released trial request permits another one
+        trial2.release();
+        trial2 = circuitBreaker.acquire(SERVICE_INFORMATION);
+
+        trial1.success();
+        assertEquals(ICAPCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(SERVICE_INFORMATION));
+        trial2.success();
+        trial2.failure();
+        assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(SERVICE_INFORMATION));
+
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        Thread.sleep(60);
+        circuitBreaker.acquire(SERVICE_INFORMATION).failure();
+        assertEquals(ICAPCircuitBreaker.State.OPEN, circuitBreaker.getState(SERVICE_INFORMATION));
+    }
+
+
+    /**
+     * Test that a slow request is recorded as bad
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testSlowCall() throws Exception {
+        ICAPCircuitBreaker circuitBreaker = new ICAPCircuitBreaker().setWindowSize(1).setMinimumNumberOfCalls(1).setSlowCallDurationThreshold(10);
+        circuitBreaker.acquire(SERVICE_INFORMATION).success();
+        assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(SERVICE_INFORMATION));
+
+        ICAPCircuitBreaker.Permit permit = circuitBreaker.acquire(SERVICE_INFORMATION);
+        Thread.sleep(30);
+        permit.success();
+        assertEquals(ICAPCircuitBreaker.State.OPEN, circuitBreaker.getState(SERVICE_INFORMATION));
+    }
+
+
+    /**
+     * Test that the client fails fast as long as the circuit of a hanging server is open
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testClientFailFast() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setLatency(2000).start()) {
+            ICAPServiceInformation serviceInformation = server.createServiceInformation();
+            ICAPCircuitBreaker circuitBreaker = new ICAPCircuitBreaker().setWindowSize(2).setMinimumNumberOfCalls(2).setOpenDuration(200).setHalfOpenTrialRequests(1);
+            ICAPClientImpl client = new ICAPClientImpl(new ICAPConnectionManagerImpl(), serviceInformation, null).setCircuitBreaker(circuitBreaker);
+            ICAPRequestInformation requestInformation = new ICAPRequestInformation().maxReadTimeout(100);
+
+            assertThrows(SocketTimeoutException.class, () -> client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource(CONTENT)));
+            assertThrows(SocketTimeoutException.class, () -> client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource(CONTENT)));
+            assertEquals(ICAPCircuitBreaker.State.OPEN, circuitBreaker.getState(serviceInformation));
+
+            long requestCount = server.getRequestCount();
+            assertThrows(CircuitBreakerOpenException.class, () -> client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource(CONTENT)));
+            assertEquals(requestCount, server.getRequestCount());
+
+            server.setLatency(0);
+            Thread.sleep(250);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, requestInformation, createResource(CONTENT)).getVerdict());
+            assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(serviceInformation));
+        }
+    }
+
+
+    /**
+     * Test that a cached verdict or an ignored resource is served without a permission and doesn't influence the circuit
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testCachedVerdict() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setTransferIgnore("jpg").start()) {
+            ICAPServiceInformation serviceInformation = server.createServiceInformation();
+            ICAPCircuitBreaker circuitBreaker = new ICAPCircuitBreaker().setWindowSize(2).setMinimumNumberOfCalls(2).setOpenDuration(100).setHalfOpenTrialRequests(1);
+            ICAPClientImpl client = new ICAPClientImpl(new ICAPConnectionManagerImpl(), serviceInformation, null).setCircuitBreaker(circuitBreaker).setVerdictCache(new ICAPVerdictCache());
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT)).getVerdict());
+
+            circuitBreaker.acquire(serviceInformation).failure();
+            assertEquals(ICAPCircuitBreaker.State.OPEN, circuitBreaker.getState(serviceInformation));
+
+            // served while the circuit is open
+            long requestCount = server.getRequestCount();
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT)).getVerdict());
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource("test.jpg", OTHER_CONTENT)).getVerdict());
+            assertThrows(CircuitBreakerOpenException.class, () -> client.scanResource(ICAPMode.RESPMOD, createResource("test.txt", OTHER_CONTENT)));
+            assertEquals(requestCount, server.getRequestCount());
+
+            // a cached verdict or an ignored resource is no trial request
+            Thread.sleep(150);
+            assertEquals(ICAPCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(serviceInformation));
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT)).getVerdict());
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource("test.jpg", OTHER_CONTENT)).getVerdict());
+            assertEquals(ICAPCircuitBreaker.State.HALF_OPEN, circuitBreaker.getState(serviceInformation));
+            assertEquals(requestCount, server.getRequestCount());
+
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource("test.txt", OTHER_CONTENT)).getVerdict());
+            assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(serviceInformation));
+        }
+    }
+
+
+    /**
+     * Test that a failure of the output stream of the caller is not recorded as failure of the service
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testContentOutputStreamFailure() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setVerdict(ICAPTestServer.Verdict.MODIFIED).setModifiedContent("This is the sanitized content").start()) {
+            ICAPServiceInformation serviceInformation = server.createServiceInformation();
+            ICAPCircuitBreaker circuitBreaker = new ICAPCircuitBreaker().setWindowSize(1).setMinimumNumberOfCalls(1);
+            ICAPClientImpl client = new ICAPClientImpl(new ICAPConnectionManagerImpl(), serviceInformation, null).setCircuitBreaker(circuitBreaker);
+            OutputStream contentOutputStream = new OutputStream() {
+                @Override
+                public void write(int b) throws IOException {
+                    throw new IOException("No space left on device");
+                }
+            };
+
+            IOException e = assertThrows(IOException.class, () -> client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(CONTENT), contentOutputStream));
+            assertEquals("No space left on device", e.getMessage());
+            assertEquals(ICAPCircuitBreaker.State.CLOSED, circuitBreaker.getState(serviceInformation));
+            assertEquals(0, circuitBreaker.getFailureRate(serviceInformation));
+        }
+    }
+}
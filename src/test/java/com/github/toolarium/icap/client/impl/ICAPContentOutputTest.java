@@ -0,0 +1,139 @@
+/*
+ * ICAPContentOutputTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createContent;
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createResource;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceGroup;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.ByteArrayOutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test to stream the content which is returned by the server into a caller supplied output stream or channel.
+ *
+ * @author patrick
+ */
+public class ICAPContentOutputTest {
+    private static final String MODIFIED_CONTENT = "This is the sanitized content";
+
+
+    /**
+     * Test to stream a modified content into an output stream
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testModifiedContent() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setVerdict(ICAPTestServer.Verdict.MODIFIED).setModifiedContent(MODIFIED_CONTENT).start()) {
+            ICAPClientImpl client = server.createClient();
+            client.setVerdictCache(new ICAPVerdictCache());
+            byte[] content = createContent("This is a content which needs to be sanitized", 100);
+            for (int i = 0; i < 2; i++) {
+                ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+                ICAPScanResult scanResult = client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(content), contentOutputStream);
+                assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+                assertEquals(200, scanResult.getICAPHeaderInformation().getStatus());
+                assertEquals(MODIFIED_CONTENT, new String(contentOutputStream.toByteArray(), StandardCharsets.US_ASCII));
+            }
+
+            // a cached verdict has no content
+            assertEquals(2, server.getRequestCount());
+        }
+    }
+
+
+    /**
+     * Test that nothing is written in case the server doesn't modify the resource
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testUnmodifiedContent() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().start()) {
+            ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+            byte[] content = createContent("This is a clean content", 100);
+            ICAPScanResult scanResult = server.createClient().scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(content), contentOutputStream);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(204, scanResult.getICAPHeaderInformation().getStatus());
+            assertEquals(0, contentOutputStream.size());
+        }
+    }
+
+
+    /**
+     * Test to stream a content which is larger than the response memory threshold into a channel
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testChannel() throws Exception {
+        Path file = Files.createTempFile("icap", ".bin");
+        try (ICAPTestServer server = new ICAPTestServer().start();
+             FileChannel contentChannel = FileChannel.open(file, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            ICAPClientImpl client = server.createClient();
+            client.responseMemoryThreshold(1024);
+            byte[] content = createContent("This is a clean content", 100_000);
+            ICAPScanResult scanResult = client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation().setAllow204(false), createResource(content), contentChannel);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(200, scanResult.getICAPHeaderInformation().getStatus());
+            assertArrayEquals(content, Files.readAllBytes(file));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    /**
+     * Test that the block page of a threat is not written but returned by the scan result
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testThreat() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().start()) {
+            ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+            byte[] content = createContent(ICAPTestServer.EICAR_SIGNATURE, 1);
+            ICAPScanResult scanResult = server.createClient().scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(content), contentOutputStream);
+            assertEquals(ICAPScanResult.Verdict.THREAT, scanResult.getVerdict());
+            assertEquals(0, contentOutputStream.size());
+            assertTrue(scanResult.getContent().contains(ICAPTestServer.THREAT_NAME));
+        }
+    }
+
+
+    /**
+     * Test to stream a modified content through a service group
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testServiceGroup() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setVerdict(ICAPTestServer.Verdict.MODIFIED).setModifiedContent(MODIFIED_CONTENT).start();
+             ICAPLoadBalancingClientImpl client = new ICAPLoadBalancingClientImpl(new ICAPConnectionManagerImpl(),
+                                                                                  new ICAPServiceGroup().addService(server.createServiceInformation()),
+                                                                                  null)) {
+            ByteArrayOutputStream contentOutputStream = new ByteArrayOutputStream();
+            byte[] content = createContent("This is a content which needs to be sanitized", 100);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(content), contentOutputStream).getVerdict());
+            assertEquals(MODIFIED_CONTENT, new String(contentOutputStream.toByteArray(), StandardCharsets.US_ASCII));
+        }
+    }
+
+}
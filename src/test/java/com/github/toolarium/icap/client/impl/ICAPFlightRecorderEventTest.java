@@ -0,0 +1,101 @@
+/*
+ * ICAPFlightRecorderEventTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.impl.jfr.ICAPConnectEvent;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.ByteArrayInputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the Java Flight Recorder events of the {@link ICAPClientImpl}.
+ *
+ * @author patrick
+ */
+public class ICAPFlightRecorderEventTest {
+    private static final String PREFIX = "com.github.toolarium.icap.";
+    private static final String[] EVENTS = {"Connect", "Options", "PreviewSent", "ContinueReceived", "UploadComplete", "ResponseParsed"};
+
+
+    /**
+     * Test the events of a request with a preview
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testEvents() throws Exception {
+        Path file = Files.createTempFile("icap", ".jfr");
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(16).start(); Recording recording = new Recording()) {
+            for (String name : EVENTS) {
+                recording.enable(PREFIX + name);
+            }
+            recording.start();
+
+            ICAPServiceInformation serviceInformation = server.createServiceInformation();
+            ICAPClientImpl client = new ICAPClientImpl(new ICAPConnectionManagerImpl(), serviceInformation, null);
+            byte[] content = "This is a clean content which is larger than the preview".getBytes();
+            ICAPResource resource = new ICAPResource("test.txt", new ByteArrayInputStream(content), content.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource).getVerdict());
+
+            recording.stop();
+            recording.dump(file);
+
+            Map<String, RecordedEvent> events = new LinkedHashMap<String, RecordedEvent>();
+            List<RecordedEvent> recordedEvents = RecordingFile.readAllEvents(file);
+            for (RecordedEvent event : recordedEvents) {
+                events.put(event.getEventType().getName().substring(PREFIX.length()), event);
+            }
+
+            for (String name : EVENTS) {
+                assertTrue(events.containsKey(name), name);
+                assertEquals("localhost", events.get(name).getString("host"));
+                assertEquals(server.getPort(), events.get(name).getInt("port"));
+                assertEquals(ICAPTestServer.SERVICE, events.get(name).getString("service"));
+                assertFalse(events.get(name).getDuration().isNegative());
+            }
+
+            assertNull(events.get("Options").getString("mode"));
+            assertEquals(200, events.get("Options").getInt("status"));
+            assertEquals(100, events.get("ContinueReceived").getInt("status"));
+            assertEquals(204, events.get("ResponseParsed").getInt("status"));
+            assertEquals("RESPMOD", events.get("ResponseParsed").getString("mode"));
+            assertEquals(content.length, events.get("UploadComplete").getLong("resourceLength"));
+        } finally {
+            Files.deleteIfExists(file);
+        }
+    }
+
+
+    /**
+     * Test that the events are not recorded without a recording
+     */
+    @Test
+    public void testDisabled() {
+        ICAPConnectEvent event = new ICAPConnectEvent();
+        event.begin();
+        assertFalse(event.shouldCommit());
+        event.commit("test", "localhost", 1344, ICAPTestServer.SERVICE, null, 0, 0);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * ICAPHistogramMetricsListenerTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createContent;
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createResource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPRequestMetrics;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.net.SocketTimeoutException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPHistogramMetricsListener}.
+ *
+ * @author patrick
+ */
+public class ICAPHistogramMetricsListenerTest {
+    private static final int LATENCY = 50;
+
+
+    /**
+     * Test the accuracy of the histogram percentiles
+     */
+    @Test
+    public void testHistogram() {
+        ICAPHistogramMetricsListener.Histogram histogram = new ICAPHistogramMetricsListener.Histogram();
+        assertEquals(0, histogram.getPercentile(99));
+
+        for (long i = 1; i <= 100_000; i++) {
+            histogram.record(i);
+        }
+
+        assertEquals(100_000, histogram.getCount());
+        assertEquals(100_000, histogram.getMax());
+        assertEquals(50_000.5, histogram.getMean(), 0.001);
+        assertEquals(100_000, histogram.getPercentile(100));
+        assertEquals(1, histogram.getPercentile(0));
+        for (double percentile : new double[] {1, 10, 50, 90, 99, 99.9}) {
+            long expected = (long) (percentile * 1000);
+            long value = histogram.getPercentile(percentile);
+            assertTrue(value >= expected && value <= expected * 1.0625, "p" + percentile + "=" + value);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> histogram.getPercentile(101));
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getMax());
+    }
+
+
+    /**
+     * Test the bucket boundaries
+     */
+    @Test
+    public void testBuckets() {
+        for (long value : new long[] {0, 1, 15, 16, 17, 31, 32, 33, 1000, 65535, 65536, Long.MAX_VALUE / 3, Long.MAX_VALUE}) {
+            int index = ICAPHistogramMetricsListener.Histogram.getIndex(value);
+            assertTrue(value <= ICAPHistogramMetricsListener.Histogram.getUpperBound(index), "value " + value);
+            if (index > 0) {
+                assertTrue(value > ICAPHistogramMetricsListener.Histogram.getUpperBound(index - 1), "value " + value);
+            }
+        }
+    }
+
+
+    /**
+     * Test the metrics of requests with a preview
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testRequestMetrics() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(16).setLatency(LATENCY).start()) {
+            List<ICAPRequestMetrics> metricsList = Collections.synchronizedList(new ArrayList<ICAPRequestMetrics>());
+            ICAPHistogramMetricsListener listener = new ICAPHistogramMetricsListener();
+            ICAPClientImpl client = server.createClient().setMetricsListener(metrics -> {
+                metricsList.add(metrics);
+                listener.onRequest(metrics);
+            });
+
+            byte[] content = createContent("This is a clean content", 4096);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(content)).getVerdict());
+            assertEquals(1, metricsList.size());
+
+            ICAPRequestMetrics metrics = metricsList.get(0);
+            assertEquals(ICAPMode.RESPMOD, metrics.getMode());
+            assertEquals(204, metrics.getStatus());
+            assertEquals(ICAPScanResult.Verdict.CLEAN, metrics.getVerdict());
+            assertTrue(metrics.getBytesSent() > content.length);
+            assertTrue(metrics.getBytesReceived() > 0);
+            assertTrue(metrics.getDuration(ICAPRequestMetrics.Phase.PREVIEW) > 0);
+            assertTrue(metrics.getDuration(ICAPRequestMetrics.Phase.UPLOAD) > 0);
+            assertTrue(metrics.getDuration(ICAPRequestMetrics.Phase.PROCESSING) >= LATENCY * 1_000_000L);
+            long sum = 0;
+            for (ICAPRequestMetrics.Phase phase : ICAPRequestMetrics.Phase.values()) {
+                sum += metrics.getDuration(phase);
+            }
+            assertTrue(sum <= metrics.getDuration());
+
+            byte[] threat = createContent(ICAPTestServer.EICAR_SIGNATURE, 16);
+            assertEquals(ICAPScanResult.Verdict.THREAT, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(threat)).getVerdict());
+            assertEquals(2, metricsList.size());
+            assertEquals(200, metricsList.get(1).getStatus());
+
+            assertEquals(2, listener.getTotalHistogram().getCount());
+            assertEquals(2, listener.getHistogram(ICAPRequestMetrics.Phase.PREVIEW).getCount());
+            assertTrue(listener.getHistogram(ICAPRequestMetrics.Phase.PROCESSING).getPercentile(50) >= LATENCY * 1000L);
+            assertEquals(1, listener.getVerdictCount(ICAPScanResult.Verdict.CLEAN));
+            assertEquals(1, listener.getVerdictCount(ICAPScanResult.Verdict.THREAT));
+            assertEquals(Long.valueOf(1), listener.getStatusCounts().get(204));
+            assertEquals(Long.valueOf(1), listener.getStatusCounts().get(200));
+            assertEquals(metricsList.get(0).getBytesSent() + metricsList.get(1).getBytesSent(), listener.getBytesSent());
+            assertEquals(0, listener.getFailureCount());
+            assertNotNull(listener.toString());
+
+            listener.reset();
+            assertEquals(0, listener.getTotalHistogram().getCount());
+            assertTrue(listener.getStatusCounts().isEmpty());
+        }
+    }
+
+
+    /**
+     * Test the metrics of a failed request
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testFailedRequest() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setLatency(500).start()) {
+            ICAPHistogramMetricsListener listener = new ICAPHistogramMetricsListener();
+            ICAPClientImpl client = server.createClient().setMetricsListener(listener);
+            client.options();
+
+            byte[] content = createContent("This is a clean content", 1);
+            assertThrows(SocketTimeoutException.class, () -> client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation().maxReadTimeout(50), createResource(content)));
+            assertEquals(1, listener.getFailureCount());
+            assertEquals(1, listener.getTotalHistogram().getCount());
+            assertTrue(listener.getStatusCounts().isEmpty());
+
+            client.setMetricsListener(null);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(content)).getVerdict());
+            assertEquals(1, listener.getTotalHistogram().getCount());
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * ICAPLargeResourceTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.impl.nio.ICAPEventLoop;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test to stream resources which are larger than 4 GB through the {@link ICAPClientImpl}.
+ *
+ * @author patrick
+ */
+public class ICAPLargeResourceTest {
+    private static final long RESOURCE_LENGTH = (1L << 32) + 1024 * 1024 + 7;
+
+
+    /**
+     * Test a large resource over the blocking transport
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testLargeResource() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setContentLimit(1024).start()) {
+            ICAPResource resource = new ICAPResource("large.bin", new SyntheticInputStream(RESOURCE_LENGTH), RESOURCE_LENGTH);
+            ICAPScanResult scanResult = server.createClient().scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(204, scanResult.getICAPHeaderInformation().getStatus());
+            assertEquals(RESOURCE_LENGTH, server.getContentLength());
+        }
+    }
+
+
+    /**
+     * Test a large resource over the non-blocking transport
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testLargeResourceNonBlocking() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setContentLimit(1024).start(); ICAPEventLoop eventLoop = new ICAPEventLoop(1)) {
+            ICAPResource resource = new ICAPResource("large.bin", new SyntheticInputStream(RESOURCE_LENGTH), RESOURCE_LENGTH);
+            ICAPScanResult scanResult = server.createClient().scanResourceAsync(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource, eventLoop).get();
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(RESOURCE_LENGTH, server.getContentLength());
+        }
+    }
+
+
+
+    /**
+     * Generates a content of a given length without keeping it in memory
+     */
+    private static class SyntheticInputStream extends InputStream {
+        private long remaining;
+
+
+        /**
+         * Constructor for SyntheticInputStream
+         *
+         * @param length the length of the content
+         */
+        SyntheticInputStream(long length) {
+            this.remaining = length;
+        }
+
+
+        /**
+         * @see java.io.InputStream#read()
+         */
+        @Override
+        public int read() {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            remaining--;
+            return 'x';
+        }
+
+
+        /**
+         * @see java.io.InputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) {
+            if (remaining <= 0) {
+                return -1;
+            }
+
+            int length = (int) Math.min(len, remaining);
+            Arrays.fill(b, off, off + length, (byte) 'x');
+            remaining -= length;
+            return length;
+        }
+    }
+}
@@ -0,0 +1,264 @@
+/*
+ * ICAPLoadBalancingClientTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createResource;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.ICAPClient;
+import com.github.toolarium.icap.client.ICAPClientFactory;
+import com.github.toolarium.icap.client.ICAPEndpoint;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceGroup;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPLoadBalancingClientImpl}.
+ *
+ * @author patrick
+ */
+public class ICAPLoadBalancingClientTest {
+    private static final byte[] CONTENT = "This is a clean content".getBytes();
+
+
+    /**
+     * Test the round-robin distribution
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testRoundRobin() throws Exception {
+        try (ICAPTestServer server1 = new ICAPTestServer().start(); ICAPTestServer server2 = new ICAPTestServer().start();
+             ICAPLoadBalancingClientImpl client = createClient(new ICAPServiceGroup().addService(createService(server1.getPort())).addService(createService(server2.getPort())))) {
+            for (int i = 0; i < 10; i++) {
+                assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT)).getVerdict());
+            }
+
+            assertEquals(5, server1.getRequestCount());
+            assertEquals(5, server2.getRequestCount());
+            for (ICAPEndpoint endpoint : client.getEndpoints()) {
+                assertEquals(0, endpoint.getInFlight());
+                assertTrue(endpoint.isAvailable());
+            }
+        }
+    }
+
+
+    /**
+     * Test the weighted distribution
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testWeighted() throws Exception {
+        try (ICAPTestServer server1 = new ICAPTestServer().start(); ICAPTestServer server2 = new ICAPTestServer().start();
+             ICAPLoadBalancingClientImpl client = createClient(new ICAPServiceGroup().addService(createService(server1.getPort()), 3).addService(createService(server2.getPort()), 1)
+                                                               .setLoadBalancer(new ICAPWeightedLoadBalancer()))) {
+            for (int i = 0; i < 8; i++) {
+                client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT));
+            }
+
+            assertEquals(6, server1.getRequestCount());
+            assertEquals(2, server2.getRequestCount());
+        }
+    }
+
+
+    /**
+     * Test the least in-flight selection
+     */
+    @Test
+    public void testLeastInFlight() {
+        ICAPLeastInFlightLoadBalancer loadBalancer = new ICAPLeastInFlightLoadBalancer();
+        ICAPEndpointImpl endpoint1 = new ICAPEndpointImpl(createService(1), 1);
+        ICAPEndpointImpl endpoint2 = new ICAPEndpointImpl(createService(2), 1);
+        ICAPEndpointImpl endpoint3 = new ICAPEndpointImpl(createService(3), 1);
+        List<ICAPEndpoint> endpoints = new ArrayList<ICAPEndpoint>(List.of(endpoint1, endpoint2, endpoint3));
+
+        endpoint1.start();
+        endpoint2.start();
+        endpoint2.start();
+        assertSame(endpoint3, loadBalancer.select(endpoints));
+
+        endpoint3.start();
+        endpoint3.start();
+        assertSame(endpoint1, loadBalancer.select(endpoints));
+
+        endpoint2.end();
+        endpoint3.end();
+        for (int i = 0; i < 6; i++) {
+            assertEquals(1, loadBalancer.select(endpoints).getInFlight());
+        }
+    }
+
+
+    /**
+     * Test the failover in case an endpoint can not be reached
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testFailoverConnectionRefused() throws Exception {
+        int closedPort = getClosedPort();
+        try (ICAPTestServer server = new ICAPTestServer().start();
+             ICAPLoadBalancingClientImpl client = createClient(new ICAPServiceGroup().addService(createService(closedPort)).addService(createService(server.getPort())))) {
+            for (int i = 0; i < 4; i++) {
+                assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT)).getVerdict());
+            }
+
+            assertEquals(4, server.getRequestCount());
+            assertFalse(client.getEndpoints().get(0).isAvailable());
+            assertEquals(1, client.getEndpoints().get(0).getFailures());
+            assertTrue(client.getEndpoints().get(1).isAvailable());
+
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResourceAsync(ICAPMode.RESPMOD, new ICAPRequestInformation(), createResource(CONTENT)).get().getVerdict());
+            assertEquals(5, server.getRequestCount());
+        }
+    }
+
+
+    /**
+     * Test the failover in case the connection is reset while the resource is processed
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testFailoverConnectionReset() throws Exception {
+        try (ICAPTestServer server1 = new ICAPTestServer().setConnectionReset(1).start(); ICAPTestServer server2 = new ICAPTestServer().start();
+             ICAPLoadBalancingClientImpl client = createClient(new ICAPServiceGroup().addService(createService(server1.getPort())).addService(createService(server2.getPort())))) {
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT)).getVerdict());
+            assertEquals(1, server1.getResetCount());
+            assertEquals(1, server2.getRequestCount());
+
+            // a stream which can't be rewound only fails over as long as nothing was read
+            InputStream stream = new ByteArrayInputStream(CONTENT) {
+                @Override
+                public boolean markSupported() {
+                    return false;
+                }
+            };
+
+            ((ICAPEndpointImpl) client.getEndpoints().get(0)).success();
+            assertThrows(IOException.class, () -> client.scanResource(ICAPMode.RESPMOD, new ICAPResource("test.txt", stream, CONTENT.length)));
+            assertEquals(2, server1.getResetCount());
+            assertEquals(1, server2.getRequestCount());
+        }
+    }
+
+
+    /**
+     * Test the error in case all endpoints fail
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testAllEndpointsUnavailable() throws Exception {
+        try (ICAPLoadBalancingClientImpl client = createClient(new ICAPServiceGroup().addService(createService(getClosedPort())).addService(createService(getClosedPort())))) {
+            assertThrows(ConnectException.class, () -> client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT)));
+            assertFalse(client.getEndpoints().get(0).isAvailable());
+            assertFalse(client.getEndpoints().get(1).isAvailable());
+        }
+    }
+
+
+    /**
+     * Test the recovery of an endpoint by the health check
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testHealthCheck() throws Exception {
+        int closedPort = getClosedPort();
+        try (ICAPTestServer server = new ICAPTestServer().start();
+             ICAPLoadBalancingClientImpl client = createClient(new ICAPServiceGroup().addService(createService(closedPort)).addService(createService(server.getPort()))
+                                                               .setHealthCheckInterval(50).setRetryDelay(60_000))) {
+            client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT));
+            assertFalse(client.getEndpoints().get(0).isAvailable());
+
+            try (ICAPTestServer recovered = new ICAPTestServer(closedPort).start()) {
+                long end = System.currentTimeMillis() + 5000;
+                while (!client.getEndpoints().get(0).isAvailable() && System.currentTimeMillis() < end) {
+                    Thread.sleep(10);
+                }
+
+                assertTrue(client.getEndpoints().get(0).isAvailable());
+                client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT));
+                client.scanResource(ICAPMode.RESPMOD, createResource(CONTENT));
+                assertEquals(1, recovered.getRequestCount());
+            }
+        }
+    }
+
+
+    /**
+     * Test the client of the factory
+     */
+    @Test
+    public void testFactoryClient() {
+        ICAPServiceGroup serviceGroup = new ICAPServiceGroup().addService(createService(1344)).addService(createService(1345)).setHealthCheckInterval(0);
+        ICAPClient client = ICAPClientFactory.getInstance().getICAPClient(serviceGroup);
+        assertSame(client, ICAPClientFactory.getInstance().getICAPClient(new ICAPServiceGroup().addService(createService(1344)).addService(createService(1345)).setHealthCheckInterval(0)));
+        assertNotSame(client, ICAPClientFactory.getInstance().getICAPClient(new ICAPServiceGroup().addService(createService(1344)).setHealthCheckInterval(0)));
+        assertThrows(IllegalArgumentException.class, () -> ICAPClientFactory.getInstance().getICAPClient(new ICAPServiceGroup()));
+
+        // a setting of the shared client returns a configured copy with the same endpoints
+        ICAPClient configuredClient = client.blockSize(1024);
+        assertNotSame(client, configuredClient);
+        assertSame(((ICAPLoadBalancingClientImpl) client).getEndpoints().get(0), ((ICAPLoadBalancingClientImpl) configuredClient).getEndpoints().get(0));
+    }
+
+
+    /**
+     * Create a client of a service group
+     *
+     * @param serviceGroup the service group
+     * @return the client
+     */
+    private ICAPLoadBalancingClientImpl createClient(ICAPServiceGroup serviceGroup) {
+        return new ICAPLoadBalancingClientImpl(new ICAPConnectionManagerImpl(), serviceGroup, null);
+    }
+
+
+    /**
+     * Create the service information of the test server
+     *
+     * @param port the port
+     * @return the service information
+     */
+    private ICAPServiceInformation createService(int port) {
+        return new ICAPServiceInformation("localhost", port, false, ICAPTestServer.SERVICE, 3600);
+    }
+
+
+    /**
+     * Get a port on which no server listens
+     *
+     * @return the port
+     * @throws IOException In case of an I/O error
+     */
+    private int getClosedPort() throws IOException {
+        try (ICAPTestServer server = new ICAPTestServer().start()) {
+            return server.getPort();
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * ICAPOptionsCacheTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import com.github.toolarium.icap.client.ICAPClient;
+import com.github.toolarium.icap.client.ICAPClientFactory;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.impl.dto.ICAPRemoteServiceConfigurationImpl;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPOptionsCache}.
+ *
+ * @author patrick
+ */
+public class ICAPOptionsCacheTest {
+    private static final ICAPServiceInformation SERVICE_INFORMATION = new ICAPServiceInformation("localhost", 1344, false, "srv_clamav", 3600);
+
+
+    /**
+     * Test that concurrent callers share one load
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testSingleLoad() throws Exception {
+        final ICAPOptionsCache cache = new ICAPOptionsCache();
+        final AtomicInteger loads = new AtomicInteger();
+        final ICAPOptionsCache.Loader loader = serviceInformation -> {
+            loads.incrementAndGet();
+            sleep(100);
+            return createConfiguration(null);
+        };
+
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<ICAPRemoteServiceConfiguration>> results = new ArrayList<Future<ICAPRemoteServiceConfiguration>>();
+            for (int i = 0; i < 16; i++) {
+                results.add(executor.submit(() -> cache.get(SERVICE_INFORMATION, loader)));
+            }
+
+            ICAPRemoteServiceConfiguration configuration = results.get(0).get();
+            for (Future<ICAPRemoteServiceConfiguration> result : results) {
+                assertSame(configuration, result.get());
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(1, loads.get());
+    }
+
+
+    /**
+     * Test the refresh before the Options-TTL expires
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testRefreshAhead() throws IOException {
+        ICAPOptionsCache cache = new ICAPOptionsCache();
+        AtomicInteger loads = new AtomicInteger();
+        ICAPOptionsCache.Loader loader = serviceInformation -> {
+            loads.incrementAndGet();
+            sleep(100);
+            return createConfiguration(1);
+        };
+
+        ICAPRemoteServiceConfiguration configuration = cache.get(SERVICE_INFORMATION, loader);
+        assertSame(configuration, cache.get(SERVICE_INFORMATION, loader));
+        assertEquals(1, loads.get());
+
+        // after 80% of the Options-TTL the previous configuration is returned while one refresh runs in the background
+        sleep(850);
+        for (int i = 0; i < 10; i++) {
+            assertSame(configuration, cache.get(SERVICE_INFORMATION, loader));
+        }
+
+        waitFor(() -> cache.get(SERVICE_INFORMATION, loader) != configuration);
+        assertEquals(2, loads.get());
+    }
+
+
+    /**
+     * Test that the Options-TTL takes precedence over the cache max age
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testOptionsTTL() throws IOException {
+        ICAPServiceInformation serviceInformation = new ICAPServiceInformation("localhost", 1344, false, "srv_clamav", 1);
+        ICAPOptionsCache cache = new ICAPOptionsCache(Runnable::run);
+        AtomicInteger loads = new AtomicInteger();
+
+        cache.get(serviceInformation, s -> {
+            loads.incrementAndGet();
+            return createConfiguration(3600);
+        });
+        sleep(1100);
+        cache.get(serviceInformation, s -> {
+            loads.incrementAndGet();
+            return createConfiguration(3600);
+        });
+        assertEquals(1, loads.get());
+
+        // without Options-TTL the cache max age is used
+        cache.invalidateAll();
+        cache.get(serviceInformation, s -> {
+            loads.incrementAndGet();
+            return createConfiguration(null);
+        });
+        sleep(1100);
+        cache.get(serviceInformation, s -> {
+            loads.incrementAndGet();
+            return createConfiguration(null);
+        });
+        assertEquals(3, loads.get());
+    }
+
+
+    /**
+     * Test a failing refresh
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testRefreshFailure() throws IOException {
+        ICAPOptionsCache cache = new ICAPOptionsCache(Runnable::run);
+        assertThrows(IOException.class, () -> cache.get(SERVICE_INFORMATION, s -> {
+            throw new IOException("Connection refused");
+        }));
+
+        ICAPRemoteServiceConfiguration configuration = cache.get(SERVICE_INFORMATION, s -> createConfiguration(1));
+        sleep(850);
+
+        AtomicInteger loads = new AtomicInteger();
+        ICAPOptionsCache.Loader failingLoader = s -> {
+            loads.incrementAndGet();
+            throw new IOException("Connection refused");
+        };
+
+        // the previous configuration is kept and the refresh is not retried before the retry delay
+        assertSame(configuration, cache.get(SERVICE_INFORMATION, failingLoader));
+        assertSame(configuration, cache.get(SERVICE_INFORMATION, failingLoader));
+        assertEquals(1, loads.get());
+    }
+
+
+    /**
+     * Test the cache of the factory
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testFactory() throws IOException {
+        try (ICAPTestServer server = new ICAPTestServer().start()) {
+            ICAPClientFactory.getInstance().getICAPClient("localhost", server.getPort(), ICAPTestServer.SERVICE);
+            ICAPRemoteServiceConfiguration configuration = ICAPClientFactory.getInstance().getICAPClient("localhost", server.getPort(), ICAPTestServer.SERVICE).options();
+            assertEquals(1, server.getOptionsCount());
+            assertEquals(3600, configuration.getOptionsTTL().intValue());
+        }
+    }
+
+
+    /**
+     * Test that a shared client swaps the refreshed configuration
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testClientRefresh() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setOptionsTTL(1).start()) {
+            ICAPServiceInformation serviceInformation = server.createServiceInformation();
+            ICAPClient client = new ICAPClientImpl(new ICAPConnectionManagerImpl(), serviceInformation, null).setOptionsCache(new ICAPOptionsCache());
+            ICAPRemoteServiceConfiguration configuration = client.options();
+            assertSame(configuration, client.options());
+            assertEquals(1, server.getOptionsCount());
+
+            sleep(850);
+            assertEquals(204, client.validateResource(ICAPMode.RESPMOD, new ICAPResource("test.txt", new ByteArrayInputStream(new byte[] {1, 2, 3}), 3)).getStatus());
+            waitFor(() -> client.options() != configuration);
+            assertEquals(2, server.getOptionsCount());
+        }
+    }
+
+
+    /**
+     * Test the shared client of the factory
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testFactoryClient() throws IOException {
+        try (ICAPTestServer server = new ICAPTestServer().start()) {
+            ICAPClient client = ICAPClientFactory.getInstance().getICAPClient("localhost", server.getPort(), ICAPTestServer.SERVICE);
+            assertSame(client, ICAPClientFactory.getInstance().getICAPClient("icap://localhost:" + server.getPort() + "/" + ICAPTestServer.SERVICE));
+            assertNotSame(client, ICAPClientFactory.getInstance().getICAPClient("localhost", server.getPort(), ICAPTestServer.SERVICE, false, 60));
+
+            // a setting of the shared client returns a configured copy which shares the remote service configuration
+            long optionsCount = server.getOptionsCount();
+            ICAPClient configuredClient = client.blockSize(1024).responseMemoryThreshold(0);
+            assertNotSame(client, configuredClient);
+            assertSame(configuredClient, configuredClient.blockSize(2048));
+            assertSame(client.options(), configuredClient.options());
+            assertEquals(204, configuredClient.scanResource(ICAPMode.RESPMOD, new ICAPResource("test.txt", new ByteArrayInputStream(new byte[] {1, 2, 3}), 3)).getICAPHeaderInformation().getStatus());
+            assertEquals(optionsCount, server.getOptionsCount());
+
+            // a changed setting of the factory creates new clients
+            ICAPClientFactory.getInstance().setExecutor(null);
+            assertNotSame(client, ICAPClientFactory.getInstance().getICAPClient("localhost", server.getPort(), ICAPTestServer.SERVICE));
+        }
+    }
+
+
+    /**
+     * Create a configuration
+     *
+     * @param optionsTTL the options ttl or null
+     * @return the configuration
+     */
+    private ICAPRemoteServiceConfiguration createConfiguration(Integer optionsTTL) {
+        return new ICAPRemoteServiceConfigurationImpl(Instant.now(), new ICAPMode[] {ICAPMode.REQMOD, ICAPMode.RESPMOD}, 1024, true, null, optionsTTL);
+    }
+
+
+    /**
+     * Wait until the condition is fulfilled
+     *
+     * @param condition the condition
+     * @throws IOException In case of an I/O error
+     */
+    private void waitFor(Condition condition) throws IOException {
+        long end = System.currentTimeMillis() + 5000;
+        while (!condition.isFulfilled()) {
+            if (System.currentTimeMillis() > end) {
+                throw new AssertionError("Timeout!");
+            }
+            sleep(10);
+        }
+    }
+
+
+    /**
+     * Sleep
+     *
+     * @param millis the milliseconds
+     */
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+
+    /**
+     * Defines a condition
+     */
+    private interface Condition {
+
+        /**
+         * Check the condition
+         *
+         * @return true if it is fulfilled
+         * @throws IOException In case of an I/O error
+         */
+        boolean isFulfilled() throws IOException;
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * ICAPPooledConnectionManagerImplTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPPooledConnectionManagerImpl}.
+ *
+ * @author patrick
+ */
+public class ICAPPooledConnectionManagerImplTest {
+    private static final String LOCALHOST = "localhost";
+    private ServerSocket serverSocket;
+    private ExecutorService executor;
+    private List<Socket> acceptedSockets;
+
+
+    /**
+     * Start a server which accepts connections
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @BeforeEach
+    public void startServer() throws IOException {
+        serverSocket = new ServerSocket(0);
+        acceptedSockets = new CopyOnWriteArrayList<Socket>();
+        executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            try {
+                while (!serverSocket.isClosed()) {
+                    acceptedSockets.add(serverSocket.accept());
+                }
+            } catch (IOException e) {
+                // NOP
+            }
+        });
+    }
+
+
+    /**
+     * Stop the server
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @AfterEach
+    public void stopServer() throws IOException {
+        serverSocket.close();
+        executor.shutdownNow();
+        for (Socket s : acceptedSockets) {
+            s.close();
+        }
+    }
+
+
+    /**
+     * Test reuse of a released connection
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testReuseConnection() throws IOException {
+        ICAPPooledConnectionManagerImpl connectionManager = new ICAPPooledConnectionManagerImpl();
+        assertTrue(connectionManager.isPersistentConnection());
+
+        Socket socket = connectionManager.createSocket(LOCALHOST, serverSocket.getLocalPort(), false, null, null);
+        connectionManager.releaseSocket(socket, LOCALHOST, serverSocket.getLocalPort(), false, true);
+        assertEquals(1, connectionManager.getIdleConnectionCount());
+        assertFalse(socket.isClosed());
+
+        assertSame(socket, connectionManager.createSocket(LOCALHOST, serverSocket.getLocalPort(), false, null, null));
+        assertEquals(0, connectionManager.getIdleConnectionCount());
+
+        // a not fully consumed response can not be reused
+        connectionManager.releaseSocket(socket, LOCALHOST, serverSocket.getLocalPort(), false, false);
+        assertTrue(socket.isClosed());
+        assertEquals(0, connectionManager.getIdleConnectionCount());
+    }
+
+
+    /**
+     * Test the max idle connections
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testMaxIdleConnections() throws IOException {
+        ICAPPooledConnectionManagerImpl connectionManager = new ICAPPooledConnectionManagerImpl(1, ICAPPooledConnectionManagerImpl.DEFAULT_KEEP_ALIVE_TIMEOUT);
+        Socket socket1 = connectionManager.createSocket(LOCALHOST, serverSocket.getLocalPort(), false, null, null);
+        Socket socket2 = connectionManager.createSocket(LOCALHOST, serverSocket.getLocalPort(), false, null, null);
+        assertNotSame(socket1, socket2);
+
+        connectionManager.releaseSocket(socket1, LOCALHOST, serverSocket.getLocalPort(), false, true);
+        connectionManager.releaseSocket(socket2, LOCALHOST, serverSocket.getLocalPort(), false, true);
+        assertEquals(1, connectionManager.getIdleConnectionCount());
+        assertTrue(socket1.isClosed());
+        assertFalse(socket2.isClosed());
+
+        connectionManager.setPersistentConnection(false);
+        assertEquals(0, connectionManager.getIdleConnectionCount());
+        assertTrue(socket2.isClosed());
+    }
+
+
+    /**
+     * Test expired idle connections
+     *
+     * @throws IOException In case of an I/O error
+     * @throws InterruptedException In case of an interrupt
+     */
+    @Test
+    public void testKeepAliveTimeout() throws IOException, InterruptedException {
+        ICAPPooledConnectionManagerImpl connectionManager = new ICAPPooledConnectionManagerImpl(2, 10);
+        Socket socket = connectionManager.createSocket(LOCALHOST, serverSocket.getLocalPort(), false, null, null);
+        connectionManager.releaseSocket(socket, LOCALHOST, serverSocket.getLocalPort(), false, true);
+        Thread.sleep(50);
+
+        Socket newSocket = connectionManager.createSocket(LOCALHOST, serverSocket.getLocalPort(), false, null, null);
+        assertNotSame(socket, newSocket);
+        assertTrue(socket.isClosed());
+        newSocket.close();
+    }
+}
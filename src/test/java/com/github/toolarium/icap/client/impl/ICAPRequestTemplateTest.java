@@ -0,0 +1,91 @@
+/*
+ * ICAPRequestTemplateTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.impl.dto.ICAPRemoteServiceConfigurationImpl;
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPRequestTemplate} and the template cache of the {@link ICAPClientImpl}.
+ *
+ * @author patrick
+ */
+public class ICAPRequestTemplateTest {
+    private static final ICAPServiceInformation SERVICE_INFORMATION = new ICAPServiceInformation("localhost", 1344, false, "srv_clamav", 0);
+    private static final String RESPMOD_HEAD = "RESPMOD icap://localhost:1344/srv_clamav ICAP/1.0\r\nHost: localhost\r\nUser-Agent: test\r\n";
+
+
+    /**
+     * Test the request of a resource with preview and allow 204
+     */
+    @Test
+    public void testResourceRequestWithPreview() {
+        ICAPRequestTemplate template = new ICAPRequestTemplate(ICAPMode.RESPMOD, RESPMOD_HEAD.getBytes(StandardCharsets.UTF_8));
+        String request = new String(template.createResourceRequest(true, 1024, " my doc.pdf ", "client", 4096), StandardCharsets.UTF_8);
+        String header = "GET /my+doc.pdf HTTP/1.1\r\nHost: client\r\n\r\n";
+        String body = header + "HTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Length: 4096\r\n\r\n";
+        assertEquals(RESPMOD_HEAD + "Allow: 204\r\nPreview: 1024\r\nEncapsulated: req-hdr=0, res-hdr=" + header.length() + ", res-body=" + body.length() + "\r\n\r\n" + body + "400\r\n",
+                     request);
+    }
+
+
+    /**
+     * Test the request of a resource without preview
+     */
+    @Test
+    public void testResourceRequestWithoutPreview() {
+        String head = "REQMOD icap://localhost:1344/srv_clamav ICAP/1.0\r\nHost: localhost\r\nConnection:  close\r\nUser-Agent: test\r\n";
+        ICAPRequestTemplate template = new ICAPRequestTemplate(ICAPMode.REQMOD, head.getBytes(StandardCharsets.UTF_8));
+        String request = new String(template.createResourceRequest(false, -1, "a.txt", null, 0), StandardCharsets.UTF_8);
+        String body = "GET /a.txt HTTP/1.1\r\nHost: null\r\n\r\nHTTP/1.1 200 OK\r\nTransfer-Encoding: chunked\r\nContent-Length: 0\r\n\r\n";
+        assertEquals(head + "Encapsulated: req-hdr=0, req-body=" + body.length() + "\r\n\r\n" + body, request);
+    }
+
+
+    /**
+     * Test that the templates of a client are reused as long as the request information is the same
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testTemplateCache() throws Exception {
+        ICAPClientImpl client = new ICAPClientImpl(new ICAPConnectionManagerImpl(), SERVICE_INFORMATION,
+                                                   new ICAPRemoteServiceConfigurationImpl(Instant.now(), new ICAPMode[] {ICAPMode.RESPMOD}, 1024, true, null));
+        ICAPRequestInformation requestInformation = new ICAPRequestInformation("test", "1.0", "user", "client", Boolean.FALSE);
+        byte[] options = client.createOptionsRequest(requestInformation);
+        assertEquals("OPTIONS icap://localhost:1344/srv_clamav ICAP/1.0\r\nHost: localhost\r\nUser-Agent: test\r\nEncapsulated: null-body=0\r\n\r\n", new String(options, StandardCharsets.UTF_8));
+        assertSame(options, client.createOptionsRequest(new ICAPRequestInformation("test", "1.0", "other", "other", Boolean.TRUE)));
+
+        requestInformation.addCustomHeader("X-Client", "a");
+        byte[] customOptions = client.createOptionsRequest(requestInformation);
+        assertNotSame(options, customOptions);
+        assertTrue(new String(customOptions, StandardCharsets.UTF_8).contains("X-Client: a\r\n"));
+        assertSame(customOptions, client.createOptionsRequest(requestInformation));
+
+        requestInformation.addCustomHeader("X-Client", "b");
+        assertTrue(new String(client.createOptionsRequest(requestInformation), StandardCharsets.UTF_8).contains("X-Client: b\r\n"));
+
+        byte[] content = new byte[10];
+        ICAPResource resource = new ICAPResource("test.txt", new ByteArrayInputStream(content), content.length);
+        String request = new String(client.createResourceRequest("test", ICAPMode.RESPMOD, requestInformation.setAllow204(Boolean.TRUE), client.options(), resource, 10), StandardCharsets.UTF_8);
+        assertTrue(request.startsWith("RESPMOD icap://localhost:1344/srv_clamav ICAP/1.0\r\nHost: localhost\r\nConnection:  close\r\nUser-Agent: test\r\nX-Client: b\r\nAllow: 204\r\nPreview: 10\r\n"),
+                   request);
+        assertTrue(request.endsWith("Content-Length: 10\r\n\r\na\r\n"), request);
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * ICAPResponseBufferTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPResponseBuffer}.
+ *
+ * @author patrick
+ */
+public class ICAPResponseBufferTest {
+
+    /**
+     * Test an empty buffer
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testEmpty() throws IOException {
+        ICAPResponseBuffer buffer = new ICAPResponseBuffer("test", 16);
+        buffer.close();
+        assertFalse(buffer.isSpooled());
+        assertEquals(0, buffer.getLength());
+        assertEquals(0, buffer.toByteArray().length);
+        buffer.delete();
+    }
+
+
+    /**
+     * Test a content below the memory threshold
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testInMemory() throws IOException {
+        byte[] content = "Hello, world".getBytes(StandardCharsets.US_ASCII);
+        ICAPResponseBuffer buffer = new ICAPResponseBuffer("test", content.length);
+        buffer.write(content, 0, 5);
+        buffer.write(content, 5, content.length - 5);
+        buffer.close();
+        assertFalse(buffer.isSpooled());
+        assertEquals(content.length, buffer.getLength());
+        assertArrayEquals(content, buffer.toByteArray());
+        buffer.delete();
+    }
+
+
+    /**
+     * Test a content above the memory threshold
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testSpooled() throws IOException {
+        byte[] content = new byte[100000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+
+        ICAPResponseBuffer buffer = new ICAPResponseBuffer("test", 10000);
+        buffer.write(content, 0, 9000);
+        assertFalse(buffer.isSpooled());
+        buffer.write(content[9000]);
+        buffer.write(content, 9001, content.length - 9001);
+        assertTrue(buffer.isSpooled());
+        buffer.close();
+        assertEquals(content.length, buffer.getLength());
+        assertArrayEquals(content, buffer.toByteArray());
+        buffer.delete();
+        assertFalse(buffer.isSpooled());
+        assertEquals(0, buffer.getLength());
+    }
+
+
+    /**
+     * Test an invalid memory threshold
+     */
+    @Test
+    public void testInvalidMemoryThreshold() {
+        assertThrows(IllegalArgumentException.class, () -> new ICAPResponseBuffer("test", -1));
+    }
+
+
+    /**
+     * Test a content which is forwarded to a sink
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testForwarded() throws IOException {
+        byte[] content = "Hello, world".getBytes(StandardCharsets.US_ASCII);
+        ByteArrayOutputStream sink = new ByteArrayOutputStream();
+        ICAPResponseBuffer buffer = new ICAPResponseBuffer("test", sink);
+        buffer.write(content, 0, 5);
+        buffer.write(content, 5, content.length - 5);
+        buffer.close();
+        assertTrue(buffer.isForwarded());
+        assertFalse(buffer.isSpooled());
+        assertEquals(content.length, buffer.getLength());
+        assertEquals(0, buffer.toByteArray().length);
+        assertArrayEquals(content, sink.toByteArray());
+        buffer.delete();
+
+        assertThrows(IllegalArgumentException.class, () -> new ICAPResponseBuffer("test", (OutputStream) null));
+    }
+}
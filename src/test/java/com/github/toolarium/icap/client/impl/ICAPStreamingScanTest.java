@@ -0,0 +1,264 @@
+/*
+ * ICAPStreamingScanTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createContent;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPServiceGroup;
+import com.github.toolarium.icap.client.impl.nio.ICAPEventLoop;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.ByteArrayInputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the streaming mode of the {@link ICAPClientImpl}: the resource body is handed back in case the server decides on the preview.
+ *
+ * @author patrick
+ */
+public class ICAPStreamingScanTest {
+    private static final int PREVIEW_SIZE = 16;
+    private static final byte[] CONTENT = createContent("This is a clean content", 1000);
+
+
+    /**
+     * Test that only the preview is read in case the server decides on the preview
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testPreviewDecision() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setPreviewDecision(true).start()) {
+            CountingInputStream resourceBody = new CountingInputStream(new ByteArrayInputStream(CONTENT));
+            ICAPResource resource = new ICAPResource("test.txt", resourceBody, CONTENT.length);
+            ICAPScanResult scanResult = server.createClient().scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation().setStreaming(true), resource);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(204, scanResult.getICAPHeaderInformation().getStatus());
+            assertEquals(PREVIEW_SIZE, resourceBody.getCount());
+
+            assertTrue(resource.isResourceBodyRestored());
+            assertArrayEquals(CONTENT, resource.getResourceBody().readAllBytes());
+        }
+    }
+
+
+    /**
+     * Test the streaming mode over the non-blocking transport
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testPreviewDecisionNonBlocking() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setPreviewDecision(true).start(); ICAPEventLoop eventLoop = new ICAPEventLoop(1)) {
+            ByteArrayInputStream resourceBody = new ByteArrayInputStream(CONTENT);
+            ICAPResource resource = new ICAPResource("test.txt", resourceBody, CONTENT.length);
+            ICAPScanResult scanResult = server.createClient().scanResourceAsync(ICAPMode.RESPMOD, new ICAPRequestInformation().setStreaming(true), resource, eventLoop).get();
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(CONTENT.length - PREVIEW_SIZE, resourceBody.available());
+
+            assertTrue(resource.isResourceBodyRestored());
+            assertArrayEquals(CONTENT, resource.getResourceBody().readAllBytes());
+        }
+    }
+
+
+    /**
+     * Test that the verdict cache doesn't read the whole resource in streaming mode
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testVerdictCache() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setPreviewDecision(true).start()) {
+            ICAPClientImpl client = server.createClient().setVerdictCache(new ICAPVerdictCache());
+            CountingInputStream resourceBody = new CountingInputStream(new ByteArrayInputStream(CONTENT), true);
+            ICAPResource resource = new ICAPResource("test.txt", resourceBody, CONTENT.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation().setStreaming(true), resource).getVerdict());
+            assertEquals(PREVIEW_SIZE, resourceBody.getCount());
+            assertTrue(resource.isResourceBodyRestored());
+        }
+    }
+
+
+    /**
+     * Test that a stream which is neither a file nor in memory is not read by the thread of the event loop
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testStreamNonBlocking() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setPreviewDecision(true).start(); ICAPEventLoop eventLoop = new ICAPEventLoop(1)) {
+            CountingInputStream resourceBody = new CountingInputStream(new ByteArrayInputStream(CONTENT));
+            ICAPResource resource = new ICAPResource("test.txt", resourceBody, CONTENT.length);
+            ICAPScanResult scanResult = server.createClient().scanResourceAsync(ICAPMode.RESPMOD, new ICAPRequestInformation().setStreaming(true), resource, eventLoop).get();
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(PREVIEW_SIZE, resourceBody.getCount());
+            assertFalse(resourceBody.getThreadName().startsWith("icap-event-loop"));
+
+            assertTrue(resource.isResourceBodyRestored());
+            assertArrayEquals(CONTENT, resource.getResourceBody().readAllBytes());
+        }
+    }
+
+
+    /**
+     * Test that the resource body is handed back through a service group
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testServiceGroup() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setPreviewDecision(true).start();
+             ICAPLoadBalancingClientImpl client = new ICAPLoadBalancingClientImpl(new ICAPConnectionManagerImpl(),
+                                                                                  new ICAPServiceGroup().addService(server.createServiceInformation()),
+                                                                                  null)) {
+            CountingInputStream resourceBody = new CountingInputStream(new ByteArrayInputStream(CONTENT));
+            ICAPResource resource = new ICAPResource("test.txt", resourceBody, CONTENT.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation().setStreaming(true), resource).getVerdict());
+            assertEquals(PREVIEW_SIZE, resourceBody.getCount());
+
+            assertTrue(resource.isResourceBodyRestored());
+            assertArrayEquals(CONTENT, resource.getResourceBody().readAllBytes());
+        }
+    }
+
+
+    /**
+     * Test that the resource is sent completely in case the server continues after the preview
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testContinue() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).start()) {
+            CountingInputStream resourceBody = new CountingInputStream(new ByteArrayInputStream(CONTENT));
+            ICAPResource resource = new ICAPResource("test.txt", resourceBody, CONTENT.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, server.createClient().scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation().setStreaming(true), resource).getVerdict());
+            assertEquals(CONTENT.length, resourceBody.getCount());
+            assertFalse(resource.isResourceBodyRestored());
+        }
+    }
+
+
+    /**
+     * Test that the resource body is not replaced without streaming mode
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testWithoutStreaming() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setPreviewDecision(true).start()) {
+            CountingInputStream resourceBody = new CountingInputStream(new ByteArrayInputStream(CONTENT));
+            ICAPResource resource = new ICAPResource("test.txt", resourceBody, CONTENT.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, server.createClient().scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource).getVerdict());
+            assertFalse(resource.isResourceBodyRestored());
+            assertEquals(resourceBody, resource.getResourceBody());
+            assertArrayEquals(Arrays.copyOfRange(CONTENT, PREVIEW_SIZE, CONTENT.length), resource.getResourceBody().readAllBytes());
+        }
+    }
+
+
+
+    /**
+     * Counts the read bytes of a stream which by default can't be rewound
+     */
+    private static class CountingInputStream extends FilterInputStream {
+        private final boolean markable;
+        private volatile long count;
+        private volatile String threadName;
+
+
+        /**
+         * Constructor for CountingInputStream
+         *
+         * @param in the input stream
+         */
+        CountingInputStream(InputStream in) {
+            this(in, false);
+        }
+
+
+        /**
+         * Constructor for CountingInputStream
+         *
+         * @param in the input stream
+         * @param markable true if the stream can be rewound to a mark
+         */
+        CountingInputStream(InputStream in, boolean markable) {
+            super(in);
+            this.markable = markable;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#read()
+         */
+        @Override
+        public int read() throws IOException {
+            int result = super.read();
+            threadName = Thread.currentThread().getName();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#read(byte[], int, int)
+         */
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int result = super.read(b, off, len);
+            threadName = Thread.currentThread().getName();
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+
+        /**
+         * @see java.io.FilterInputStream#markSupported()
+         */
+        @Override
+        public boolean markSupported() {
+            return markable && super.markSupported();
+        }
+
+
+        /**
+         * Get the number of read bytes
+         *
+         * @return the number of read bytes
+         */
+        long getCount() {
+            return count;
+        }
+
+
+        /**
+         * Get the name of the thread which read last
+         *
+         * @return the thread name or null
+         */
+        String getThreadName() {
+            return threadName;
+        }
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * ICAPTransferTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static com.github.toolarium.icap.client.server.ICAPTestServer.createContent;
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPRemoteServiceConfiguration;
+import com.github.toolarium.icap.client.dto.ICAPRequestInformation;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import com.github.toolarium.icap.client.dto.ICAPTransfer;
+import com.github.toolarium.icap.client.impl.dto.ICAPRemoteServiceConfigurationImpl;
+import com.github.toolarium.icap.client.impl.nio.ICAPEventLoop;
+import com.github.toolarium.icap.client.server.ICAPTestServer;
+import java.io.ByteArrayInputStream;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the Transfer-Preview, Transfer-Ignore and Transfer-Complete handling of the {@link ICAPClientImpl}.
+ *
+ * @author patrick
+ */
+public class ICAPTransferTest {
+    private static final int PREVIEW_SIZE = 16;
+
+
+    /**
+     * Test the transfer of a resource by its file extension
+     */
+    @Test
+    public void testGetTransfer() {
+        ICAPRemoteServiceConfiguration configuration = createConfiguration(Arrays.asList("*"), Arrays.asList("jpg", "GIF"), Arrays.asList("exe", "bat"));
+        assertEquals(ICAPTransfer.PREVIEW, configuration.getTransfer("test.txt"));
+        assertEquals(ICAPTransfer.PREVIEW, configuration.getTransfer("test"));
+        assertEquals(ICAPTransfer.PREVIEW, configuration.getTransfer(null));
+        assertEquals(ICAPTransfer.IGNORE, configuration.getTransfer("image.jpg"));
+        assertEquals(ICAPTransfer.IGNORE, configuration.getTransfer("image.tar.gif"));
+        assertEquals(ICAPTransfer.COMPLETE, configuration.getTransfer("setup.EXE"));
+        assertEquals(new LinkedHashSet<String>(Arrays.asList("jpg", "gif")), configuration.getTransferIgnore());
+
+        configuration = createConfiguration(Arrays.asList("txt"), Arrays.asList("jpg"), Arrays.asList("*"));
+        assertEquals(ICAPTransfer.PREVIEW, configuration.getTransfer("test.txt"));
+        assertEquals(ICAPTransfer.IGNORE, configuration.getTransfer("image.jpg"));
+        assertEquals(ICAPTransfer.COMPLETE, configuration.getTransfer("setup.exe"));
+
+        configuration = new ICAPRemoteServiceConfigurationImpl(Instant.now(), new ICAPMode[] {ICAPMode.RESPMOD}, PREVIEW_SIZE, true, null, null);
+        assertTrue(configuration.getTransferPreview().isEmpty());
+        assertEquals(ICAPTransfer.PREVIEW, configuration.getTransfer("setup.exe"));
+    }
+
+
+    /**
+     * Test that the options announce the transfer headers
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testOptions() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setTransferPreview("*").setTransferIgnore("jpg, .GIF").setTransferComplete("exe").start()) {
+            ICAPRemoteServiceConfiguration configuration = server.createClient().options();
+            assertEquals(new LinkedHashSet<String>(Arrays.asList("*")), configuration.getTransferPreview());
+            assertEquals(new LinkedHashSet<String>(Arrays.asList("jpg", "gif")), configuration.getTransferIgnore());
+            assertEquals(new LinkedHashSet<String>(Arrays.asList("exe")), configuration.getTransferComplete());
+            assertEquals(ICAPTransfer.IGNORE, configuration.getTransfer("image.gif"));
+        }
+    }
+
+
+    /**
+     * Test that an ignored resource is not sent
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testIgnore() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setTransferIgnore("jpg").start(); ICAPEventLoop eventLoop = new ICAPEventLoop(1)) {
+            ICAPClientImpl client = server.createClient();
+            byte[] content = createContent("This is a line", 100, ICAPTestServer.EICAR_SIGNATURE);
+            ICAPResource resource = new ICAPResource("image.jpg", new ByteArrayInputStream(content), content.length);
+            ICAPScanResult scanResult = client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation().setStreaming(true), resource);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+            assertEquals(204, scanResult.getICAPHeaderInformation().getStatus());
+            assertTrue(scanResult.getICAPHeaderInformation().containsHeader(ICAPConstants.HEADER_KEY_X_TRANSFER_IGNORED));
+            assertTrue(resource.isResourceBodyRestored());
+            assertArrayEquals(content, resource.getResourceBody().readAllBytes());
+
+            resource = new ICAPResource("image.jpg", new ByteArrayInputStream(content), content.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResourceAsync(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource, eventLoop).get().getVerdict());
+            assertEquals(0, server.getRequestCount());
+
+            resource = new ICAPResource("test.txt", new ByteArrayInputStream(content), content.length);
+            assertEquals(ICAPScanResult.Verdict.THREAT, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource).getVerdict());
+            assertEquals(1, server.getRequestCount());
+        }
+    }
+
+
+    /**
+     * Test that a resource is sent completely without preview
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testComplete() throws Exception {
+        try (ICAPTestServer server = new ICAPTestServer().setPreviewSize(PREVIEW_SIZE).setPreviewDecision(true).setTransferComplete("exe").start();
+             ICAPEventLoop eventLoop = new ICAPEventLoop(1)) {
+            ICAPClientImpl client = server.createClient();
+            byte[] content = createContent("This is a line", 100, ICAPTestServer.EICAR_SIGNATURE);
+
+            // the preview doesn't contain the threat and the server decides on the preview
+            ICAPResource resource = new ICAPResource("setup.txt", new ByteArrayInputStream(content), content.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource).getVerdict());
+            assertEquals(1, server.getPreviewCount());
+
+            resource = new ICAPResource("setup.exe", new ByteArrayInputStream(content), content.length);
+            assertEquals(ICAPScanResult.Verdict.THREAT, client.scanResource(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource).getVerdict());
+
+            resource = new ICAPResource("setup.exe", new ByteArrayInputStream(content), content.length);
+            assertEquals(ICAPScanResult.Verdict.THREAT, client.scanResourceAsync(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource, eventLoop).get().getVerdict());
+
+            byte[] cleanContent = createContent("This is a line", 100, "This is a clean content");
+            resource = new ICAPResource("setup.exe", new ByteArrayInputStream(cleanContent), cleanContent.length);
+            assertEquals(ICAPScanResult.Verdict.CLEAN, client.scanResourceAsync(ICAPMode.RESPMOD, new ICAPRequestInformation(), resource, eventLoop).get().getVerdict());
+            assertEquals(4, server.getRequestCount());
+            assertEquals(1, server.getPreviewCount());
+        }
+    }
+
+
+
+    /**
+     * Create a remote service configuration
+     *
+     * @param transferPreview the preview extensions
+     * @param transferIgnore the ignore extensions
+     * @param transferComplete the complete extensions
+     * @return the remote service configuration
+     */
+    private ICAPRemoteServiceConfiguration createConfiguration(List<String> transferPreview, List<String> transferIgnore, List<String> transferComplete) {
+        return new ICAPRemoteServiceConfigurationImpl(Instant.now(), new ICAPMode[] {ICAPMode.RESPMOD}, PREVIEW_SIZE, true, null, null,
+                                                      toSet(transferPreview), toSet(transferIgnore), toSet(transferComplete));
+    }
+
+
+    /**
+     * Convert a list into a set
+     *
+     * @param list the list
+     * @return the set
+     */
+    private Set<String> toSet(List<String> list) {
+        return new LinkedHashSet<String>(list);
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * ICAPVerdictCacheTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import com.github.toolarium.icap.client.dto.ICAPMode;
+import com.github.toolarium.icap.client.dto.ICAPScanResult;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPVerdictCache}.
+ *
+ * @author patrick
+ */
+public class ICAPVerdictCacheTest {
+    private static final String SERVICE = "icap://localhost:1344/srv_clamav";
+
+
+    /**
+     * Test a cached valid and blocked verdict
+     */
+    @Test
+    public void testVerdict() {
+        ICAPVerdictCache cache = new ICAPVerdictCache();
+        assertNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1"));
+
+        cache.put(SERVICE, ICAPMode.REQMOD, "1", createScanResult(204, "\"A\""));
+        cache.put(SERVICE, ICAPMode.REQMOD, "2", new ICAPScanResult(ICAPScanResult.Verdict.THREAT, Arrays.asList("Eicar-Signature"), createHeaderInformation(200, "\"A\""), "block page"));
+        assertEquals(2, cache.size());
+
+        ICAPScanResult scanResult = cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1");
+        assertEquals(ICAPScanResult.Verdict.CLEAN, scanResult.getVerdict());
+        assertEquals(204, scanResult.getICAPHeaderInformation().getStatus());
+        assertNull(cache.getScanResult(SERVICE, ICAPMode.RESPMOD, "1"));
+        assertNull(cache.getScanResult("icap://localhost:1345/srv_clamav", ICAPMode.REQMOD, "1"));
+
+        scanResult = cache.getScanResult(SERVICE, ICAPMode.REQMOD, "2");
+        assertTrue(scanResult.isBlocked());
+        assertEquals("[Eicar-Signature]", "" + scanResult.getThreatNames());
+        assertEquals("block page", scanResult.getContent());
+        assertEquals(200, scanResult.getICAPHeaderInformation().getStatus());
+    }
+
+
+    /**
+     * Test the invalidation in case the ISTag changes
+     */
+    @Test
+    public void testServiceTagChanged() {
+        ICAPVerdictCache cache = new ICAPVerdictCache();
+        cache.put(SERVICE, ICAPMode.REQMOD, "1", createScanResult(204, "\"A\""));
+        cache.updateServiceTag(SERVICE, "\"A\"");
+        assertNotNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1"));
+
+        cache.updateServiceTag(SERVICE, "\"B\"");
+        assertNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1"));
+        assertEquals(0, cache.size());
+
+        // a response without digest updates the ISTag as well
+        cache.put(SERVICE, ICAPMode.REQMOD, "1", createScanResult(204, "\"B\""));
+        cache.put(SERVICE, ICAPMode.REQMOD, null, createScanResult(204, "\"C\""));
+        assertNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1"));
+
+        // no ISTag, no verdict
+        cache.put(SERVICE, ICAPMode.REQMOD, "2", createScanResult(204, null));
+        assertNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "2"));
+    }
+
+
+    /**
+     * Test the max entries and the time to live
+     *
+     * @throws InterruptedException In case of an interrupt
+     */
+    @Test
+    public void testEviction() throws InterruptedException {
+        ICAPVerdictCache cache = new ICAPVerdictCache(2, 100);
+        cache.put(SERVICE, ICAPMode.REQMOD, "1", createScanResult(204, "\"A\""));
+        cache.put(SERVICE, ICAPMode.REQMOD, "2", createScanResult(204, "\"A\""));
+        assertNotNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1"));
+        cache.put(SERVICE, ICAPMode.REQMOD, "3", createScanResult(204, "\"A\""));
+        assertEquals(2, cache.size());
+        assertNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "2")); // least recently used
+        assertNotNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1"));
+
+        Thread.sleep(150);
+        assertNull(cache.getScanResult(SERVICE, ICAPMode.REQMOD, "1"));
+        assertThrows(IllegalArgumentException.class, () -> new ICAPVerdictCache(0, 100));
+    }
+
+
+    /**
+     * Create a clean scan result
+     *
+     * @param status the status
+     * @param serviceTag the ISTag or null
+     * @return the scan result
+     */
+    private ICAPScanResult createScanResult(int status, String serviceTag) {
+        return new ICAPScanResult(ICAPScanResult.Verdict.CLEAN, null, createHeaderInformation(status, serviceTag), null);
+    }
+
+
+    /**
+     * Create the ICAP header information
+     *
+     * @param status the status
+     * @param serviceTag the ISTag or null
+     * @return the ICAP header information
+     */
+    private ICAPHeaderInformation createHeaderInformation(int status, String serviceTag) {
+        Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        if (serviceTag != null) {
+            headers.put(ICAPConstants.HEADER_KEY_ISTAG, new ArrayList<String>(Arrays.asList(serviceTag)));
+        }
+        return new ICAPHeaderInformation().setStatus(status).setHeaders(headers);
+    }
+}
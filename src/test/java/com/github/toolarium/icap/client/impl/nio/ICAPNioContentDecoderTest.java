@@ -0,0 +1,91 @@
+/*
+ * ICAPNioContentDecoderTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.nio;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPNioContentDecoder}.
+ *
+ * @author patrick
+ */
+public class ICAPNioContentDecoderTest {
+    private static final String HTTP_HEADER = "HTTP/1.1 403 Forbidden\r\nContent-Length: 12\r\n\r\n";
+    private static final String CONTENT = HTTP_HEADER + "5\r\nHello\r\n7; ext=1\r\n, world\r\n0\r\n\r\n";
+
+
+    /**
+     * Test to decode the whole content at once
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testDecode() throws IOException {
+        ICAPNioContentDecoder decoder = new ICAPNioContentDecoder(HTTP_HEADER.length(), true);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        ByteBuffer buffer = ByteBuffer.wrap((CONTENT + "ICAP/1.0 204").getBytes(StandardCharsets.US_ASCII));
+        assertTrue(decoder.decode(buffer, outputStream));
+        assertEquals("Hello, world", outputStream.toString(StandardCharsets.US_ASCII));
+        assertEquals(12, decoder.getContentLength());
+        assertEquals("ICAP/1.0 204".length(), buffer.remaining());
+    }
+
+
+    /**
+     * Test to decode the content byte by byte
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testDecodeFragmented() throws IOException {
+        ICAPNioContentDecoder decoder = new ICAPNioContentDecoder(HTTP_HEADER.length(), true);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        byte[] content = CONTENT.getBytes(StandardCharsets.US_ASCII);
+        for (int i = 0; i < content.length; i++) {
+            assertFalse(decoder.isEnded());
+            decoder.decode(ByteBuffer.wrap(content, i, 1), outputStream);
+        }
+
+        assertTrue(decoder.isEnded());
+        assertEquals("Hello, world", outputStream.toString(StandardCharsets.US_ASCII));
+    }
+
+
+    /**
+     * Test a null-body
+     *
+     * @throws IOException In case of an I/O error
+     */
+    @Test
+    public void testNullBody() throws IOException {
+        assertTrue(new ICAPNioContentDecoder(0, false).isEnded());
+
+        ICAPNioContentDecoder decoder = new ICAPNioContentDecoder(HTTP_HEADER.length(), false);
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+        assertTrue(decoder.decode(ByteBuffer.wrap(HTTP_HEADER.getBytes(StandardCharsets.US_ASCII)), outputStream));
+        assertEquals(0, outputStream.size());
+    }
+
+
+    /**
+     * Test an invalid chunk header
+     */
+    @Test
+    public void testInvalidChunkHeader() {
+        ICAPNioContentDecoder decoder = new ICAPNioContentDecoder(0, true);
+        assertThrows(IOException.class, () -> decoder.decode(ByteBuffer.wrap("xyz\r\n".getBytes(StandardCharsets.US_ASCII)), new ByteArrayOutputStream()));
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * ICAPHeaderParserTest.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.impl.parser;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import org.junit.jupiter.api.Test;
+
+
+/**
+ * Test the {@link ICAPHeaderParser} against the {@link ICAPParser}.
+ *
+ * @author patrick
+ */
+public class ICAPHeaderParserTest {
+    private static final List<String> HEADER_LINES = Arrays.asList("ICAP/1.0 200 OK",
+                                                                   "Server: C-ICAP/0.5.10",
+                                                                   "Connection: keep-alive",
+                                                                   "ISTag: \"CI0001-2-clamav-100\"",
+                                                                   "Date: Mon, 10 Jan 2022 09:55:21 GMT",
+                                                                   "X-Infection-Found: Type=0; Resolution=2; Threat=Eicar-Signature;",
+                                                                   "X-Violations-Found: 1",
+                                                                   "\tcontinued value, second",
+                                                                   "Methods: RESPMOD, REQMOD",
+                                                                   "Allow: 204",
+                                                                   "Empty:",
+                                                                   "Separators: , a,,b , ,",
+                                                                   ": no name",
+                                                                   "X-Custom-\u00dcmlaut: Wert \u00e4",
+                                                                   "Allow: trailers",
+                                                                   "Encapsulated: res-hdr=0, res-body=108");
+
+
+    /**
+     * Test that the parsed header is the same as the header of the {@link ICAPParser}
+     */
+    @Test
+    public void testParseHeader() {
+        Map<String, List<String>> expected = ICAPParser.getInstance().parseHeader(HEADER_LINES);
+        assertEquals(expected, parse(String.join("\r\n", HEADER_LINES) + "\r\n"));
+        assertEquals(expected, parse(String.join("\n", HEADER_LINES)));
+        assertEquals(expected, parse("\r\n" + String.join("\r\n\r\n", HEADER_LINES) + "\r\n\r\n"));
+        assertEquals(new ArrayList<String>(expected.keySet()), new ArrayList<String>(parse(String.join("\n", HEADER_LINES)).keySet()));
+        assertEquals(Arrays.asList("", "a", "", "b", "", "no name"), parse(String.join("\n", HEADER_LINES)).get("Separators"));
+        assertEquals(Arrays.asList("204", "trailers"), parse(String.join("\n", HEADER_LINES)).get(ICAPConstants.HEADER_KEY_ALLOW));
+        assertEquals(0, parse("").size());
+    }
+
+
+    /**
+     * Test that the well-known header names are interned
+     */
+    @Test
+    public void testHeaderNames() {
+        Map<String, List<String>> header = parse(String.join("\n", HEADER_LINES));
+        for (String name : header.keySet()) {
+            if (name.equals(ICAPConstants.HEADER_KEY_ENCAPSULATED)) {
+                assertSame(ICAPConstants.HEADER_KEY_ENCAPSULATED, name);
+            } else if (name.equals(ICAPConstants.HEADER_KEY_ISTAG)) {
+                assertSame(ICAPConstants.HEADER_KEY_ISTAG, name);
+            } else if (name.equals(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND)) {
+                assertSame(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND, name);
+            }
+        }
+    }
+
+
+    /**
+     * Test that the values can be modified and serialized the same as the values of the {@link ICAPParser}
+     *
+     * @throws Exception In case of an error
+     */
+    @Test
+    public void testValues() throws Exception {
+        Map<String, List<String>> header = parse(String.join("\n", HEADER_LINES));
+        List<String> values = header.get("Methods");
+        values.add("OPTIONS");
+        values.remove(0);
+        assertEquals(Arrays.asList("REQMOD", "OPTIONS"), values);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream outputStream = new ObjectOutputStream(bytes)) {
+            outputStream.writeObject(new ICAPHeaderInformation().setHeaders(header));
+        }
+
+        try (ObjectInputStream inputStream = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            ICAPHeaderInformation headerInformation = (ICAPHeaderInformation) inputStream.readObject();
+            assertEquals(header, headerInformation.getHeaders());
+            assertEquals(ArrayList.class, headerInformation.getHeaderValues("Methods").getClass());
+        }
+    }
+
+
+    /**
+     * Test the parsing of the status line
+     */
+    @Test
+    public void testParseICAPHeaderInformation() {
+        for (String statusLine : Arrays.asList("ICAP/1.0 200 OK", "ICAP/1.0 204 Unmodified", "ICAP/1.0 100 ", "ICAP/1.0\t403\tForbidden, blocked", "ICAP/1x0 200 OK",
+                                               "ICAP/1.0 200", "ICAP/1.0 2000 OK", "ICAP/2.0 200 OK", "HTTP/1.0 200 OK", "ICAP/1.0 20x OK", "", "   ", null)) {
+            ICAPHeaderInformation expected = ICAPParser.getInstance().parseICAPHeaderInformation(statusLine);
+            ICAPHeaderInformation headerInformation = ICAPHeaderParser.getInstance().parseICAPHeaderInformation(statusLine);
+            assertEquals(expected.getProtocol(), headerInformation.getProtocol(), statusLine);
+            assertEquals(expected.getVersion(), headerInformation.getVersion(), statusLine);
+            assertEquals(expected.getStatus(), headerInformation.getStatus(), statusLine);
+            assertEquals(expected.getMessage(), headerInformation.getMessage(), statusLine);
+        }
+    }
+
+
+    /**
+     * Parse a raw header
+     *
+     * @param header the raw header
+     * @return the parsed header
+     */
+    private Map<String, List<String>> parse(String header) {
+        byte[] buffer = ("  " + header + "  ").getBytes(StandardCharsets.UTF_8);
+        return ICAPHeaderParser.getInstance().parseHeader(buffer, 2, buffer.length - 4);
+    }
+}
@@ -7,9 +7,18 @@ package com.github.toolarium.icap.client.util;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPHeaderInformation;
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import org.junit.jupiter.api.Test;
 
 
@@ -36,6 +45,47 @@ public class ICAPClientUtilTest {
     }
 
 
+    /**
+     * Test the message digest of the checksums
+     *
+     * @throws IOException In case of an error
+     */
+    @Test
+    public void checksumMessageDigestTest() throws IOException {
+        MessageDigest messageDigest = ICAPClientUtil.getInstance().createMessageDigest(ICAPClientUtil.CRC32C);
+        messageDigest.update("123456789".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("{CRC32C}e3069283", ICAPClientUtil.getInstance().messageDigestToString(messageDigest.getAlgorithm(), messageDigest));
+
+        // the digest resets the checksum
+        messageDigest.update("1234".getBytes(StandardCharsets.US_ASCII));
+        messageDigest.update(ByteBuffer.wrap("56789".getBytes(StandardCharsets.US_ASCII)));
+        assertEquals("{CRC32C}e3069283", ICAPClientUtil.getInstance().messageDigestToString(messageDigest.getAlgorithm(), messageDigest));
+
+        messageDigest = ICAPClientUtil.getInstance().createMessageDigest(ICAPClientUtil.CRC32);
+        messageDigest.update("123456789".getBytes(StandardCharsets.US_ASCII));
+        assertEquals("{CRC32}cbf43926", ICAPClientUtil.getInstance().messageDigestToString(messageDigest.getAlgorithm(), messageDigest));
+        assertEquals(32, ICAPClientUtil.getInstance().createMessageDigest(ICAPClientUtil.SHA_256).getDigestLength());
+    }
+
+
+    /**
+     * Test read threat names
+     */
+    @Test
+    public void readThreatNamesTest() {
+        Map<String, List<String>> headers = new LinkedHashMap<String, List<String>>();
+        assertEquals("[]", "" + ICAPClientUtil.getInstance().readThreatNames(new ICAPHeaderInformation().setHeaders(headers)));
+
+        headers.put(ICAPConstants.HEADER_KEY_X_BLOCKED, Arrays.asList("Blocked by policy"));
+        assertEquals("[Blocked by policy]", "" + ICAPClientUtil.getInstance().readThreatNames(new ICAPHeaderInformation().setHeaders(headers)));
+
+        headers.put(ICAPConstants.HEADER_KEY_X_INFECTION_FOUND, Arrays.asList("Type=0", " Resolution=2", " Threat=Eicar-Signature"));
+        headers.put(ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND, Arrays.asList("2", "-", "Eicar-Signature", "0", "0", "test.zip", "Win.Test", "0", "0"));
+        headers.put(ICAPConstants.HEADER_KEY_X_VIRUS_ID, Arrays.asList("Eicar-Test"));
+        assertEquals("[Eicar-Signature, Win.Test, Eicar-Test]", "" + ICAPClientUtil.getInstance().readThreatNames(new ICAPHeaderInformation().setHeaders(headers)));
+    }
+
+
     /**
      * Assert copy
      *
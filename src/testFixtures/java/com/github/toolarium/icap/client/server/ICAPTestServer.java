@@ -0,0 +1,885 @@
+/*
+ * ICAPTestServer.java
+ *
+ * Copyright by toolarium, all rights reserved.
+ */
+package com.github.toolarium.icap.client.server;
+
+import com.github.toolarium.icap.client.dto.ICAPConstants;
+import com.github.toolarium.icap.client.dto.ICAPResource;
+import com.github.toolarium.icap.client.dto.ICAPServiceInformation;
+import com.github.toolarium.icap.client.impl.ICAPClientImpl;
+import com.github.toolarium.icap.client.impl.ICAPConnectionManagerImpl;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Implements a lightweight embeddable ICAP server as stand-in of a real ICAP server (e.g. c-icap with ClamAV) for offline tests,
+ * load tests and benchmarks. It listens on the loopback interface and supports OPTIONS, REQMOD and RESPMOD including the preview
+ * and the 100 continue handshake.
+ *
+ * <p>The verdict of a request can be configured: unmodified (204 or an echo of the content if the client doesn't allow 204), a
+ * modified content or a threat (200 with the <code>X-Infection-Found</code> header and a block page). A content which contains
+ * the threat signature (by default the EICAR test signature) is always answered as threat. Additionally a latency can be
+ * injected before the response and connections can be reset to simulate a failing server.</p>
+ *
+ * <pre>
+ * try (ICAPTestServer server = new ICAPTestServer().setLatency(20).start()) {
+ *     ICAPClient client = ICAPClientFactory.getInstance().getICAPClient("localhost", server.getPort(), ICAPTestServer.SERVICE);
+ *     ...
+ * }
+ * </pre>
+ *
+ * @author patrick
+ */
+public class ICAPTestServer implements AutoCloseable {
+    /** The default service name */
+    public static final String SERVICE = "srv_test";
+
+    /** The default threat signature, the EICAR test signature */
+    public static final String EICAR_SIGNATURE = "EICAR-STANDARD-ANTIVIRUS-TEST-FILE";
+
+    /** The name of the threat which is reported */
+    public static final String THREAT_NAME = "Eicar-Signature";
+
+    private static final Logger LOG = LoggerFactory.getLogger(ICAPTestServer.class);
+    private static final String NEWLINE = "\r\n";
+    private static final String SERVER_NAME = "ICAPTestServer";
+    private static final int RESPONSE_CHUNK_SIZE = 8192;
+    private final Set<Socket> connections;
+    private final AtomicLong connectionCounter;
+    private final AtomicLong optionsCounter;
+    private final AtomicLong requestCounter;
+    private final AtomicLong previewCounter;
+    private final AtomicLong contentCounter;
+    private final AtomicLong resetCounter;
+    private int port;
+    private ServerSocket serverSocket;
+    private volatile boolean closed;
+    private volatile String serviceName;
+    private volatile String serviceTag;
+    private volatile int previewSize;
+    private volatile boolean previewDecision;
+    private volatile int optionsTTL;
+    private volatile String transferPreview;
+    private volatile String transferIgnore;
+    private volatile String transferComplete;
+    private volatile Verdict verdict;
+    private volatile byte[] threatSignature;
+    private volatile byte[] modifiedContent;
+    private volatile long latency;
+    private volatile int connectionReset;
+    private volatile long contentLimit;
+
+
+    /**
+     * Defines the verdict of a request
+     */
+    public enum Verdict {
+        /** The content is unmodified: 204 or an echo of the content in case the client doesn't allow 204 */
+        UNMODIFIED,
+
+        /** The content is unmodified and echoed with 200 */
+        ECHO,
+
+        /** The content is replaced by the modified content */
+        MODIFIED,
+
+        /** A threat is found: 200 with the X-Infection-Found and X-Violations-Found header and a block page */
+        THREAT
+    }
+
+
+    /**
+     * Constructor for ICAPTestServer, the server listens on a free port.
+     */
+    public ICAPTestServer() {
+        this(0);
+    }
+
+
+    /**
+     * Constructor for ICAPTestServer
+     *
+     * @param port the port or 0 to use a free port
+     */
+    public ICAPTestServer(int port) {
+        this.port = port;
+        this.connections = ConcurrentHashMap.newKeySet();
+        this.connectionCounter = new AtomicLong();
+        this.optionsCounter = new AtomicLong();
+        this.requestCounter = new AtomicLong();
+        this.previewCounter = new AtomicLong();
+        this.contentCounter = new AtomicLong();
+        this.resetCounter = new AtomicLong();
+        this.serverSocket = null;
+        this.closed = false;
+        this.serviceName = SERVICE;
+        this.serviceTag = "\"TEST-1\"";
+        this.previewSize = 1024;
+        this.previewDecision = false;
+        this.optionsTTL = 3600;
+        this.transferPreview = "*";
+        this.transferIgnore = null;
+        this.transferComplete = null;
+        this.verdict = Verdict.UNMODIFIED;
+        this.threatSignature = EICAR_SIGNATURE.getBytes(StandardCharsets.US_ASCII);
+        this.modifiedContent = "modified".getBytes(StandardCharsets.US_ASCII);
+        this.latency = 0;
+        this.connectionReset = 0;
+        this.contentLimit = 64L * 1024 * 1024;
+    }
+
+
+    /**
+     * Start the server
+     *
+     * @return the server
+     * @throws IOException In case the server socket could not be opened
+     */
+    public ICAPTestServer start() throws IOException {
+        if (serverSocket != null) {
+            throw new IOException("Server is already started!");
+        }
+
+        serverSocket = new ServerSocket(port, 1000, InetAddress.getLoopbackAddress());
+        port = serverSocket.getLocalPort();
+
+        Thread acceptor = new Thread(this::accept, "icap-test-server-" + port);
+        acceptor.setDaemon(true);
+        acceptor.start();
+        LOG.debug("ICAP test server started on port " + port + ".");
+        return this;
+    }
+
+
+    /**
+     * Get the port
+     *
+     * @return the port
+     */
+    public int getPort() {
+        return port;
+    }
+
+
+    /**
+     * Create the service information of the server
+     *
+     * @return the service information
+     */
+    public ICAPServiceInformation createServiceInformation() {
+        return new ICAPServiceInformation("localhost", port, false, serviceName, 3600);
+    }
+
+
+    /**
+     * Create a client of the server with its own connection manager
+     *
+     * @return the client
+     */
+    public ICAPClientImpl createClient() {
+        return new ICAPClientImpl(new ICAPConnectionManagerImpl(), createServiceInformation(), null);
+    }
+
+
+    /**
+     * Create a content which repeats the given text line by line
+     *
+     * @param text the text of a line
+     * @param count the number of lines
+     * @return the content
+     */
+    public static byte[] createContent(String text, int count) {
+        return createContent(text, count, "");
+    }
+
+
+    /**
+     * Create a content which repeats the given text line by line and ends with the given end text, e.g. a threat signature
+     * behind the preview
+     *
+     * @param text the text of a line
+     * @param count the number of lines
+     * @param end the text at the end of the content
+     * @return the content
+     */
+    public static byte[] createContent(String text, int count, String end) {
+        StringBuilder content = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            content.append(text).append("\n");
+        }
+        return content.append(end).toString().getBytes(StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Create an in memory resource with the name <code>test.txt</code>
+     *
+     * @param content the content
+     * @return the resource
+     */
+    public static ICAPResource createResource(byte[] content) {
+        return createResource("test.txt", content);
+    }
+
+
+    /**
+     * Create an in memory resource
+     *
+     * @param name the name
+     * @param content the content
+     * @return the resource
+     */
+    public static ICAPResource createResource(String name, byte[] content) {
+        return new ICAPResource(name, new ByteArrayInputStream(content), content.length);
+    }
+
+
+    /**
+     * Set the service name. Requests to another service are answered with 404.
+     *
+     * @param serviceName the service name
+     * @return the server
+     */
+    public ICAPTestServer setServiceName(String serviceName) {
+        this.serviceName = serviceName;
+        return this;
+    }
+
+
+    /**
+     * Set the ISTag of the service, e.g. to simulate a signature update.
+     *
+     * @param serviceTag the ISTag
+     * @return the server
+     */
+    public ICAPTestServer setServiceTag(String serviceTag) {
+        this.serviceTag = serviceTag;
+        return this;
+    }
+
+
+    /**
+     * Set the preview size which is announced by OPTIONS
+     *
+     * @param previewSize the preview size
+     * @return the server
+     */
+    public ICAPTestServer setPreviewSize(int previewSize) {
+        this.previewSize = previewSize;
+        return this;
+    }
+
+
+    /**
+     * Set if the server decides on the preview: the verdict is taken on the preview and the response is sent instead of the
+     * 100 continue, the remaining part of the content is not requested.
+     *
+     * @param previewDecision true to decide on the preview
+     * @return the server
+     */
+    public ICAPTestServer setPreviewDecision(boolean previewDecision) {
+        this.previewDecision = previewDecision;
+        return this;
+    }
+
+
+    /**
+     * Set the time to live of the options which is announced by OPTIONS (Options-TTL)
+     *
+     * @param optionsTTL the time to live in seconds
+     * @return the server
+     */
+    public ICAPTestServer setOptionsTTL(int optionsTTL) {
+        this.optionsTTL = optionsTTL;
+        return this;
+    }
+
+
+    /**
+     * Set the file extensions of which a preview is requested, announced by OPTIONS (Transfer-Preview)
+     *
+     * @param transferPreview the comma separated file extensions or null
+     * @return the server
+     */
+    public ICAPTestServer setTransferPreview(String transferPreview) {
+        this.transferPreview = transferPreview;
+        return this;
+    }
+
+
+    /**
+     * Set the file extensions which should not be sent, announced by OPTIONS (Transfer-Ignore)
+     *
+     * @param transferIgnore the comma separated file extensions or null
+     * @return the server
+     */
+    public ICAPTestServer setTransferIgnore(String transferIgnore) {
+        this.transferIgnore = transferIgnore;
+        return this;
+    }
+
+
+    /**
+     * Set the file extensions which should be sent completely, announced by OPTIONS (Transfer-Complete)
+     *
+     * @param transferComplete the comma separated file extensions or null
+     * @return the server
+     */
+    public ICAPTestServer setTransferComplete(String transferComplete) {
+        this.transferComplete = transferComplete;
+        return this;
+    }
+
+
+    /**
+     * Set the verdict of the requests
+     *
+     * @param verdict the verdict
+     * @return the server
+     */
+    public ICAPTestServer setVerdict(Verdict verdict) {
+        this.verdict = verdict;
+        return this;
+    }
+
+
+    /**
+     * Set the threat signature: a content which contains the signature is answered as threat.
+     *
+     * @param threatSignature the threat signature or null to detect no threats
+     * @return the server
+     */
+    public ICAPTestServer setThreatSignature(String threatSignature) {
+        if (threatSignature == null || threatSignature.isEmpty()) {
+            this.threatSignature = null;
+        } else {
+            this.threatSignature = threatSignature.getBytes(StandardCharsets.UTF_8);
+        }
+        return this;
+    }
+
+
+    /**
+     * Set the content which is returned in case of the verdict {@link Verdict#MODIFIED}.
+     *
+     * @param modifiedContent the modified content
+     * @return the server
+     */
+    public ICAPTestServer setModifiedContent(String modifiedContent) {
+        this.modifiedContent = modifiedContent.getBytes(StandardCharsets.UTF_8);
+        return this;
+    }
+
+
+    /**
+     * Set the latency which is injected before a REQMOD or RESPMOD request is answered
+     *
+     * @param latency the latency in milliseconds
+     * @return the server
+     */
+    public ICAPTestServer setLatency(long latency) {
+        this.latency = latency;
+        return this;
+    }
+
+
+    /**
+     * Reset the connection of every n-th REQMOD or RESPMOD request instead of answering it
+     *
+     * @param connectionReset the n-th request which is reset or 0 to reset none
+     * @return the server
+     */
+    public ICAPTestServer setConnectionReset(int connectionReset) {
+        this.connectionReset = connectionReset;
+        return this;
+    }
+
+
+    /**
+     * Set the max length of the content which is kept of a request. The remaining content is read but not kept, it is not
+     * scanned for the threat signature and not returned in a modified response.
+     *
+     * @param contentLimit the max length of the kept content
+     * @return the server
+     */
+    public ICAPTestServer setContentLimit(long contentLimit) {
+        this.contentLimit = contentLimit;
+        return this;
+    }
+
+
+    /**
+     * Get the number of accepted connections
+     *
+     * @return the number of accepted connections
+     */
+    public long getConnectionCount() {
+        return connectionCounter.get();
+    }
+
+
+    /**
+     * Get the number of OPTIONS requests
+     *
+     * @return the number of OPTIONS requests
+     */
+    public long getOptionsCount() {
+        return optionsCounter.get();
+    }
+
+
+    /**
+     * Get the number of REQMOD and RESPMOD requests
+     *
+     * @return the number of REQMOD and RESPMOD requests
+     */
+    public long getRequestCount() {
+        return requestCounter.get();
+    }
+
+
+    /**
+     * Get the number of REQMOD and RESPMOD requests with a preview
+     *
+     * @return the number of requests with a preview
+     */
+    public long getPreviewCount() {
+        return previewCounter.get();
+    }
+
+
+    /**
+     * Get the number of received content bytes of all REQMOD and RESPMOD requests
+     *
+     * @return the number of received content bytes
+     */
+    public long getContentLength() {
+        return contentCounter.get();
+    }
+
+
+    /**
+     * Get the number of reset connections
+     *
+     * @return the number of reset connections
+     */
+    public long getResetCount() {
+        return resetCounter.get();
+    }
+
+
+    /**
+     * @see java.lang.AutoCloseable#close()
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        if (serverSocket != null) {
+            serverSocket.close();
+        }
+
+        for (Socket socket : connections) {
+            socket.close();
+        }
+    }
+
+
+    /**
+     * Accept the connections
+     */
+    private void accept() {
+        while (!closed) {
+            try {
+                final Socket socket = serverSocket.accept();
+                socket.setTcpNoDelay(true);
+                connections.add(socket);
+                connectionCounter.incrementAndGet();
+
+                Thread handler = new Thread(() -> handle(socket), "icap-test-server-connection");
+                handler.setDaemon(true);
+                handler.start();
+            } catch (IOException e) {
+                if (!closed) {
+                    LOG.warn("Could not accept connection: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+
+    /**
+     * Handle the requests of a connection
+     *
+     * @param socket the socket
+     */
+    private void handle(Socket socket) {
+        try (InputStream in = new BufferedInputStream(socket.getInputStream()); OutputStream out = new BufferedOutputStream(socket.getOutputStream())) {
+            List<String> header;
+            while ((header = readHeader(in)) != null) {
+                boolean keepAlive = !"close".equalsIgnoreCase(getHeaderValue(header, ICAPConstants.HEADER_KEY_CONNECTION));
+                String[] requestLine = header.get(0).split(" ");
+                if (requestLine.length < 3) {
+                    write(out, "ICAP/1.0 400 Bad Request" + NEWLINE + createHeader(false) + NEWLINE);
+                    break;
+                }
+
+                String method = requestLine[0];
+                if (serviceName != null && !requestLine[1].endsWith("/" + serviceName)) {
+                    if (!"OPTIONS".equals(method)) {
+                        readContent(in, out, header);
+                    }
+                    write(out, "ICAP/1.0 404 ICAP Service not found" + NEWLINE + createHeader(keepAlive) + NEWLINE);
+                } else if ("OPTIONS".equals(method)) {
+                    optionsCounter.incrementAndGet();
+                    write(out, "ICAP/1.0 200 OK" + NEWLINE
+                               + "Methods: RESPMOD, REQMOD" + NEWLINE
+                               + createHeader(keepAlive)
+                               + "Service: " + SERVER_NAME + NEWLINE
+                               + ICAPConstants.HEADER_KEY_OPTIONS_TTL + ": " + optionsTTL + NEWLINE
+                               + ICAPConstants.HEADER_KEY_PREVIEW + ": " + previewSize + NEWLINE
+                               + createTransferHeader(ICAPConstants.HEADER_KEY_TRANSFER_PREVIEW, transferPreview)
+                               + createTransferHeader(ICAPConstants.HEADER_KEY_TRANSFER_IGNORE, transferIgnore)
+                               + createTransferHeader(ICAPConstants.HEADER_KEY_TRANSFER_COMPLETE, transferComplete)
+                               + ICAPConstants.HEADER_KEY_ALLOW + ": 204" + NEWLINE
+                               + ICAPConstants.HEADER_KEY_ENCAPSULATED + ": null-body=0" + NEWLINE + NEWLINE);
+                } else if ("REQMOD".equals(method) || "RESPMOD".equals(method)) {
+                    long request = requestCounter.incrementAndGet();
+                    byte[] content = readContent(in, out, header);
+                    if (connectionReset > 0 && request % connectionReset == 0) {
+                        resetCounter.incrementAndGet();
+                        socket.setSoLinger(true, 0);
+                        break;
+                    }
+
+                    if (latency > 0) {
+                        Thread.sleep(latency);
+                    }
+
+                    writeResponse(out, header, content, keepAlive);
+                } else {
+                    write(out, "ICAP/1.0 405 Method not allowed" + NEWLINE + createHeader(false) + NEWLINE);
+                    break;
+                }
+
+                out.flush();
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // connection is closed
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            connections.remove(socket);
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // NOP
+            }
+        }
+    }
+
+
+    /**
+     * Write the response of a REQMOD or RESPMOD request
+     *
+     * @param out the output stream
+     * @param header the ICAP header of the request
+     * @param content the content of the request
+     * @param keepAlive true to keep the connection open
+     * @throws IOException In case of an I/O error
+     */
+    private void writeResponse(OutputStream out, List<String> header, byte[] content, boolean keepAlive) throws IOException {
+        Verdict responseVerdict = verdict;
+        if (containsThreat(content)) {
+            responseVerdict = Verdict.THREAT;
+        }
+
+        switch (responseVerdict) {
+            case THREAT:
+                byte[] blockPage = ("<html><body><h1>Virus found</h1><p>The content is blocked, threat " + THREAT_NAME + " found.</p></body></html>").getBytes(StandardCharsets.US_ASCII);
+                writeContent(out, "HTTP/1.1 403 Forbidden", ICAPConstants.HEADER_KEY_X_INFECTION_FOUND + ": Type=0; Resolution=2; Threat=" + THREAT_NAME + ";" + NEWLINE
+                                                               + ICAPConstants.HEADER_KEY_X_VIOLATIONS_FOUND + ": 1" + NEWLINE, blockPage, keepAlive);
+                break;
+            case MODIFIED:
+                writeContent(out, "HTTP/1.1 200 OK", "", modifiedContent, keepAlive);
+                break;
+            case UNMODIFIED:
+                if (getHeaderValue(header, ICAPConstants.HEADER_KEY_ALLOW).contains("204")) {
+                    write(out, "ICAP/1.0 204 Unmodified" + NEWLINE + createHeader(keepAlive) + NEWLINE);
+                } else {
+                    writeContent(out, "HTTP/1.1 200 OK", "", content, keepAlive);
+                }
+                break;
+            default:
+                writeContent(out, "HTTP/1.1 200 OK", "", content, keepAlive);
+                break;
+        }
+    }
+
+
+    /**
+     * Write a 200 response with an encapsulated http response
+     *
+     * @param out the output stream
+     * @param httpStatusLine the http status line
+     * @param additionalHeader the additional ICAP header lines
+     * @param content the content
+     * @param keepAlive true to keep the connection open
+     * @throws IOException In case of an I/O error
+     */
+    private void writeContent(OutputStream out, String httpStatusLine, String additionalHeader, byte[] content, boolean keepAlive) throws IOException {
+        String httpHeader = httpStatusLine + NEWLINE + ICAPConstants.HEADER_KEY_CONTENT_LENGTH + ": " + content.length + NEWLINE + NEWLINE;
+        write(out, "ICAP/1.0 200 OK" + NEWLINE
+                   + createHeader(keepAlive)
+                   + additionalHeader
+                   + ICAPConstants.HEADER_KEY_ENCAPSULATED + ": res-hdr=0, res-body=" + httpHeader.length() + NEWLINE + NEWLINE
+                   + httpHeader);
+
+        for (int offset = 0; offset < content.length; offset += RESPONSE_CHUNK_SIZE) {
+            int length = Math.min(RESPONSE_CHUNK_SIZE, content.length - offset);
+            write(out, Integer.toHexString(length) + NEWLINE);
+            out.write(content, offset, length);
+            write(out, NEWLINE);
+        }
+        write(out, "0" + NEWLINE + NEWLINE);
+    }
+
+
+    /**
+     * Create a transfer header line of the OPTIONS response
+     *
+     * @param name the header name
+     * @param value the comma separated file extensions or null
+     * @return the header line or an empty string if there is no value
+     */
+    private String createTransferHeader(String name, String value) {
+        if (value == null) {
+            return "";
+        }
+
+        return name + ": " + value + NEWLINE;
+    }
+
+
+    /**
+     * Create the common header lines of a response
+     *
+     * @param keepAlive true to keep the connection open
+     * @return the header lines
+     */
+    private String createHeader(boolean keepAlive) {
+        String connection = "close";
+        if (keepAlive) {
+            connection = "keep-alive";
+        }
+
+        String header = ICAPConstants.HEADER_KEY_SERVER + ": " + SERVER_NAME + NEWLINE + ICAPConstants.HEADER_KEY_CONNECTION + ": " + connection + NEWLINE;
+        if (serviceTag != null) {
+            header += ICAPConstants.HEADER_KEY_ISTAG + ": " + serviceTag + NEWLINE;
+        }
+        return header;
+    }
+
+
+    /**
+     * Read the content of a request: the encapsulated http headers are skipped and the chunks are read until the last chunk.
+     * In case of a preview which is not the whole content the server requests the rest by 100 continue, unless it decides on
+     * the preview.
+     *
+     * @param in the input stream
+     * @param out the output stream
+     * @param header the ICAP header
+     * @return the content up to the content limit
+     * @throws IOException In case of an I/O error
+     */
+    private byte[] readContent(InputStream in, OutputStream out, List<String> header) throws IOException {
+        String encapsulated = getHeaderValue(header, ICAPConstants.HEADER_KEY_ENCAPSULATED);
+        if (encapsulated.isEmpty() || encapsulated.contains("null-body")) {
+            return new byte[0];
+        }
+
+        int bodyOffset = Integer.parseInt(encapsulated.substring(encapsulated.lastIndexOf('=') + 1).trim());
+        if (in.readNBytes(bodyOffset).length != bodyOffset) {
+            throw new IOException("Unexpected end of stream!");
+        }
+
+        boolean preview = !getHeaderValue(header, ICAPConstants.HEADER_KEY_PREVIEW).isEmpty();
+        if (preview) {
+            previewCounter.incrementAndGet();
+        }
+
+        ByteArrayOutputStream content = new ByteArrayOutputStream();
+        byte[] buffer = new byte[RESPONSE_CHUNK_SIZE];
+        while (true) {
+            String chunkHeader = readLine(in);
+            if (chunkHeader == null) {
+                throw new IOException("Unexpected end of stream!");
+            }
+
+            int idx = chunkHeader.indexOf(';');
+            String chunkSize = chunkHeader;
+            if (idx >= 0) {
+                chunkSize = chunkHeader.substring(0, idx);
+            }
+
+            long size = Long.parseLong(chunkSize.trim(), 16);
+            if (size == 0) {
+                readLine(in);
+                if (preview && !chunkHeader.contains("ieof")) {
+                    preview = false;
+                    if (previewDecision) {
+                        return content.toByteArray();
+                    }
+
+                    write(out, "ICAP/1.0 100 Continue" + NEWLINE + NEWLINE);
+                    out.flush();
+                    continue;
+                }
+
+                return content.toByteArray();
+            }
+
+            long remaining = size;
+            while (remaining > 0) {
+                int length = (int) Math.min(buffer.length, remaining);
+                if (in.readNBytes(buffer, 0, length) != length) {
+                    throw new IOException("Unexpected end of stream!");
+                }
+
+                if (content.size() < contentLimit) {
+                    content.write(buffer, 0, (int) Math.min(length, contentLimit - content.size()));
+                }
+                remaining -= length;
+            }
+
+            contentCounter.addAndGet(size);
+            readLine(in);
+        }
+    }
+
+
+    /**
+     * Check if the content contains the threat signature
+     *
+     * @param content the content
+     * @return true if the content contains the threat signature
+     */
+    private boolean containsThreat(byte[] content) {
+        byte[] signature = threatSignature;
+        if (signature == null) {
+            return false;
+        }
+
+        for (int i = 0; i <= content.length - signature.length; i++) {
+            int j = 0;
+            while (j < signature.length && content[i + j] == signature[j]) {
+                j++;
+            }
+
+            if (j == signature.length) {
+                return true;
+            }
+        }
+
+        return false;
+    }
+
+
+    /**
+     * Read the header lines until the empty line
+     *
+     * @param in the input stream
+     * @return the header lines or null in case the stream has ended
+     * @throws IOException In case of an I/O error
+     */
+    private List<String> readHeader(InputStream in) throws IOException {
+        List<String> header = new ArrayList<String>();
+        String line;
+        while ((line = readLine(in)) != null && !line.isEmpty()) {
+            header.add(line);
+        }
+
+        if (header.isEmpty()) {
+            return null;
+        }
+
+        return header;
+    }
+
+
+    /**
+     * Read a line
+     *
+     * @param in the input stream
+     * @return the line or null in case the stream has ended
+     * @throws IOException In case of an I/O error
+     */
+    private String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream();
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (b != '\r') {
+                line.write(b);
+            }
+        }
+
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+
+        return line.toString(StandardCharsets.US_ASCII);
+    }
+
+
+    /**
+     * Get a header value
+     *
+     * @param header the header lines
+     * @param name the name of the header
+     * @return the value or an empty string
+     */
+    private String getHeaderValue(List<String> header, String name) {
+        for (int i = 1; i < header.size(); i++) {
+            String line = header.get(i);
+            int idx = line.indexOf(':');
+            if (idx > 0 && line.substring(0, idx).trim().equalsIgnoreCase(name)) {
+                return line.substring(idx + 1).trim();
+            }
+        }
+
+        return "";
+    }
+
+
+    /**
+     * Write a string
+     *
+     * @param out the output stream
+     * @param content the content
+     * @throws IOException In case of an I/O error
+     */
+    private void write(OutputStream out, String content) throws IOException {
+        out.write(content.getBytes(StandardCharsets.US_ASCII));
+    }
+}